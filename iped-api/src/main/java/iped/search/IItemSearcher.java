@@ -6,9 +6,14 @@
 package iped.search;
 
 import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import iped.data.IItemReader;
+import iped.properties.BasicProps;
 
 /**
  *
@@ -22,4 +27,46 @@ public interface IItemSearcher extends Closeable {
 
     String escapeQuery(String string);
 
+    /**
+     * Searches items by their full paths, ignoring case, in a single call.
+     * Implementations may answer all paths from an in memory lookup, without
+     * parsing a query for each one.
+     *
+     * @return items found for each path, paths without items are not included.
+     */
+    default Map<String, List<IItemReader>> searchByPaths(Collection<String> paths) {
+        return searchByField(BasicProps.PATH, paths);
+    }
+
+    /**
+     * Searches items by their full names, ignoring case, in a single call.
+     * Implementations may answer all names from an in memory lookup, without
+     * parsing a query for each one.
+     *
+     * @return items found for each name, names without items are not included.
+     */
+    default Map<String, List<IItemReader>> searchByNames(Collection<String> names) {
+        return searchByField(BasicProps.NAME, names);
+    }
+
+    private Map<String, List<IItemReader>> searchByField(String field, Collection<String> values) {
+        Map<String, List<IItemReader>> result = new LinkedHashMap<>();
+        for (String value : values) {
+            if (value == null || result.containsKey(value)) {
+                continue;
+            }
+            List<IItemReader> items = new ArrayList<>();
+            for (IItemReader item : searchIterable(field + ":\"" + escapeQuery(value) + "\"")) {
+                // phrase queries also match values containing the searched one
+                if (value.equalsIgnoreCase(BasicProps.PATH.equals(field) ? item.getPath() : item.getName())) {
+                    items.add(item);
+                }
+            }
+            if (!items.isEmpty()) {
+                result.put(value, items);
+            }
+        }
+        return result;
+    }
+
 }
@@ -41,6 +41,7 @@
 import java.util.HashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -56,6 +57,7 @@
 import iped.app.ui.AppMain;
 import iped.data.IItem;
 import iped.engine.Version;
+import iped.engine.core.ProcessingMetrics;
 import iped.engine.core.Statistics;
 import iped.engine.core.Worker;
 import iped.engine.core.Worker.STATE;
@@ -64,6 +66,7 @@
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.ParsingTask;
 import iped.engine.task.carver.BaseCarveTask;
+import iped.engine.util.LatencyHistogram;
 import iped.engine.util.UIPropertyListenerProvider;
 import iped.engine.util.Util;
 import iped.parsers.standard.StandardParser;
@@ -357,7 +360,7 @@ private String getTaskTimes() {
         }
         StringBuilder msg = new StringBuilder();
         startTable(msg);
-        addTitle(msg, 3, Messages.getString("ProgressFrame.TaskTimes"));
+        addTitle(msg, 5, Messages.getString("ProgressFrame.TaskTimes"));
 
         long totalTime = 0;
         long[] taskTimes = new long[workers[0].tasks.size()];
@@ -380,11 +383,13 @@ private String getTaskTimes() {
 
                 startRow(msg, task.getName(), pct);
                 addCell(msg, nf.format(sec) + "s", Align.RIGHT);
-                finishRow(msg, pct + "%", Align.RIGHT);
+                addCell(msg, pct + "%", Align.RIGHT);
+                addPercentiles(msg, ProcessingMetrics.get().getTaskLatency(task.getName()));
             } else {
                 startRow(msg, task.getName(), false);
                 addCell(msg, "-", Align.CENTER);
-                finishRow(msg, "-", Align.CENTER);
+                addCell(msg, "-", Align.CENTER);
+                addPercentiles(msg, null);
             }
         }
 
@@ -398,7 +403,7 @@ private String getParserTimes() {
             return "";
         StringBuilder msg = new StringBuilder();
         startTable(msg);
-        addTitle(msg, 3, Messages.getString("ProgressFrame.ParserTimes"));
+        addTitle(msg, 5, Messages.getString("ProgressFrame.ParserTimes"));
 
         long totalTime = 0;
         for (long parserTime : timesPerParser.values()) {
@@ -414,13 +419,36 @@ private String getParserTimes() {
 
             startRow(msg, parserName, pct);
             addCell(msg, nf.format(sec) + "s", Align.RIGHT);
-            finishRow(msg, pct + "%", Align.RIGHT);
+            addCell(msg, pct + "%", Align.RIGHT);
+            addPercentiles(msg, ProcessingMetrics.get().getParserLatency(parserName));
         }
 
         finishTable(msg);
         return msg.toString();
     }
 
+    /**
+     * Adds median and 99th percentile latencies and finishes the row.
+     */
+    private void addPercentiles(StringBuilder msg, LatencyHistogram latency) {
+        if (latency == null || latency.getCount() == 0) {
+            addCell(msg, "-", Align.CENTER);
+            finishRow(msg, "-", Align.CENTER);
+        } else {
+            addCell(msg, "p50 " + formatLatency(latency.getPercentile(50, TimeUnit.MICROSECONDS)), Align.RIGHT);
+            finishRow(msg, "p99 " + formatLatency(latency.getPercentile(99, TimeUnit.MICROSECONDS)), Align.RIGHT);
+        }
+    }
+
+    private static String formatLatency(long micros) {
+        if (micros < 1000) {
+            return micros + "\u00B5s";
+        } else if (micros < 10000000) {
+            return nf.format(micros / 1000) + "ms";
+        }
+        return nf.format(micros / 1000000) + "s";
+    }
+
     private String getStats() {
         if (Statistics.get() == null)
             return "";
@@ -443,6 +471,23 @@ private String getStats() {
         startRow(msg, Messages.getString("ProgressFrame.CurrentSpeed"));
         finishRow(msg, nf.format(instantRate) + " GB/h", Align.RIGHT);
 
+        ProcessingMetrics metrics = ProcessingMetrics.get();
+        startRow(msg, Messages.getString("ProgressFrame.ItemsPerSecond"));
+        finishRow(msg, nf.format(Math.round(metrics.getItemsPerSecond())), Align.RIGHT);
+
+        StringBuilder queueSizes = new StringBuilder();
+        for (Map.Entry<Integer, Integer> entry : metrics.getQueueSizes().entrySet()) {
+            if (entry.getValue() > 0) {
+                queueSizes.append(queueSizes.length() > 0 ? ", " : "");
+                queueSizes.append("[").append(entry.getKey()).append("] ").append(nf.format(entry.getValue()));
+            }
+        }
+        startRow(msg, Messages.getString("ProgressFrame.QueuedItems"));
+        finishRow(msg, queueSizes.length() > 0 ? queueSizes : "0", Align.RIGHT);
+
+        startRow(msg, Messages.getString("ProgressFrame.WorkersIdle"));
+        finishRow(msg, pct.format(metrics.getWorkerIdleRatio()), Align.RIGHT);
+
         startRow(msg, Messages.getString("ProgressFrame.VolumeFound"));
         finishRow(msg, formatMB(Statistics.get().getCaseData().getDiscoveredVolume()), Align.RIGHT);
 
@@ -18,13 +18,17 @@
  */
 package iped.app.ui;
 
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -81,8 +85,11 @@ public class GalleryModel extends AbstractTableModel {
     private boolean logRendering = false;
     private ImageThumbTask imgThumbTask;
 
+    /**
+     * Max decoded thumbs kept in memory, the least recently used are evicted.
+     */
     private static final int maxCacheSize = 1000;
-    public final Map<IItemId, GalleryValue> cache = new LinkedHashMap<IItemId, GalleryValue>() {
+    public final Map<IItemId, GalleryValue> cache = new LinkedHashMap<IItemId, GalleryValue>(16, 0.75f, true) {
         private static final long serialVersionUID = 1L;
 
         protected boolean removeEldestEntry(Map.Entry<IItemId,GalleryValue> eldest) {
@@ -96,6 +103,10 @@ protected boolean removeEldestEntry(Map.Entry<IItemId,GalleryValue> eldest) {
     private static final BufferedImage errorImg = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_BINARY);
     public static final ImageIcon unsupportedIcon = new ImageIcon();
     private ExecutorService executor;
+    private ExecutorService prefetchExecutor;
+    private volatile int prefetchGeneration = 0;
+    private int prefetchFirstRow = -1, prefetchLastRow = -1;
+    private Object prefetchResult;
     private ExternalImageConverter externalImageConverter;
 
     private volatile boolean blurFilter;
@@ -114,6 +125,7 @@ public void setBlurFilter(boolean newBlurFilter) {
         synchronized (cache) {
             cache.clear();
         }
+        prefetchResult = null;
     }
 
     public void setGrayFilter(boolean newGrayFilter) {
@@ -121,6 +133,7 @@ public void setGrayFilter(boolean newGrayFilter) {
         synchronized (cache) {
             cache.clear();
         }
+        prefetchResult = null;
     }
 
     @Override
@@ -172,7 +185,8 @@ public Object getValueAt(final int row, final int col) {
             try {
                 imgThumbTask = new ImageThumbTask();
                 imgThumbTask.init(ConfigurationManager.get());
-                galleryThreads = Math.min(imgThumbTask.getImageThumbConfig().getGalleryThreads(), MAX_TSK_POOL_SIZE);
+                // one connection is left to the prefetch thread
+                galleryThreads = Math.min(imgThumbTask.getImageThumbConfig().getGalleryThreads(), MAX_TSK_POOL_SIZE - 1);
                 logRendering = imgThumbTask.getImageThumbConfig().isLogGalleryRendering();
 
             } catch (Exception e) {
@@ -197,142 +211,230 @@ public Object getValueAt(final int row, final int col) {
 
         if (executor == null) {
             executor = Executors.newFixedThreadPool(galleryThreads);
+            prefetchExecutor = Executors.newSingleThreadExecutor();
             // do not use executor above in constructor below, it causes deadlock see #313
             externalImageConverter = new ExternalImageConverter();
         }
 
-        executor.execute(new Runnable() {
+        prefetchAroundVisibleRows();
+
+        executor.execute(new ValueLoader(id, row, col, false));
+
+        return new GalleryValue("...", null, id);
+    }
+
+    /**
+     * Loads in background the thumbs of the rows just after and just before the
+     * visible ones, so they are already cached when scrolled to.
+     */
+    private void prefetchAroundVisibleRows() {
+        GalleryTable gallery = App.get().gallery;
+        Rectangle rect = gallery.getVisibleRect();
+        int firstRow = gallery.rowAtPoint(new Point(0, rect.y));
+        int lastRow = gallery.rowAtPoint(new Point(0, rect.y + rect.height - 1));
+        if (firstRow == -1) {
+            return;
+        }
+        if (lastRow == -1) {
+            lastRow = getRowCount() - 1;
+        }
+        Object result = App.get().ipedResult;
+        if (firstRow == prefetchFirstRow && lastRow == prefetchLastRow && result == prefetchResult) {
+            return;
+        }
+        prefetchFirstRow = firstRow;
+        prefetchLastRow = lastRow;
+        prefetchResult = result;
+
+        int rows = lastRow - firstRow + 1;
+        List<int[]> cells = new ArrayList<>();
+        List<IItemId> ids = new ArrayList<>();
+        // next page first, users usually scroll down
+        addCellsToPrefetch(lastRow + 1, Math.min(lastRow + rows, getRowCount() - 1), cells, ids);
+        addCellsToPrefetch(Math.max(0, firstRow - rows), firstRow - 1, cells, ids);
+
+        int generation = ++prefetchGeneration;
+        prefetchExecutor.execute(new Runnable() {
             public void run() {
+                for (int i = 0; i < ids.size() && generation == prefetchGeneration; i++) {
+                    new ValueLoader(ids.get(i), cells.get(i)[0], cells.get(i)[1], true).run();
+                }
+            }
+        });
+    }
 
-                BufferedImage image = null;
-                InputStream stream = null;
-                Document doc = null;
-                GalleryValue value = new GalleryValue("", null, id);
-                try {
-                    synchronized (cache) {
-                        if (cache.containsKey(id)) {
-                            return;
-                        }
+    private void addCellsToPrefetch(int fromRow, int toRow, List<int[]> cells, List<IItemId> ids) {
+        int length = App.get().ipedResult.getLength();
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int col = 0; col < colCount; col++) {
+                int idx = row * colCount + col;
+                if (idx >= length) {
+                    return;
+                }
+                IItemId id = App.get().ipedResult.getItem(App.get().resultsTable.convertRowIndexToModel(idx));
+                synchronized (cache) {
+                    if (cache.containsKey(id)) {
+                        continue;
                     }
+                }
+                cells.add(new int[] { row, col });
+                ids.add(id);
+            }
+        }
+    }
 
-                    if (!App.get().gallery.getVisibleRect().intersects(App.get().gallery.getCellRect(row, col, false))) {
-                        return;
-                    }
+    private class ValueLoader implements Runnable {
 
-                    int docId = App.get().appCase.getLuceneId(id);
-                    doc = App.get().appCase.getSearcher().doc(docId);
-                    value.name = doc.get(IndexItem.NAME);
+        private final IItemId id;
+        private final int row, col;
+        private final boolean prefetch;
 
-                    if (logRendering) {
-                        String path = doc.get(IndexItem.PATH);
-                        LOGGER.info("Gallery rendering " + path); //$NON-NLS-1$
-                    }
+        private ValueLoader(IItemId id, int row, int col, boolean prefetch) {
+            this.id = id;
+            this.row = row;
+            this.col = col;
+            this.prefetch = prefetch;
+        }
 
-                    final String mediaType = doc.get(IndexItem.CONTENTTYPE);
+        @Override
+        public void run() {
 
-                    BytesRef bytesRef = doc.getBinaryValue(IndexItem.THUMB);
-                    if (bytesRef != null && ((!isSupportedVideo(mediaType) && !isAnimationImage(doc, mediaType)) || App.get().useVideoThumbsInGallery)) {
-                        byte[] thumb = bytesRef.bytes;
-                        if (thumb.length > 0) {
-                            image = ImageIO.read(new ByteArrayInputStream(thumb));
-                        } else {
-                            image = errorImg;
+            BufferedImage image = null;
+            InputStream stream = null;
+            Document doc = null;
+            GalleryValue value = new GalleryValue("", null, id);
+            try {
+                synchronized (cache) {
+                    if (cache.containsKey(id)) {
+                        // maybe prefetched after the cell was painted
+                        if (!prefetch) {
+                            fireCellUpdated();
                         }
+                        return;
                     }
+                }
 
-                    if (image == null) {
-                        String hash = doc.get(IndexItem.HASH);
-                        if (image == null && hash != null && !hash.isEmpty()) {
-                            image = getViewImage(docId, hash,
-                                    isSupportedVideo(mediaType) || isAnimationImage(doc, mediaType));
-                        }
+                if (!prefetch && !App.get().gallery.getVisibleRect().intersects(App.get().gallery.getCellRect(row, col, false))) {
+                    return;
+                }
 
-                        if (Boolean.valueOf(doc.get(IndexItem.ISDIR))) {
-                            value.unsupportedType = true;
-                            value.icon = IconManager.getFolderIconGallery();
+                int docId = App.get().appCase.getLuceneId(id);
+                doc = App.get().appCase.getSearcher().doc(docId);
+                value.name = doc.get(IndexItem.NAME);
 
-                        } else if (image == null && !isSupportedImage(mediaType) && !isSupportedVideo(mediaType)) {
-                            value.unsupportedType = true;
-                            String type = doc.get(IndexItem.TYPE);
-                            String contentType = doc.get(IndexItem.CONTENTTYPE);
-                            value.icon = IconManager.getFileIconGallery(contentType, type);
-                        }
+                if (logRendering) {
+                    String path = doc.get(IndexItem.PATH);
+                    LOGGER.info("Gallery rendering " + path); //$NON-NLS-1$
+                }
 
-                        if (image == null && value.icon == null && stream == null && isSupportedImage(mediaType)) {
-                            stream = App.get().appCase.getItemByLuceneID(docId).getBufferedInputStream();
-                        }
+                final String mediaType = doc.get(IndexItem.CONTENTTYPE);
 
-                        if (stream != null) {
-                            stream.mark(10000000);
-                        }
+                BytesRef bytesRef = doc.getBinaryValue(IndexItem.THUMB);
+                if (bytesRef != null && ((!isSupportedVideo(mediaType) && !isAnimationImage(doc, mediaType)) || App.get().useVideoThumbsInGallery)) {
+                    byte[] thumb = bytesRef.bytes;
+                    if (thumb.length > 0) {
+                        image = ImageIO.read(new ByteArrayInputStream(thumb));
+                    } else {
+                        image = errorImg;
+                    }
+                }
 
-                        if (image == null && stream != null && imgThumbTask.getImageThumbConfig().isExtractThumb()
-                                && mediaType.equals("image/jpeg")) { //$NON-NLS-1$
-                            image = ImageMetadataUtil.getThumb(CloseShieldInputStream.wrap(stream));
-                            stream.reset();
-                        }
+                if (image == null) {
+                    String hash = doc.get(IndexItem.HASH);
+                    if (image == null && hash != null && !hash.isEmpty()) {
+                        image = getViewImage(docId, hash,
+                                isSupportedVideo(mediaType) || isAnimationImage(doc, mediaType));
+                    }
 
-                        if (image == null && stream != null) {
-                            image = ImageUtil.getSubSampledImage(stream, getThumbSize());
-                            stream.reset();
-                        }
+                    if (Boolean.valueOf(doc.get(IndexItem.ISDIR))) {
+                        value.unsupportedType = true;
+                        value.icon = IconManager.getFolderIconGallery();
 
-                        if (image == null && stream != null) {
-                            String sizeStr = doc.get(IndexItem.LENGTH);
-                            Long size = sizeStr == null ? null : Long.parseLong(sizeStr);
-                            image = externalImageConverter.getImage(stream, getThumbSize(), false, size);
-                        }
+                    } else if (image == null && !isSupportedImage(mediaType) && !isSupportedVideo(mediaType)) {
+                        value.unsupportedType = true;
+                        String type = doc.get(IndexItem.TYPE);
+                        String contentType = doc.get(IndexItem.CONTENTTYPE);
+                        value.icon = IconManager.getFileIconGallery(contentType, type);
                     }
 
-                    if (image == null || image == errorImg) {
-                        if (value.icon == null)
-                            value.icon = errorIcon;
-                    } else {
-                        // Resize image only if it is too large (> 2x the desired thumbSize)
-                        if (image.getWidth() > getThumbSize() * 2 || image.getHeight() > getThumbSize() * 2) {
-                            image = ImageUtil.resizeImage(image, getThumbSize(), getThumbSize());
-                        }
+                    if (image == null && value.icon == null && stream == null && isSupportedImage(mediaType)) {
+                        stream = App.get().appCase.getItemByLuceneID(docId).getBufferedInputStream();
+                    }
 
-                        if (blurFilter) {
-                            image = ImageUtil.blur(image, getThumbSize(), blurIntensity);
-                        }
-                        if (grayFilter) {
-                            image = ImageUtil.grayscale(image);
-                        }
+                    if (stream != null) {
+                        stream.mark(10000000);
                     }
 
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    value.icon = errorIcon;
+                    if (image == null && stream != null && imgThumbTask.getImageThumbConfig().isExtractThumb()
+                            && mediaType.equals("image/jpeg")) { //$NON-NLS-1$
+                        image = ImageMetadataUtil.getThumb(CloseShieldInputStream.wrap(stream));
+                        stream.reset();
+                    }
 
-                } finally {
-                    try {
-                        if (stream != null) {
-                            stream.close();
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                    if (image == null && stream != null) {
+                        image = ImageUtil.getSubSampledImage(stream, getThumbSize());
+                        stream.reset();
                     }
-                }
 
-                if (image != errorImg) {
-                    value.image = image;
+                    if (image == null && stream != null) {
+                        String sizeStr = doc.get(IndexItem.LENGTH);
+                        Long size = sizeStr == null ? null : Long.parseLong(sizeStr);
+                        image = externalImageConverter.getImage(stream, getThumbSize(), false, size);
+                    }
                 }
 
-                synchronized (cache) {
-                    cache.put(id, value);
+                if (image == null || image == errorImg) {
+                    if (value.icon == null)
+                        value.icon = errorIcon;
+                } else {
+                    // Resize image only if it is too large (> 2x the desired thumbSize)
+                    if (image.getWidth() > getThumbSize() * 2 || image.getHeight() > getThumbSize() * 2) {
+                        image = ImageUtil.resizeImage(image, getThumbSize(), getThumbSize());
+                    }
+
+                    if (blurFilter) {
+                        image = ImageUtil.blur(image, getThumbSize(), blurIntensity);
+                    }
+                    if (grayFilter) {
+                        image = ImageUtil.grayscale(image);
+                    }
                 }
 
-                SwingUtilities.invokeLater(new Runnable() {
-                    @Override
-                    public void run() {
-                        App.get().galleryModel.fireTableCellUpdated(row, col);
+            } catch (Exception e) {
+                e.printStackTrace();
+                value.icon = errorIcon;
+
+            } finally {
+                try {
+                    if (stream != null) {
+                        stream.close();
                     }
-                });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             }
-        });
 
-        return new GalleryValue("...", null, id);
+            if (image != errorImg) {
+                value.image = image;
+            }
+
+            synchronized (cache) {
+                cache.put(id, value);
+            }
+
+            if (!prefetch) {
+                fireCellUpdated();
+            }
+        }
+
+        private void fireCellUpdated() {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    App.get().galleryModel.fireTableCellUpdated(row, col);
+                }
+            });
+        }
     }
 
     public void clearVideoThumbsInCache() {
@@ -94,6 +94,16 @@ public void prepare() {
         this.prepared = true;
     }
 
+    /**
+     * Returns a compiled, table driven copy of the automaton, faster to search
+     * and safe to share between threads. Must be called after prepare().
+     */
+    public CompiledAhoCorasick compile() {
+        if (!this.prepared)
+            throw new IllegalStateException("can't compile until prepare()");
+        return new CompiledAhoCorasick(this.root);
+    }
+
     /**
      * Starts a new search, and returns an Iterator of SearchResults.
      */
@@ -0,0 +1,223 @@
+package org.arabidopsis.ahocorasick;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Compiled, read only form of a prepared {@link AhoCorasick} tree. The automaton
+ * is flattened into a single {@code int[]} transition table, with fail
+ * transitions already resolved, so each input byte costs one table lookup.
+ * <p>
+ * Bytes not used by any keyword always lead back to the root, so they share a
+ * single byte class, and the table only has one column per class. Rows are
+ * padded to a power of two and states are numbered with those having outputs
+ * last, so the search loop detects matches with a single comparison.
+ * <p>
+ * Matches are reported to a {@link MatchCallback} with an output id and the
+ * match end, without allocating objects. Instances are immutable and may be
+ * shared by many threads.
+ */
+public class CompiledAhoCorasick {
+
+    /**
+     * Receives matches found by
+     * {@link CompiledAhoCorasick#search(byte[], int, int, int, MatchCallback)}.
+     */
+    @FunctionalInterface
+    public interface MatchCallback {
+
+        /**
+         * @param output
+         *            id of the matched output, see
+         *            {@link CompiledAhoCorasick#getOutput(int)}
+         * @param end
+         *            index in the searched array after the last matched byte
+         */
+        void match(int output, int end);
+    }
+
+    private final int[] byteClass = new int[256];
+    private final int numClasses;
+    private final int shift;
+
+    /**
+     * Transition table, indexed by state offset (state number << shift) plus the
+     * byte class, holding the offset of the next state.
+     */
+    private final int[] delta;
+
+    /**
+     * Offset of the first state with outputs.
+     */
+    private final int firstOutputOffset;
+
+    /**
+     * Output ids of state (firstOutputState + i) are in
+     * outputIds[outputStart[i]..outputStart[i + 1]).
+     */
+    private final int[] outputStart;
+    private final int[] outputIds;
+    private final Object[] outputs;
+
+    CompiledAhoCorasick(State root) {
+        // states in breadth first order, so fail states come before the states using them
+        List<State> states = new ArrayList<>();
+        IdentityHashMap<State, Integer> bfsIndex = new IdentityHashMap<>();
+        boolean[] usedBytes = new boolean[256];
+        states.add(root);
+        bfsIndex.put(root, 0);
+        for (int i = 0; i < states.size(); i++) {
+            State state = states.get(i);
+            State[] edges = state.edgeList.array;
+            for (int b = 0; b < 256; b++) {
+                State next = edges[b];
+                if (next != null && next != root) {
+                    usedBytes[b] = true;
+                    if (!bfsIndex.containsKey(next)) {
+                        bfsIndex.put(next, states.size());
+                        states.add(next);
+                    }
+                }
+            }
+        }
+
+        // class 0 groups the bytes not used by keywords, which lead back to the root
+        int[] classByte = new int[257];
+        int classes = 1;
+        for (int b = 0; b < 256; b++) {
+            if (usedBytes[b]) {
+                classByte[classes] = b;
+                byteClass[b] = classes++;
+            } else {
+                classByte[0] = b;
+            }
+        }
+        numClasses = classes;
+        shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, numClasses - 1));
+
+        // renumber states, root first and states with outputs last
+        int numStates = states.size();
+        if (((long) numStates << shift) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many states to compile the automaton: " + numStates);
+        }
+        int[] number = new int[numStates];
+        int next = 0;
+        for (int i = 0; i < numStates; i++) {
+            if (states.get(i).outputs == null) {
+                number[i] = next++;
+            }
+        }
+        int firstOutputState = next;
+        for (int i = 0; i < numStates; i++) {
+            if (states.get(i).outputs != null) {
+                number[i] = next++;
+            }
+        }
+        if (number[0] != 0) {
+            throw new IllegalArgumentException("Empty keywords are not supported");
+        }
+        firstOutputOffset = firstOutputState << shift;
+
+        delta = new int[numStates << shift];
+        for (int i = 0; i < numStates; i++) {
+            State state = states.get(i);
+            int row = number[i] << shift;
+            int failRow = i == 0 ? 0 : number[bfsIndex.get(state.fail)] << shift;
+            for (int c = 0; c < numClasses; c++) {
+                State target = state.edgeList.array[classByte[c]];
+                if (target != null) {
+                    delta[row + c] = number[bfsIndex.get(target)] << shift;
+                } else {
+                    delta[row + c] = delta[failRow + c];
+                }
+            }
+        }
+
+        // outputs were already merged along fail transitions by AhoCorasick.prepare()
+        IdentityHashMap<Object, Integer> outputIndex = new IdentityHashMap<>();
+        List<Object> outputList = new ArrayList<>();
+        State[] outputStates = new State[numStates - firstOutputState];
+        for (int i = 0; i < numStates; i++) {
+            if (number[i] >= firstOutputState) {
+                outputStates[number[i] - firstOutputState] = states.get(i);
+            }
+        }
+        outputStart = new int[outputStates.length + 1];
+        int total = 0;
+        for (int i = 0; i < outputStates.length; i++) {
+            total += outputStates[i].outputs.size();
+        }
+        outputIds = new int[total];
+        int pos = 0;
+        for (int i = 0; i < outputStates.length; i++) {
+            outputStart[i] = pos;
+            for (Object output : outputStates[i].outputs) {
+                Integer id = outputIndex.get(output);
+                if (id == null) {
+                    id = outputList.size();
+                    outputIndex.put(output, id);
+                    outputList.add(output);
+                }
+                outputIds[pos++] = id;
+            }
+        }
+        outputStart[outputStates.length] = pos;
+        outputs = outputList.toArray();
+    }
+
+    /**
+     * @return the state to start a new search.
+     */
+    public int getInitialState() {
+        return 0;
+    }
+
+    /**
+     * Searches the bytes buf[off..off+len), reporting matches to the callback.
+     * Matches may span consecutive calls, passing the state returned by the
+     * previous one.
+     *
+     * @param state
+     *            {@link #getInitialState()} or the state returned by the previous
+     *            call, when searching consecutive chunks of the same data
+     * @return the state to continue the search with the next chunk
+     */
+    public int search(byte[] buf, int off, int len, int state, MatchCallback callback) {
+        final int[] delta = this.delta;
+        final int[] byteClass = this.byteClass;
+        final int firstOutputOffset = this.firstOutputOffset;
+        int s = state;
+        for (int i = off, end = off + len; i < end; i++) {
+            s = delta[s + byteClass[buf[i] & 0xFF]];
+            if (s >= firstOutputOffset) {
+                int outputState = (s - firstOutputOffset) >>> shift;
+                for (int k = outputStart[outputState], last = outputStart[outputState + 1]; k < last; k++) {
+                    callback.match(outputIds[k], i + 1);
+                }
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return the output object, added to the source {@link AhoCorasick}, of the
+     *         given output id.
+     */
+    public Object getOutput(int output) {
+        return outputs[output];
+    }
+
+    public int getNumOutputs() {
+        return outputs.length;
+    }
+
+    public int getNumStates() {
+        return delta.length >>> shift;
+    }
+
+    public int getNumByteClasses() {
+        return numClasses;
+    }
+
+}
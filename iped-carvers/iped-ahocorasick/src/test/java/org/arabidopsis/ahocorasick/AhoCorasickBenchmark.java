@@ -0,0 +1,189 @@
+/*
+Copyright (c) 2005, 2008 Danny Yoo
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright
+    notice, this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above
+    copyright notice, this list of conditions and the following disclaimer in
+    the documentation and/or other materials provided with the distribution.
+
+  * Neither the name of the Carnegie Institution of Washington nor
+    the names of its contributors may be used to endorse or promote products
+    derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+(INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.arabidopsis.ahocorasick;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares searching carving signatures in unallocated space with the
+ * {@link AhoCorasick} tree iterator, as the carver used to do, and with the
+ * {@link CompiledAhoCorasick} table, in 1MB chunks.
+ * <p>
+ * By default a synthetic sample is used, mixing zeroed, random and text
+ * sectors with some embedded file headers. A real unallocated space dump can
+ * be used with -p samplePath=/path/to/dump, only its first 256MB are read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AhoCorasickBenchmark {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int SECTOR_SIZE = 512;
+    private static final int MAX_SAMPLE_SIZE = 256 << 20;
+
+    /**
+     * Signature pieces similar to the default carving configuration, where
+     * signatures with wildcards are split into their fixed parts.
+     */
+    private static final String[] SIGNATURES = { "\u00ff\u00d8\u00ff", "\u00ff\u00d9", "\u0089PNG\r\n\u001a\n",
+            "IEND\u00aeB`\u0082", "GIF87a", "GIF89a", "%PDF-1", "%PDF-2", "%%EOF", "PK\u0003\u0004",
+            "PK\u0005\u0006", "\u00d0\u00cf\u0011\u00e0\u00a1\u00b1\u001a\u00e1", "BM", "\u0001\u0000\u0018\u0000",
+            "RIFF", "AVI LIST", "WAVEfmt", "WEBP", "7z\u00bc\u00af'\u001c", "FLV\u0001\u0005\u0000\u0000\u0000",
+            "OggS\u0000\u0002", "II*\u0000", "MM\u0000*", "<html", "<HTML", "</html>", "</HTML>", "<?xml",
+            "</plist>", "BEGIN:VCARD", "END:VCARD", "-----BEGIN CERTIFICATE-----", "-----END CERTIFICATE-----",
+            "Received: from", "Received: by", "Return-Path: ", "Message-ID: <", "Client UrlCache MMF Ver 5",
+            "\u0000\u0000\u0001\u00ba", "\u0000\u0000\u0001\u00b3", "\u0000\u0000\u0001\u00b7", "ElfFile\u0000",
+            "SQLite format 3\u0000", "ftypisom", "ftypmp42", "regf", "\u0000\u0000\u0000\u0014ftyp" };
+
+    @Param({ "" })
+    private String samplePath;
+
+    @Param({ "64" })
+    private int sampleSizeMB;
+
+    private byte[] sample;
+    private byte[] buf = new byte[CHUNK_SIZE];
+    private AhoCorasick tree;
+    private CompiledAhoCorasick compiled;
+    private long matches;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (samplePath.isEmpty()) {
+            sample = createSyntheticSample(sampleSizeMB << 20);
+        } else {
+            try (InputStream in = Files.newInputStream(Paths.get(samplePath))) {
+                sample = in.readNBytes(MAX_SAMPLE_SIZE);
+            }
+        }
+        tree = new AhoCorasick();
+        for (int i = 0; i < SIGNATURES.length; i++) {
+            // outputs like the carver ones: signature and sequence index
+            tree.add(SIGNATURES[i].getBytes(StandardCharsets.ISO_8859_1), new Object[] { SIGNATURES[i], 0 });
+        }
+        tree.prepare();
+        compiled = tree.compile();
+    }
+
+    private static byte[] createSyntheticSample(int size) {
+        Random random = new Random(0);
+        byte[] text = ("Received: from mail.example.com by mx.example.com; <html><body>Lorem ipsum dolor sit amet, "
+                + "consectetur adipiscing elit</body></html>\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        byte[] data = new byte[size];
+        byte[] sector = new byte[SECTOR_SIZE];
+        for (int off = 0; off < size; off += SECTOR_SIZE) {
+            int kind = random.nextInt(8);
+            if (kind < 4) {
+                // zeroed sectors are the most common in unallocated space
+                continue;
+            } else if (kind < 6) {
+                random.nextBytes(sector);
+            } else {
+                for (int i = 0; i < SECTOR_SIZE; i++) {
+                    sector[i] = text[(off + i) % text.length];
+                }
+            }
+            System.arraycopy(sector, 0, data, off, Math.min(SECTOR_SIZE, size - off));
+            if (random.nextInt(16) == 0) {
+                byte[] sig = SIGNATURES[random.nextInt(SIGNATURES.length)].getBytes(StandardCharsets.ISO_8859_1);
+                System.arraycopy(sig, 0, data, off, Math.min(sig.length, size - off));
+            }
+        }
+        return data;
+    }
+
+    @Benchmark
+    public long treeIterator() {
+        matches = 0;
+        SearchResult lastResult = new SearchResult(tree.root, null, 0);
+        for (int off = 0; off < sample.length; off += CHUNK_SIZE) {
+            // copy of each chunk, as the carver used to do
+            byte[] chunk = Arrays.copyOfRange(sample, off, Math.min(off + CHUNK_SIZE, sample.length));
+            lastResult = new SearchResult(lastResult.lastMatchedState, chunk, 0);
+            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
+            while (searcher.hasNext()) {
+                lastResult = searcher.next();
+                for (Object out : lastResult.getOutputs()) {
+                    matches += ((Object[]) out).length;
+                }
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public long compiledTable() {
+        matches = 0;
+        int state = compiled.getInitialState();
+        for (int off = 0; off < sample.length; off += CHUNK_SIZE) {
+            int len = Math.min(CHUNK_SIZE, sample.length - off);
+            System.arraycopy(sample, off, buf, 0, len);
+            state = compiled.search(buf, 0, len, state, this::countMatch);
+        }
+        return matches;
+    }
+
+    private void countMatch(int output, int end) {
+        matches += ((Object[]) compiled.getOutput(output)).length;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AhoCorasickBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -4,7 +4,7 @@
 import java.util.HashMap;
 
 import org.apache.tika.mime.MediaType;
-import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 
 public interface CarverConfiguration {
     /* returns the configured carverTypes */
@@ -23,7 +23,7 @@ public interface CarverConfiguration {
     public void configListener(CarvedItemListener cil) throws CarverConfigurationException;
 
     /* Returns the populated state machine tree */
-    public AhoCorasick getPopulatedTree();
+    public CompiledAhoCorasick getPopulatedTree();
 
     /* Returns the populated state machine tree */
     public HashMap<CarverType, Carver> getRegisteredCarvers();
@@ -0,0 +1,83 @@
+package iped.engine.config;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream.Filter;
+import java.nio.file.Path;
+
+import iped.utils.UTF8Properties;
+
+public class ContentStorageConfig extends AbstractPropertiesConfigurable {
+
+    /**
+     * 
+     */
+    private static final long serialVersionUID = 1L;
+
+    private static final String CONF_FILE = "ContentStorageConfig.txt";
+
+    public enum StorageFormat {
+        SEGMENTS, SQLITE
+    }
+
+    public enum Compression {
+        LZ4, ZSTD, NONE
+    }
+
+    private StorageFormat storageFormat = StorageFormat.SEGMENTS;
+    private Compression compression = Compression.LZ4;
+    private int zstdLevel = 3;
+    private long maxSegmentSize = 1 << 30;
+
+    public StorageFormat getStorageFormat() {
+        return storageFormat;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public int getZstdLevel() {
+        return zstdLevel;
+    }
+
+    public long getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    @Override
+    public void processProperties(UTF8Properties properties) {
+
+        String value = properties.getProperty("storageFormat"); //$NON-NLS-1$
+        if (value != null) {
+            storageFormat = StorageFormat.valueOf(value.trim().toUpperCase());
+        }
+
+        value = properties.getProperty("compression"); //$NON-NLS-1$
+        if (value != null) {
+            compression = Compression.valueOf(value.trim().toUpperCase());
+        }
+
+        value = properties.getProperty("zstdLevel"); //$NON-NLS-1$
+        if (value != null) {
+            zstdLevel = Integer.valueOf(value.trim());
+        }
+
+        value = properties.getProperty("maxSegmentSize"); //$NON-NLS-1$
+        if (value != null) {
+            // segments are memory mapped as a whole
+            maxSegmentSize = Math.min(Long.valueOf(value.trim()) << 20, Integer.MAX_VALUE);
+        }
+
+    }
+
+    @Override
+    public Filter<Path> getResourceLookupFilter() {
+        return new Filter<Path>() {
+            @Override
+            public boolean accept(Path entry) throws IOException {
+                return entry.endsWith(CONF_FILE);
+            }
+        };
+    }
+
+}
@@ -28,8 +28,12 @@ public class ElasticSearchTaskConfig extends AbstractTaskPropertiesConfig {
     private static final String VALIDATE_SSL = "validateSSL";
     private static final String TERM_VECTOR = "useTermVector";
     private static final String RETRIES = "retries";
+    private static final String THROTTLED_RETRIES = "throttled_retries";
+    private static final String RETRY_INITIAL_BACKOFF_KEY = "retry_initial_backoff_millis";
+    private static final String RETRY_MAX_BACKOFF_KEY = "retry_max_backoff_millis";
 
     private static final int DEFAULT_RETRIES = 1;
+    private static final int DEFAULT_THROTTLED_RETRIES = 20;
 
     private String host;
     private int port = 9200;
@@ -47,6 +51,9 @@ public class ElasticSearchTaskConfig extends AbstractTaskPropertiesConfig {
     private boolean validateSSL = true;
     private boolean termVector = false;
     private int retries;
+    private int throttledRetries = DEFAULT_THROTTLED_RETRIES;
+    private long retryInitialBackoffMillis = 100;
+    private long retryMaxBackoffMillis = 30000;
 
     public String getHost() {
         return host;
@@ -135,6 +142,19 @@ public void processProperties(UTF8Properties props) {
 
         retries = Integer.parseInt(properties.getProperty(RETRIES, Integer.toString(DEFAULT_RETRIES)).trim());
 
+        value = props.getProperty(THROTTLED_RETRIES);
+        if (value != null) {
+            throttledRetries = Integer.parseInt(value.trim());
+        }
+        value = props.getProperty(RETRY_INITIAL_BACKOFF_KEY);
+        if (value != null) {
+            retryInitialBackoffMillis = Long.parseLong(value.trim());
+        }
+        value = props.getProperty(RETRY_MAX_BACKOFF_KEY);
+        if (value != null) {
+            retryMaxBackoffMillis = Long.parseLong(value.trim());
+        }
+
     }
 
     public boolean getValidateSSL() {
@@ -149,4 +169,16 @@ public int getRetries() {
         return retries;
     }
 
+    public int getThrottledRetries() {
+        return throttledRetries;
+    }
+
+    public long getRetryInitialBackoffMillis() {
+        return retryInitialBackoffMillis;
+    }
+
+    public long getRetryMaxBackoffMillis() {
+        return retryMaxBackoffMillis;
+    }
+
 }
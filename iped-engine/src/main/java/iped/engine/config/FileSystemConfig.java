@@ -24,6 +24,8 @@ public class FileSystemConfig extends AbstractPropertiesConfigurable {
     private long minOrphanSizeToIgnore = -1;
     private boolean ignoreHardLinks = true;
     private String skipFolderRegex = "";
+    // in MB, -1 means auto
+    private long blockCacheSize = 0;
 
     @Override
     public Filter<Path> getResourceLookupFilter() {
@@ -78,6 +80,12 @@ public void processProperties(UTF8Properties properties) {
             skipFolderRegex = value.trim();
         }
 
+        value = properties.getProperty("blockCacheSize"); //$NON-NLS-1$
+        if (value != null) {
+            value = value.trim();
+            blockCacheSize = value.equalsIgnoreCase("auto") ? -1 : Long.valueOf(value); //$NON-NLS-1$
+        }
+
     }
 
     public String getSkipFolderRegex() {
@@ -116,4 +124,12 @@ public boolean isIgnoreHardLinks() {
         return ignoreHardLinks;
     }
 
+    /**
+     * @return size in bytes of the shared image block cache, -1 for the default
+     *         size or 0 if disabled.
+     */
+    public long getBlockCacheSize() {
+        return blockCacheSize < 0 ? -1 : blockCacheSize << 20;
+    }
+
 }
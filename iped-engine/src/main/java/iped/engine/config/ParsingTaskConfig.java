@@ -18,6 +18,7 @@ public class ParsingTaskConfig extends AbstractTaskPropertiesConfig {
     private boolean enableExternalParsing = false;
     private int numExternalParsers;
     private String externalParsingMaxMem = "512";
+    private boolean externalParsingSharedMemory = false;
     private boolean parseCorruptedFiles = true;
     private boolean parseUnknownFiles = true;
     private int timeOut = 180;
@@ -75,6 +76,11 @@ public void processProperties(UTF8Properties properties) {
             externalParsingMaxMem = value.trim();
         }
 
+        value = properties.getProperty("externalParsingSharedMemory"); //$NON-NLS-1$
+        if (value != null) {
+            externalParsingSharedMemory = Boolean.valueOf(value.trim());
+        }
+
         value = properties.getProperty("timeOut"); //$NON-NLS-1$
         if (value != null) {
             timeOut = Integer.valueOf(value.trim());
@@ -129,6 +135,10 @@ public String getExternalParsingMaxMem() {
         return externalParsingMaxMem;
     }
 
+    public boolean isExternalParsingSharedMemory() {
+        return externalParsingSharedMemory;
+    }
+
     public boolean isParseCorruptedFiles() {
         return parseCorruptedFiles;
     }
@@ -12,8 +12,21 @@ public class ProcessingPriorityConfig extends AbstractPropertiesConfigurable {
 
     public static final String CONFIG_FILE = "conf/ProcessingPriorityConfig.txt";
 
+    /**
+     * Implementations of the processing queues. DEFAULT uses a single monitor
+     * over all queues, WORK_STEALING uses lock-free per worker deques with work
+     * stealing and signal based blocking, SPILLING keeps a memory limited window
+     * of items and writes the overflow to a temporary file.
+     */
+    public enum QueueEngine {
+        DEFAULT, WORK_STEALING, SPILLING
+    }
+
     private boolean randomOrder = true;
     private int maxQueueSize = 0;
+    private QueueEngine queueEngine = QueueEngine.DEFAULT;
+    private long maxQueueMemory = 0;
+    private long maxQueueSpillSize = 0;
 
     public static final DirectoryStream.Filter<Path> filter = new Filter<Path>() {
         @Override
@@ -43,6 +56,34 @@ public void processProperties(UTF8Properties properties) {
                 maxQueueSize = Integer.parseInt(value.trim());
             }
         }
+
+        value = properties.getProperty("queueEngine");
+        if (value != null && !value.isBlank()) {
+            queueEngine = parseQueueEngine(value.trim());
+        }
+
+        maxQueueMemory = parseMegabytes(properties.getProperty("maxQueueMemory"));
+        maxQueueSpillSize = parseMegabytes(properties.getProperty("maxQueueSpillSize"));
+    }
+
+    /**
+     * @return the value in bytes, or 0 if it is not set or "auto".
+     */
+    private static long parseMegabytes(String value) {
+        if (value == null || value.isBlank() || value.trim().equalsIgnoreCase("auto")) {
+            return 0;
+        }
+        return Long.parseLong(value.trim()) << 20;
+    }
+
+    private static QueueEngine parseQueueEngine(String value) {
+        String name = value.replaceAll("[_\\-\\s]", "");
+        for (QueueEngine engine : QueueEngine.values()) {
+            if (engine.name().replace("_", "").equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("Invalid queueEngine value: " + value);
     }
 
     public boolean isRandomOrder() {
@@ -52,4 +93,24 @@ public boolean isRandomOrder() {
     public int getMaxQueueSize() {
         return maxQueueSize;
     }
+
+    public QueueEngine getQueueEngine() {
+        return queueEngine;
+    }
+
+    /**
+     * @return max heap in bytes used by queued items of the spilling queue, 0 if
+     *         it should be based on the heap size.
+     */
+    public long getMaxQueueMemory() {
+        return maxQueueMemory;
+    }
+
+    /**
+     * @return max size in bytes of the spilling queue temporary files, 0 if it
+     *         should be based on the free space of the temporary folder.
+     */
+    public long getMaxQueueSpillSize() {
+        return maxQueueSpillSize;
+    }
 }
@@ -21,19 +21,28 @@ public class RegexTaskConfig extends AbstractTaskConfig<Pair<Boolean, List<iped.
     /**
      * 
      */
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
 
     private static final String CONFIG_FILE = "RegexConfig.txt"; //$NON-NLS-1$
     private static final String ENABLE_PARAM = "enableRegexSearch"; //$NON-NLS-1$
     private static final String FORMAT_MATCHES = "formatRegexMatches"; //$NON-NLS-1$
+    private static final String PARALLEL_SCAN_THREADS = "parallelScanThreads"; //$NON-NLS-1$
 
     private boolean formatRegexMatches;
+    private int parallelScanThreads;
     private List<RegexEntry> regexList = new ArrayList<>();
 
     public boolean isFormatRegexMatches() {
         return formatRegexMatches;
     }
 
+    /**
+     * Number of threads used to scan large texts, 0 means number of processors.
+     */
+    public int getParallelScanThreads() {
+        return parallelScanThreads;
+    }
+
     public List<RegexEntry> getRegexList() {
         return regexList;
     }
@@ -145,6 +154,10 @@ public void processTaskConfig(Path resource) throws IOException {
                     formatRegexMatches = Boolean.valueOf(values[1].trim());
                     continue;
                 }
+                if (name.equals(PARALLEL_SCAN_THREADS)) {
+                    parallelScanThreads = Integer.parseInt(values[1].trim());
+                    continue;
+                }
                 String[] params = name.split(","); //$NON-NLS-1$
                 RegexEntry entry = new RegexEntry();
                 entry.regexName = params[0].trim();
@@ -166,6 +179,7 @@ public void readExternal(ObjectInput in) throws IOException, ClassNotFoundExcept
             throw new InvalidClassException("SerialVersionUID not supported: " + l);
         }
         formatRegexMatches = in.readBoolean();
+        parallelScanThreads = in.readInt();
         int size = in.readInt();
         regexList = new ArrayList<>();
         for (int i = 0; i < size; i++) {
@@ -183,6 +197,7 @@ public void readExternal(ObjectInput in) throws IOException, ClassNotFoundExcept
     public void writeExternal(ObjectOutput out) throws IOException {
         out.writeLong(serialVersionUID);
         out.writeBoolean(formatRegexMatches);
+        out.writeInt(parallelScanThreads);
         out.writeInt(regexList.size());
         for (RegexEntry e : regexList) {
             out.writeUTF(e.regexName);
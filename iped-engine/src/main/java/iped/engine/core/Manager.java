@@ -56,8 +56,10 @@
 import iped.engine.config.AnalysisConfig;
 import iped.engine.config.Configuration;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.config.FileSystemConfig;
 import iped.engine.config.IndexTaskConfig;
 import iped.engine.config.LocalConfig;
+import iped.engine.config.ProcessingPriorityConfig;
 import iped.engine.config.SplashScreenConfig;
 import iped.engine.data.Bookmarks;
 import iped.engine.data.CaseData;
@@ -81,9 +83,11 @@
 import iped.engine.search.LuceneSearchResult;
 import iped.engine.sleuthkit.SleuthkitClient;
 import iped.engine.sleuthkit.SleuthkitInputStreamFactory;
+import iped.engine.task.DuplicateTask;
 import iped.engine.task.ExportCSVTask;
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.P2PBookmarker;
+import iped.engine.task.ThumbTask;
 import iped.engine.task.index.ElasticSearchIndexTask;
 import iped.engine.task.index.IndexItem;
 import iped.engine.task.index.IndexTask;
@@ -93,6 +97,7 @@
 import iped.properties.BasicProps;
 import iped.search.IItemSearcher;
 import iped.search.SearchResult;
+import iped.utils.BlockCache;
 import iped.utils.IOUtil;
 
 /**
@@ -125,6 +130,7 @@
 public class Manager {
 
     private static long commitIntervalMillis = 30 * 60 * 1000;
+    private static final long METRICS_DUMP_INTERVAL_MILLIS = 60 * 1000;
     private static Logger LOGGER = LogManager.getLogger(Manager.class);
     private static Manager instance;
 
@@ -192,13 +198,17 @@ public Manager(List<File> sources, File output, File palavras) {
         this.analysisConfig = ConfigurationManager.get().findObject(AnalysisConfig.class);
         this.indexConfig = ConfigurationManager.get().findObject(IndexTaskConfig.class);
 
+        FileSystemConfig fsConfig = ConfigurationManager.get().findObject(FileSystemConfig.class);
+        long blockCacheSize = fsConfig.getBlockCacheSize();
+        BlockCache.setMaxSize(blockCacheSize < 0 ? BlockCache.DEFAULT_MAX_SIZE : blockCacheSize);
+
         this.indexDir = localConfig.getIndexTemp();
         this.sources = sources;
         this.output = output;
         this.palavrasChave = palavras;
 
         this.caseData = new CaseData();
-        this.processingQueues = new ProcessingQueues(caseData);
+        this.processingQueues = createProcessingQueues(caseData);
 
         for (File source : sources) {
             if (source.getName().toLowerCase().endsWith(Bookmarks.EXT)) {
@@ -222,6 +232,18 @@ public Manager(List<File> sources, File output, File palavras) {
         commitIntervalMillis = indexConfig.getCommitIntervalSeconds() * 1000;
     }
 
+    private static ProcessingQueues createProcessingQueues(CaseData caseData) {
+        ProcessingPriorityConfig config = ConfigurationManager.get().findObject(ProcessingPriorityConfig.class);
+        switch (config.getQueueEngine()) {
+            case WORK_STEALING:
+                return new WorkStealingProcessingQueues(caseData);
+            case SPILLING:
+                return new SpillingProcessingQueues(caseData);
+            default:
+                return new ProcessingQueues(caseData);
+        }
+    }
+
     public File getIndexTemp() {
         return indexDir;
     }
@@ -320,6 +342,9 @@ public void process() throws Exception {
 
         deleteTempDir();
 
+        ProcessingMetrics.get().update(processingQueues);
+        ProcessingMetrics.get().dump(output);
+
         stats.logStatistics(this);
 
         status.addSuccessfulEvidences(args);
@@ -565,6 +590,7 @@ private void monitorProcessing() throws Exception {
 
         boolean someWorkerAlive = true;
         long start = System.currentTimeMillis();
+        long lastMetricsDump = start;
 
         while (someWorkerAlive) {
             if (UIPropertyListenerProvider.getInstance().isCancelled()) {
@@ -620,7 +646,13 @@ private void monitorProcessing() throws Exception {
                 }
             }
 
+            ProcessingMetrics.get().update(processingQueues);
+
             long t = System.currentTimeMillis();
+            if (t - lastMetricsDump >= METRICS_DUMP_INTERVAL_MILLIS) {
+                ProcessingMetrics.get().dump(output);
+                lastMetricsDump = t;
+            }
             if (t - start >= commitIntervalMillis) {
                 if (commitThread == null || !commitThread.isAlive()) {
                     commitThread = commit();
@@ -650,10 +682,14 @@ public void run() {
                     LOGGER.info("Commiting sqlite storages...");
                     ExportFileTask.commitStorage(output);
 
+                    ThumbTask.commit(output);
+
                     GraphTask.commit();
 
                     ExportCSVTask.commit(output);
 
+                    DuplicateTask.commit(caseData, output);
+
                     ElasticSearchIndexTask.commit();
 
                     writer.commit();
@@ -697,6 +733,8 @@ private void finishProcessing() throws Exception {
             workers[k].finish();
         }
 
+        ThumbTask.close(output);
+
         if (indexConfig.isForceMerge()) {
             UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", Messages.getString("Manager.Optimizing")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
             LOGGER.info("Optimizing Index..."); //$NON-NLS-1$
@@ -0,0 +1,280 @@
+package iped.engine.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.util.LatencyHistogram;
+
+/**
+ * Lock free registry of processing metrics: latency histograms per task and per
+ * parser, processing rates, queue sizes per priority, idle time of workers and
+ * gauges registered by tasks.
+ * Rates and queue sizes are sampled by {@link #update(ProcessingQueues)}, called
+ * periodically by the Manager, which also writes them to the case folder with
+ * {@link #dump(File)}, so bottlenecks can be found without a profiler.
+ */
+public class ProcessingMetrics {
+
+    public static final String JSON_FILE = "data/processingMetrics.json"; //$NON-NLS-1$
+    public static final String CSV_FILE = "data/processingMetrics.csv"; //$NON-NLS-1$
+
+    private static final String CSV_HEADER = "time,type,name,count,value,mean_us,p50_us,p90_us,p99_us"; //$NON-NLS-1$
+
+    /**
+     * Min interval between rate samples.
+     */
+    private static final long RATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ProcessingMetrics.class);
+
+    private static final ProcessingMetrics instance = new ProcessingMetrics();
+
+    private final ConcurrentHashMap<String, LatencyHistogram> taskLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> parserLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> workerIdleNanos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Supplier<? extends Number>> gauges = new ConcurrentHashMap<>();
+
+    private final long start = System.nanoTime();
+
+    private long lastSampleTime = start, lastItems, lastVolume;
+    private volatile double itemsPerSecond, bytesPerSecond;
+    private volatile SortedMap<Integer, Integer> queueSizes = new TreeMap<>();
+
+    public static ProcessingMetrics get() {
+        return instance;
+    }
+
+    private static LatencyHistogram histogram(ConcurrentHashMap<String, LatencyHistogram> map, String name) {
+        LatencyHistogram histogram = map.get(name);
+        if (histogram == null) {
+            histogram = map.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    public void recordTask(String task, long nanos) {
+        histogram(taskLatencies, task).record(nanos);
+    }
+
+    public void recordParser(String parser, long nanos) {
+        histogram(parserLatencies, parser).record(nanos);
+    }
+
+    public void addWorkerIdle(String worker, long nanos) {
+        LongAdder idle = workerIdleNanos.get(worker);
+        if (idle == null) {
+            idle = workerIdleNanos.computeIfAbsent(worker, k -> new LongAdder());
+        }
+        idle.add(nanos);
+    }
+
+    /**
+     * Registers a value sampled when metrics are written, replacing a previous
+     * gauge with the same name.
+     */
+    public void registerGauge(String name, Supplier<? extends Number> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public LatencyHistogram getTaskLatency(String task) {
+        return taskLatencies.get(task);
+    }
+
+    public LatencyHistogram getParserLatency(String parser) {
+        return parserLatencies.get(parser);
+    }
+
+    /**
+     * @return processed items per second in the last sampled interval.
+     */
+    public double getItemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    /**
+     * @return processed bytes per second in the last sampled interval.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return number of queued items per priority, when last sampled.
+     */
+    public SortedMap<Integer, Integer> getQueueSizes() {
+        return queueSizes;
+    }
+
+    /**
+     * @return fraction of the elapsed time workers spent waiting for items.
+     */
+    public double getWorkerIdleRatio() {
+        if (workerIdleNanos.isEmpty()) {
+            return 0;
+        }
+        long idle = 0;
+        for (LongAdder adder : workerIdleNanos.values()) {
+            idle += adder.sum();
+        }
+        long elapsed = (System.nanoTime() - start) * workerIdleNanos.size();
+        return elapsed <= 0 ? 0 : Math.min(1, (double) idle / elapsed);
+    }
+
+    /**
+     * Samples queue sizes and, if enough time has elapsed, processing rates.
+     */
+    public synchronized void update(ProcessingQueues queues) {
+        if (queues != null) {
+            queueSizes = queues.getQueueSizes();
+        }
+        Statistics stats = Statistics.get();
+        long now = System.nanoTime();
+        if (stats == null || now - lastSampleTime < RATE_INTERVAL_NANOS) {
+            return;
+        }
+        long items = stats.getProcessed();
+        long volume = stats.getVolume();
+        double secs = (now - lastSampleTime) / 1e9;
+        itemsPerSecond = (items - lastItems) / secs;
+        bytesPerSecond = (volume - lastVolume) / secs;
+        lastItems = items;
+        lastVolume = volume;
+        lastSampleTime = now;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount()); //$NON-NLS-1$
+        json.put("totalMillis", histogram.getTotal(TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+        json.put("meanMicros", histogram.getMean(TimeUnit.MICROSECONDS)); //$NON-NLS-1$
+        json.put("p50Micros", histogram.getPercentile(50, TimeUnit.MICROSECONDS)); //$NON-NLS-1$
+        json.put("p90Micros", histogram.getPercentile(90, TimeUnit.MICROSECONDS)); //$NON-NLS-1$
+        json.put("p99Micros", histogram.getPercentile(99, TimeUnit.MICROSECONDS)); //$NON-NLS-1$
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject toJSON(Map<String, LatencyHistogram> histograms) {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            json.put(entry.getKey(), toJSON(entry.getValue()));
+        }
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("time", System.currentTimeMillis()); //$NON-NLS-1$
+        json.put("elapsedSeconds", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start)); //$NON-NLS-1$
+        Statistics stats = Statistics.get();
+        if (stats != null) {
+            json.put("itemsProcessed", stats.getProcessed()); //$NON-NLS-1$
+            json.put("bytesProcessed", stats.getVolume()); //$NON-NLS-1$
+        }
+        json.put("itemsPerSecond", itemsPerSecond); //$NON-NLS-1$
+        json.put("bytesPerSecond", bytesPerSecond); //$NON-NLS-1$
+        JSONObject queues = new JSONObject();
+        for (Map.Entry<Integer, Integer> entry : queueSizes.entrySet()) {
+            queues.put(entry.getKey().toString(), entry.getValue());
+        }
+        json.put("queueSizes", queues); //$NON-NLS-1$
+        JSONObject idle = new JSONObject();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(workerIdleNanos).entrySet()) {
+            idle.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().sum()));
+        }
+        json.put("workerIdleMillis", idle); //$NON-NLS-1$
+        JSONObject gaugeValues = new JSONObject();
+        for (Map.Entry<String, Supplier<? extends Number>> entry : new TreeMap<>(gauges).entrySet()) {
+            gaugeValues.put(entry.getKey(), entry.getValue().get());
+        }
+        json.put("gauges", gaugeValues); //$NON-NLS-1$
+        json.put("tasks", toJSON(taskLatencies)); //$NON-NLS-1$
+        json.put("parsers", toJSON(parserLatencies)); //$NON-NLS-1$
+        return json;
+    }
+
+    private static void writeCSVRow(Writer writer, String time, String type, String name, long count, Object value,
+            LatencyHistogram histogram) throws IOException {
+        writer.write(time + "," + type + ",\"" + name.replace("\"", "\"\"") + "\"," + count + "," //$NON-NLS-1$
+                + (value != null ? value : "")); //$NON-NLS-1$
+        if (histogram != null) {
+            writer.write("," + histogram.getMean(TimeUnit.MICROSECONDS) + "," //$NON-NLS-1$
+                    + histogram.getPercentile(50, TimeUnit.MICROSECONDS) + "," //$NON-NLS-1$
+                    + histogram.getPercentile(90, TimeUnit.MICROSECONDS) + "," //$NON-NLS-1$
+                    + histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+        } else {
+            writer.write(",,,,"); //$NON-NLS-1$
+        }
+        writer.write("\n"); //$NON-NLS-1$
+    }
+
+    /**
+     * Writes the current metrics to the JSON file and appends them to the CSV
+     * file, inside the module folder.
+     */
+    public synchronized void dump(File moduleDir) {
+        try {
+            File json = new File(moduleDir, JSON_FILE);
+            json.getParentFile().mkdirs();
+            File tmp = new File(json.getPath() + ".tmp"); //$NON-NLS-1$
+            Files.write(tmp.toPath(), toJSON().toJSONString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), json.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            File csv = new File(moduleDir, CSV_FILE);
+            boolean exists = csv.exists();
+            try (BufferedWriter writer = Files.newBufferedWriter(csv.toPath(), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if (!exists) {
+                    writer.write(CSV_HEADER + "\n"); //$NON-NLS-1$
+                }
+                String time = String.format("%tFT%<tT", new Date()); //$NON-NLS-1$
+                writeCSVRow(writer, time, "rate", "items/s", 0, //$NON-NLS-1$
+                        String.format(Locale.ROOT, "%.1f", itemsPerSecond), null); //$NON-NLS-1$
+                writeCSVRow(writer, time, "rate", "bytes/s", 0, //$NON-NLS-1$
+                        String.format(Locale.ROOT, "%.0f", bytesPerSecond), null); //$NON-NLS-1$
+                for (Map.Entry<Integer, Integer> entry : queueSizes.entrySet()) {
+                    writeCSVRow(writer, time, "queue", entry.getKey().toString(), entry.getValue(), null, null); //$NON-NLS-1$
+                }
+                for (Map.Entry<String, LongAdder> entry : new TreeMap<>(workerIdleNanos).entrySet()) {
+                    writeCSVRow(writer, time, "idle", entry.getKey(), 0, //$NON-NLS-1$
+                            TimeUnit.NANOSECONDS.toMillis(entry.getValue().sum()), null);
+                }
+                for (Map.Entry<String, Supplier<? extends Number>> entry : new TreeMap<>(gauges).entrySet()) {
+                    writeCSVRow(writer, time, "gauge", entry.getKey(), 0, entry.getValue().get(), null); //$NON-NLS-1$
+                }
+                for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(taskLatencies).entrySet()) {
+                    writeCSVRow(writer, time, "task", entry.getKey(), entry.getValue().getCount(), null, //$NON-NLS-1$
+                            entry.getValue());
+                }
+                for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(parserLatencies).entrySet()) {
+                    writeCSVRow(writer, time, "parser", entry.getKey(), entry.getValue().getCount(), null, //$NON-NLS-1$
+                            entry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error writing processing metrics: {}", e.toString()); //$NON-NLS-1$
+        }
+    }
+
+}
@@ -3,6 +3,7 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.SortedMap;
 import java.util.SplittableRandom;
 import java.util.TreeMap;
 
@@ -30,10 +31,10 @@ the items, if random order is enabled (default). In such case, items are
 
     private volatile Integer currentQueuePriority = 0;
 
-    private CaseData caseData;
+    protected CaseData caseData;
 
-    private int maxQueueSize;
-    private boolean randomOrder;
+    protected int maxQueueSize;
+    protected boolean randomOrder;
 
     private static Logger logger = LogManager.getLogger(ProcessingQueues.class);
 
@@ -42,9 +43,20 @@ the items, if random order is enabled (default). In such case, items are
     private final SplittableRandom rnd = new SplittableRandom();
 
     public ProcessingQueues(CaseData caseData) {
+        this(caseData, true);
+    }
+
+    /**
+     * @param initQueues
+     *            false for subclasses keeping items in their own queues, so the
+     *            ones of this class are not created.
+     */
+    protected ProcessingQueues(CaseData caseData, boolean initQueues) {
         this.caseData = caseData;
         initConfig();
-        initQueues();
+        if (initQueues) {
+            initQueues();
+        }
     }
 
     private void initConfig() {
@@ -155,6 +167,31 @@ public synchronized boolean isNoItemInQueueOrBeingProcessed() {
         return totalItemsBeingProcessed == 0 && getItemQueueTop().isEmpty() && getItemQueueRest().isEmpty();
     }
 
+    /**
+     * Takes the next item from the current queue, waiting until one is available.
+     * Items that are not queue ends are atomically accounted as being processed.
+     */
+    public IItem takeFromCurrentQueue() throws InterruptedException {
+        boolean sleep = false;
+        while (true) {
+            if (sleep) {
+                // this should be very rare
+                sleep = false;
+                Thread.sleep(100);
+            }
+            synchronized (this) {
+                IItem item = pollFromCurrentQueue();
+                if (item != null) {
+                    if (!item.isQueueEnd()) {
+                        incItemsBeingProcessed();
+                    }
+                    return item;
+                }
+            }
+            sleep = true;
+        }
+    }
+
     public synchronized IItem pollFromCurrentQueue() throws InterruptedException {
         LinkedList<IItem> q1 = getItemQueueTop();
         if (!q1.isEmpty()) {
@@ -183,6 +220,17 @@ public synchronized int getCurrentQueueSize() {
         return getItemQueueTop().size() + getItemQueueRest().size();
     }
 
+    /**
+     * @return number of queued items per priority.
+     */
+    public synchronized SortedMap<Integer, Integer> getQueueSizes() {
+        SortedMap<Integer, Integer> sizes = new TreeMap<>();
+        for (Integer priority : queuesTop.keySet()) {
+            sizes.put(priority, queuesTop.get(priority).size() + queuesRest.get(priority).size());
+        }
+        return sizes;
+    }
+
     public Integer changeToNextQueue() {
         currentQueuePriority = queuesTop.ceilingKey(currentQueuePriority + 1);
         return currentQueuePriority;
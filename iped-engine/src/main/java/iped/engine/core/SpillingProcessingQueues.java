@@ -0,0 +1,506 @@
+package iped.engine.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.SortedMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import iped.data.IItem;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.config.LocalConfig;
+import iped.engine.config.ProcessingPriorityConfig;
+import iped.engine.data.CaseData;
+import iped.engine.data.ItemRecordCodec;
+import iped.engine.util.Util;
+
+/**
+ * Processing queues limited by the estimated heap used by queued items instead
+ * of by their number. Items are kept in memory in a "hot" window while it is
+ * below the memory limit. Items added after that are written as compact binary
+ * records to an append-only temporary file of the queue and read back in the
+ * same order when the window drains below half of the limit, so producers
+ * expanding huge containers do not need to wait for the workers.
+ *
+ * Prioritized items (inserted with addItemFirst), queue ends and items holding
+ * temporary files or open resources are always kept in memory. The ordering
+ * behavior (random or FIFO) is the same of the default implementation.
+ */
+public class SpillingProcessingQueues extends ProcessingQueues {
+
+    private static Logger logger = LogManager.getLogger(SpillingProcessingQueues.class);
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+
+    private final ItemRecordCodec codec = new ItemRecordCodec();
+
+    private final RecordOutputStream recordBytes = new RecordOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+
+    private final File spillDir;
+
+    private final long maxMemory;
+    private final long maxSpillSize;
+
+    private volatile Integer currentPriority = 0;
+
+    private int totalItemsBeingProcessed = 0;
+
+    private final SplittableRandom rnd = new SplittableRandom();
+
+    private class Bucket {
+
+        private final int priority;
+        private final LinkedList<IItem> top = new LinkedList<>();
+        private final ArrayList<IItem> rest = new ArrayList<>();
+        private SpillFile spill;
+
+        /**
+         * Estimated heap used by items in memory.
+         */
+        private long memory = 0;
+
+        private Bucket(int priority) {
+            this.priority = priority;
+        }
+
+        private int size() {
+            return top.size() + rest.size() + (spill != null ? spill.records : 0);
+        }
+
+        private boolean hasSpilled() {
+            return spill != null && spill.records > 0;
+        }
+
+        private void addToMemory(IItem item, boolean addFirst) {
+            if (addFirst) {
+                top.addFirst(item);
+            } else if (randomOrder) {
+                rest.add(item);
+            } else {
+                top.addLast(item);
+            }
+            memory += ItemRecordCodec.estimateSize(item);
+        }
+
+        private IItem removeFromMemory(IItem item) {
+            if (top.isEmpty() && rest.isEmpty()) {
+                memory = 0;
+            } else {
+                memory -= ItemRecordCodec.estimateSize(item);
+            }
+            return item;
+        }
+
+        private void spill(IItem item) throws IOException {
+            if (spill == null) {
+                spill = new SpillFile(new File(spillDir, "queue-" + priority + ".spill"));
+            }
+            recordBytes.reset();
+            codec.write(item, recordOut);
+            recordOut.flush();
+            spill.append(recordBytes.buffer(), recordBytes.size());
+        }
+
+        /**
+         * Reads spilled items back to memory, until the hot window is 3/4 full.
+         */
+        private void fill() {
+            if (!hasSpilled() || memory >= maxMemory / 2) {
+                return;
+            }
+            try {
+                while (spill.records > 0 && memory < maxMemory - maxMemory / 4) {
+                    addToMemory(codec.read(spill.next()), false);
+                }
+                if (spill.records == 0) {
+                    spill.reset();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading processing queue spill file", e);
+            }
+        }
+
+        private IItem poll() {
+            fill();
+            if (!top.isEmpty()) {
+                return removeFromMemory(top.pollFirst());
+            }
+            if (rest.size() > 2) {
+                int pos = rnd.nextInt(rest.size() - 1);
+                IItem item = rest.get(pos);
+                Collections.swap(rest, pos, rest.size() - 2);
+                rest.remove(rest.size() - 2);
+                return removeFromMemory(item);
+            }
+            return rest.isEmpty() ? null : removeFromMemory(rest.remove(0));
+        }
+
+        private IItem peek() {
+            fill();
+            return top.isEmpty() ? rest.get(0) : top.peekFirst();
+        }
+    }
+
+    /**
+     * Append-only file of length prefixed records, read sequentially. It is
+     * truncated when all records were read.
+     */
+    private static class SpillFile {
+
+        private final File file;
+        private final FileChannel channel;
+        private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBufferInputStream readBuffer = new ByteBufferInputStream();
+        private final DataInputStream recordIn = new DataInputStream(readBuffer);
+
+        /**
+         * File positions of the end of written data and of the next data to be read
+         * into the read buffer.
+         */
+        private long writePos = 0, readPos = 0;
+
+        private int records = 0;
+        private long bytes = 0;
+
+        private SpillFile(File file) throws IOException {
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            file.deleteOnExit();
+        }
+
+        private void append(byte[] record, int len) throws IOException {
+            if (writeBuffer.remaining() < len + 4) {
+                flush();
+            }
+            if (writeBuffer.remaining() < len + 4) {
+                ByteBuffer buf = ByteBuffer.allocate(len + 4);
+                buf.putInt(len).put(record, 0, len).flip();
+                write(buf);
+            } else {
+                writeBuffer.putInt(len).put(record, 0, len);
+            }
+            records++;
+            bytes += len + 4;
+        }
+
+        private void flush() throws IOException {
+            writeBuffer.flip();
+            write(writeBuffer);
+            writeBuffer.clear();
+        }
+
+        private void write(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                writePos += channel.write(buf, writePos);
+            }
+        }
+
+        /**
+         * @return a stream over the next record.
+         */
+        private DataInputStream next() throws IOException {
+            // skips what was not read of the previous record
+            readBuffer.buffer.position(Math.max(readBuffer.buffer.position(), readBuffer.limit));
+            ensureReadable(4);
+            int len = readBuffer.buffer.getInt(readBuffer.buffer.position());
+            // may replace the buffer by a larger one
+            ensureReadable(4 + len);
+            ByteBuffer buf = readBuffer.buffer;
+            buf.position(buf.position() + 4);
+            readBuffer.limit = buf.position() + len;
+            records--;
+            bytes -= len + 4;
+            return recordIn;
+        }
+
+        private void ensureReadable(int len) throws IOException {
+            ByteBuffer buf = readBuffer.buffer;
+            if (buf.limit() - buf.position() >= len) {
+                return;
+            }
+            if (readPos + len - (buf.limit() - buf.position()) > writePos) {
+                flush();
+            }
+            buf.compact();
+            if (buf.capacity() < len) {
+                ByteBuffer larger = ByteBuffer.allocate(len);
+                buf.flip();
+                larger.put(buf);
+                buf = readBuffer.buffer = larger;
+            }
+            while (buf.position() < len) {
+                int read = channel.read(buf, readPos);
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + file.getAbsolutePath());
+                }
+                readPos += read;
+            }
+            buf.flip();
+        }
+
+        private void reset() throws IOException {
+            channel.truncate(0);
+            writeBuffer.clear();
+            if (readBuffer.buffer.capacity() > BUFFER_SIZE) {
+                readBuffer.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            }
+            readBuffer.buffer.clear().flip();
+            readBuffer.limit = 0;
+            writePos = readPos = 0;
+            records = 0;
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Reads the current record from the read buffer, which is advanced.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private int limit;
+
+        @Override
+        public int read() throws IOException {
+            return buffer.position() < limit ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int remaining = limit - buffer.position();
+            if (len == 0) {
+                return 0;
+            }
+            if (remaining <= 0) {
+                return -1;
+            }
+            len = Math.min(len, remaining);
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * Exposes the internal array to avoid copying records.
+     */
+    private static class RecordOutputStream extends ByteArrayOutputStream {
+
+        private RecordOutputStream() {
+            super(4096);
+        }
+
+        private byte[] buffer() {
+            return buf;
+        }
+    }
+
+    public SpillingProcessingQueues(CaseData caseData) {
+        super(caseData, false);
+        ProcessingPriorityConfig config = ConfigurationManager.get().findObject(ProcessingPriorityConfig.class);
+        LocalConfig localConfig = ConfigurationManager.get().findObject(LocalConfig.class);
+        try {
+            spillDir = Files.createTempDirectory(localConfig.getIndexerTemp().toPath(), "queue").toFile();
+            spillDir.deleteOnExit();
+        } catch (IOException e) {
+            throw new RuntimeException("Error creating processing queue spill folder", e);
+        }
+
+        long memory = config.getMaxQueueMemory();
+        boolean autoMemory = memory == 0;
+        if (autoMemory) {
+            memory = Runtime.getRuntime().maxMemory() / 16;
+        }
+        // Enforce a very minimal size
+        maxMemory = Math.max(16 << 20, memory);
+
+        long spillSize = config.getMaxQueueSpillSize();
+        boolean autoSpill = spillSize == 0;
+        if (autoSpill) {
+            spillSize = spillDir.getUsableSpace() / 4;
+        }
+        maxSpillSize = Math.max(64 << 20, spillSize);
+
+        buckets.put(0, new Bucket(0));
+        for (Integer priority : QueuesProcessingOrder.getProcessingQueues()) {
+            buckets.put(priority, new Bucket(priority));
+        }
+        logger.info("Processing Queue Engine: spilling to {}", spillDir.getAbsolutePath());
+        logger.info("Maximum Processing Queue Memory: {}MB{}", maxMemory >>> 20, autoMemory ? " (auto)" : "");
+        logger.info("Maximum Processing Queue Spill Size: {}MB{}", maxSpillSize >>> 20, autoSpill ? " (auto)" : "");
+    }
+
+    private Bucket currentBucket() {
+        return buckets.get(currentPriority);
+    }
+
+    @Override
+    public void addItem(IItem item) throws InterruptedException {
+        addItemToQueue(item, currentPriority, false, true);
+    }
+
+    @Override
+    public void addItemFirst(IItem item) throws InterruptedException {
+        addItemToQueue(item, currentPriority, true, true);
+    }
+
+    @Override
+    public void addItemNonBlocking(IItem item) {
+        try {
+            addItemToQueue(item, currentPriority, false, false);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addItemFirstNonBlocking(IItem item) {
+        try {
+            addItemToQueue(item, currentPriority, true, false);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addItemToQueue(IItem item, int queuePriority) throws InterruptedException {
+        addItemToQueue(item, queuePriority, false, false);
+    }
+
+    private void addItemToQueue(IItem item, int queuePriority, boolean addFirst, boolean blockIfFull)
+            throws InterruptedException {
+
+        Util.calctrackIDAndUpdateID(caseData, item);
+
+        Bucket bucket = buckets.get(queuePriority);
+        boolean sleep = false;
+        while (true) {
+            if (sleep) {
+                sleep = false;
+                Thread.sleep(1000);
+            }
+            synchronized (this) {
+                boolean memoryFull = bucket.memory >= maxMemory;
+                if (!addFirst && (memoryFull || bucket.hasSpilled()) && codec.canWrite(item)) {
+                    if (blockIfFull && queuePriority == 0 && bucket.spill != null && bucket.spill.bytes >= maxSpillSize) {
+                        sleep = true;
+                        continue;
+                    }
+                    try {
+                        bucket.spill(item);
+                        break;
+                    } catch (IOException e) {
+                        logger.warn("Error writing to processing queue spill file, keeping item in memory: "
+                                + item.getPath(), e);
+                    }
+                } else if (blockIfFull && queuePriority == 0 && memoryFull) {
+                    sleep = true;
+                    continue;
+                }
+                bucket.addToMemory(item, addFirst);
+                break;
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getItemsBeingProcessed() {
+        return totalItemsBeingProcessed;
+    }
+
+    @Override
+    public synchronized void incItemsBeingProcessed() {
+        totalItemsBeingProcessed++;
+    }
+
+    @Override
+    public synchronized void decItemsBeingProcessed() {
+        totalItemsBeingProcessed--;
+    }
+
+    @Override
+    public synchronized boolean isNoItemInQueueOrBeingProcessed() {
+        return totalItemsBeingProcessed == 0 && currentBucket().size() == 0;
+    }
+
+    @Override
+    public IItem takeFromCurrentQueue() throws InterruptedException {
+        boolean sleep = false;
+        while (true) {
+            if (sleep) {
+                // this should be very rare
+                sleep = false;
+                Thread.sleep(100);
+            }
+            synchronized (this) {
+                IItem item = currentBucket().poll();
+                if (item != null) {
+                    if (!item.isQueueEnd()) {
+                        totalItemsBeingProcessed++;
+                    }
+                    return item;
+                }
+            }
+            sleep = true;
+        }
+    }
+
+    @Override
+    public synchronized IItem pollFromCurrentQueue() throws InterruptedException {
+        return currentBucket().poll();
+    }
+
+    @Override
+    public synchronized void addToCurrentQueue(IItem item) throws InterruptedException {
+        currentBucket().addToMemory(item, false);
+    }
+
+    @Override
+    public synchronized IItem peekItemFromCurrentQueue() {
+        return currentBucket().peek();
+    }
+
+    @Override
+    public synchronized int getCurrentQueueSize() {
+        return currentBucket().size();
+    }
+
+    @Override
+    public synchronized SortedMap<Integer, Integer> getQueueSizes() {
+        SortedMap<Integer, Integer> sizes = new TreeMap<>();
+        for (Integer priority : buckets.keySet()) {
+            sizes.put(priority, buckets.get(priority).size());
+        }
+        return sizes;
+    }
+
+    @Override
+    public Integer changeToNextQueue() {
+        currentPriority = buckets.ceilingKey(currentPriority + 1);
+        return currentPriority;
+    }
+
+    @Override
+    public Integer getCurrentQueuePriority() {
+        return currentPriority;
+    }
+
+}
@@ -11,7 +11,9 @@
 import java.util.Date;
 import java.util.HashMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JOptionPane;
 
@@ -32,15 +34,19 @@
 import iped.engine.config.LocalConfig;
 import iped.engine.config.LocaleConfig;
 import iped.engine.config.PluginConfig;
+import iped.engine.io.ParsingReader;
 import iped.engine.localization.Messages;
 import iped.engine.lucene.ConfiguredFSDirectory;
+import iped.engine.sleuthkit.SleuthkitClient;
 import iped.engine.task.ExportFileTask;
 import iped.engine.task.ParsingTask;
 import iped.engine.task.carver.BaseCarveTask;
 import iped.engine.task.index.IndexItem;
+import iped.engine.util.LatencyHistogram;
 import iped.engine.util.Util;
 import iped.exception.IPEDException;
 import iped.parsers.standard.StandardParser;
+import iped.utils.BlockCache;
 import iped.utils.HashValue;
 
 /**
@@ -64,16 +70,18 @@ public class Statistics {
 
     // EstatÃ­sticas
     Date start = new Date();
-    int splits = 0;
-    int timeouts = 0;
-    int processed = 0;
-    int activeProcessed = 0;
-    long volumeIndexed = 0;
-    int lastId = -1;
-    int corruptCarveIgnored = 0;
-    int ignored = 0;
+    // lock free counters, incremented by all workers
+    LongAdder splits = new LongAdder();
+    LongAdder timeouts = new LongAdder();
+    LongAdder partialParsings = new LongAdder();
+    LongAdder processed = new LongAdder();
+    LongAdder activeProcessed = new LongAdder();
+    LongAdder volumeIndexed = new LongAdder();
+    AtomicInteger lastId = new AtomicInteger(-1);
+    LongAdder corruptCarveIgnored = new LongAdder();
+    LongAdder ignored = new LongAdder();
     int previousIndexedFiles = 0;
-    int ioerrors = 0;
+    LongAdder ioerrors = new LongAdder();
     AtomicInteger subitensDiscovered = new AtomicInteger();
 
     public static Statistics get(ICaseData caseData, File indexDir) {
@@ -141,82 +149,92 @@ public void commit() throws IOException {
         Util.fsync(file.toPath());
     }
 
-    synchronized public int getSplits() {
-        return splits;
+    public int getSplits() {
+        return splits.intValue();
     }
 
-    synchronized public void incSplits() {
-        splits++;
+    public void incSplits() {
+        splits.increment();
     }
 
-    synchronized public int getTimeouts() {
-        return timeouts;
+    public int getTimeouts() {
+        return timeouts.intValue();
     }
 
-    synchronized public void incTimeouts() {
-        timeouts++;
+    public void incTimeouts() {
+        timeouts.increment();
     }
 
-    synchronized public void incProcessed() {
-        processed++;
+    public int getPartialParsings() {
+        return partialParsings.intValue();
     }
 
-    synchronized public int getProcessed() {
-        return processed;
+    /**
+     * Counts items whose parsing stopped at the soft deadline, keeping partial
+     * results instead of being reprocessed.
+     */
+    public void incPartialParsings() {
+        partialParsings.increment();
     }
 
-    synchronized public void incIoErrors() {
-        ioerrors++;
+    public void incProcessed() {
+        processed.increment();
     }
 
-    synchronized public int getIoErrors() {
-        return ioerrors;
+    public int getProcessed() {
+        return processed.intValue();
     }
 
-    synchronized public void incActiveProcessed() {
-        activeProcessed++;
+    public void incIoErrors() {
+        ioerrors.increment();
     }
 
-    synchronized public int getActiveProcessed() {
-        return activeProcessed;
+    public int getIoErrors() {
+        return ioerrors.intValue();
     }
 
-    synchronized public void addVolume(long volume) {
-        volumeIndexed += volume;
+    public void incActiveProcessed() {
+        activeProcessed.increment();
     }
 
-    synchronized public long getVolume() {
-        return volumeIndexed;
+    public int getActiveProcessed() {
+        return activeProcessed.intValue();
     }
 
-    synchronized public int getCorruptCarveIgnored() {
-        return corruptCarveIgnored;
+    public void addVolume(long volume) {
+        volumeIndexed.add(volume);
     }
 
-    private synchronized void incCorruptCarveIgnored() {
-        corruptCarveIgnored++;
+    public long getVolume() {
+        return volumeIndexed.sum();
     }
 
-    synchronized public int getIgnored() {
-        return ignored;
+    public int getCorruptCarveIgnored() {
+        return corruptCarveIgnored.intValue();
     }
 
-    synchronized public void incIgnored() {
-        ignored++;
+    private void incCorruptCarveIgnored() {
+        corruptCarveIgnored.increment();
     }
 
-    synchronized public void updateLastId(int id) {
-        if (id > lastId) {
-            lastId = id;
-        }
+    public int getIgnored() {
+        return ignored.intValue();
+    }
+
+    public void incIgnored() {
+        ignored.increment();
+    }
+
+    public void updateLastId(int id) {
+        lastId.accumulateAndGet(id, Math::max);
     }
 
-    synchronized public int getLastId() {
-        return lastId;
+    public int getLastId() {
+        return lastId.get();
     }
 
-    synchronized public void setLastId(int id) {
-        lastId = id;
+    public void setLastId(int id) {
+        lastId.set(id);
     }
 
     public void incSubitemsDiscovered() {
@@ -253,11 +271,15 @@ public void logStatistics(Manager manager) throws Exception {
         sb.append(String.format("%-30s", "TASK"));
         sb.append(String.format(" %7s", "TIME(s)"));
         sb.append(String.format(" %6s", "PCT(%)"));
+        sb.append(String.format(" %9s", "P50(ms)"));
+        sb.append(String.format(" %9s", "P99(ms)"));
         LOGGER.info(sb.toString());
         sb.setLength(0);
         sb.append(String.format("%-30s", "").replace(' ', '='));
         sb.append(" ").append(String.format("%7s", "").replace(' ', '='));
         sb.append(" ").append(String.format("%6s", "").replace(' ', '='));
+        sb.append(" ").append(String.format("%9s", "").replace(' ', '='));
+        sb.append(" ").append(String.format("%9s", "").replace(' ', '='));
         LOGGER.info(sb.toString());
         sb.setLength(0);
         for (int i = 0; i < taskTimes.length; i++) {
@@ -265,6 +287,7 @@ public void logStatistics(Manager manager) throws Exception {
             sb.append(String.format("%-30s", workers[0].tasks.get(i).getName()));
             sb.append(String.format(" %7d", sec));
             sb.append(String.format(" %6d", Math.round((100f * sec) / totalTime)));
+            appendPercentiles(sb, ProcessingMetrics.get().getTaskLatency(workers[0].tasks.get(i).getName()));
             LOGGER.info(sb.toString());
             sb.setLength(0);
         }
@@ -284,11 +307,15 @@ public void logStatistics(Manager manager) throws Exception {
             sb.append(String.format("%-30s", "PARSER"));
             sb.append(String.format(" %7s", "TIME(s)"));
             sb.append(String.format(" %6s", "PCT(%)"));
+            sb.append(String.format(" %9s", "P50(ms)"));
+            sb.append(String.format(" %9s", "P99(ms)"));
             LOGGER.info(sb.toString());
             sb.setLength(0);
             sb.append(String.format("%-30s", "").replace(' ', '='));
             sb.append(" ").append(String.format("%7s", "").replace(' ', '='));
             sb.append(" ").append(String.format("%6s", "").replace(' ', '='));
+            sb.append(" ").append(String.format("%9s", "").replace(' ', '='));
+            sb.append(" ").append(String.format("%9s", "").replace(' ', '='));
             LOGGER.info(sb.toString());
             sb.setLength(0);
             for (String parserName : timesPerParser.keySet()) {
@@ -297,6 +324,7 @@ public void logStatistics(Manager manager) throws Exception {
                 sb.append(String.format("%-30s", parserName));
                 sb.append(String.format(" %7d", sec));
                 sb.append(String.format(" %6d", Math.round(100.0 * time / totalTime)));
+                appendPercentiles(sb, ProcessingMetrics.get().getParserLatency(parserName));
                 LOGGER.info(sb.toString());
                 sb.setLength(0);
             }
@@ -307,12 +335,26 @@ public void logStatistics(Manager manager) throws Exception {
             numDocs = reader.numDocs();
         }
 
+        LOGGER.info("Workers idle time: {}%", Math.round(100 * ProcessingMetrics.get().getWorkerIdleRatio())); //$NON-NLS-1$
         LOGGER.info("Partial commits took {} seconds", manager.partialCommitsTime.get());
         LOGGER.info("Index internal docs: {}", numDocs); //$NON-NLS-1$
         LOGGER.info("Text Splits: {}", getSplits()); //$NON-NLS-1$
         LOGGER.info("Timeouts: {}", getTimeouts()); //$NON-NLS-1$
+        LOGGER.info("Partial parsings kept at soft deadline: {}", getPartialParsings()); //$NON-NLS-1$
+        LOGGER.info("Parsing CPU time wasted by timeouts: {}s", ParsingReader.getTimeoutWastedCpuMillis() / 1000); //$NON-NLS-1$
         LOGGER.info("Parsing Exceptions: {}", StandardParser.parsingErrors); //$NON-NLS-1$
         LOGGER.info("I/O read errors: {}", this.getIoErrors()); //$NON-NLS-1$
+        if (BlockCache.getHitCount() + BlockCache.getMissCount() > 0) {
+            LOGGER.info("Image block cache: {} hits, {} misses, hit ratio {}%", BlockCache.getHitCount(), //$NON-NLS-1$
+                    BlockCache.getMissCount(), String.format("%.1f", BlockCache.getHitRatio() * 100)); //$NON-NLS-1$
+        }
+        LatencyHistogram tskReadLatency = SleuthkitClient.getReadLatency();
+        if (tskReadLatency.getCount() > 0) {
+            LOGGER.info("SleuthkitServer reads: {} latency(us) p50={} p99={} mean={}", tskReadLatency.getCount(), //$NON-NLS-1$
+                    tskReadLatency.getPercentile(50, TimeUnit.MICROSECONDS),
+                    tskReadLatency.getPercentile(99, TimeUnit.MICROSECONDS),
+                    tskReadLatency.getMean(TimeUnit.MICROSECONDS));
+        }
         LOGGER.info("Subitems Found: {}", getSubitemsDiscovered()); //$NON-NLS-1$
         LOGGER.info("Exported Items: {}", extracted); //$NON-NLS-1$
         LOGGER.info("Total Carved Items: {}", BaseCarveTask.getItensCarved()); //$NON-NLS-1$
@@ -356,6 +398,15 @@ public void logStatistics(Manager manager) throws Exception {
             LOGGER.error("Warning: IO Errors happened while reading {} items from {}!", getIoErrors(), processed); //$NON-NLS-1$
     }
 
+    private static void appendPercentiles(StringBuilder sb, LatencyHistogram latency) {
+        if (latency == null || latency.getCount() == 0) {
+            sb.append(String.format(" %9s %9s", "-", "-"));
+        } else {
+            sb.append(String.format(" %9d", latency.getPercentile(50, TimeUnit.MILLISECONDS)));
+            sb.append(String.format(" %9d", latency.getPercentile(99, TimeUnit.MILLISECONDS)));
+        }
+    }
+
     public void printSystemInfo() throws Exception {
         LocalConfig localConfig = ConfigurationManager.get().findObject(LocalConfig.class);
         LOGGER.info("Operating System: {}", System.getProperty("os.name")); //$NON-NLS-1$ //$NON-NLS-2$
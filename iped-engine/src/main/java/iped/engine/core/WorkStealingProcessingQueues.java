@@ -0,0 +1,371 @@
+package iped.engine.core;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import iped.data.IItem;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.config.LocalConfig;
+import iped.engine.data.CaseData;
+import iped.engine.util.Util;
+
+/**
+ * Processing queues without a global monitor. Each priority has one bucket
+ * with a pair of lock-free deques per worker: "top" deques receive prioritized
+ * items (inserted with addItemFirst) and "rest" deques receive the other items.
+ * A worker first looks for items in its own deques, then steals from the other
+ * workers' deques, always exhausting the "top" items of the bucket before the
+ * "rest".
+ *
+ * If random order is enabled, new items are spread over randomly chosen deques
+ * of other workers, at a random end of the deque, which keeps similar items
+ * (e.g. from the same container) away from each other. Otherwise a single
+ * shared FIFO deque per bucket is used for the "rest" items, as the default
+ * implementation does.
+ *
+ * Idle workers and producers blocked by a full queue wait on conditions and are
+ * signaled by the other side, instead of polling with sleeps.
+ */
+public class WorkStealingProcessingQueues extends ProcessingQueues {
+
+    private static Logger logger = LogManager.getLogger(WorkStealingProcessingQueues.class);
+
+    private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+
+    private final int numShards;
+
+    private volatile Integer currentPriority = 0;
+
+    private final AtomicInteger totalBeingProcessed = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private final AtomicInteger waitingProducers = new AtomicInteger();
+
+    private class Bucket {
+
+        private final ConcurrentLinkedDeque<IItem>[] top;
+        private final ConcurrentLinkedDeque<IItem>[] rest;
+
+        /**
+         * Number of items in the deques of this bucket, including queue ends.
+         */
+        private final AtomicInteger size = new AtomicInteger();
+
+        /**
+         * Number of real items (not queue ends) waiting in this bucket plus, for
+         * the current bucket, the items being processed by workers. An item taken
+         * from the bucket goes straight from "waiting" to "being processed", so
+         * this counter does not change and there is no window where the item is
+         * invisible to {@link #isNoItemInQueueOrBeingProcessed()}.
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private Bucket() {
+            top = new ConcurrentLinkedDeque[numShards];
+            rest = new ConcurrentLinkedDeque[randomOrder ? numShards : 1];
+            for (int i = 0; i < top.length; i++) {
+                top[i] = new ConcurrentLinkedDeque<>();
+            }
+            for (int i = 0; i < rest.length; i++) {
+                rest[i] = new ConcurrentLinkedDeque<>();
+            }
+        }
+
+        private void add(IItem item, boolean addFirst) {
+            if (!item.isQueueEnd()) {
+                pending.incrementAndGet();
+            }
+            size.incrementAndGet();
+            if (addFirst) {
+                top[currentShard()].addFirst(item);
+            } else if (!randomOrder) {
+                rest[0].addLast(item);
+            } else {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                ConcurrentLinkedDeque<IItem> deque = rest[rnd.nextInt(rest.length)];
+                if (rnd.nextBoolean()) {
+                    deque.addFirst(item);
+                } else {
+                    deque.addLast(item);
+                }
+            }
+        }
+
+        private IItem poll() {
+            int shard = currentShard();
+            IItem item = poll(top, shard);
+            if (item == null) {
+                item = poll(rest, shard);
+            }
+            if (item != null) {
+                size.decrementAndGet();
+            }
+            return item;
+        }
+
+        private IItem poll(ConcurrentLinkedDeque<IItem>[] deques, int shard) {
+            int own = shard % deques.length;
+            IItem item = deques[own].pollFirst();
+            if (item != null || deques.length == 1) {
+                return item;
+            }
+            // steal from the tail of other workers deques, starting at a random one
+            int start = ThreadLocalRandom.current().nextInt(deques.length);
+            for (int i = 0; i < deques.length; i++) {
+                int victim = (start + i) % deques.length;
+                if (victim != own && (item = deques[victim].pollLast()) != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+
+        private IItem peek() {
+            IItem item = peek(top);
+            return item != null ? item : peek(rest);
+        }
+
+        private IItem peek(ConcurrentLinkedDeque<IItem>[] deques) {
+            for (ConcurrentLinkedDeque<IItem> deque : deques) {
+                IItem item = deque.peekFirst();
+                if (item != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+
+    public WorkStealingProcessingQueues(CaseData caseData) {
+        this(caseData, ConfigurationManager.get().findObject(LocalConfig.class).getNumThreads());
+    }
+
+    WorkStealingProcessingQueues(CaseData caseData, int numThreads) {
+        super(caseData, false);
+        numShards = Math.max(1, numThreads);
+        buckets.put(0, new Bucket());
+        for (Integer priority : QueuesProcessingOrder.getProcessingQueues()) {
+            buckets.put(priority, new Bucket());
+        }
+        logger.info("Processing Queue Engine: work stealing with {} deques per priority", numShards);
+    }
+
+    int currentShard() {
+        Thread thread = Thread.currentThread();
+        if (thread instanceof Worker) {
+            return ((Worker) thread).id % numShards;
+        }
+        return ThreadLocalRandom.current().nextInt(numShards);
+    }
+
+    private Bucket currentBucket() {
+        return buckets.get(currentPriority);
+    }
+
+    @Override
+    public void addItem(IItem item) throws InterruptedException {
+        addItemToQueue(item, currentPriority, false, true);
+    }
+
+    @Override
+    public void addItemFirst(IItem item) throws InterruptedException {
+        addItemToQueue(item, currentPriority, true, true);
+    }
+
+    @Override
+    public void addItemNonBlocking(IItem item) {
+        try {
+            addItemToQueue(item, currentPriority, false, false);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addItemFirstNonBlocking(IItem item) {
+        try {
+            addItemToQueue(item, currentPriority, true, false);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void addItemToQueue(IItem item, int queuePriority) throws InterruptedException {
+        addItemToQueue(item, queuePriority, false, false);
+    }
+
+    private void addItemToQueue(IItem item, int queuePriority, boolean addFirst, boolean blockIfFull)
+            throws InterruptedException {
+
+        Util.calctrackIDAndUpdateID(caseData, item);
+
+        Bucket bucket = buckets.get(queuePriority);
+        if (blockIfFull && queuePriority == 0 && bucket.size.get() >= maxQueueSize) {
+            waitNotFull(bucket);
+        }
+        bucket.add(item, addFirst);
+        signalNotEmpty();
+    }
+
+    private void waitNotFull(Bucket bucket) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            waitingProducers.incrementAndGet();
+            try {
+                while (bucket.size.get() >= maxQueueSize) {
+                    notFull.await();
+                }
+            } finally {
+                waitingProducers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalNotEmpty() {
+        if (waitingConsumers.get() > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void signalNotFull(Bucket bucket) {
+        if (waitingProducers.get() > 0 && bucket.size.get() < maxQueueSize) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private IItem pollAndAccount() {
+        Bucket bucket = currentBucket();
+        IItem item = bucket.poll();
+        if (item != null) {
+            if (!item.isQueueEnd()) {
+                totalBeingProcessed.incrementAndGet();
+            }
+            signalNotFull(bucket);
+        }
+        return item;
+    }
+
+    @Override
+    public IItem takeFromCurrentQueue() throws InterruptedException {
+        IItem item = pollAndAccount();
+        if (item != null) {
+            return item;
+        }
+        lock.lockInterruptibly();
+        try {
+            // register as waiting before checking again, so a concurrent producer
+            // either sees this consumer waiting or the consumer sees its item
+            waitingConsumers.incrementAndGet();
+            try {
+                while ((item = pollAndAccount()) == null) {
+                    notEmpty.await();
+                }
+            } finally {
+                waitingConsumers.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        // there may be more items and other workers waiting
+        signalNotEmpty();
+        return item;
+    }
+
+    @Override
+    public IItem pollFromCurrentQueue() throws InterruptedException {
+        Bucket bucket = currentBucket();
+        IItem item = bucket.poll();
+        if (item != null) {
+            if (!item.isQueueEnd()) {
+                // not accounted as being processed, so it must not be pending anymore
+                bucket.pending.decrementAndGet();
+            }
+            signalNotFull(bucket);
+        }
+        return item;
+    }
+
+    @Override
+    public int getItemsBeingProcessed() {
+        return totalBeingProcessed.get();
+    }
+
+    @Override
+    public void incItemsBeingProcessed() {
+        currentBucket().pending.incrementAndGet();
+        totalBeingProcessed.incrementAndGet();
+    }
+
+    @Override
+    public void decItemsBeingProcessed() {
+        totalBeingProcessed.decrementAndGet();
+        currentBucket().pending.decrementAndGet();
+    }
+
+    @Override
+    public boolean isNoItemInQueueOrBeingProcessed() {
+        return currentBucket().pending.get() == 0;
+    }
+
+    @Override
+    public void addToCurrentQueue(IItem item) throws InterruptedException {
+        currentBucket().add(item, false);
+        signalNotEmpty();
+    }
+
+    @Override
+    public IItem peekItemFromCurrentQueue() {
+        return currentBucket().peek();
+    }
+
+    @Override
+    public int getCurrentQueueSize() {
+        return currentBucket().size.get();
+    }
+
+    @Override
+    public SortedMap<Integer, Integer> getQueueSizes() {
+        SortedMap<Integer, Integer> sizes = new TreeMap<>();
+        for (Integer priority : buckets.keySet()) {
+            sizes.put(priority, buckets.get(priority).size.get());
+        }
+        return sizes;
+    }
+
+    @Override
+    public Integer changeToNextQueue() {
+        currentPriority = buckets.ceilingKey(currentPriority + 1);
+        return currentPriority;
+    }
+
+    @Override
+    public Integer getCurrentQueuePriority() {
+        return currentPriority;
+    }
+
+}
@@ -241,23 +241,12 @@ public void run() {
 
             try {
                 evidence = null;
-                boolean sleep = false;
-                while (evidence == null) {
-                    if (sleep) {
-                        // this should be very rare
-                        sleep = false;
-                        Thread.sleep(100);
-                    }
-                    synchronized (manager.getProcessingQueues()) {
-                        evidence = manager.getProcessingQueues().pollFromCurrentQueue();
-                        if (evidence == null) {
-                            sleep = true;
-                            continue;
-                        }
-                        if (!evidence.isQueueEnd()) {
-                            incItemsBeingProcessed();
-                        }
-                    }
+                long idleStart = System.nanoTime();
+                evidence = manager.getProcessingQueues().takeFromCurrentQueue();
+                ProcessingMetrics.get().addWorkerIdle(getName(), System.nanoTime() - idleStart);
+                if (!evidence.isQueueEnd()) {
+                    // global counter was already incremented by the queue
+                    itemsBeingProcessed++;
                 }
 
 
@@ -273,12 +262,14 @@ public void run() {
                         evidence = null;
 
                         LOGGER.debug(this.getName() + " going to wait queue change.");
+                        long waitStart = System.nanoTime();
                         synchronized(this) {
                             try {
                                 waiting = true;
                                 this.wait();
                             } finally {
                                 waiting = false;
+                                ProcessingMetrics.get().addWorkerIdle(getName(), System.nanoTime() - waitStart);
                             }
                         }
                     } else {
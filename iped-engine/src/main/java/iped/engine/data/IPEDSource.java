@@ -78,6 +78,7 @@
 import iped.engine.lucene.analysis.AppAnalyzer;
 import iped.engine.search.IPEDSearcher;
 import iped.engine.search.IndexerSimilarity;
+import iped.engine.search.ItemLookup;
 import iped.engine.sleuthkit.SleuthkitInputStreamFactory;
 import iped.engine.sleuthkit.TouchSleuthkitImages;
 import iped.engine.task.index.IndexItem;
@@ -114,6 +115,7 @@ public class IPEDSource implements IIPEDSource {
     IndexWriter iw;
     IndexSearcher searcher;
     Analyzer analyzer;
+    private volatile ItemLookup itemLookup;
 
     private ExecutorService searchExecutorService;
 
@@ -533,6 +535,7 @@ private void openIndex(File index, IndexWriter iw) throws IOException {
 
         // TODO get rid of deprecated SlowCompositeReaderWrapper
         atomicReader = SlowCompositeReaderWrapper.wrap(reader);
+        itemLookup = null;
 
         openSearcher();
 
@@ -836,6 +839,26 @@ public IndexSearcher getSearcher() {
         return searcher;
     }
 
+    /**
+     * @return path and name lookup of the items of the current index reader,
+     *         shared by all searchers of this source.
+     */
+    public ItemLookup getItemLookup() {
+        LeafReader reader = atomicReader;
+        ItemLookup lookup = itemLookup;
+        // may have been created from the previous reader while reopening
+        if (lookup == null || lookup.getReader() != reader) {
+            synchronized (this) {
+                reader = atomicReader;
+                lookup = itemLookup;
+                if (lookup == null || lookup.getReader() != reader) {
+                    itemLookup = lookup = new ItemLookup(reader);
+                }
+            }
+        }
+        return lookup;
+    }
+
     public IBookmarks getBookmarks() {
         return bookmarks;
     }
@@ -3,6 +3,8 @@
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -1400,4 +1402,180 @@ public Object getTempAttribute(String key) {
     public void setTempAttribute(String key, Object value) {
         tempAttributes.put(key, value);
     }
+
+    /**
+     * Items holding temporary files, open streams or text caches can not be
+     * written, nor items with attribute values of unsupported types.
+     */
+    boolean canWriteRecord(ItemRecordCodec codec) {
+        return !isQueueEnd && textCache == null && tmpFile == null && parentTmpFile == null && refTmpFile == null
+                && tmpResources == null && tis == null && codec.canWriteRef(dataSource)
+                && codec.canWriteFactory(inputStreamFactory, metadata) && codec.canWriteValues(extraAttributes)
+                && codec.canWriteValues(tempAttributes);
+    }
+
+    void writeRecord(DataOutput out, ItemRecordCodec codec) throws IOException {
+        out.writeInt(id);
+        out.writeBoolean(allowGetId);
+        out.writeInt(parentId != null ? parentId : -1);
+        out.writeInt(subitemId != null ? subitemId : -1);
+        out.writeInt(parentIds.size());
+        for (Integer parent : parentIds) {
+            out.writeInt(parent);
+        }
+        ItemRecordCodec.writeString(out, name);
+        ItemRecordCodec.writeString(out, extension);
+        ItemRecordCodec.writeString(out, path);
+        ItemRecordCodec.writeString(out, type);
+        ItemRecordCodec.writeString(out, mediaType != null ? mediaType.toString() : null);
+        codec.writeValues(out, extraAttributes);
+        codec.writeValues(out, tempAttributes);
+        ItemRecordCodec.writeDate(out, creationDate);
+        ItemRecordCodec.writeDate(out, modificationDate);
+        ItemRecordCodec.writeDate(out, accessDate);
+        ItemRecordCodec.writeDate(out, changeDate);
+        out.writeLong(length != null ? length : -1);
+        ItemRecordCodec.writeString(out, viewFile != null ? viewFile.getPath() : null);
+        ItemRecordCodec.writeString(out, previewBaseFolder != null ? previewBaseFolder.getPath() : null);
+        ItemRecordCodec.writeString(out, previewExt);
+        out.writeInt(categories.size());
+        for (String category : categories) {
+            ItemRecordCodec.writeString(out, category);
+        }
+        out.writeInt(labels.size());
+        for (String label : labels) {
+            ItemRecordCodec.writeString(out, label);
+        }
+        String[] names = metadata != null ? metadata.names() : new String[0];
+        out.writeInt(metadata != null ? names.length : -1);
+        for (String metaName : names) {
+            ItemRecordCodec.writeString(out, metaName);
+            String[] values = metadata.getValues(metaName);
+            out.writeInt(values.length);
+            for (String value : values) {
+                ItemRecordCodec.writeString(out, value);
+            }
+        }
+        int flags = (deleted ? 1 : 0) | (hasPreview ? 1 << 1 : 0) | (timeOut ? 1 << 2 : 0)
+                | (isSubItem ? 1 << 3 : 0) | (hasChildren ? 1 << 4 : 0) | (isDir ? 1 << 5 : 0)
+                | (isRoot ? 1 << 6 : 0) | (sumVolume ? 1 << 7 : 0) | (toIgnore ? 1 << 8 : 0)
+                | (addToCase ? 1 << 9 : 0) | (isToExtract ? 1 << 10 : 0) | (carved ? 1 << 11 : 0)
+                | (parsed ? 1 << 12 : 0);
+        out.writeInt(flags);
+        ItemRecordCodec.writeString(out, hash);
+        out.writeLong(startOffset);
+        out.writeLong(parentOffset);
+        ItemRecordCodec.writeString(out, idInDataSource);
+        ItemRecordCodec.writeBytes(out, thumb);
+        ItemRecordCodec.writeBytes(out, data);
+        codec.writeRef(out, dataSource);
+        codec.writeFactory(out, inputStreamFactory);
+    }
+
+    static Item readRecord(DataInput in, ItemRecordCodec codec) throws IOException {
+        Item item = new Item();
+        item.id = in.readInt();
+        item.allowGetId = in.readBoolean();
+        int parentId = in.readInt();
+        item.parentId = parentId != -1 ? parentId : null;
+        int subitemId = in.readInt();
+        item.subitemId = subitemId != -1 ? subitemId : null;
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            item.parentIds.add(in.readInt());
+        }
+        item.name = ItemRecordCodec.readString(in);
+        item.extension = ItemRecordCodec.readString(in);
+        item.path = ItemRecordCodec.readString(in);
+        item.type = ItemRecordCodec.readString(in);
+        String mediaType = ItemRecordCodec.readString(in);
+        item.mediaType = mediaType != null ? MediaType.parse(mediaType) : null;
+        codec.readValues(in, item.extraAttributes);
+        codec.readValues(in, item.tempAttributes);
+        item.creationDate = ItemRecordCodec.readDate(in);
+        item.modificationDate = ItemRecordCodec.readDate(in);
+        item.accessDate = ItemRecordCodec.readDate(in);
+        item.changeDate = ItemRecordCodec.readDate(in);
+        long length = in.readLong();
+        item.length = length != -1 ? length : null;
+        String file = ItemRecordCodec.readString(in);
+        item.viewFile = file != null ? new File(file) : null;
+        file = ItemRecordCodec.readString(in);
+        item.previewBaseFolder = file != null ? new File(file) : null;
+        item.previewExt = ItemRecordCodec.readString(in);
+        size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            item.categories.add(ItemRecordCodec.readString(in));
+        }
+        size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            item.labels.add(ItemRecordCodec.readString(in));
+        }
+        size = in.readInt();
+        if (size != -1) {
+            item.metadata = new SyncMetadata();
+            for (int i = 0; i < size; i++) {
+                String metaName = ItemRecordCodec.readString(in);
+                int numValues = in.readInt();
+                for (int j = 0; j < numValues; j++) {
+                    item.metadata.add(metaName, ItemRecordCodec.readString(in));
+                }
+            }
+        }
+        int flags = in.readInt();
+        item.deleted = (flags & 1) != 0;
+        item.hasPreview = (flags & 1 << 1) != 0;
+        item.timeOut = (flags & 1 << 2) != 0;
+        item.isSubItem = (flags & 1 << 3) != 0;
+        item.hasChildren = (flags & 1 << 4) != 0;
+        item.isDir = (flags & 1 << 5) != 0;
+        item.isRoot = (flags & 1 << 6) != 0;
+        item.sumVolume = (flags & 1 << 7) != 0;
+        item.toIgnore = (flags & 1 << 8) != 0;
+        item.addToCase = (flags & 1 << 9) != 0;
+        item.isToExtract = (flags & 1 << 10) != 0;
+        item.carved = (flags & 1 << 11) != 0;
+        item.parsed = (flags & 1 << 12) != 0;
+        item.hash = ItemRecordCodec.readString(in);
+        item.startOffset = in.readLong();
+        item.parentOffset = in.readLong();
+        item.idInDataSource = ItemRecordCodec.readString(in);
+        item.thumb = ItemRecordCodec.readBytes(in);
+        item.data = ItemRecordCodec.readBytes(in);
+        item.dataSource = (IDataSource) codec.readRef(in);
+        item.inputStreamFactory = codec.readFactory(in, item.metadata);
+        return item;
+    }
+
+    /**
+     * @return a rough estimate of the heap used by this item, in bytes.
+     */
+    long estimateMemorySize() {
+        long size = 512 + ItemRecordCodec.estimateSize(name) + ItemRecordCodec.estimateSize(extension)
+                + ItemRecordCodec.estimateSize(path) + ItemRecordCodec.estimateSize(type)
+                + ItemRecordCodec.estimateSize(hash) + ItemRecordCodec.estimateSize(idInDataSource)
+                + ItemRecordCodec.estimateSize(thumb) + ItemRecordCodec.estimateSize(data);
+        size += 24L * parentIds.size();
+        for (Map.Entry<String, Object> entry : extraAttributes.entrySet()) {
+            size += 48 + ItemRecordCodec.estimateSize(entry.getKey()) + ItemRecordCodec.estimateSize(entry.getValue());
+        }
+        for (Map.Entry<String, Object> entry : tempAttributes.entrySet()) {
+            size += 48 + ItemRecordCodec.estimateSize(entry.getKey()) + ItemRecordCodec.estimateSize(entry.getValue());
+        }
+        for (String category : categories) {
+            size += 32 + ItemRecordCodec.estimateSize(category);
+        }
+        for (String label : labels) {
+            size += 8 + ItemRecordCodec.estimateSize(label);
+        }
+        if (metadata != null) {
+            for (String metaName : metadata.names()) {
+                size += 64 + ItemRecordCodec.estimateSize(metaName);
+                for (String value : metadata.getValues(metaName)) {
+                    size += 8 + ItemRecordCodec.estimateSize(value);
+                }
+            }
+        }
+        return size;
+    }
 }
@@ -0,0 +1,399 @@
+package iped.engine.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.tika.metadata.Metadata;
+import org.sleuthkit.datamodel.SleuthkitCase;
+
+import iped.data.IItem;
+import iped.engine.io.MetadataInputStreamFactory;
+import iped.engine.sleuthkit.SleuthkitInputStreamFactory;
+import iped.io.ISeekableInputStreamFactory;
+
+/**
+ * Writes items as compact binary records and reads them back, so queued items
+ * can be kept out of the heap for a while. Just items without open resources or
+ * temporary files can be written, see {@link #canWrite(IItem)}.
+ * <p>
+ * Sleuthkit factories, created for each item, are written by the case database
+ * path and a new factory of that case is created when reading. Metadata
+ * factories are created again over the metadata read back. Other data sources
+ * and input stream factories are not serialized, they are kept in a table of
+ * references and the same instances are restored when reading. References are
+ * counted and released when the last record using them is read.
+ *
+ * Instances are not thread safe.
+ */
+public class ItemRecordCodec {
+
+    /**
+     * Max number of distinct data sources and input stream factories referenced
+     * by records not read yet.
+     */
+    static final int MAX_REFS = 1 << 16;
+
+    private static final byte REF = 0;
+    private static final byte SLEUTHKIT = 1;
+    private static final byte SLEUTHKIT_EMPTY = 2;
+    private static final byte ITEM_METADATA = 3;
+    private static final byte ITEM_METADATA_PREVIEW = 4;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte DATE = 7;
+    private static final byte BYTES = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte ARRAY_LIST = 11;
+    private static final byte HASH_SET = 12;
+
+    private final List<Ref> refs = new ArrayList<>();
+    private final IdentityHashMap<Object, Ref> refIds = new IdentityHashMap<>();
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+
+    private final Map<URI, SleuthkitCase> sleuthkitCases = new HashMap<>();
+
+    private static class Ref {
+
+        private final Object obj;
+        private final int id;
+        private int count;
+
+        private Ref(Object obj, int id) {
+            this.obj = obj;
+            this.id = id;
+        }
+    }
+
+    /**
+     * @return true if the item can be written and read back without losing
+     *         anything.
+     */
+    public boolean canWrite(IItem item) {
+        return item instanceof Item && ((Item) item).canWriteRecord(this);
+    }
+
+    /**
+     * Writes the item. Caller must check {@link #canWrite(IItem)} before.
+     */
+    public void write(IItem item, DataOutput out) throws IOException {
+        ((Item) item).writeRecord(out, this);
+    }
+
+    public Item read(DataInput in) throws IOException {
+        return Item.readRecord(in, this);
+    }
+
+    /**
+     * @return a rough estimate of the heap used by the item, in bytes.
+     */
+    public static long estimateSize(IItem item) {
+        if (item instanceof Item) {
+            return ((Item) item).estimateMemorySize();
+        }
+        return 1024;
+    }
+
+    boolean canWriteRef(Object obj) {
+        return obj == null || refIds.containsKey(obj) || refIds.size() < MAX_REFS;
+    }
+
+    void writeRef(DataOutput out, Object obj) throws IOException {
+        if (obj == null) {
+            out.writeInt(-1);
+            return;
+        }
+        Ref ref = refIds.get(obj);
+        if (ref == null) {
+            Integer id = freeIds.poll();
+            if (id == null) {
+                id = refs.size();
+                refs.add(null);
+            }
+            ref = new Ref(obj, id);
+            refs.set(id, ref);
+            refIds.put(obj, ref);
+        }
+        ref.count++;
+        out.writeInt(ref.id);
+    }
+
+    Object readRef(DataInput in) throws IOException {
+        int id = in.readInt();
+        if (id == -1) {
+            return null;
+        }
+        Ref ref = refs.get(id);
+        if (--ref.count == 0) {
+            refs.set(id, null);
+            refIds.remove(ref.obj);
+            freeIds.push(id);
+        }
+        return ref.obj;
+    }
+
+    /**
+     * @return number of references held for records not read yet.
+     */
+    int getRefCount() {
+        return refIds.size();
+    }
+
+    boolean canWriteFactory(ISeekableInputStreamFactory factory, Metadata itemMetadata) {
+        if (factory instanceof SleuthkitInputStreamFactory) {
+            return true;
+        }
+        if (factory instanceof MetadataInputStreamFactory) {
+            // just factories over the item own metadata can be created again
+            return ((MetadataInputStreamFactory) factory).getMetadata() == itemMetadata;
+        }
+        return canWriteRef(factory);
+    }
+
+    void writeFactory(DataOutput out, ISeekableInputStreamFactory factory) throws IOException {
+        if (factory instanceof SleuthkitInputStreamFactory) {
+            SleuthkitInputStreamFactory sleuthFactory = (SleuthkitInputStreamFactory) factory;
+            URI uri = sleuthFactory.getDataSourceURI();
+            if (!sleuthkitCases.containsKey(uri)) {
+                sleuthkitCases.put(uri, sleuthFactory.getSleuthkitCase());
+            }
+            out.writeByte(sleuthFactory.returnsEmptyInputStream() ? SLEUTHKIT_EMPTY : SLEUTHKIT);
+            writeString(out, uri.toString());
+        } else if (factory instanceof MetadataInputStreamFactory) {
+            boolean preview = ((MetadataInputStreamFactory) factory).isFromMetadataPreview();
+            out.writeByte(preview ? ITEM_METADATA_PREVIEW : ITEM_METADATA);
+        } else {
+            out.writeByte(REF);
+            writeRef(out, factory);
+        }
+    }
+
+    ISeekableInputStreamFactory readFactory(DataInput in, Metadata itemMetadata) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case REF:
+                return (ISeekableInputStreamFactory) readRef(in);
+            case SLEUTHKIT:
+            case SLEUTHKIT_EMPTY:
+                SleuthkitCase sleuthkitCase = sleuthkitCases.get(URI.create(readString(in)));
+                if (tag == SLEUTHKIT_EMPTY) {
+                    return new SleuthkitInputStreamFactory(sleuthkitCase, null);
+                }
+                // gets the content by id, as the factory of not spilled items of the case
+                return new SleuthkitInputStreamFactory(sleuthkitCase);
+            case ITEM_METADATA:
+            case ITEM_METADATA_PREVIEW:
+                return new MetadataInputStreamFactory(itemMetadata, tag == ITEM_METADATA_PREVIEW);
+            default:
+                throw new IOException("Invalid input stream factory tag " + tag);
+        }
+    }
+
+    boolean canWriteValues(Map<String, Object> map) {
+        for (Object value : map.values()) {
+            if (!canWriteValue(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean canWriteValue(Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> c = value.getClass();
+        if (c == ArrayList.class || c == HashSet.class) {
+            for (Object o : (Collection<?>) value) {
+                if (o instanceof Collection || !canWriteValue(o)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return c == String.class || c == Integer.class || c == Long.class || c == Double.class || c == Float.class
+                || c == Boolean.class || c == Date.class || c == byte[].class || c == Short.class || c == Byte.class;
+    }
+
+    void writeValues(DataOutput out, Map<String, Object> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    void readValues(DataInput in, Map<String, Object> map) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            Object value = readValue(in);
+            // ConcurrentHashMap does not accept null values
+            if (value != null) {
+                map.put(key, value);
+            }
+        }
+    }
+
+    private void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Collection) {
+            out.writeByte(value instanceof HashSet ? HASH_SET : ARRAY_LIST);
+            Collection<?> collection = (Collection<?>) value;
+            out.writeInt(collection.size());
+            for (Object o : collection) {
+                writeValue(out, o);
+            }
+        } else {
+            throw new IOException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+
+    private Object readValue(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case DATE:
+                return new Date(in.readLong());
+            case BYTES:
+                return readBytes(in);
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case ARRAY_LIST:
+            case HASH_SET:
+                int size = in.readInt();
+                Collection<Object> collection = tag == HASH_SET ? new HashSet<>(size * 2) : new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    collection.add(readValue(in));
+                }
+                return collection;
+            default:
+                throw new IOException("Invalid value tag " + tag);
+        }
+    }
+
+    static void writeString(DataOutput out, String str) throws IOException {
+        writeBytes(out, str == null ? null : str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(DataInput in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static byte[] readBytes(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeDate(DataOutput out, Date date) throws IOException {
+        out.writeLong(date == null ? Long.MIN_VALUE : date.getTime());
+    }
+
+    static Date readDate(DataInput in) throws IOException {
+        long time = in.readLong();
+        return time == Long.MIN_VALUE ? null : new Date(time);
+    }
+
+    /**
+     * @return a rough estimate of the heap used by the value, in bytes.
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 48 + ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        if (value instanceof Collection) {
+            long size = 64;
+            for (Object o : (Collection<?>) value) {
+                size += 16 + estimateSize(o);
+            }
+            return size;
+        }
+        return 24;
+    }
+
+}
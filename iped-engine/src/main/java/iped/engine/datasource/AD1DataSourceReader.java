@@ -142,7 +142,7 @@ public SeekableInputStream getSeekableInputStream(String identifier) throws IOEx
                 init();
 
             FileHeader fh = ad1.readObject(Long.parseLong(identifier), null);
-            return ad1.getSeekableInputStream(fh);
+            return withBlockCache(identifier, ad1.getSeekableInputStream(fh));
         }
 
     }
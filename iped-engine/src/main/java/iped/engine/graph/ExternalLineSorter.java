@@ -0,0 +1,161 @@
+package iped.engine.graph;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more text lines than would fit in the heap. Lines are sorted in memory
+ * in batches of bounded size, each batch is written to a temporary run file
+ * and runs are merged when lines are read back with {@link #next()}. Lines must
+ * not contain line breaks.
+ */
+class ExternalLineSorter implements Closeable {
+
+    /**
+     * Max chars kept in memory before sorting and writing a run to disk.
+     */
+    private static final long MAX_BATCH_CHARS = 32 * 1024 * 1024;
+
+    /**
+     * Rough per line memory overhead, in chars.
+     */
+    private static final int LINE_OVERHEAD = 32;
+
+    private final File tmpDir;
+    private final String prefix;
+    private final long maxBatchChars;
+
+    private final List<File> runFiles = new ArrayList<>();
+    private final List<Run> runs = new ArrayList<>();
+    private ArrayList<String> batch = new ArrayList<>();
+    private long batchChars;
+
+    private PriorityQueue<Run> queue;
+
+    public ExternalLineSorter(File tmpDir, String prefix) {
+        this(tmpDir, prefix, MAX_BATCH_CHARS);
+    }
+
+    ExternalLineSorter(File tmpDir, String prefix, long maxBatchChars) {
+        this.tmpDir = tmpDir;
+        this.prefix = prefix;
+        this.maxBatchChars = maxBatchChars;
+    }
+
+    public void add(String line) throws IOException {
+        if (queue != null) {
+            throw new IllegalStateException("Lines can not be added after merge started");
+        }
+        batch.add(line);
+        batchChars += line.length() + LINE_OVERHEAD;
+        if (batchChars >= maxBatchChars) {
+            writeRun();
+        }
+    }
+
+    private void writeRun() throws IOException {
+        Collections.sort(batch);
+        File file = new File(tmpDir, prefix + ".sort" + runFiles.size());
+        runFiles.add(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : batch) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        batch = new ArrayList<>();
+        batchChars = 0;
+    }
+
+    private void startMerge() throws IOException {
+        queue = new PriorityQueue<>();
+        if (!batch.isEmpty()) {
+            if (runFiles.isEmpty()) {
+                // everything fits in memory, no need to go to disk
+                Collections.sort(batch);
+                runs.add(new Run(batch.iterator()));
+            } else {
+                writeRun();
+            }
+        }
+        for (File file : runFiles) {
+            runs.add(new Run(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)));
+        }
+        for (Run run : runs) {
+            if (run.advance()) {
+                queue.add(run);
+            }
+        }
+    }
+
+    /**
+     * @return the next line in sorted order, or null after the last one.
+     */
+    public String next() throws IOException {
+        if (queue == null) {
+            startMerge();
+        }
+        Run run = queue.poll();
+        if (run == null) {
+            return null;
+        }
+        String line = run.line;
+        if (run.advance()) {
+            queue.add(run);
+        }
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Run run : runs) {
+            if (run.reader != null) {
+                run.reader.close();
+            }
+        }
+        for (File file : runFiles) {
+            Files.deleteIfExists(file.toPath());
+        }
+        batch = null;
+    }
+
+    private static class Run implements Comparable<Run> {
+
+        private BufferedReader reader;
+        private Iterator<String> iterator;
+        private String line;
+
+        private Run(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        private Run(Iterator<String> iterator) {
+            this.iterator = iterator;
+        }
+
+        private boolean advance() throws IOException {
+            if (reader != null) {
+                line = reader.readLine();
+            } else {
+                line = iterator.hasNext() ? iterator.next() : null;
+            }
+            return line != null;
+        }
+
+        @Override
+        public int compareTo(Run o) {
+            return line.compareTo(o.line);
+        }
+    }
+
+}
@@ -85,6 +85,9 @@ public class GraphConfiguration implements Serializable {
     @JsonAlias("post-generation-statements")
     private List<String> postGenerationStatements;
 
+    @JsonAlias("csv-shards")
+    private int csvShards;
+
     private Pattern excludeCategoriesPattern;
 
     private List<GraphEntity> entities;
@@ -221,6 +224,14 @@ public List<String> getPostGenerationStatements() {
         return postGenerationStatements;
     }
 
+    /**
+     * @return number of CSV files written in parallel for each node label and
+     *         relationship type, zero to write just one.
+     */
+    public int getCsvShards() {
+        return csvShards;
+    }
+
     public List<GraphEntity> getEntities() {
         return entities;
     }
@@ -34,6 +34,7 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -60,17 +61,33 @@ public class GraphFileWriter implements Closeable, Flushable {
     private static final String SUFFIX = "iped";
     private static final String ARG_FILE_NAME = GraphImportRunner.ARGS_FILE_NAME + "-" + SUFFIX + ".txt";
 
-    private Map<String, CSVWriter> nodeWriters = new HashMap<>();
-    private Map<String, CSVWriter> relationshipWriters = new HashMap<>();
+    private static final AtomicInteger shardCounter = new AtomicInteger();
+    private static final ThreadLocal<Integer> shardId = ThreadLocal.withInitial(shardCounter::getAndIncrement);
+
+    private Map<String, CSVWriter> nodeWriters = new ConcurrentHashMap<>();
+    private Map<String, CSVWriter> relationshipWriters = new ConcurrentHashMap<>();
 
     private Map<String, String> replaces = new HashMap<>();
     private File replaceFile;
 
     private File root;
 
+    private int shards;
+
     public GraphFileWriter(File root, String defaultEntity) throws Exception {
+        this(root, defaultEntity, 0);
+    }
+
+    /**
+     * @param shards
+     *            number of CSV files written in parallel for each node label and
+     *            relationship type, so threads do not contend for the same file.
+     *            Zero means one file for each label or type.
+     */
+    public GraphFileWriter(File root, String defaultEntity, int shards) throws Exception {
         super();
         this.root = root;
+        this.shards = shards;
         root.mkdirs();
         // needed for --append
         uncompressPreviousCSVFiles();
@@ -135,7 +152,7 @@ private void openExistingCSVs(File root) {
     }
 
     private CSVWriter openNodeWriter(Label... labels) throws IOException {
-        CSVWriter writer = new CSVWriter(root, NODE_CSV_PREFIX, labels, SUFFIX);
+        CSVWriter writer = new CSVWriter(root, NODE_CSV_PREFIX, labels, SUFFIX, shards);
 
         writer.fieldPositions.addAll(Arrays.asList("nodeId", "label"));
         writer.fieldTypes.put("nodeId", "ID");
@@ -145,7 +162,7 @@ private CSVWriter openNodeWriter(Label... labels) throws IOException {
     }
 
     private CSVWriter openRelationshipWriter(RelationshipType type) throws IOException {
-        CSVWriter writer = new CSVWriter(root, REL_CSV_PREFIX, type.name(), SUFFIX);
+        CSVWriter writer = new CSVWriter(root, REL_CSV_PREFIX, type.name(), SUFFIX, shards);
 
         writer.fieldPositions.addAll(
                 Arrays.asList("start", "end", "type", GraphTask.RELATIONSHIP_SOURCE, GraphTask.RELATIONSHIP_ID));
@@ -157,21 +174,31 @@ private CSVWriter openRelationshipWriter(RelationshipType type) throws IOExcepti
         return writer;
     }
 
-    private synchronized CSVWriter getRelationshipWriter(RelationshipType type) throws IOException {
+    private CSVWriter getRelationshipWriter(RelationshipType type) throws IOException {
         CSVWriter out = relationshipWriters.get(type.name());
         if (out == null) {
-            out = openRelationshipWriter(type);
-            relationshipWriters.put(type.name(), out);
+            synchronized (relationshipWriters) {
+                out = relationshipWriters.get(type.name());
+                if (out == null) {
+                    out = openRelationshipWriter(type);
+                    relationshipWriters.put(type.name(), out);
+                }
+            }
         }
         return out;
     }
 
-    private synchronized CSVWriter getNodeWriter(Label... labels) throws IOException {
+    private CSVWriter getNodeWriter(Label... labels) throws IOException {
         String labelsNames = CSVWriter.join(labels);
         CSVWriter out = nodeWriters.get(labelsNames);
         if (out == null) {
-            out = openNodeWriter(labels);
-            nodeWriters.put(labelsNames, out);
+            synchronized (nodeWriters) {
+                out = nodeWriters.get(labelsNames);
+                if (out == null) {
+                    out = openNodeWriter(labels);
+                    nodeWriters.put(labelsNames, out);
+                }
+            }
         }
         return out;
     }
@@ -195,13 +222,15 @@ private void writeArgs(Collection<CSVWriter> outs, BufferedWriter writer, String
 
     private void writeArgs(CSVWriter out, BufferedWriter writer, String type) throws IOException {
         File headerFile = writeHeaderFile(out);
-        File dataFile = out.getOutput();
         writer.write("--");
         writer.write(type);
         writer.write("=");
         writer.write(headerFile.getName());
-        writer.write(",");
-        writer.write(dataFile.getName());
+        // the import tool reads all files of the group in sequence
+        for (File dataFile : out.getOutputs()) {
+            writer.write(",");
+            writer.write(dataFile.getName());
+        }
         writer.write("\r\n");
     }
 
@@ -396,14 +425,13 @@ public static int removeDeletedRelationships(String evidenceUUID, File csvRoot)
 
     // TODO improve to merge duplicate nodes instead of just skip
     public static void prepareMultiCaseCSVs(File output, List<File> csvParents) throws Exception {
-        AtomicInteger subDir = new AtomicInteger(-1);
-        Set<String> ids = Collections.synchronizedSet(new HashSet<>());
         ExecutorService executor = Executors.newCachedThreadPool();
         ArrayList<Future<?>> futures = new ArrayList<>();
-        for (File parent : csvParents) {
+        for (int i = 0; i < csvParents.size(); i++) {
+            File parent = csvParents.get(i);
+            int num = i;
             Runnable r = new Runnable() {
                 public void run() {
-                    int num = subDir.incrementAndGet();
                     try {
                         File[] subFiles = parent.listFiles();
                         if (subFiles == null)
@@ -411,22 +439,9 @@ public void run() {
                         for (File input : subFiles) {
                             File dest = new File(output, num + File.separator + input.getName().replace(".gzip", ""));
                             dest.getParentFile().mkdirs();
-                            if (input.getName().startsWith(NODE_CSV_PREFIX) && !input.getName().contains(HEADER_CSV_STR) && input.getName().endsWith(".csv.gzip")) {
-                                try (BufferedWriter writer = Files.newBufferedWriter(dest.toPath(), StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-                                        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(input.toPath())), StandardCharsets.UTF_8))) {
-                                    String line = null;
-                                    while ((line = reader.readLine()) != null) {
-                                        String id = line.substring(0, line.indexOf(','));
-                                        if (ids.add(id)) {
-                                            writer.write(line);
-                                            writer.write("\r\n");
-                                        }
-                                    }
-                                }
-                            } else
-                                try (GZIPInputStream gzis = new GZIPInputStream(Files.newInputStream(input.toPath()))) {
-                                    Files.copy(gzis, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                                }
+                            try (GZIPInputStream gzis = new GZIPInputStream(Files.newInputStream(input.toPath()))) {
+                                Files.copy(gzis, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                            }
                         }
                         File importArgs = new File(output, num + "/" + ARG_FILE_NAME);
                         String args = new String(Files.readAllBytes(importArgs.toPath()), StandardCharsets.UTF_8);
@@ -444,6 +459,81 @@ public void run() {
             f.get();
         }
         executor.shutdown();
+
+        Set<String> nodeFiles = new TreeSet<>();
+        for (int num = 0; num < csvParents.size(); num++) {
+            File[] files = new File(output, String.valueOf(num)).listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    if (name.startsWith(NODE_CSV_PREFIX) && !name.contains(HEADER_CSV_STR) && name.endsWith(".csv")) {
+                        nodeFiles.add(name);
+                    }
+                }
+            }
+        }
+        for (String nodeFile : nodeFiles) {
+            removeDuplicateNodes(output, nodeFile, csvParents.size());
+        }
+    }
+
+    /**
+     * Removes nodes found in more than one case, keeping them in the first case
+     * where they were found. Ids are sorted on disk, so the number of nodes is not
+     * limited by the heap size.
+     */
+    private static void removeDuplicateNodes(File output, String nodeFile, int numCases) throws IOException {
+        File[] inputs = new File[numCases];
+        File[] tmps = new File[numCases];
+        BufferedWriter[] writers = new BufferedWriter[numCases];
+        try (ExternalLineSorter sorter = new ExternalLineSorter(output, nodeFile)) {
+            for (int num = 0; num < numCases; num++) {
+                File input = new File(output, num + File.separator + nodeFile);
+                if (!input.exists()) {
+                    continue;
+                }
+                inputs[num] = input;
+                // fixed length case number, so lines of the same node are sorted by case
+                String caseKey = String.format("\t%08d\t", num);
+                try (BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+                    String line = null;
+                    while ((line = reader.readLine()) != null) {
+                        String id = line.substring(0, line.indexOf(','));
+                        sorter.add(id + caseKey + line);
+                    }
+                }
+            }
+            for (int num = 0; num < numCases; num++) {
+                if (inputs[num] != null) {
+                    tmps[num] = new File(inputs[num].getPath() + ".tmp");
+                    writers[num] = Files.newBufferedWriter(tmps[num].toPath(), StandardCharsets.UTF_8);
+                }
+            }
+            String prevId = null;
+            String entry;
+            while ((entry = sorter.next()) != null) {
+                int idx = entry.indexOf('\t');
+                String id = entry.substring(0, idx);
+                if (id.equals(prevId)) {
+                    continue;
+                }
+                prevId = id;
+                int num = Integer.parseInt(entry.substring(idx + 1, idx + 9));
+                writers[num].write(entry, idx + 10, entry.length() - idx - 10);
+                writers[num].write("\r\n");
+            }
+        } finally {
+            for (BufferedWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+        for (int num = 0; num < numCases; num++) {
+            if (tmps[num] != null) {
+                Files.move(tmps[num].toPath(), inputs[num].toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
     }
 
     public void writeCreateRelationship(Label label1, String idProperty1, Object propertyValue1, Label label2,
@@ -556,80 +646,107 @@ private static class CSVWriter implements Closeable, Flushable {
 
         static final String SEPARATOR = "_";
 
+        private static final String SHARD_SEPARATOR = "-s";
+
         private static final Pattern SLASH_PATTERN = Pattern.compile("\\\\");
         private static final Pattern QUOTE_PATTERN = Pattern.compile("\"");
         private static final Pattern LINE_BREAK_PATTERN = Pattern.compile("\r|\n");
 
-        /**
-         * 5MB buffer size
-         */
-        private static final int MIN_SIZE_TO_FLUSH = 5 * 1024 * 1024;
-
-        private Writer out;
-        private StringBuilder sb = new StringBuilder();
         private LinkedHashSet<String> fieldPositions = new LinkedHashSet<>();
         private HashMap<String, String> fieldTypes = new HashMap<>();
 
-        private Set<String> prevNodeRecords = Collections
-                .newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
-                    /**
-					 * 
-					 */
-					private static final long serialVersionUID = 1L;
-
-					@Override
-                    protected boolean removeEldestEntry(Entry<String, Boolean> entry) {
-                        return this.size() > 10000;
-                    }
-                });
-
         private String prefix;
         private String name;
         private String suffix;
         private File output;
-        private File commitLog;
         private File fieldData;
         private boolean isNodeWriter;
 
-        public CSVWriter(File root, String prefix, Label[] labels, String suffix) throws IOException {
-            this(root, prefix, join(labels), suffix);
+        private Shard mainShard;
+        private int numShards;
+        private Map<Integer, Shard> shards = new ConcurrentHashMap<>();
+
+        public CSVWriter(File root, String prefix, Label[] labels, String suffix, int numShards) throws IOException {
+            this(root, prefix, join(labels), suffix, numShards);
         }
 
-        public CSVWriter(File root, String prefix, String name, String suffix) throws IOException {
+        public CSVWriter(File root, String prefix, String name, String suffix, int numShards) throws IOException {
             super();
             name = name.replace(SEPARATOR, "-");
             String fileName = prefix + SEPARATOR + name + SEPARATOR + suffix + ".csv";
             this.output = new File(root, fileName);
             this.fieldData = new File(root, fileName + SEPARATOR + "fieldData");
-            this.commitLog = new File(root, fileName + ".commit");
-            if (commitLog.exists()) {
-                byte[] bytes = Files.readAllBytes(commitLog.toPath());
-                long size = Long.parseLong(new String(bytes, StandardCharsets.ISO_8859_1));
-                try (FileOutputStream fos = new FileOutputStream(output, true); FileChannel fc = fos.getChannel()) {
-                    fc.truncate(size);
-                }
-                Files.delete(commitLog.toPath());
-            }
-            this.out = new OutputStreamWriter(new FileOutputStream(output, output.exists()), StandardCharsets.UTF_8);
             this.prefix = prefix;
             this.name = name;
             this.suffix = suffix;
             this.isNodeWriter = prefix.equals(NODE_CSV_PREFIX);
+            this.numShards = numShards;
+            this.mainShard = new Shard(output, isNodeWriter);
+            openExistingShards();
             loadFieldData();
         }
 
-        @SuppressWarnings("unchecked")
-        public void write(Map<String, Object> record) throws IOException {
-            String data = null;
-            synchronized (this) {
-                if (sb.length() >= MIN_SIZE_TO_FLUSH) {
-                    data = sb.toString();
-                    sb = new StringBuilder();
+        private File getShardFile(int id) {
+            String fileName = output.getName();
+            fileName = fileName.substring(0, fileName.length() - 4) + SHARD_SEPARATOR + id + ".csv";
+            return new File(output.getParentFile(), fileName);
+        }
+
+        /**
+         * Shards written by previous runs must be normalized with the new data,
+         * even if the number of shards changed.
+         */
+        private void openExistingShards() throws IOException {
+            String shardPrefix = getShardFile(0).getName();
+            shardPrefix = shardPrefix.substring(0, shardPrefix.length() - 5);
+            File[] files = output.getParentFile().listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.startsWith(shardPrefix) && fileName.endsWith(".csv")) {
+                    String id = fileName.substring(shardPrefix.length(), fileName.length() - 4);
+                    if (!id.isEmpty() && id.chars().allMatch(Character::isDigit)) {
+                        int shardId = Integer.parseInt(id);
+                        shards.put(shardId, new Shard(file, isNodeWriter));
+                    }
                 }
             }
-            if (data != null) {
-                flush(data, false);
+        }
+
+        private Shard getShard() throws IOException {
+            if (numShards <= 0) {
+                return mainShard;
+            }
+            int id = GraphFileWriter.shardId.get() % numShards;
+            Shard shard = shards.get(id);
+            if (shard == null) {
+                synchronized (shards) {
+                    shard = shards.get(id);
+                    if (shard == null) {
+                        shard = new Shard(getShardFile(id), isNodeWriter);
+                        shards.put(id, shard);
+                    }
+                }
+            }
+            return shard;
+        }
+
+        /**
+         * @return all data files of this writer, sharing the same header.
+         */
+        public List<File> getOutputs() {
+            List<File> outputs = new ArrayList<>();
+            outputs.add(output);
+            for (Shard shard : new TreeMap<>(shards).values()) {
+                outputs.add(shard.output);
             }
+            return outputs;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void write(Map<String, Object> record) throws IOException {
             String[] fields;
             synchronized (fieldPositions) {
                 fieldPositions.addAll(record.keySet());
@@ -660,11 +777,7 @@ public void write(Map<String, Object> record) throws IOException {
                 }
             }
             line.append("\r\n");
-            synchronized (this) {
-                if (!isNodeWriter || prevNodeRecords.add(line.toString())) {
-                    sb.append(line);
-                }
-            }
+            getShard().write(line.toString());
         }
 
         public void normalize(Map<String, String> replaces) throws IOException {
@@ -676,6 +789,12 @@ public void normalize(Map<String, String> replaces) throws IOException {
         }
 
         public void replaceRels(Map<String, String> replaces) throws IOException {
+            for (File file : getOutputs()) {
+                replaceRels(file, replaces);
+            }
+        }
+
+        private void replaceRels(File output, Map<String, String> replaces) throws IOException {
             BufferedReader reader = null;
             BufferedWriter writer = null;
             File tmp = new File(output.getParentFile(), output.getName() + ".tmp");
@@ -712,60 +831,89 @@ public void replaceRels(Map<String, String> replaces) throws IOException {
             tmp.renameTo(output);
         }
 
+        /**
+         * Merges nodes with the same final id from all shards into the main file.
+         * Nodes are sorted on disk by their final id, so duplicates are adjacent and
+         * the number of nodes is not limited by the heap size.
+         */
         public void normalizeNodes(Map<String, String> replaces) throws IOException {
-            Map<String, String> uniques = new TreeMap<>();
-            Set<String> finalIds = new HashSet<>();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(new FileInputStream(output), Charset.forName("utf-8")))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    String id = line.substring(1, line.indexOf("\",\"")).trim();
-                    String newId = getLastReplace(replaces, id);
-                    if (id.equals(newId))
-                        finalIds.add(id);
-                    String prevLine = uniques.get(newId);
-                    if (prevLine == null) {
-                        uniques.put(newId, line);
-                    } else {
-                        TreeMap<Integer, Set<String>> map = new TreeMap<>();
-                        String[][] valss = { split(line, "\",\""), split(prevLine, "\",\"") };
-                        for (String[] vals : valss) {
-                            for (int i = 0; i < vals.length; i++) {
-                                Set<String> vs = map.get(i);
-                                if (vs == null) {
-                                    vs = new TreeSet<>(StringUtil.getIgnoreCaseComparator());
-                                    map.put(i, vs);
-                                }
-                                if (i == 0)
-                                    vs.add(newId);
-                                else
-                                    vs.addAll(Arrays.asList(vals[i].replaceAll("\"", "").split(";")));
-                            }
-                        }
-                        StringBuilder sb = new StringBuilder();
-                        int i = 0;
-                        for (Set<String> set : map.values()) {
-                            sb.append("\"");
-                            sb.append(set.stream().filter(a -> !a.isEmpty()).collect(Collectors.joining(";")));
-                            sb.append("\"");
-                            if (++i < map.size())
-                                sb.append(",");
+            File tmp = new File(output.getParentFile(), output.getName() + ".tmp");
+            try (ExternalLineSorter sorter = new ExternalLineSorter(output.getParentFile(), output.getName())) {
+                for (File file : getOutputs()) {
+                    try (BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(new FileInputStream(file), Charset.forName("utf-8")))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            String id = line.substring(1, line.indexOf("\",\"")).trim();
+                            String newId = getLastReplace(replaces, id);
+                            // flags if this node was not replaced by other
+                            sorter.add(newId + (id.equals(newId) ? "\t1\t" : "\t0\t") + line);
                         }
-                        uniques.put(newId, sb.toString());
                     }
                 }
-            }
 
-            try (BufferedWriter writer = new BufferedWriter(
-                    new OutputStreamWriter(new FileOutputStream(output), Charset.forName("utf-8")))) {
-                for (Entry<String, String> entry : uniques.entrySet()) {
-                    if (finalIds.contains(entry.getKey())) {
-                        writer.write(entry.getValue());
+                try (BufferedWriter writer = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(tmp), Charset.forName("utf-8")))) {
+                    String currentId = null, currentLine = null;
+                    boolean isFinalId = false;
+                    String entry;
+                    while ((entry = sorter.next()) != null) {
+                        int idx = entry.indexOf('\t');
+                        String newId = entry.substring(0, idx);
+                        boolean isFinal = entry.charAt(idx + 1) == '1';
+                        String line = entry.substring(idx + 3);
+                        if (newId.equals(currentId)) {
+                            currentLine = mergeNodes(newId, line, currentLine);
+                            isFinalId |= isFinal;
+                            continue;
+                        }
+                        if (currentId != null && isFinalId) {
+                            writer.write(currentLine);
+                            writer.write("\r\n");
+                        }
+                        currentId = newId;
+                        currentLine = line;
+                        isFinalId = isFinal;
+                    }
+                    if (currentId != null && isFinalId) {
+                        writer.write(currentLine);
                         writer.write("\r\n");
                     }
                 }
             }
+            Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            for (Shard shard : shards.values()) {
+                Files.delete(shard.output.toPath());
+            }
+            shards.clear();
+        }
 
+        private String mergeNodes(String newId, String line, String prevLine) {
+            TreeMap<Integer, Set<String>> map = new TreeMap<>();
+            String[][] valss = { split(line, "\",\""), split(prevLine, "\",\"") };
+            for (String[] vals : valss) {
+                for (int i = 0; i < vals.length; i++) {
+                    Set<String> vs = map.get(i);
+                    if (vs == null) {
+                        vs = new TreeSet<>(StringUtil.getIgnoreCaseComparator());
+                        map.put(i, vs);
+                    }
+                    if (i == 0)
+                        vs.add(newId);
+                    else
+                        vs.addAll(Arrays.asList(vals[i].replaceAll("\"", "").split(";")));
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            int i = 0;
+            for (Set<String> set : map.values()) {
+                sb.append("\"");
+                sb.append(set.stream().filter(a -> !a.isEmpty()).collect(Collectors.joining(";")));
+                sb.append("\"");
+                if (++i < map.size())
+                    sb.append(",");
+            }
+            return sb.toString();
         }
 
         private String[] split(String string, String pattern) {
@@ -781,36 +929,20 @@ private String[] split(String string, String pattern) {
 
         @Override
         public void flush() throws IOException {
-            String data = null;
-            synchronized (this) {
-                data = sb.toString();
-                sb = new StringBuilder();
-            }
             flushFieldData();
-            flush(data, true);
-        }
-
-        private void flush(String data, boolean commit) throws IOException {
-            synchronized (out) {
-                if (!commitLog.exists()) {
-                    Long size = output.length();
-                    Files.write(commitLog.toPath(), size.toString().getBytes(StandardCharsets.ISO_8859_1),
-                            StandardOpenOption.CREATE);
-                    Util.fsync(commitLog.toPath());
-                }
-                out.write(data);
-                if (commit) {
-                    out.flush();
-                    Util.fsync(output.toPath());
-                    Files.delete(commitLog.toPath());
-                }
+            mainShard.flush();
+            for (Shard shard : shards.values()) {
+                shard.flush();
             }
         }
 
         @Override
         public void close() throws IOException {
-            flush();
-            out.close();
+            flushFieldData();
+            mainShard.close();
+            for (Shard shard : shards.values()) {
+                shard.close();
+            }
         }
 
         private static class FieldData implements Serializable {
@@ -863,10 +995,6 @@ public String getSuffix() {
             return suffix;
         }
 
-        public File getOutput() {
-            return output;
-        }
-
         public static String join(Label... labels) {
             return Arrays.stream(labels).map(l -> l.name().replace(SEPARATOR, "-")).sorted()
                     .collect(Collectors.joining("-"));
@@ -874,4 +1002,99 @@ public static String join(Label... labels) {
 
     }
 
+    /**
+     * One data file of a CSVWriter, with its own buffer, so threads writing to
+     * different shards do not block each other.
+     */
+    private static class Shard implements Closeable, Flushable {
+
+        /**
+         * 5MB buffer size
+         */
+        private static final int MIN_SIZE_TO_FLUSH = 5 * 1024 * 1024;
+
+        private Writer out;
+        private StringBuilder sb = new StringBuilder();
+        private File output;
+        private File commitLog;
+
+        private Set<String> prevNodeRecords;
+
+        private Shard(File output, boolean isNodeWriter) throws IOException {
+            this.output = output;
+            this.commitLog = new File(output.getPath() + ".commit");
+            if (commitLog.exists()) {
+                byte[] bytes = Files.readAllBytes(commitLog.toPath());
+                long size = Long.parseLong(new String(bytes, StandardCharsets.ISO_8859_1));
+                try (FileOutputStream fos = new FileOutputStream(output, true); FileChannel fc = fos.getChannel()) {
+                    fc.truncate(size);
+                }
+                Files.delete(commitLog.toPath());
+            }
+            this.out = new OutputStreamWriter(new FileOutputStream(output, output.exists()), StandardCharsets.UTF_8);
+            if (isNodeWriter) {
+                prevNodeRecords = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                    /**
+                     * 
+                     */
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Entry<String, Boolean> entry) {
+                        return this.size() > 10000;
+                    }
+                });
+            }
+        }
+
+        private void write(String line) throws IOException {
+            String data = null;
+            synchronized (this) {
+                if (sb.length() >= MIN_SIZE_TO_FLUSH) {
+                    data = sb.toString();
+                    sb = new StringBuilder();
+                }
+                if (prevNodeRecords == null || prevNodeRecords.add(line)) {
+                    sb.append(line);
+                }
+            }
+            if (data != null) {
+                flush(data, false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            String data = null;
+            synchronized (this) {
+                data = sb.toString();
+                sb = new StringBuilder();
+            }
+            flush(data, true);
+        }
+
+        private void flush(String data, boolean commit) throws IOException {
+            synchronized (out) {
+                if (!commitLog.exists()) {
+                    Long size = output.length();
+                    Files.write(commitLog.toPath(), size.toString().getBytes(StandardCharsets.ISO_8859_1),
+                            StandardOpenOption.CREATE);
+                    Util.fsync(commitLog.toPath());
+                }
+                out.write(data);
+                if (commit) {
+                    out.flush();
+                    Util.fsync(output.toPath());
+                    Files.delete(commitLog.toPath());
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            out.close();
+        }
+    }
+
 }
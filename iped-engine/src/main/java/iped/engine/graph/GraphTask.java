@@ -121,7 +121,7 @@ public void init(ConfigurationManager configurationManager) throws Exception {
 
             if (graphFileWriter == null) {
                 graphFileWriter = new GraphFileWriter(new File(output, CSVS_PATH),
-                        configuration.getDefaultEntity());
+                        configuration.getDefaultEntity(), configuration.getCsvShards());
 
                 if (configuration.getProcessProximityRelationships() && caseData.isIpedReport()) {
                     logger.warn(
@@ -182,7 +182,8 @@ public void finish() throws Exception {
                         }
                     }
                 }
-                graphFileWriter = new GraphFileWriter(new File(output, CSVS_PATH), configuration.getDefaultEntity());
+                graphFileWriter = new GraphFileWriter(new File(output, CSVS_PATH), configuration.getDefaultEntity(),
+                        configuration.getCsvShards());
                 graphFileWriter.close();
             } else {
                 graphFileWriter.close();
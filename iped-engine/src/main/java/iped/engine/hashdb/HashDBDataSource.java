@@ -339,24 +339,37 @@ public synchronized void lookup(byte[][] hashes, Map<String, String> properties)
         }
         ResultSet rs1 = stmtSelect.executeQuery();
         while (rs1.next()) {
-            int hashId = rs1.getInt(1);
-            stmtSelectHashProperties.setInt(1, hashId);
-            ResultSet rs2 = stmtSelectHashProperties.executeQuery();
-            while (rs2.next()) {
-                int propertyId = rs2.getInt(1);
-                String propertyName = propertyIdToName.get(propertyId);
-                if (propertyName != null) {
-                    String propertyValue = rs2.getString(2);
-                    String prev = properties.get(propertyName);
-                    if (prev != null) {
-                        propertyValue = HashDB.mergeProperties(propertyValue, prev);
-                    }
-                    properties.put(propertyName, propertyValue);
+            mergeHashProperties(rs1.getInt(1), properties);
+        }
+        rs1.close();
+    }
+
+    /**
+     * Reads and merges the properties of hashes already found, e.g. by a
+     * {@link HashDBIndex} lookup.
+     */
+    public synchronized void lookup(int[] hashIds, Map<String, String> properties) throws Exception {
+        for (int hashId : hashIds) {
+            mergeHashProperties(hashId, properties);
+        }
+    }
+
+    private void mergeHashProperties(int hashId, Map<String, String> properties) throws Exception {
+        stmtSelectHashProperties.setInt(1, hashId);
+        ResultSet rs2 = stmtSelectHashProperties.executeQuery();
+        while (rs2.next()) {
+            int propertyId = rs2.getInt(1);
+            String propertyName = propertyIdToName.get(propertyId);
+            if (propertyName != null) {
+                String propertyValue = rs2.getString(2);
+                String prev = properties.get(propertyName);
+                if (prev != null) {
+                    propertyValue = HashDB.mergeProperties(propertyValue, prev);
                 }
+                properties.put(propertyName, propertyValue);
             }
-            rs2.close();
         }
-        rs1.close();
+        rs2.close();
     }
 
     public synchronized void close() {
@@ -0,0 +1,314 @@
+package iped.engine.hashdb;
+
+import static iped.engine.hashdb.HashDB.hashBytesLen;
+import static iped.engine.hashdb.HashDB.hashTypes;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Compact read only index of the hashes present in a hash database, kept in a
+ * file next to the database (see {@link #getIndexFile(File)}).
+ *
+ * For each hash type, it stores an array of fixed width entries [hash][HASH_ID]
+ * sorted by the hash bytes. The file is memory mapped and searched without any
+ * locking, so it can be shared by all processing threads. Properties of the
+ * hashes found must still be read from the database, using the returned
+ * HASH_IDs.
+ *
+ * The index is written by {@link HashDBTool} and records the length and last
+ * modification time of the database, so an outdated index is not used.
+ */
+public class HashDBIndex implements Closeable {
+
+    private static final long MAGIC = 0x4950454448444258L; // "IPEDHDBX"
+    private static final int VERSION = 1;
+    private static final String INDEX_EXT = ".idx";
+
+    // magic, version, db length, db last modified, number of hash types
+    private static final int HEADER_LEN = 8 + 4 + 8 + 8 + 4;
+    // count and offset of each hash type section
+    private static final int SECTION_HEADER_LEN = 8 + 8;
+
+    // max bytes of each mapped region, a multiple of any entry size must fit
+    private static final long MAX_REGION_LEN = 1 << 30;
+
+    private final Section[] sections = new Section[hashTypes.length];
+
+    private static class Section {
+
+        private final int hashLen;
+        private final int entryLen;
+        private final long count;
+        private final int entriesPerRegion;
+        private final MappedByteBuffer[] regions;
+
+        private Section(FileChannel fc, int hashLen, long count, long offset) throws IOException {
+            this.hashLen = hashLen;
+            this.entryLen = hashLen + 4;
+            this.count = count;
+            this.entriesPerRegion = (int) (MAX_REGION_LEN / entryLen);
+            int numRegions = (int) ((count + entriesPerRegion - 1) / entriesPerRegion);
+            regions = new MappedByteBuffer[numRegions];
+            for (int i = 0; i < numRegions; i++) {
+                long first = (long) i * entriesPerRegion;
+                long len = Math.min(entriesPerRegion, count - first) * entryLen;
+                regions[i] = fc.map(MapMode.READ_ONLY, offset + first * entryLen, len);
+            }
+        }
+
+        /**
+         * Only absolute get methods are used, so buffers are safely shared by
+         * concurrent readers.
+         */
+        private int compare(long idx, byte[] hash) {
+            ByteBuffer region = regions[(int) (idx / entriesPerRegion)];
+            int pos = (int) (idx % entriesPerRegion) * entryLen;
+            for (int i = 0; i < hashLen; i++) {
+                int cmp = (region.get(pos + i) & 0xFF) - (hash[i] & 0xFF);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        private long prefix(long idx) {
+            ByteBuffer region = regions[(int) (idx / entriesPerRegion)];
+            return region.getLong((int) (idx % entriesPerRegion) * entryLen);
+        }
+
+        private int hashId(long idx) {
+            ByteBuffer region = regions[(int) (idx / entriesPerRegion)];
+            return region.getInt((int) (idx % entriesPerRegion) * entryLen + hashLen);
+        }
+
+        /**
+         * Interpolation search on the first 8 bytes, as hashes are uniformly
+         * distributed, finished with a binary search when the range gets small.
+         *
+         * @return the HASH_ID of the hash or -1 if not found.
+         */
+        private int find(byte[] hash) {
+            long lo = 0, hi = count - 1;
+            if (hi < 0) {
+                return -1;
+            }
+            long key = ByteBuffer.wrap(hash).getLong() ^ Long.MIN_VALUE;
+            while (hi - lo > 64) {
+                long loKey = prefix(lo) ^ Long.MIN_VALUE;
+                long hiKey = prefix(hi) ^ Long.MIN_VALUE;
+                if (key < loKey || key > hiKey) {
+                    return -1;
+                }
+                long mid = lo;
+                if (hiKey != loKey) {
+                    double fraction = ((double) key - loKey) / ((double) hiKey - loKey);
+                    mid = lo + (long) (fraction * (hi - lo));
+                }
+                mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+                int cmp = compare(mid, hash);
+                if (cmp == 0) {
+                    return hashId(mid);
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            while (lo <= hi) {
+                long mid = (lo + hi) >>> 1;
+                int cmp = compare(mid, hash);
+                if (cmp == 0) {
+                    return hashId(mid);
+                } else if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private HashDBIndex(File indexFile, File dbFile) throws IOException {
+        try (FileChannel fc = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LEN + SECTION_HEADER_LEN * hashTypes.length);
+            while (header.hasRemaining() && fc.read(header) >= 0)
+                ;
+            header.flip();
+            if (header.remaining() < HEADER_LEN || header.getLong() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Invalid hash database index " + indexFile.getAbsolutePath());
+            }
+            long dbLength = header.getLong();
+            long dbLastModified = header.getLong();
+            if (dbLength != dbFile.length() || dbLastModified != dbFile.lastModified()) {
+                throw new IOException("Outdated hash database index " + indexFile.getAbsolutePath());
+            }
+            if (header.getInt() != hashTypes.length) {
+                throw new IOException("Invalid hash database index " + indexFile.getAbsolutePath());
+            }
+            for (int i = 0; i < hashTypes.length; i++) {
+                long count = header.getLong();
+                long offset = header.getLong();
+                if (count < 0 || offset < 0 || offset + count * (hashBytesLen[i] + 4) > fc.size()) {
+                    throw new IOException("Truncated hash database index " + indexFile.getAbsolutePath());
+                }
+                if (count > 0) {
+                    sections[i] = new Section(fc, hashBytesLen[i], count, offset);
+                }
+            }
+        }
+    }
+
+    public static File getIndexFile(File dbFile) {
+        return new File(dbFile.getAbsolutePath() + INDEX_EXT);
+    }
+
+    /**
+     * Opens the index of the database, if it exists.
+     *
+     * @return the index or null if there is no index for the database.
+     * @throws IOException
+     *             if the index is invalid or older than the database.
+     */
+    public static HashDBIndex open(File dbFile) throws IOException {
+        File indexFile = getIndexFile(dbFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        return new HashDBIndex(indexFile, dbFile);
+    }
+
+    /**
+     * @return true if there are hashes of the type in the index.
+     */
+    public boolean isPresent(int hashType) {
+        return sections[hashType] != null;
+    }
+
+    /**
+     * Finds the HASH_IDs of the hashes, indexed by hash type as in
+     * {@link HashDB#hashTypes}. Null hashes are ignored. Thread safe.
+     *
+     * @return the distinct HASH_IDs found, sorted, or an empty array.
+     */
+    public int[] lookup(byte[][] hashes) {
+        int[] ids = null;
+        int cnt = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            byte[] h = hashes[i];
+            Section section = sections[i];
+            if (h != null && section != null && h.length == section.hashLen) {
+                int hashId = section.find(h);
+                if (hashId >= 0) {
+                    if (ids == null) {
+                        ids = new int[hashes.length];
+                    }
+                    ids[cnt++] = hashId;
+                }
+            }
+        }
+        if (cnt == 0) {
+            return new int[0];
+        }
+        Arrays.sort(ids, 0, cnt);
+        int distinct = 1;
+        for (int i = 1; i < cnt; i++) {
+            if (ids[i] != ids[distinct - 1]) {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    @Override
+    public void close() {
+        // mapped buffers are released when garbage collected
+        Arrays.fill(sections, null);
+    }
+
+    /**
+     * Writes the index of all hashes in the database. Entries are read in hash
+     * order using the unique index of each hash column, so nothing is sorted in
+     * memory. The database must not be modified after the index is written, as
+     * its length and last modification time are recorded, so the caller must
+     * call {@link #updateDBInfo(File)} after the database is closed.
+     *
+     * @return total number of entries written.
+     */
+    public static long write(Connection connection, File dbFile) throws Exception {
+        File indexFile = getIndexFile(dbFile);
+        File tmp = new File(indexFile.getAbsolutePath() + ".tmp");
+        long[] counts = new long[hashTypes.length];
+        long[] offsets = new long[hashTypes.length];
+        long offset = HEADER_LEN + SECTION_HEADER_LEN * hashTypes.length;
+        long total = 0;
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 1 << 20))) {
+            dos.write(new byte[(int) offset]);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.setFetchSize(4096);
+                for (int i = 0; i < hashTypes.length; i++) {
+                    offsets[i] = offset;
+                    String sql = "select " + hashTypes[i] + ", HASH_ID from HASHES where " + hashTypes[i]
+                            + " is not null order by " + hashTypes[i];
+                    try (ResultSet rs = stmt.executeQuery(sql)) {
+                        while (rs.next()) {
+                            byte[] hash = rs.getBytes(1);
+                            if (hash == null || hash.length != hashBytesLen[i]) {
+                                continue;
+                            }
+                            dos.write(hash);
+                            dos.writeInt(rs.getInt(2));
+                            counts[i]++;
+                        }
+                    }
+                    offset += counts[i] * (hashBytesLen[i] + 4);
+                    total += counts[i];
+                }
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.writeLong(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeLong(0);
+            raf.writeLong(0);
+            raf.writeInt(hashTypes.length);
+            for (int i = 0; i < hashTypes.length; i++) {
+                raf.writeLong(counts[i]);
+                raf.writeLong(offsets[i]);
+            }
+        }
+        Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return total;
+    }
+
+    /**
+     * Records the current length and last modification time of the database in
+     * its index, marking the index as up to date.
+     */
+    public static void updateDBInfo(File dbFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(getIndexFile(dbFile), "rw")) {
+            raf.seek(8 + 4);
+            raf.writeLong(dbFile.length());
+            raf.writeLong(dbFile.lastModified());
+        }
+    }
+
+}
@@ -113,7 +113,7 @@ public class HashDBTool {
     private Map<Integer, String> nsrlProdCodeToName;
     private ProcessMode mode = ProcessMode.UNDEFINED;
     private int totIns, totRem, totUpd, totSkip, totComb, totIgn, totNoProd, totInvHash;
-    private boolean dbExists = true, skipOpt, inputFolderUsed;
+    private boolean dbExists = true, skipOpt, skipIndex, indexOnly, inputFolderUsed;
     private String delimiter;
     private final Set<String> skipCols = new HashSet<String>();
     private final Map<String, String> renameCols = new HashMap<String, String>();
@@ -133,6 +133,14 @@ public HashDBTool() {
     public boolean run(String[] args) {
         if (!parseParameters(args))
             return false;
+        if (indexOnly) {
+            dbExists = output.exists();
+            if (!dbExists) {
+                System.out.println("ERROR: Database file '" + output + "' not found.");
+                return false;
+            }
+            return connect();
+        }
         if (!checkInputFiles())
             return false;
         if (inputs.isEmpty())
@@ -1853,6 +1861,7 @@ private String endTime(long start) {
     }
 
     void finish(boolean success) {
+        boolean indexWritten = false;
         try {
             if (success) {
                 long t = System.currentTimeMillis();
@@ -1881,6 +1890,19 @@ void finish(boolean success) {
                     }
                     System.out.println("Optimization completed in " + endTime(t));
                 }
+
+                if (!skipIndex) {
+                    t = System.currentTimeMillis();
+                    System.out.println("\nWriting hashes index...");
+                    try {
+                        long cnt = HashDBIndex.write(connection, output);
+                        indexWritten = true;
+                        System.out.println(cnt + " hashes written to index " + HashDBIndex.getIndexFile(output).getPath()
+                                + " in " + endTime(t));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
             } else {
                 if (connection != null) {
                     connection.rollback();
@@ -1917,6 +1939,14 @@ void finish(boolean success) {
                 connection.close();
         } catch (Exception e) {
         }
+        try {
+            if (indexWritten) {
+                // database is not changed anymore, so index is up to date
+                HashDBIndex.updateDBInfo(output);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
         try {
             if (!success && !dbExists && output != null && output.exists()) {
                 output.delete();
@@ -2117,12 +2147,23 @@ private boolean parseParameters(String[] args) {
                 mode = ProcessMode.REMOVE_ALL;
             } else if (arg.equalsIgnoreCase("-noOpt")) {
                 skipOpt = true;
+            } else if (arg.equalsIgnoreCase("-noIndex")) {
+                skipIndex = true;
+            } else if (arg.equalsIgnoreCase("-indexOnly")) {
+                indexOnly = true;
             } else {
                 System.out.println("ERROR: unknown parameter '" + arg + "'.");
                 return false;
             }
         }
-        if (inputs.isEmpty()) {
+        if (indexOnly) {
+            if (!inputs.isEmpty() || skipIndex) {
+                System.out.println("ERROR: -indexOnly can not be combined with -d or -noIndex.");
+                return false;
+            }
+            // nothing is changed, just (re)write the index
+            skipOpt = true;
+        } else if (inputs.isEmpty()) {
             System.out.println("ERROR: No input file/folder defined (-d <input file or folder>).");
             return false;
         }
@@ -2146,10 +2187,11 @@ private void usage() {
         System.out.println("    imported directly.");
         System.out.println();
         System.out.println("Usage: java -jar iped-hashdb.jar -d <input file or folder> -o <output DB file>");
-        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt]");
+        System.out.println("            [-replace | -replaceAll | -remove | -removeAll] [-noOpt] [-noIndex]");
         System.out.println("            [-delimiter <char>] [-addCol <column name> <fixed value>]");
         System.out.println("            [-renameCol <current name> <new name>] [-skipCol <column name>]");
         System.out.println("            [-mapValue <column name> <current value> <new value>]");
+        System.out.println("   or: java -jar iped-hashdb.jar -o <existing DB file> -indexOnly");
         System.out.println();
         System.out.println("  -d <input file or folder>");
         System.out.println("    Input files (can be used multiple times). If a folder is used, it processes");
@@ -2181,6 +2223,12 @@ private void usage() {
         System.out.println("  -noOpt");
         System.out.println("    Skip optimizations (reclaim empty space and database analisys) executed");
         System.out.println("    after processing input file(s).");
+        System.out.println("  -noIndex");
+        System.out.println("    Skip writing the hashes index file (<output DB file>.idx), used to speed");
+        System.out.println("    up hash lookups during case processing.");
+        System.out.println("  -indexOnly");
+        System.out.println("    Just write the hashes index file of an existing database, without");
+        System.out.println("    importing any input file.");
         System.out.println("  -delimiter <char>");
         System.out.println("    Specify the column delimiter used in the CSV files to be imported. Default");
         System.out.println("    delimiter is comma (,).");
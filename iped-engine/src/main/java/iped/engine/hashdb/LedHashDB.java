@@ -1,10 +1,21 @@
 package iped.engine.hashdb;
 
 public class LedHashDB {
+
+    /**
+     * Number of low bits of the keys returned by
+     * {@link #sortKey(byte[], int, int)} holding the hash index.
+     */
+    public static final int INDEX_BITS = 16;
+
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
     private final byte[] md5_512;
     private final byte[] md5_64k;
     private final int[] hashIds;
 
+    private volatile long[] prefixes512;
+
     public LedHashDB(byte[] md5_512, byte[] md5_64k, int[] hashIds) {
         this.md5_512 = md5_512;
         this.md5_64k = md5_64k;
@@ -42,6 +53,120 @@ public int hashIdFromMD5_64K(byte[] bytes) {
         return hashIds[pos];
     }
 
+    /**
+     * Returns a key to sort a batch of MD5 hashes before looking them up with
+     * {@link #findMD5_512(long[], int, byte[], int[])}. Keys order hashes by
+     * their first bytes and hold the hash index in the {@link #INDEX_BITS} low
+     * bits.
+     * 
+     * @param hashes
+     *            array with the hash at hashes[off..off+16)
+     * @param index
+     *            hash index in the batch, less than 2^INDEX_BITS
+     */
+    public static long sortKey(byte[] hashes, int off, int index) {
+        return (prefix(hashes, off) << INDEX_BITS) | index;
+    }
+
+    /**
+     * First bytes of the hash, as a signed long with the same order of the
+     * unsigned bytes.
+     */
+    private static long prefix(byte[] arr, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (arr[off + i] & 255);
+        }
+        return (v ^ Long.MIN_VALUE) >> INDEX_BITS;
+    }
+
+    private long[] getPrefixes512() {
+        long[] prefixes = prefixes512;
+        if (prefixes == null) {
+            synchronized (this) {
+                if ((prefixes = prefixes512) == null) {
+                    prefixes = new long[md5_512.length >>> 4];
+                    for (int i = 0; i < prefixes.length; i++) {
+                        prefixes[i] = prefix(md5_512, i << 4);
+                    }
+                    prefixes512 = prefixes;
+                }
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Looks up a batch of MD5 hashes of 512 byte blocks. Keys are sorted, so
+     * each lookup continues from the position of the previous one in the sorted
+     * base, with an exponential search, instead of starting a binary search over
+     * the whole base.
+     * 
+     * @param keys
+     *            sorted keys returned by {@link #sortKey(byte[], int, int)}
+     * @param count
+     *            number of keys
+     * @param hashes
+     *            hashes of the batch, hash i at hashes[i*16..i*16+16)
+     * @param hits
+     *            receives the indexes of the hashes found in the base
+     * @return number of hashes found
+     */
+    public int findMD5_512(long[] keys, int count, byte[] hashes, int[] hits) {
+        long[] prefixes = getPrefixes512();
+        int pos = 0, numHits = 0;
+        for (int k = 0; k < count; k++) {
+            long prefix = keys[k] >> INDEX_BITS;
+            int index = (int) (keys[k] & INDEX_MASK);
+            pos = gallop(prefixes, pos, prefix);
+            for (int p = pos; p < prefixes.length && prefixes[p] == prefix; p++) {
+                if (equals(md5_512, p << 4, hashes, index << 4)) {
+                    hits[numHits++] = index;
+                    break;
+                }
+            }
+        }
+        return numHits;
+    }
+
+    /**
+     * @return the first position, starting from pos, with a prefix not less than
+     *         the given one.
+     */
+    private static int gallop(long[] prefixes, int pos, long prefix) {
+        int n = prefixes.length;
+        if (pos >= n || prefixes[pos] >= prefix) {
+            return pos;
+        }
+        // prefixes[low] < prefix
+        int low = pos, step = 1, high = pos + 1;
+        while (high < n && prefixes[high] < prefix) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, n);
+        // prefixes[low] < prefix <= prefixes[high], if high < n
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (prefixes[mid] < prefix) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    private static boolean equals(byte[] a, int aOff, byte[] b, int bOff) {
+        for (int i = 0; i < 16; i++) {
+            if (a[aOff + i] != b[bOff + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static int binarySearch(byte[] arr, byte[] bytes) {
         int low = 0;
         int high = (arr.length >>> 4) - 1;
@@ -0,0 +1,415 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single producer, single consumer text pipe, made of a ring of pooled char
+ * segments. The producer fills a segment and publishes it with a volatile
+ * write, the consumer reads it and gives it back the same way, so text crosses
+ * threads without monitors or per chunk allocations. A blocked side spins for a
+ * while and then parks.
+ * <p>
+ * Segments are taken from a shared pool and are given back when the reader was
+ * closed and the producer called {@link #release()}, after its last write.
+ */
+public class CharSegmentPipe {
+
+    public static final int SEGMENT_SIZE = 8 * 1024;
+
+    private static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * Max segments kept in the shared pool, 16MB of chars.
+     */
+    private static final int MAX_POOLED_SEGMENTS = 1024;
+
+    private static final int SPINS = 100;
+
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final ConcurrentLinkedQueue<char[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger poolSize = new AtomicInteger();
+
+    private final char[][] segments;
+    private final int[] lengths;
+    private final int mask;
+
+    /**
+     * Number of segments published by the producer, just written by it.
+     */
+    private volatile long head;
+
+    /**
+     * Number of segments consumed, just written by the consumer.
+     */
+    private volatile long tail;
+
+    // accessed just by the producer
+    private int writePos;
+
+    // accessed just by the consumer
+    private int readPos;
+
+    private volatile Thread writeSide;
+    private volatile Thread readSide;
+    private volatile boolean writerWaiting, readerWaiting;
+    private volatile boolean closedByWriter, closedByReader;
+    private boolean released;
+    private final AtomicInteger closedSides = new AtomicInteger();
+
+    private final int timeoutSecs;
+    private volatile boolean timeoutPaused, timedOut;
+
+    // called by the producer when text is handed to the reader
+    private Runnable publishListener;
+
+    private final PipeReader reader = new PipeReader();
+    private final PipeWriter writer = new PipeWriter();
+
+    /**
+     * Receives text directly from the pipe segments. Data must be copied before
+     * returning, if needed later.
+     */
+    public interface SegmentConsumer {
+
+        void accept(char[] buf, int off, int len) throws IOException;
+    }
+
+    /**
+     * @param timeoutSecs
+     *            max time the reader waits for text before throwing a
+     *            {@link TimeoutException}.
+     */
+    public CharSegmentPipe(int timeoutSecs) {
+        this(DEFAULT_SEGMENTS, timeoutSecs);
+    }
+
+    public CharSegmentPipe(int numSegments, int timeoutSecs) {
+        if (numSegments <= 0 || Integer.bitCount(numSegments) != 1) {
+            throw new IllegalArgumentException("Number of segments must be a power of two"); //$NON-NLS-1$
+        }
+        this.segments = new char[numSegments][];
+        this.lengths = new int[numSegments];
+        this.mask = numSegments - 1;
+        this.timeoutSecs = timeoutSecs;
+        for (int i = 0; i < numSegments; i++) {
+            char[] segment = pool.poll();
+            if (segment != null) {
+                poolSize.decrementAndGet();
+            } else {
+                segment = new char[SEGMENT_SIZE];
+            }
+            segments[i] = segment;
+        }
+    }
+
+    public Reader getReader() {
+        return reader;
+    }
+
+    public Writer getWriter() {
+        return writer;
+    }
+
+    public int getTimeout() {
+        return timeoutSecs;
+    }
+
+    /**
+     * Sets a callback run by the writer thread each time text is handed to the
+     * reader. Must be set before the writer starts.
+     */
+    public void setPublishListener(Runnable publishListener) {
+        this.publishListener = publishListener;
+    }
+
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * @return false if the reader has already timed out.
+     */
+    public boolean setTimeoutPaused(boolean paused) {
+        this.timeoutPaused = paused;
+        return !timedOut;
+    }
+
+    private void write(char[] cbuf, String str, int off, int len) throws IOException {
+        if (closedByReader || closedByWriter) {
+            throw new IOException("Pipe closed"); //$NON-NLS-1$
+        }
+        if (writeSide == null) {
+            writeSide = Thread.currentThread();
+        }
+        while (len > 0) {
+            if (writePos == 0) {
+                awaitFreeSegment();
+            }
+            char[] segment = segments[(int) head & mask];
+            int n = Math.min(len, SEGMENT_SIZE - writePos);
+            if (cbuf != null) {
+                System.arraycopy(cbuf, off, segment, writePos, n);
+            } else {
+                str.getChars(off, off + n, segment, writePos);
+            }
+            writePos += n;
+            off += n;
+            len -= n;
+            if (writePos == SEGMENT_SIZE) {
+                publish();
+            }
+        }
+        // do not let a waiting reader starve while the segment is filled slowly
+        if (readerWaiting && writePos > 0) {
+            publish();
+        }
+    }
+
+    private void publish() {
+        lengths[(int) head & mask] = writePos;
+        writePos = 0;
+        head = head + 1;
+        if (readerWaiting) {
+            LockSupport.unpark(readSide);
+        }
+        if (publishListener != null) {
+            publishListener.run();
+        }
+    }
+
+    private void awaitFreeSegment() throws IOException {
+        int spins = 0;
+        while (head - tail > mask) {
+            if (closedByReader) {
+                throw new IOException("Pipe closed"); //$NON-NLS-1$
+            }
+            Thread readThread = readSide;
+            if (readThread != null && !readThread.isAlive()) {
+                throw new IOException("Pipe broken"); //$NON-NLS-1$
+            }
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            writerWaiting = true;
+            if (head - tail > mask) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            writerWaiting = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Waits until a segment is published.
+     *
+     * @return false if the end of the text was reached.
+     */
+    private boolean awaitSegment() throws IOException {
+        if (closedByReader) {
+            throw new IOException("Pipe closed"); //$NON-NLS-1$
+        }
+        if (readSide == null) {
+            readSide = Thread.currentThread();
+        }
+        long idleStart = System.nanoTime();
+        int spins = 0;
+        while (tail == head) {
+            if (closedByWriter) {
+                // the last segment is published before the pipe is closed
+                return tail != head;
+            }
+            Thread writeThread = writeSide;
+            if (writeThread != null && !writeThread.isAlive()) {
+                throw new IOException("Write end dead"); //$NON-NLS-1$
+            }
+            if (++spins < SPINS) {
+                Thread.onSpinWait();
+                continue;
+            }
+            readerWaiting = true;
+            if (tail == head && !closedByWriter) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+            readerWaiting = false;
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException();
+            }
+            long now = System.nanoTime();
+            if (timeoutPaused) {
+                idleStart = now;
+            } else if (now - idleStart >= TimeUnit.SECONDS.toNanos(timeoutSecs)) {
+                timedOut = true;
+                throw new TimeoutException();
+            }
+        }
+        return true;
+    }
+
+    private void consume() {
+        readPos = 0;
+        tail = tail + 1;
+        if (writerWaiting) {
+            LockSupport.unpark(writeSide);
+        }
+    }
+
+    /**
+     * Hands the next available text to the consumer without copying it.
+     *
+     * @return the number of chars consumed, or -1 if the end of the text was
+     *         reached.
+     */
+    public int read(SegmentConsumer consumer) throws IOException {
+        if (!awaitSegment()) {
+            return -1;
+        }
+        int slot = (int) tail & mask;
+        int len = lengths[slot] - readPos;
+        consumer.accept(segments[slot], readPos, len);
+        consume();
+        return len;
+    }
+
+    private int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!awaitSegment()) {
+            return -1;
+        }
+        int read = 0;
+        while (len > 0 && tail != head) {
+            int slot = (int) tail & mask;
+            int n = Math.min(len, lengths[slot] - readPos);
+            System.arraycopy(segments[slot], readPos, cbuf, off, n);
+            readPos += n;
+            off += n;
+            len -= n;
+            read += n;
+            if (readPos == lengths[slot]) {
+                consume();
+            }
+        }
+        return read;
+    }
+
+    private void closeWriter() {
+        // just the producer can touch its segment, others only signal the end
+        if (writePos > 0 && Thread.currentThread() == writeSide && !closedByReader) {
+            publish();
+        }
+        closedByWriter = true;
+        if (readerWaiting) {
+            LockSupport.unpark(readSide);
+        }
+    }
+
+    private void closeReader() {
+        if (closedByReader) {
+            return;
+        }
+        closedByReader = true;
+        if (writerWaiting) {
+            LockSupport.unpark(writeSide);
+        }
+        releaseSegments();
+    }
+
+    /**
+     * Must be called by the producer thread after its last write, so segments
+     * can be reused by other pipes after the reader is closed.
+     */
+    public void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        releaseSegments();
+    }
+
+    private void releaseSegments() {
+        if (closedSides.incrementAndGet() != 2) {
+            return;
+        }
+        for (int i = 0; i < segments.length; i++) {
+            if (poolSize.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+                pool.offer(segments[i]);
+            } else {
+                poolSize.decrementAndGet();
+            }
+            segments[i] = null;
+        }
+    }
+
+    private class PipeReader extends Reader {
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (cbuf.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            return CharSegmentPipe.this.read(cbuf, off, len);
+        }
+
+        @Override
+        public boolean ready() throws IOException {
+            return tail != head;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeReader();
+        }
+    }
+
+    private class PipeWriter extends Writer {
+
+        private final char[] single = new char[1];
+
+        @Override
+        public void write(int c) throws IOException {
+            single[0] = (char) c;
+            CharSegmentPipe.this.write(single, null, 0, 1);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (cbuf.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            CharSegmentPipe.this.write(cbuf, null, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            CharSegmentPipe.this.write(null, str, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (closedByReader) {
+                throw new IOException("Pipe closed"); //$NON-NLS-1$
+            }
+            if (writePos > 0 && Thread.currentThread() == writeSide) {
+                publish();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeWriter();
+        }
+    }
+
+}
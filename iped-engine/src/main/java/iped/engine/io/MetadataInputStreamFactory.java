@@ -30,6 +30,14 @@ public MetadataInputStreamFactory(Metadata metadata, boolean fromMetadataPreview
         this.fromMetadataPreview = fromMetadataPreview;
     }
 
+    public Metadata getMetadata() {
+        return metadata;
+    }
+
+    public boolean isFromMetadataPreview() {
+        return fromMetadataPreview;
+    }
+
     private boolean includeMeta(String meta) {
         if (fromMetadataPreview) {
             return !MetadataUtil.ignorePreviewMetas.contains(meta);
@@ -16,15 +16,18 @@
  */
 package iped.engine.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.tika.io.TikaInputStream;
 import org.apache.tika.metadata.Metadata;
@@ -42,10 +45,12 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.ParsingTaskConfig;
 import iped.engine.core.QueuesProcessingOrder;
+import iped.engine.util.TextCache;
 import iped.parsers.fork.ParsingTimeout;
 import iped.parsers.standard.StandardParser;
 import iped.parsers.util.CorruptedCarvedException;
 import iped.parsers.util.ItemInfo;
+import iped.parsers.util.ParsingDeadline;
 
 /**
  * Reader for the text content from a given binary stream. This class uses a
@@ -61,13 +66,26 @@ public class ParsingReader extends Reader {
 
     private static Logger LOGGER = LoggerFactory.getLogger(ParsingReader.class);
 
+    /**
+     * Percent of the parsing timeout after which container parsers are asked to
+     * stop and return partial results.
+     */
+    private static final int SOFT_DEADLINE_PERCENT = 80;
+
+    private static final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * CPU time used by parsing threads whose text was discarded by a timeout.
+     */
+    private static final LongAdder timeoutWastedCpuNanos = new LongAdder();
+
     /**
      * Parser instance used for parsing the given binary stream.
      */
     private Parser parser;
 
     /**
-     * Buffered read end of the pipe.
+     * Read end of the pipe.
      */
     private final Reader reader;
 
@@ -98,7 +116,13 @@ public class ParsingReader extends Reader {
      */
     private volatile Throwable throwable;
 
-    private FastPipedReader pipedReader;
+    private CharSegmentPipe pipe;
+
+    private final ParsingDeadline deadline;
+
+    // parsing thread and its CPU time already accounted as wasted or at start
+    private volatile long parsingThreadId = -1;
+    private long parsingCpuAccounted;
 
     /**
      * Creates a reader for the text content of the given binary stream with the
@@ -144,18 +168,22 @@ public ParsingReader(Parser parser, InputStream stream, Metadata metadata, Parse
         ParsingTaskConfig parsingConfig = ConfigurationManager.get().findObject(ParsingTaskConfig.class);
         timeOutBySize = (int) (length / 1000000) * parsingConfig.getTimeOutPerMB();
 
-        pipedReader = new FastPipedReader(128 * 1024, parsingConfig.getTimeOut(), timeOutBySize);
-        this.reader = new BufferedReader(pipedReader);
-        this.writer = new FastPipedWriter(pipedReader);
+        pipe = new CharSegmentPipe(parsingConfig.getTimeOut() + timeOutBySize);
+        this.reader = pipe.getReader();
+        this.writer = pipe.getWriter();
+
+        deadline = new ParsingDeadline(pipe.getTimeout() * 1000L * SOFT_DEADLINE_PERCENT / 100);
+        pipe.setPublishListener(deadline::progress);
+        context.set(ParsingDeadline.class, deadline);
 
         String timeout = metadata.get(StandardParser.INDEXER_TIMEOUT);
         String mediaType = metadata.get(StandardParser.INDEXER_CONTENT_TYPE);
         if (timeout != null || MediaType.OCTET_STREAM.toString().equals(mediaType)) {
-            pipedReader.setTimeoutPaused(true);
+            setTimeoutPaused(true);
         }
 
         // ForkServer timeout
-        context.set(ParsingTimeout.class, new ParsingTimeout(pipedReader.getTotalTimeout() * 1000));
+        context.set(ParsingTimeout.class, new ParsingTimeout(pipe.getTimeout() * 1000));
 
         // Executa parsing em outra JVM, isolando problemas, mas impacta desempenho
         // until proxies for item and itemSearcher are implemented,
@@ -242,6 +270,10 @@ private class BackgroundParsing implements Runnable {
          */
         @Override
         public void run() {
+            synchronized (ParsingReader.this) {
+                parsingCpuAccounted = getCurrentThreadCpuTime();
+                parsingThreadId = Thread.currentThread().getId();
+            }
             ContentHandler handler = new ToTextContentHandler(writer);
             try {
                 parser.parse(stream, handler, metadata, context);
@@ -274,6 +306,10 @@ public void run() {
                 }
 
             } finally {
+                if (pipe.isTimedOut()) {
+                    // CPU used after the timeout was detected
+                    addTimeoutWastedCpu(getCurrentThreadCpuTime());
+                }
                 synchronized (lock) {
                     lock.notify();
                     parseDone = true;
@@ -295,6 +331,9 @@ public void run() {
                     // throwable = t;
                 }
             }
+
+            // this thread will not write anymore
+            pipe.release();
         }
 
     }
@@ -316,8 +355,45 @@ public void run() {
     @Override
     public int read(char[] cbuf, int off, int len) throws IOException {
 
-        int read = reader.read(cbuf, off, len);
+        int read;
+        try {
+            read = reader.read(cbuf, off, len);
+        } catch (TimeoutException e) {
+            addTimeoutWastedCpu();
+            throw e;
+        }
+
+        checkThrowable();
 
+        return read;
+    }
+
+    /**
+     * Moves all parsed text to the cache, directly from the pipe segments,
+     * without copying it to an intermediate buffer.
+     *
+     * @return the number of chars transferred
+     * @throws IOException
+     *             if the parsing thread has failed or if for some reason the pipe
+     *             does not work properly
+     */
+    public long transferTo(TextCache textCache) throws IOException {
+        long transferred = 0;
+        int read;
+        try {
+            while ((read = pipe.read(textCache::write)) != -1 && !Thread.currentThread().isInterrupted()) {
+                checkThrowable();
+                transferred += read;
+            }
+        } catch (TimeoutException e) {
+            addTimeoutWastedCpu();
+            throw e;
+        }
+        checkThrowable();
+        return transferred;
+    }
+
+    private void checkThrowable() throws IOException {
         if (throwable != null) {
             if (throwable instanceof IOException) {
                 throw (IOException) throwable;
@@ -325,8 +401,6 @@ public int read(char[] cbuf, int off, int len) throws IOException {
                 throw new IOException(throwable); // $NON-NLS-1$
             }
         }
-
-        return read;
     }
 
     /**
@@ -358,7 +432,53 @@ public int available() {
     }
 
     public boolean setTimeoutPaused(boolean paused) {
-        return pipedReader.setTimeoutPaused(paused);
+        deadline.setPaused(paused);
+        return pipe.setTimeoutPaused(paused);
+    }
+
+    /**
+     * @return true if some parser stopped early because the soft deadline was
+     *         reached, so the parsed content is partial.
+     */
+    public boolean isDeadlineReached() {
+        return deadline.wasReached();
+    }
+
+    /**
+     * @return CPU time, in milliseconds, used by parsing threads whose results
+     *         were discarded because of timeouts. Parsing done in external
+     *         processes by the ForkParser is not included.
+     */
+    public static long getTimeoutWastedCpuMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(timeoutWastedCpuNanos.sum());
+    }
+
+    /**
+     * Accounts the CPU time used by the parsing thread until the timeout, as the
+     * thread may keep running for a long time or never finish.
+     */
+    private void addTimeoutWastedCpu() {
+        long threadId = parsingThreadId;
+        if (threadId != -1 && threadMXBean.isThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled()) {
+            long cpu = threadMXBean.getThreadCpuTime(threadId);
+            if (cpu != -1) {
+                addTimeoutWastedCpu(cpu);
+            }
+        }
+    }
+
+    private synchronized void addTimeoutWastedCpu(long parsingThreadCpu) {
+        if (parsingThreadCpu > parsingCpuAccounted) {
+            timeoutWastedCpuNanos.add(parsingThreadCpu - parsingCpuAccounted);
+            parsingCpuAccounted = parsingThreadCpu;
+        }
+    }
+
+    private static long getCurrentThreadCpuTime() {
+        if (!threadMXBean.isCurrentThreadCpuTimeSupported() || !threadMXBean.isThreadCpuTimeEnabled()) {
+            return 0;
+        }
+        return threadMXBean.getCurrentThreadCpuTime();
     }
 
 }
@@ -0,0 +1,656 @@
+package iped.engine.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.luben.zstd.Zstd;
+
+import iped.engine.config.ContentStorageConfig.Compression;
+import iped.io.SeekableInputStream;
+import iped.utils.ByteBufferSeekableInputStream;
+import iped.utils.HashValue;
+import iped.utils.IOUtil;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Append only storage of item contents, identified by their MD5 hash.
+ *
+ * Contents are appended to segment files, each record being [hash][codec]
+ * [length][stored length][data], where data is compressed with LZ4 or Zstd or
+ * stored as is when it does not compress well. An index file maps each hash to
+ * the segment and offset of its record. Only the index is kept in memory, as an
+ * open addressing table of longs.
+ *
+ * Segments are never modified after being filled, so they are memory mapped to
+ * be read without system calls and uncompressed contents are returned as views
+ * of the mapped buffers. The segment being written is read with positional
+ * reads.
+ *
+ * Writes are not synced to disk until {@link #commit()}, which syncs the
+ * segments and then appends the new entries to the index. Records written
+ * after the last commit are recovered from the segments when the store is
+ * opened again for writing.
+ */
+public class SegmentContentStore implements Closeable {
+
+    private static Logger LOGGER = LogManager.getLogger(SegmentContentStore.class);
+
+    public static final String DIR_NAME = "segments"; //$NON-NLS-1$
+
+    private static final String INDEX_FILE = "index.dat"; //$NON-NLS-1$
+    private static final String SEGMENT_PREFIX = "segment-"; //$NON-NLS-1$
+    private static final String SEGMENT_EXT = ".dat"; //$NON-NLS-1$
+
+    private static final long MAGIC = 0x4950454453454753L; // "IPEDSEGS"
+    private static final int VERSION = 1;
+    // magic, version, first valid segment
+    private static final int INDEX_HEADER_LEN = 8 + 4 + 4;
+    // hash, position
+    private static final int INDEX_ENTRY_LEN = 16 + 8;
+
+    // hash, codec, length, stored length
+    private static final int RECORD_HEADER_LEN = 16 + 1 + 4 + 4;
+
+    private static final byte CODEC_NONE = 0;
+    private static final byte CODEC_LZ4 = 1;
+    private static final byte CODEC_ZSTD = 2;
+
+    // positions are packed as segment << OFFSET_BITS | offset
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+    private static final HashMap<File, SegmentContentStore> stores = new HashMap<>();
+
+    private final File dir;
+    private final File indexFile;
+
+    private Compression compression = Compression.LZ4;
+    private int zstdLevel = 3;
+    private long maxSegmentSize = 1 << 30;
+
+    private final PositionTable table = new PositionTable();
+
+    // segments below this one were discarded by a compaction
+    private int firstSegment = 0;
+    private final List<MappedByteBuffer> mappedSegments = new ArrayList<>();
+
+    private volatile boolean writable = false;
+    private int writeSegment = -1;
+    private FileChannel writeChannel;
+    private long writePosition;
+    private FileChannel indexChannel;
+    private ByteBuffer pendingIndex = ByteBuffer.allocate(INDEX_ENTRY_LEN * 1024);
+    private boolean dirty = false;
+
+    private static final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+
+    /**
+     * Open addressing table with linear probing from MD5 hashes to positions.
+     */
+    private static class PositionTable {
+
+        private long[] slots = new long[3 * 1024];
+        private int size = 0;
+
+        private int capacity() {
+            return slots.length / 3;
+        }
+
+        private int slotOf(long k1, long k2) {
+            int mask = capacity() - 1;
+            int slot = (int) (k1 ^ (k1 >>> 32)) & mask;
+            while (slots[3 * slot + 2] != 0) {
+                if (slots[3 * slot] == k1 && slots[3 * slot + 1] == k2) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        long get(long k1, long k2) {
+            return slots[3 * slotOf(k1, k2) + 2] - 1;
+        }
+
+        void put(long k1, long k2, long position) {
+            if (size + 1 > capacity() * 2 / 3) {
+                long[] old = slots;
+                slots = new long[old.length * 2];
+                size = 0;
+                for (int i = 0; i < old.length; i += 3) {
+                    if (old[i + 2] != 0) {
+                        put(old[i], old[i + 1], old[i + 2] - 1);
+                    }
+                }
+            }
+            int slot = slotOf(k1, k2);
+            if (slots[3 * slot + 2] == 0) {
+                size++;
+            }
+            slots[3 * slot] = k1;
+            slots[3 * slot + 1] = k2;
+            slots[3 * slot + 2] = position + 1;
+        }
+    }
+
+    private SegmentContentStore(File dir) throws IOException {
+        this.dir = dir;
+        this.indexFile = new File(dir, INDEX_FILE);
+        loadIndex();
+    }
+
+    /**
+     * @return true if there is a store in the directory.
+     */
+    public static boolean exists(File dir) {
+        return new File(dir, INDEX_FILE).isFile();
+    }
+
+    /**
+     * Gets the store of the directory, opening it for reading if needed.
+     */
+    public static SegmentContentStore get(File dir) throws IOException {
+        dir = dir.getAbsoluteFile();
+        synchronized (stores) {
+            SegmentContentStore store = stores.get(dir);
+            if (store == null) {
+                store = new SegmentContentStore(dir);
+                stores.put(dir, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * Gets the store of the directory, creating it if needed, ready for writing.
+     */
+    public static SegmentContentStore getForWriting(File dir, Compression compression, int zstdLevel,
+            long maxSegmentSize) throws IOException {
+        dir.mkdirs();
+        SegmentContentStore store = get(dir);
+        synchronized (store) {
+            store.compression = compression;
+            store.zstdLevel = zstdLevel;
+            store.maxSegmentSize = maxSegmentSize;
+            store.openForWriting();
+        }
+        return store;
+    }
+
+    private static long readLong(byte[] b, int off) {
+        if (b.length != 16) {
+            throw new IllegalArgumentException("Contents must be identified by MD5 hashes");
+        }
+        return ByteBuffer.wrap(b, off, 8).getLong();
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(dir, SEGMENT_PREFIX + String.format("%05d", segment) + SEGMENT_EXT); //$NON-NLS-1$
+    }
+
+    private void loadIndex() throws IOException {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (FileChannel fc = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            if (fc.size() < INDEX_HEADER_LEN) {
+                // header not written yet
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.allocate(INDEX_ENTRY_LEN * 4096);
+            readFully(fc, buf, 0, INDEX_HEADER_LEN);
+            if (buf.getLong(0) != MAGIC || buf.getInt(8) != VERSION) {
+                throw new IOException("Invalid content storage index " + indexFile.getAbsolutePath());
+            }
+            firstSegment = buf.getInt(12);
+            long pos = INDEX_HEADER_LEN;
+            // a partially written entry at the end is ignored
+            long end = pos + (fc.size() - pos) / INDEX_ENTRY_LEN * INDEX_ENTRY_LEN;
+            while (pos < end) {
+                int len = (int) Math.min(buf.capacity(), end - pos);
+                readFully(fc, buf, pos, len);
+                for (int i = 0; i < len; i += INDEX_ENTRY_LEN) {
+                    table.put(buf.getLong(i), buf.getLong(i + 8), buf.getLong(i + 16));
+                }
+                pos += len;
+            }
+        }
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buf, long pos, int len) throws IOException {
+        buf.clear().limit(len);
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private void openForWriting() throws IOException {
+        if (writable) {
+            return;
+        }
+        boolean newIndex = !indexFile.exists();
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (newIndex || indexChannel.size() < INDEX_HEADER_LEN) {
+            writeIndexHeader(indexChannel, firstSegment);
+        } else {
+            // discard a partially written entry
+            long size = indexChannel.size();
+            indexChannel.truncate(INDEX_HEADER_LEN + (size - INDEX_HEADER_LEN) / INDEX_ENTRY_LEN * INDEX_ENTRY_LEN);
+        }
+        indexChannel.position(indexChannel.size());
+
+        int segment = firstSegment;
+        while (getSegmentFile(segment + 1).exists()) {
+            segment++;
+        }
+        recover(segment);
+        openSegmentForWriting(segment);
+        writable = true;
+        commit();
+    }
+
+    private static void writeIndexHeader(FileChannel fc, int firstSegment) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LEN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(firstSegment).flip();
+        fc.truncate(0);
+        while (header.hasRemaining()) {
+            fc.write(header, header.position());
+        }
+    }
+
+    /**
+     * Indexes complete records written after the last commit and truncates
+     * partially written ones.
+     */
+    private void recover(int lastSegment) throws IOException {
+        long[] indexedEnd = new long[lastSegment + 1];
+        for (int i = 0; i < table.slots.length; i += 3) {
+            if (table.slots[i + 2] != 0) {
+                long position = table.slots[i + 2] - 1;
+                int segment = (int) (position >>> OFFSET_BITS);
+                if (segment <= lastSegment) {
+                    indexedEnd[segment] = Math.max(indexedEnd[segment], (position & OFFSET_MASK) + 1);
+                }
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+        int recovered = 0;
+        for (int segment = firstSegment; segment <= lastSegment; segment++) {
+            File file = getSegmentFile(segment);
+            if (!file.exists()) {
+                continue;
+            }
+            try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                long pos = 0;
+                long size = fc.size();
+                if (indexedEnd[segment] > 0) {
+                    // skip the last indexed record
+                    pos = indexedEnd[segment] - 1;
+                    readFully(fc, header, pos, RECORD_HEADER_LEN);
+                    pos += RECORD_HEADER_LEN + header.getInt(21);
+                }
+                while (pos + RECORD_HEADER_LEN <= size) {
+                    readFully(fc, header, pos, RECORD_HEADER_LEN);
+                    long next = pos + RECORD_HEADER_LEN + header.getInt(21);
+                    if (next > size || header.getInt(21) < 0) {
+                        break;
+                    }
+                    long position = (long) segment << OFFSET_BITS | pos;
+                    table.put(header.getLong(0), header.getLong(8), position);
+                    addPendingIndex(header.getLong(0), header.getLong(8), position);
+                    recovered++;
+                    pos = next;
+                }
+                if (pos < size) {
+                    fc.truncate(pos);
+                }
+            }
+        }
+        if (recovered > 0) {
+            LOGGER.info("Recovered {} uncommitted contents in {}", recovered, dir.getAbsolutePath());
+        }
+    }
+
+    private void openSegmentForWriting(int segment) throws IOException {
+        if (writeChannel != null) {
+            writeChannel.force(false);
+            writeChannel.close();
+        }
+        writeSegment = segment;
+        writeChannel = FileChannel.open(getSegmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writePosition = writeChannel.size();
+    }
+
+    private void addPendingIndex(long k1, long k2, long position) {
+        if (pendingIndex.remaining() < INDEX_ENTRY_LEN) {
+            ByteBuffer bigger = ByteBuffer.allocate(pendingIndex.capacity() * 2);
+            pendingIndex.flip();
+            bigger.put(pendingIndex);
+            pendingIndex = bigger;
+        }
+        pendingIndex.putLong(k1).putLong(k2).putLong(position);
+    }
+
+    /**
+     * @return true if there is content for the hash in this store.
+     */
+    public synchronized boolean contains(byte[] md5) {
+        return table.get(readLong(md5, 0), readLong(md5, 8)) >= 0;
+    }
+
+    /**
+     * Stores the content if not stored yet. Compression is done by the caller
+     * thread without holding the store lock.
+     *
+     * @return true if the content was stored, false if it was already present.
+     */
+    public boolean put(byte[] md5, byte[] buf, int len) throws IOException {
+        if (!writable) {
+            throw new IOException("Content storage not opened for writing " + dir.getAbsolutePath());
+        }
+        if (contains(md5)) {
+            return false;
+        }
+        byte codec = CODEC_NONE;
+        byte[] data = buf;
+        int dataLen = len;
+        if (compression == Compression.LZ4) {
+            LZ4Compressor compressor = lz4.fastCompressor();
+            byte[] compressed = new byte[compressor.maxCompressedLength(len)];
+            int compressedLen = compressor.compress(buf, 0, len, compressed, 0, compressed.length);
+            if (isWorthCompressing(compressedLen, len)) {
+                codec = CODEC_LZ4;
+                data = compressed;
+                dataLen = compressedLen;
+            }
+        } else if (compression == Compression.ZSTD) {
+            byte[] src = len == buf.length ? buf : Arrays.copyOf(buf, len);
+            byte[] compressed = Zstd.compress(src, zstdLevel);
+            if (isWorthCompressing(compressed.length, len)) {
+                codec = CODEC_ZSTD;
+                data = compressed;
+                dataLen = compressed.length;
+            }
+        }
+        long k1 = readLong(md5, 0), k2 = readLong(md5, 8);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+        header.putLong(k1).putLong(k2).put(codec).putInt(len).putInt(dataLen).flip();
+        ByteBuffer content = ByteBuffer.wrap(data, 0, dataLen);
+
+        synchronized (this) {
+            if (table.get(k1, k2) >= 0) {
+                return false;
+            }
+            if (writePosition > 0 && writePosition + RECORD_HEADER_LEN + dataLen > maxSegmentSize) {
+                openSegmentForWriting(writeSegment + 1);
+            }
+            long position = (long) writeSegment << OFFSET_BITS | writePosition;
+            long pos = writePosition;
+            while (header.hasRemaining()) {
+                pos += writeChannel.write(header, pos);
+            }
+            while (content.hasRemaining()) {
+                pos += writeChannel.write(content, pos);
+            }
+            writePosition = pos;
+            table.put(k1, k2, position);
+            addPendingIndex(k1, k2, position);
+            dirty = true;
+        }
+        return true;
+    }
+
+    private static boolean isWorthCompressing(int compressedLen, int len) {
+        // save at least 1/16 of space
+        return compressedLen < len - (len >> 4);
+    }
+
+    private synchronized MappedByteBuffer getMappedSegment(int segment) throws IOException {
+        int idx = segment - firstSegment;
+        while (mappedSegments.size() <= idx) {
+            mappedSegments.add(null);
+        }
+        MappedByteBuffer mbb = mappedSegments.get(idx);
+        if (mbb == null) {
+            try (FileChannel fc = FileChannel.open(getSegmentFile(segment).toPath(), StandardOpenOption.READ)) {
+                mbb = fc.map(MapMode.READ_ONLY, 0, fc.size());
+            }
+            mappedSegments.set(idx, mbb);
+        }
+        return mbb;
+    }
+
+    /**
+     * @return a stream with the content of the hash or null if it is not stored.
+     */
+    public SeekableInputStream get(byte[] md5) throws IOException {
+        long position;
+        synchronized (this) {
+            position = table.get(readLong(md5, 0), readLong(md5, 8));
+        }
+        if (position < 0) {
+            return null;
+        }
+        int segment = (int) (position >>> OFFSET_BITS);
+        long offset = position & OFFSET_MASK;
+
+        ByteBuffer record = null;
+        FileChannel activeChannel;
+        synchronized (this) {
+            activeChannel = writable && segment == writeSegment ? writeChannel : null;
+        }
+        if (activeChannel != null) {
+            // segment still growing, not mapped
+            try {
+                ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+                readFully(activeChannel, header, offset, RECORD_HEADER_LEN);
+                record = ByteBuffer.allocate(RECORD_HEADER_LEN + header.getInt(21));
+                readFully(activeChannel, record, offset, record.capacity());
+            } catch (ClosedChannelException e) {
+                // segment was filled meanwhile, it can be mapped now
+                record = null;
+            }
+        }
+        if (record == null) {
+            ByteBuffer mbb = getMappedSegment(segment).duplicate();
+            mbb.position((int) offset);
+            record = mbb.slice();
+            record.limit(RECORD_HEADER_LEN + record.getInt(21));
+        }
+
+        byte codec = record.get(16);
+        int len = record.getInt(17);
+        int storedLen = record.getInt(21);
+        record.position(RECORD_HEADER_LEN);
+        if (codec == CODEC_NONE) {
+            return new ByteBufferSeekableInputStream(record);
+        }
+        byte[] compressed = new byte[storedLen];
+        record.get(compressed);
+        byte[] content;
+        if (codec == CODEC_LZ4) {
+            content = new byte[len];
+            lz4.fastDecompressor().decompress(compressed, 0, content, 0, len);
+        } else if (codec == CODEC_ZSTD) {
+            content = Zstd.decompress(compressed, len);
+        } else {
+            throw new IOException("Unknown codec " + codec + " in " + getSegmentFile(segment).getAbsolutePath());
+        }
+        return new ByteBufferSeekableInputStream(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * Syncs written contents to disk and then makes them visible in the index.
+     */
+    public synchronized void commit() throws IOException {
+        if (!writable) {
+            return;
+        }
+        if (dirty) {
+            writeChannel.force(false);
+            dirty = false;
+        }
+        if (pendingIndex.position() > 0) {
+            pendingIndex.flip();
+            while (pendingIndex.hasRemaining()) {
+                indexChannel.write(pendingIndex);
+            }
+            pendingIndex.clear();
+            indexChannel.force(false);
+        }
+    }
+
+    /**
+     * Removes contents not accepted by the filter, rewriting the remaining ones
+     * to new segments, which is like a sqlite VACUUM. Must not be called while
+     * the store is being read or written by other threads.
+     *
+     * @return the number of removed contents.
+     */
+    public synchronized int compact(Predicate<HashValue> keep) throws IOException {
+        openForWriting();
+        commit();
+        List<long[]> live = new ArrayList<>();
+        int removed = 0;
+        for (int i = 0; i < table.slots.length; i += 3) {
+            if (table.slots[i + 2] != 0) {
+                byte[] md5 = ByteBuffer.allocate(16).putLong(table.slots[i]).putLong(table.slots[i + 1]).array();
+                if (keep.test(new HashValue(md5))) {
+                    live.add(new long[] { table.slots[i + 2] - 1, table.slots[i], table.slots[i + 1] });
+                } else {
+                    removed++;
+                }
+            }
+        }
+        if (removed == 0) {
+            return 0;
+        }
+        // copy in disk order
+        live.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        int oldFirst = firstSegment, oldLast = writeSegment;
+        writeChannel.close();
+        writeChannel = null;
+        writable = false;
+        mappedSegments.clear();
+
+        File tmpIndex = new File(dir, INDEX_FILE + ".tmp"); //$NON-NLS-1$
+        firstSegment = oldLast + 1;
+        try (FileChannel newIndex = FileChannel.open(tmpIndex.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeIndexHeader(newIndex, firstSegment);
+            table.slots = new long[3 * 1024];
+            table.size = 0;
+            openSegmentForWriting(firstSegment);
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+            int segment = -1;
+            FileChannel in = null;
+            try {
+                for (long[] entry : live) {
+                    int entrySegment = (int) (entry[0] >>> OFFSET_BITS);
+                    long offset = entry[0] & OFFSET_MASK;
+                    if (entrySegment != segment) {
+                        IOUtil.closeQuietly(in);
+                        in = FileChannel.open(getSegmentFile(entrySegment).toPath(), StandardOpenOption.READ);
+                        segment = entrySegment;
+                    }
+                    readFully(in, header, offset, RECORD_HEADER_LEN);
+                    long recordLen = RECORD_HEADER_LEN + header.getInt(21);
+                    if (writePosition > 0 && writePosition + recordLen > maxSegmentSize) {
+                        openSegmentForWriting(writeSegment + 1);
+                    }
+                    long position = (long) writeSegment << OFFSET_BITS | writePosition;
+                    long copied = 0;
+                    while (copied < recordLen) {
+                        copied += in.transferTo(offset + copied, recordLen - copied,
+                                writeChannel.position(writePosition + copied));
+                    }
+                    writePosition += recordLen;
+                    table.put(entry[1], entry[2], position);
+                    addPendingIndex(entry[1], entry[2], position);
+                }
+            } finally {
+                IOUtil.closeQuietly(in);
+            }
+            writeChannel.force(false);
+            pendingIndex.flip();
+            long pos = INDEX_HEADER_LEN;
+            while (pendingIndex.hasRemaining()) {
+                pos += newIndex.write(pendingIndex, pos);
+            }
+            pendingIndex.clear();
+            newIndex.force(false);
+        }
+        indexChannel.close();
+        Files.move(tmpIndex.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE);
+        indexChannel.position(indexChannel.size());
+        writable = true;
+
+        for (int segment = oldFirst; segment <= oldLast; segment++) {
+            File file = getSegmentFile(segment);
+            // may fail on Windows if still mapped, the index just ignores it
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Commits and closes the store. It is opened again on next access.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (stores) {
+            stores.remove(dir);
+        }
+        synchronized (this) {
+            commit();
+            if (writeChannel != null) {
+                writeChannel.close();
+                writeChannel = null;
+            }
+            if (indexChannel != null) {
+                indexChannel.close();
+                indexChannel = null;
+            }
+            writable = false;
+            // mapped buffers are released when garbage collected
+            mappedSegments.clear();
+        }
+    }
+
+    public static void closeAll() throws IOException {
+        List<SegmentContentStore> list;
+        synchronized (stores) {
+            list = new ArrayList<>(stores.values());
+        }
+        for (SegmentContentStore store : list) {
+            store.close();
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import iped.io.SeekableInputStream;
+import iped.utils.HashValue;
+import iped.utils.SeekableInputStreamFactory;
+
+/**
+ * Reads contents stored in a {@link SegmentContentStore}, identified by their
+ * MD5 hash string.
+ */
+public class SegmentContentStoreInputStreamFactory extends SeekableInputStreamFactory {
+
+    public SegmentContentStoreInputStreamFactory(Path storeDir) {
+        super(storeDir.toUri());
+    }
+
+    @Override
+    public boolean checkIfDataSourceExists() {
+        // do nothing, it will always be into case folder
+        return false;
+    }
+
+    @Override
+    public SeekableInputStream getSeekableInputStream(String identifier) throws IOException {
+        SegmentContentStore store = SegmentContentStore.get(Paths.get(getDataSourceURI()).toFile());
+        SeekableInputStream is = store.get(new HashValue(identifier).getBytes());
+        if (is == null) {
+            throw new IOException("Content not found in storage: " + identifier);
+        }
+        return is;
+    }
+
+}
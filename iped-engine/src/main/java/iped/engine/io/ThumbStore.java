@@ -0,0 +1,522 @@
+package iped.engine.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append only storage of item thumbnails, identified by the item hash.
+ *
+ * Thumbs are appended to a single packed file, each record being [hash]
+ * [length][thumb], and an index file maps each hash to the offset and length
+ * of its record. The index is kept in memory as an open addressing table of
+ * longs.
+ *
+ * Writes are batched per processing thread and appended by a background writer
+ * thread, so workers do not wait for disk writes. Queued thumbs are visible to
+ * {@link #get(byte[])} before being written. The bounded batch queue blocks
+ * workers if the writer can not keep up.
+ *
+ * Writes are not synced to disk until {@link #commit()}, which flushes pending
+ * batches, syncs the packed file and then appends the new entries to the index.
+ * Records written after the last commit are recovered from the packed file when
+ * the store is opened again.
+ */
+public class ThumbStore implements Closeable {
+
+    private static Logger LOGGER = LogManager.getLogger(ThumbStore.class);
+
+    public static final String DIR_NAME = "thumbs"; //$NON-NLS-1$
+
+    private static final String DATA_FILE = "thumbs.dat"; //$NON-NLS-1$
+    private static final String INDEX_FILE = "index.dat"; //$NON-NLS-1$
+
+    private static final long MAGIC = 0x4950454454484D42L; // "IPEDTHMB"
+    private static final int VERSION = 1;
+    // magic, version
+    private static final int INDEX_HEADER_LEN = 8 + 4;
+    // hash, position
+    private static final int INDEX_ENTRY_LEN = 16 + 8;
+
+    // hash, length
+    private static final int RECORD_HEADER_LEN = 16 + 4;
+
+    // positions are packed as offset << LENGTH_BITS | length
+    private static final int LENGTH_BITS = 24;
+    private static final long LENGTH_MASK = (1L << LENGTH_BITS) - 1;
+
+    private static final int MAX_BATCH_THUMBS = 64;
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+    private static final int MAX_QUEUED_BATCHES = 32;
+
+    private static final HashMap<File, ThumbStore> stores = new HashMap<>();
+
+    private final File dir;
+    private final File dataFile;
+    private final File indexFile;
+
+    private final PositionTable table = new PositionTable();
+
+    // thumbs accepted but not written to the packed file yet
+    private final ConcurrentHashMap<Key, byte[]> pending = new ConcurrentHashMap<>();
+
+    private final List<Batch> workerBatches = new ArrayList<>();
+    private final ThreadLocal<Batch> workerBatch = ThreadLocal.withInitial(() -> {
+        Batch batch = new Batch();
+        synchronized (workerBatches) {
+            workerBatches.add(batch);
+        }
+        return batch;
+    });
+
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(MAX_QUEUED_BATCHES);
+    private final Thread writerThread;
+    private volatile IOException writeError;
+
+    private FileChannel dataChannel;
+    private long dataEnd;
+    private FileChannel indexChannel;
+    private ByteBuffer pendingIndex = ByteBuffer.allocate(INDEX_ENTRY_LEN * 1024);
+    private boolean dirty = false;
+    private boolean closed = false;
+
+    private static class Key {
+
+        private final long k1, k2;
+
+        private Key(long k1, long k2) {
+            this.k1 = k1;
+            this.k2 = k2;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (k1 ^ (k1 >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key o = (Key) obj;
+            return k1 == o.k1 && k2 == o.k2;
+        }
+    }
+
+    /**
+     * Thumbs added by a processing thread. A batch being filled is just touched
+     * by its thread, except by {@link ThumbStore#commit()}.
+     */
+    private static class Batch {
+
+        private List<Key> keys = new ArrayList<>();
+        private List<byte[]> thumbs = new ArrayList<>();
+        private int bytes = 0;
+        private CountDownLatch barrier;
+
+        private boolean isFull() {
+            return keys.size() >= MAX_BATCH_THUMBS || bytes >= MAX_BATCH_BYTES;
+        }
+
+        private Batch take() {
+            Batch full = new Batch();
+            full.keys = keys;
+            full.thumbs = thumbs;
+            full.bytes = bytes;
+            keys = new ArrayList<>();
+            thumbs = new ArrayList<>();
+            bytes = 0;
+            return full;
+        }
+    }
+
+    /**
+     * Open addressing table with linear probing from hashes to positions.
+     */
+    private static class PositionTable {
+
+        private long[] slots = new long[3 * 1024];
+        private int size = 0;
+
+        private int capacity() {
+            return slots.length / 3;
+        }
+
+        private int slotOf(long k1, long k2) {
+            int mask = capacity() - 1;
+            int slot = (int) (k1 ^ (k1 >>> 32)) & mask;
+            while (slots[3 * slot + 2] != 0) {
+                if (slots[3 * slot] == k1 && slots[3 * slot + 1] == k2) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        long get(long k1, long k2) {
+            return slots[3 * slotOf(k1, k2) + 2] - 1;
+        }
+
+        void put(long k1, long k2, long position) {
+            if (size + 1 > capacity() * 2 / 3) {
+                long[] old = slots;
+                slots = new long[old.length * 2];
+                size = 0;
+                for (int i = 0; i < old.length; i += 3) {
+                    if (old[i + 2] != 0) {
+                        put(old[i], old[i + 1], old[i + 2] - 1);
+                    }
+                }
+            }
+            int slot = slotOf(k1, k2);
+            if (slots[3 * slot + 2] == 0) {
+                size++;
+            }
+            slots[3 * slot] = k1;
+            slots[3 * slot + 1] = k2;
+            slots[3 * slot + 2] = position + 1;
+        }
+    }
+
+    private ThumbStore(File dir) throws IOException {
+        this.dir = dir;
+        this.dataFile = new File(dir, DATA_FILE);
+        this.indexFile = new File(dir, INDEX_FILE);
+        dir.mkdirs();
+        open();
+        writerThread = new Thread(this::writeBatches, "ThumbStoreWriter"); //$NON-NLS-1$
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Gets the store of the directory, creating it if needed.
+     */
+    public static ThumbStore get(File dir) throws IOException {
+        dir = dir.getAbsoluteFile();
+        synchronized (stores) {
+            ThumbStore store = stores.get(dir);
+            if (store == null) {
+                store = new ThumbStore(dir);
+                stores.put(dir, store);
+            }
+            return store;
+        }
+    }
+
+    private static Key keyOf(byte[] hash) {
+        if (hash.length < 16) {
+            throw new IllegalArgumentException("Thumbs must be identified by hashes of at least 128 bits");
+        }
+        ByteBuffer bb = ByteBuffer.wrap(hash);
+        return new Key(bb.getLong(0), bb.getLong(8));
+    }
+
+    private void open() throws IOException {
+        long indexedEnd = 0;
+        boolean newIndex = true;
+        indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (indexChannel.size() >= INDEX_HEADER_LEN) {
+            newIndex = false;
+            ByteBuffer buf = ByteBuffer.allocate(INDEX_ENTRY_LEN * 4096);
+            readFully(indexChannel, buf, 0, INDEX_HEADER_LEN);
+            if (buf.getLong(0) != MAGIC || buf.getInt(8) != VERSION) {
+                throw new IOException("Invalid thumb storage index " + indexFile.getAbsolutePath());
+            }
+            long pos = INDEX_HEADER_LEN;
+            // a partially written entry at the end is discarded
+            long end = pos + (indexChannel.size() - pos) / INDEX_ENTRY_LEN * INDEX_ENTRY_LEN;
+            indexChannel.truncate(end);
+            while (pos < end) {
+                int len = (int) Math.min(buf.capacity(), end - pos);
+                readFully(indexChannel, buf, pos, len);
+                for (int i = 0; i < len; i += INDEX_ENTRY_LEN) {
+                    long position = buf.getLong(i + 16);
+                    table.put(buf.getLong(i), buf.getLong(i + 8), position);
+                    indexedEnd = Math.max(indexedEnd,
+                            (position >>> LENGTH_BITS) + RECORD_HEADER_LEN + (position & LENGTH_MASK));
+                }
+                pos += len;
+            }
+        }
+        if (newIndex) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_LEN);
+            header.putLong(MAGIC).putInt(VERSION).flip();
+            indexChannel.truncate(0);
+            while (header.hasRemaining()) {
+                indexChannel.write(header, header.position());
+            }
+        }
+        indexChannel.position(indexChannel.size());
+
+        dataChannel = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        dataEnd = recover(indexedEnd);
+        commit();
+    }
+
+    /**
+     * Indexes complete records written after the last commit and truncates a
+     * partially written one.
+     *
+     * @return the end of the last complete record.
+     */
+    private long recover(long pos) throws IOException {
+        long size = dataChannel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_LEN);
+        int recovered = 0;
+        while (pos + RECORD_HEADER_LEN <= size) {
+            readFully(dataChannel, header, pos, RECORD_HEADER_LEN);
+            int len = header.getInt(16);
+            if (len < 0 || len > LENGTH_MASK || pos + RECORD_HEADER_LEN + len > size) {
+                break;
+            }
+            long position = pos << LENGTH_BITS | len;
+            table.put(header.getLong(0), header.getLong(8), position);
+            addPendingIndex(header.getLong(0), header.getLong(8), position);
+            recovered++;
+            pos += RECORD_HEADER_LEN + len;
+        }
+        if (pos < size) {
+            dataChannel.truncate(pos);
+        }
+        if (recovered > 0) {
+            dirty = true;
+            LOGGER.info("Recovered {} uncommitted thumbs in {}", recovered, dir.getAbsolutePath());
+        }
+        return pos;
+    }
+
+    private static void readFully(FileChannel fc, ByteBuffer buf, long pos, int len) throws IOException {
+        buf.clear().limit(len);
+        while (buf.hasRemaining()) {
+            if (fc.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private void addPendingIndex(long k1, long k2, long position) {
+        if (pendingIndex.remaining() < INDEX_ENTRY_LEN) {
+            ByteBuffer bigger = ByteBuffer.allocate(pendingIndex.capacity() * 2);
+            pendingIndex.flip();
+            bigger.put(pendingIndex);
+            pendingIndex = bigger;
+        }
+        pendingIndex.putLong(k1).putLong(k2).putLong(position);
+    }
+
+    /**
+     * @return the thumb of the hash, an empty array if thumb generation failed
+     *         before, or null if it is not stored.
+     */
+    public byte[] get(byte[] hash) throws IOException {
+        Key key = keyOf(hash);
+        byte[] thumb = pending.get(key);
+        if (thumb != null) {
+            return thumb;
+        }
+        long position;
+        synchronized (table) {
+            position = table.get(key.k1, key.k2);
+        }
+        if (position < 0) {
+            // it could have been written just after the pending check
+            return pending.get(key);
+        }
+        int len = (int) (position & LENGTH_MASK);
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        readFully(dataChannel, buf, (position >>> LENGTH_BITS) + RECORD_HEADER_LEN, len);
+        return buf.array();
+    }
+
+    /**
+     * Stores the thumb if there is no thumb for the hash yet. It is queued in the
+     * batch of the calling thread and written later.
+     */
+    public void put(byte[] hash, byte[] thumb) throws IOException {
+        if (thumb.length > LENGTH_MASK) {
+            throw new IOException("Thumb too large to be stored: " + thumb.length + " bytes");
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        Key key = keyOf(hash);
+        synchronized (table) {
+            if (table.get(key.k1, key.k2) >= 0) {
+                return;
+            }
+        }
+        if (pending.putIfAbsent(key, thumb) != null) {
+            return;
+        }
+        Batch batch = workerBatch.get();
+        Batch full = null;
+        synchronized (batch) {
+            batch.keys.add(key);
+            batch.thumbs.add(thumb);
+            batch.bytes += thumb.length;
+            if (batch.isFull()) {
+                full = batch.take();
+            }
+        }
+        if (full != null) {
+            enqueue(full);
+        }
+    }
+
+    private void enqueue(Batch batch) throws IOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            // thumbs remain visible in pending map and are lost just for dedup
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private void writeBatches() {
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch.barrier != null) {
+                batch.barrier.countDown();
+                continue;
+            }
+            try {
+                if (writeError == null) {
+                    write(batch);
+                }
+            } catch (IOException e) {
+                LOGGER.error("Error writing thumbs to " + dataFile.getAbsolutePath(), e);
+                writeError = e;
+            } finally {
+                for (Key key : batch.keys) {
+                    pending.remove(key);
+                }
+            }
+        }
+    }
+
+    private void write(Batch batch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(batch.bytes + RECORD_HEADER_LEN * batch.keys.size());
+        for (int i = 0; i < batch.keys.size(); i++) {
+            Key key = batch.keys.get(i);
+            byte[] thumb = batch.thumbs.get(i);
+            buf.putLong(key.k1).putLong(key.k2).putInt(thumb.length).put(thumb);
+        }
+        buf.flip();
+        long start = dataEnd;
+        long pos = start;
+        while (buf.hasRemaining()) {
+            pos += dataChannel.write(buf, pos);
+        }
+        // published after written, so readers always find the data
+        synchronized (table) {
+            long offset = start;
+            for (int i = 0; i < batch.keys.size(); i++) {
+                Key key = batch.keys.get(i);
+                int len = batch.thumbs.get(i).length;
+                long position = offset << LENGTH_BITS | len;
+                table.put(key.k1, key.k2, position);
+                addPendingIndex(key.k1, key.k2, position);
+                offset += RECORD_HEADER_LEN + len;
+            }
+            dataEnd = pos;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the batches of all threads, syncs the packed file and then makes the
+     * written thumbs visible in the index.
+     */
+    public synchronized void commit() throws IOException {
+        if (closed) {
+            return;
+        }
+        if (writerThread != null) {
+            List<Batch> batches;
+            synchronized (workerBatches) {
+                batches = new ArrayList<>(workerBatches);
+            }
+            for (Batch batch : batches) {
+                Batch full;
+                synchronized (batch) {
+                    full = batch.keys.isEmpty() ? null : batch.take();
+                }
+                if (full != null) {
+                    enqueue(full);
+                }
+            }
+            Batch barrier = new Batch();
+            barrier.barrier = new CountDownLatch(1);
+            enqueue(barrier);
+            try {
+                barrier.barrier.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if (writeError != null) {
+            throw writeError;
+        }
+        ByteBuffer index;
+        synchronized (table) {
+            if (dirty) {
+                dataChannel.force(false);
+                dirty = false;
+            }
+            pendingIndex.flip();
+            index = ByteBuffer.allocate(pendingIndex.remaining()).put(pendingIndex);
+            pendingIndex.clear();
+        }
+        index.flip();
+        if (index.hasRemaining()) {
+            while (index.hasRemaining()) {
+                indexChannel.write(index);
+            }
+            indexChannel.force(false);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            commit();
+        } finally {
+            closed = true;
+            writerThread.interrupt();
+            synchronized (stores) {
+                stores.remove(dir);
+            }
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+
+}
@@ -2,7 +2,8 @@
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.ScoreMode;
@@ -12,69 +13,116 @@
 
 /**
  * Fast collector that do not compute scores, for cases with dozens of millions
- * of items
- * 
+ * of items.
+ *
+ * Hits of each segment are set in a small local bitset, which is merged into
+ * the bitset of the whole index when the next segment starts or when the
+ * collection finishes. So many collectors may share the same index bitset to
+ * collect different segments in parallel, see {@link NoScoringCollectorManager}.
+ *
  * @author Nassif
  *
  */
 public class NoScoringCollector extends SimpleCollector {
 
+    private final long[] words;
+    private final AtomicBoolean canceled;
+
+    private long[] leafWords = new long[0];
+    private int leafWordsLen = 0;
     private int docBase = 0;
     private int totalHits = 0;
-    public BitSet bits;
-
-    private volatile boolean canceled = false;
 
     public NoScoringCollector(int maxDoc) {
-        this.bits = new BitSet(maxDoc);
+        this(new long[(maxDoc + 63) >>> 6], new AtomicBoolean());
+    }
+
+    NoScoringCollector(long[] words, AtomicBoolean canceled) {
+        this.words = words;
+        this.canceled = canceled;
+    }
+
+    NoScoringCollector(long[] words, int totalHits) {
+        this(words, new AtomicBoolean());
+        this.totalHits = totalHits;
     }
 
     public void cancel() {
-        canceled = true;
+        canceled.set(true);
     }
 
     @Override
     public void collect(int doc) throws IOException {
-        if (canceled)
+        if (canceled.get())
             throw new InterruptedIOException("Search canceled!"); //$NON-NLS-1$
 
-        bits.set(doc + docBase);
+        leafWords[doc >>> 6] |= 1L << doc;
         totalHits++;
     }
 
     @Override
     public void doSetNextReader(LeafReaderContext context) throws IOException {
+        flushLeaf();
         docBase = context.docBase;
+        leafWordsLen = (context.reader().maxDoc() + 63) >>> 6;
+        if (leafWords.length < leafWordsLen) {
+            leafWords = new long[leafWordsLen];
+        }
+    }
+
+    /**
+     * Merges hits of the current segment into the index bitset.
+     */
+    private void flushLeaf() {
+        if (leafWordsLen == 0) {
+            return;
+        }
+        int shift = docBase & 63;
+        int base = docBase >>> 6;
+        synchronized (words) {
+            for (int i = 0; i < leafWordsLen; i++) {
+                long w = leafWords[i];
+                if (w != 0) {
+                    words[base + i] |= w << shift;
+                    if (shift != 0 && base + i + 1 < words.length) {
+                        words[base + i + 1] |= w >>> (64 - shift);
+                    }
+                }
+            }
+        }
+        Arrays.fill(leafWords, 0, leafWordsLen, 0);
+        leafWordsLen = 0;
+    }
+
+    /**
+     * Must be called after collection, before reading the results.
+     */
+    public void finish() {
+        flushLeaf();
     }
 
     public int getTotalHits() {
         return this.totalHits;
     }
 
-    public LuceneSearchResult getSearchResults1() {
-        LuceneSearchResult results = new LuceneSearchResult(totalHits);
-        int[] docs = results.getLuceneIds();
-        int idx = 0;
-        for (int i = 0; i < bits.length(); i++)
-            if (bits.get(i))
-                docs[idx++] = i;
-
-        return results;
+    public boolean hasDocId(int docId) {
+        return (words[docId >>> 6] & (1L << docId)) != 0;
     }
 
     public LuceneSearchResult getSearchResults() {
         LuceneSearchResult results = new LuceneSearchResult(totalHits);
         int[] docs = results.getLuceneIds();
         int idx = 0;
-        long[] array = bits.toLongArray();
-        for (int i = 0; i < array.length; i++)
-            for (int j = 0; j < Long.SIZE; j++)
-                if ((array[i] & (1L << j)) != 0)
-                    docs[idx++] = (i << 6) | j;
-
+        for (int i = 0; i < words.length; i++) {
+            long w = words[i];
+            while (w != 0) {
+                docs[idx++] = (i << 6) | Long.numberOfTrailingZeros(w);
+                w &= w - 1;
+            }
+        }
         return results;
     }
-    
+
     @Override
     public ScoreMode scoreMode() {
         return ScoreMode.COMPLETE_NO_SCORES;
@@ -0,0 +1,41 @@
+package iped.engine.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.search.CollectorManager;
+
+/**
+ * Creates {@link NoScoringCollector}s sharing the same index bitset, so
+ * IndexSearcher can collect its segment slices in parallel using its executor.
+ */
+public class NoScoringCollectorManager implements CollectorManager<NoScoringCollector, NoScoringCollector> {
+
+    private final long[] words;
+    private final AtomicBoolean canceled = new AtomicBoolean();
+
+    public NoScoringCollectorManager(int maxDoc) {
+        this.words = new long[(maxDoc + 63) >>> 6];
+    }
+
+    public void cancel() {
+        canceled.set(true);
+    }
+
+    @Override
+    public NoScoringCollector newCollector() throws IOException {
+        return new NoScoringCollector(words, canceled);
+    }
+
+    @Override
+    public NoScoringCollector reduce(Collection<NoScoringCollector> collectors) throws IOException {
+        int totalHits = 0;
+        for (NoScoringCollector collector : collectors) {
+            collector.finish();
+            totalHits += collector.getTotalHits();
+        }
+        return new NoScoringCollector(words, totalHits);
+    }
+
+}
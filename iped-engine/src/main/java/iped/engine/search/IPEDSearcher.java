@@ -34,6 +34,7 @@
 import iped.engine.data.IPEDMultiSource;
 import iped.engine.data.IPEDSource;
 import iped.engine.lucene.NoScoringCollector;
+import iped.engine.lucene.NoScoringCollectorManager;
 import iped.engine.task.index.IndexItem;
 import iped.exception.ParseException;
 import iped.exception.QueryNodeException;
@@ -48,6 +49,7 @@ public class IPEDSearcher implements IIPEDSearcher {
     Query query;
     boolean treeQuery, noScore, rewriteQuery = true;
     NoScoringCollector collector;
+    NoScoringCollectorManager collectorManager;
     Sort sort;
 
     private volatile boolean canceled;
@@ -118,8 +120,9 @@ public Query getQuery() {
 
     public void cancel() {
         canceled = true;
-        if (collector != null)
-            collector.cancel();
+        NoScoringCollectorManager manager = collectorManager;
+        if (manager != null)
+            manager.cancel();
     }
 
     public SearchResult search() throws IOException {
@@ -154,12 +157,22 @@ private LuceneSearchResult searchAll() throws IOException {
             query = getNonTreeQuery(query);
         }
 
-        collector = new NoScoringCollector(ipedCase.getReader().maxDoc());
+        // collects segment slices in parallel if the searcher has an executor
+        int maxDoc = ipedCase.getReader().maxDoc();
+        collectorManager = new NoScoringCollectorManager(maxDoc);
+        if (canceled)
+            collectorManager.cancel();
         try {
-            ipedCase.getSearcher().search(query, collector);
+            collector = ipedCase.getSearcher().search(query, collectorManager);
 
         } catch (InterruptedIOException e) {
-            // e.printStackTrace();
+            collector = new NoScoringCollector(maxDoc);
+
+        } catch (RuntimeException e) {
+            // thrown by parallel search, wrapping the collector exception
+            if (!canceled)
+                throw e;
+            collector = new NoScoringCollector(maxDoc);
         }
         // do not compute scores (slow) when result set is large
         if (noScore || collector.getTotalHits() > MAX_SIZE_TO_SCORE || canceled)
@@ -194,7 +207,7 @@ private LuceneSearchResult searchAll() throws IOException {
     
     public boolean hasDocId(int docId) {
         if (collector != null) {
-            return collector.bits.get(docId);
+            return collector.hasDocId(docId);
         }
         return true;
     }
@@ -13,6 +13,7 @@
 import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.util.BytesRef;
+import org.roaringbitmap.RoaringBitmap;
 
 import iped.data.IItem;
 import iped.data.IItemId;
@@ -56,6 +57,12 @@ public class ImageSimilarityScorer {
      */
     private static final float minScore = 1;
 
+    /**
+     * Number of approximate nearest neighbors scored exactly when the result is
+     * large, instead of scoring all results.
+     */
+    private static final int knnCandidates = maxTop * 4;
+
     private float cut = minScore;
 
     private final IPEDSource ipedCase;
@@ -81,6 +88,7 @@ public void score() throws IOException {
             return;
         }
         LeafReader leafReader = ipedCase.getLeafReader();
+        RoaringBitmap candidates = getKnnCandidates();
         int numThreads = Runtime.getRuntime().availableProcessors();
         Thread[] threads = new Thread[numThreads];
         int evalCut = (int) (100 * refSimilarityFeatures.length / distToScoreMult);
@@ -102,6 +110,10 @@ public void run() {
                     for (int i = i0; i < i1; i++) {
                         IItemId itemId = result.getItem(i);
                         int luceneId = ipedCase.getLuceneId(itemId);
+                        if (candidates != null && !candidates.contains(luceneId)) {
+                            result.setScore(i, 0);
+                            continue;
+                        }
                         BytesRef bytesRef = DocValuesUtil.getBytesRef(similarityFeaturesValues, luceneId);
                         if (bytesRef == null || bytesRef.length == 0) {
                             result.setScore(i, 0);
@@ -143,6 +155,30 @@ public void run() {
         organizeTopResults();
     }
 
+    /**
+     * For large results, gets the approximate nearest neighbors of the reference
+     * image to be scored, if the case has the vector index.
+     *
+     * @return lucene ids of candidates or null if all results must be scored.
+     */
+    private RoaringBitmap getKnnCandidates() throws IOException {
+        if (len < KnnCandidates.MIN_RESULT_SIZE || KnnCandidates
+                .getVectorFields(ipedCase.getReader(), ImageSimilarityTask.IMAGE_FEATURES_KNN).isEmpty()) {
+            return null;
+        }
+        RoaringBitmap candidates = KnnCandidates.search(ipedCase.getSearcher(),
+                ImageSimilarityTask.IMAGE_FEATURES_KNN, ImageSimilarity.getKnnVector(refSimilarityFeatures),
+                knnCandidates);
+        // result may be filtered, check if enough neighbors are in it
+        int found = 0;
+        for (int i = 0; i < len && found < maxTop; i++) {
+            if (candidates.contains(ipedCase.getLuceneId(result.getItem(i)))) {
+                found++;
+            }
+        }
+        return found < maxTop ? null : candidates;
+    }
+
     private void organizeTopResults() {
         for (int i = 0; i < len; i++) {
             if (result.getScore(i) > cut) {
@@ -0,0 +1,159 @@
+package iped.engine.search;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import iped.engine.task.index.IndexItem;
+import iped.properties.BasicProps;
+
+/**
+ * Exact path and name to item ids lookup of an index snapshot, used by parsers
+ * to find related items without parsing and running a lucene query for each
+ * lookup.
+ * <p>
+ * The normalized values indexed as sorted doc values already are a sorted terms
+ * dictionary, so just the mapping from each term ordinal to the ids of the items
+ * with that value is kept in memory, built on first use of each field. Lookups
+ * are a term dictionary seek followed by an array read. It is bound to the
+ * index reader given when created, so it sees exactly the items searches on
+ * that reader see, even after the case is reopened.
+ */
+public class ItemLookup {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final LeafReader reader;
+
+    private volatile OrdinalIds pathIds, nameIds;
+
+    /**
+     * Ids of the items with each term ordinal, ids of ordinal i are in
+     * ids[start[i]..start[i + 1])
+     */
+    private static class OrdinalIds {
+
+        private final int[] start;
+        private final int[] ids;
+
+        private OrdinalIds(int[] start, int[] ids) {
+            this.start = start;
+            this.ids = ids;
+        }
+    }
+
+    public ItemLookup(LeafReader reader) {
+        this.reader = reader;
+    }
+
+    public LeafReader getReader() {
+        return reader;
+    }
+
+    /**
+     * @return ids of the items with each given path, ignoring case and accents.
+     *         Paths without items are not included.
+     */
+    public Map<String, int[]> lookupPaths(Collection<String> paths) throws IOException {
+        if (pathIds == null) {
+            synchronized (this) {
+                if (pathIds == null) {
+                    pathIds = build(BasicProps.PATH);
+                }
+            }
+        }
+        return lookup(BasicProps.PATH, pathIds, paths);
+    }
+
+    /**
+     * @return ids of the items with each given name, ignoring case and accents.
+     *         Names without items are not included.
+     */
+    public Map<String, int[]> lookupNames(Collection<String> names) throws IOException {
+        if (nameIds == null) {
+            synchronized (this) {
+                if (nameIds == null) {
+                    nameIds = build(BasicProps.NAME);
+                }
+            }
+        }
+        return lookup(BasicProps.NAME, nameIds, names);
+    }
+
+    private OrdinalIds build(String field) throws IOException {
+        SortedDocValues sdv = reader.getSortedDocValues(field);
+        if (sdv == null) {
+            return new OrdinalIds(new int[1], NO_IDS);
+        }
+        Bits liveDocs = reader.getLiveDocs();
+        int[] start = new int[sdv.getValueCount() + 1];
+        NumericDocValues idValues = reader.getNumericDocValues(IndexItem.ID);
+        int doc;
+        while ((doc = sdv.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            if (getId(idValues, liveDocs, doc) != -1) {
+                start[sdv.ordValue() + 1]++;
+            }
+        }
+        for (int i = 1; i < start.length; i++) {
+            start[i] += start[i - 1];
+        }
+        int[] ids = new int[start[start.length - 1]];
+        int[] pos = new int[start.length - 1];
+        sdv = reader.getSortedDocValues(field);
+        idValues = reader.getNumericDocValues(IndexItem.ID);
+        while ((doc = sdv.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            int id = getId(idValues, liveDocs, doc);
+            if (id != -1) {
+                int ord = sdv.ordValue();
+                ids[start[ord] + pos[ord]++] = id;
+            }
+        }
+        return new OrdinalIds(start, ids);
+    }
+
+    /**
+     * @return the item id of a doc, or -1 if it was deleted. Docs must be visited
+     *         in increasing order.
+     */
+    private static int getId(NumericDocValues idValues, Bits liveDocs, int doc) throws IOException {
+        if ((liveDocs != null && !liveDocs.get(doc)) || idValues == null || !idValues.advanceExact(doc)) {
+            return -1;
+        }
+        return (int) idValues.longValue();
+    }
+
+    private Map<String, int[]> lookup(String field, OrdinalIds ordIds, Collection<String> values) throws IOException {
+        Map<String, int[]> result = new LinkedHashMap<>();
+        // seeking terms changes the doc values state, so each lookup uses its own
+        SortedDocValues sdv = reader.getSortedDocValues(field);
+        if (sdv == null) {
+            return result;
+        }
+        for (String value : values) {
+            if (value == null || result.containsKey(value)) {
+                continue;
+            }
+            String term = value;
+            if (BasicProps.PATH.equals(field) && term.length() > IndexItem.MAX_DOCVALUE_SIZE) {
+                // indexed paths are truncated, callers must check the full path
+                term = term.substring(0, IndexItem.MAX_DOCVALUE_SIZE);
+            }
+            int ord = sdv.lookupTerm(new BytesRef(IndexItem.normalize(term, true)));
+            if (ord >= 0 && ordIds.start[ord] < ordIds.start[ord + 1]) {
+                int[] ids = new int[ordIds.start[ord + 1] - ordIds.start[ord]];
+                System.arraycopy(ordIds.ids, ordIds.start[ord], ids, 0, ids.length);
+                result.put(value, ids);
+            }
+        }
+        return result;
+    }
+
+}
@@ -3,8 +3,12 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
 
 import org.apache.lucene.index.IndexWriter;
 
@@ -79,6 +83,53 @@ private SearchResult getResult(String luceneQuery) {
         }
     }
 
+    @Override
+    public Map<String, List<IItemReader>> searchByPaths(Collection<String> paths) {
+        try {
+            return getItems(iSource.getItemLookup().lookupPaths(paths), true, iSource::getItemByID);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+    }
+
+    @Override
+    public Map<String, List<IItemReader>> searchByNames(Collection<String> names) {
+        try {
+            return getItems(iSource.getItemLookup().lookupNames(names), false, iSource::getItemByID);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new LinkedHashMap<>();
+        }
+    }
+
+    static Map<String, List<IItemReader>> getItems(Map<String, int[]> idsByValue, boolean isPath,
+            IntFunction<IItemReader> itemById) {
+        Map<String, List<IItemReader>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, int[]> entry : idsByValue.entrySet()) {
+            String value = entry.getKey();
+            List<IItemReader> items = new ArrayList<>(entry.getValue().length);
+            for (int id : entry.getValue()) {
+                IItemReader item = itemById.apply(id);
+                if (item == null) {
+                    continue;
+                }
+                // the lookup also ignores accents and indexed paths may be truncated,
+                // keep the same results of the phrase queries of IItemSearcher
+                if (!value.equalsIgnoreCase(isPath ? item.getPath() : item.getName())) {
+                    continue;
+                }
+                items.add(item);
+            }
+            if (!items.isEmpty()) {
+                result.put(value, items);
+            }
+        }
+        return result;
+    }
+
     @Override
     public void close() throws IOException {
         if (iSource != null)
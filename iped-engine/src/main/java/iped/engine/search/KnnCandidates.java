@@ -0,0 +1,109 @@
+package iped.engine.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds candidates for similarity searches using the approximate nearest
+ * neighbor (HNSW) graphs of Lucene vector fields, so large results do not need
+ * to be scored by brute force. Candidates must be scored again with the exact
+ * distance by callers.
+ */
+public class KnnCandidates {
+
+    private static Logger logger = LoggerFactory.getLogger(KnnCandidates.class);
+
+    /**
+     * Results smaller than this are scored by brute force, which is exact and
+     * fast enough.
+     */
+    public static final int MIN_RESULT_SIZE = 200000;
+
+    /**
+     * Max number of neighbors requested for each target vector.
+     */
+    public static final int MAX_K = 1 << 16;
+
+    /**
+     * @return names of fields starting with the prefix which have indexed vectors,
+     *         in all segments of the case.
+     */
+    public static List<String> getVectorFields(IndexReader reader, String prefix) {
+        List<String> fields = new ArrayList<>();
+        for (LeafReaderContext context : reader.leaves()) {
+            for (FieldInfo info : context.reader().getFieldInfos()) {
+                if (info.getVectorDimension() > 0 && info.name.startsWith(prefix) && !fields.contains(info.name)) {
+                    fields.add(info.name);
+                }
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Finds the k approximate nearest neighbors of the target in the field.
+     *
+     * @param k
+     *            number of neighbors, up to {@link #MAX_K}
+     * @return lucene ids of the neighbors.
+     */
+    public static RoaringBitmap search(IndexSearcher searcher, String field, float[] target, int k)
+            throws IOException {
+        if (k <= 0 || k > MAX_K) {
+            throw new IllegalArgumentException("Number of neighbors must be between 1 and " + MAX_K + ": " + k);
+        }
+        RoaringBitmap docs = new RoaringBitmap();
+        TopDocs topDocs = searcher.search(new KnnVectorQuery(field, target, k), k);
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+
+    /**
+     * Finds all approximate neighbors within the squared euclidean distance,
+     * doubling k while the farthest neighbor found is still within it.
+     *
+     * @return lucene ids of the neighbors, or null if there are more than
+     *         {@link #MAX_K} neighbors within the distance, so callers must score
+     *         all items.
+     */
+    public static RoaringBitmap searchWithin(IndexSearcher searcher, String field, float[] target,
+            float maxSquaredDist, int initialK) throws IOException {
+        return searchWithin(searcher, field, target, maxSquaredDist, initialK, MAX_K);
+    }
+
+    static RoaringBitmap searchWithin(IndexSearcher searcher, String field, float[] target, float maxSquaredDist,
+            int initialK, int maxK) throws IOException {
+        RoaringBitmap docs = new RoaringBitmap();
+        for (int k = Math.min(initialK, maxK);; k = (int) Math.min(2L * k, maxK)) {
+            TopDocs topDocs = searcher.search(new KnnVectorQuery(field, target, k), k);
+            docs.clear();
+            ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            for (ScoreDoc scoreDoc : scoreDocs) {
+                docs.add(scoreDoc.doc);
+            }
+            // euclidean score is 1 / (1 + squaredDist)
+            if (scoreDocs.length < k || 1 / scoreDocs[scoreDocs.length - 1].score - 1 > maxSquaredDist) {
+                return docs;
+            }
+            if (k == maxK) {
+                logger.warn("More than {} neighbors within distance in {}, scoring all items.", maxK, field);
+                return null;
+            }
+        }
+    }
+
+}
@@ -12,9 +12,15 @@
 import iped.engine.data.ItemId;
 import iped.search.IMultiSearchResult;
 
+/**
+ * Result of a search in a multicase. Items are stored in primitive sourceId and
+ * id columns, so large results do not create one object per item, and
+ * {@link IItemId} instances are created on demand.
+ */
 public class MultiSearchResult implements IMultiSearchResult {
 
-    private IItemId[] ids;
+    private int[] sourceIds;
+    private int[] ids;
     private float[] scores;
     IPEDSearcher ipedSearcher;
     IIPEDSource ipedSource;
@@ -22,16 +28,25 @@ public class MultiSearchResult implements IMultiSearchResult {
     RoaringBitmap[] casesBitSet = null;
 
     public MultiSearchResult() {
-        this.ids = new ItemId[0];
-        this.scores = new float[0];
+        this(new int[0], new int[0], new float[0]);
     }
 
     public MultiSearchResult(IItemId[] ids, float[] scores) {
-        this.ids = ids;
+        this.sourceIds = new int[ids.length];
+        this.ids = new int[ids.length];
         this.scores = scores;
+        for (int i = 0; i < ids.length; i++) {
+            this.sourceIds[i] = ids[i].getSourceId();
+            this.ids[i] = ids[i].getId();
+        }
     }
 
     public MultiSearchResult(IIPEDSource ipedSource, IItemId[] ids, float[] scores) {
+        this(ids, scores);
+    }
+
+    public MultiSearchResult(int[] sourceIds, int[] ids, float[] scores) {
+        this.sourceIds = sourceIds;
         this.ids = ids;
         this.scores = scores;
     }
@@ -40,7 +55,18 @@ public final int getLength() {
         return ids.length;
     }
 
+    /**
+     * @return a new IItemId view of the item at position i
+     */
     public final IItemId getItem(int i) {
+        return new ItemId(sourceIds[i], ids[i]);
+    }
+
+    public final int getSourceId(int i) {
+        return sourceIds[i];
+    }
+
+    public final int getId(int i) {
         return ids[i];
     }
 
@@ -53,7 +79,8 @@ public final void setScore(int i, float score) {
     }
 
     public final void setItem(int i, IItemId itemId) {
-        ids[i] = itemId;
+        sourceIds[i] = itemId.getSourceId();
+        ids[i] = itemId.getId();
     }
 
     public Iterable<IItemId> getIterator() {
@@ -76,7 +103,7 @@ public final boolean hasNext() {
 
         @Override
         public final IItemId next() {
-            return ids[pos++];
+            return getItem(pos++);
         }
 
         @Override
@@ -97,33 +124,25 @@ public static MultiSearchResult get(IPEDMultiSource iSource, LuceneSearchResult
 
         // System.out.println("multi Result");
 
-        MultiSearchResult result = new MultiSearchResult();
-        result.scores = luceneResult.getScores();
-        result.ids = new ItemId[luceneResult.getLength()];
-
-        if (luceneResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                result.ids[i] = iSource.getItemId(docs[i]);
-            }
-
-            // Otimização: considera que itens estão em ordem crescente do LuceneId (qdo não
-            // usa scores)
-        } else {
-            IIPEDSource atomicSource = null;
-            int baseDoc = 0;
-            int sourceId = 0;
-            int maxdoc = 0;
-            int[] docs = luceneResult.getLuceneIds();
-            for (int i = 0; i < docs.length; i++) {
-                if (atomicSource == null || docs[i] >= baseDoc + maxdoc) {
-                    atomicSource = iSource.getAtomicSource(docs[i]);
-                    sourceId = atomicSource.getSourceId();
-                    baseDoc = iSource.getBaseLuceneId(atomicSource);
-                    maxdoc = atomicSource.getReader().maxDoc();
-                }
-                result.ids[i] = new ItemId(sourceId, atomicSource.getId(docs[i] - baseDoc));
+        int[] docs = luceneResult.getLuceneIds();
+        MultiSearchResult result = new MultiSearchResult(new int[docs.length], new int[docs.length],
+                luceneResult.getScores());
+
+        // Otimização: itens normalmente estão em ordem crescente do LuceneId, então só
+        // busca o caso atômico quando o LuceneId sai do intervalo do caso atual
+        IIPEDSource atomicSource = null;
+        int baseDoc = 0;
+        int sourceId = 0;
+        int maxdoc = 0;
+        for (int i = 0; i < docs.length; i++) {
+            if (atomicSource == null || docs[i] < baseDoc || docs[i] >= baseDoc + maxdoc) {
+                atomicSource = iSource.getAtomicSource(docs[i]);
+                sourceId = atomicSource.getSourceId();
+                baseDoc = iSource.getBaseLuceneId(atomicSource);
+                maxdoc = atomicSource.getReader().maxDoc();
             }
+            result.sourceIds[i] = sourceId;
+            result.ids[i] = atomicSource.getId(docs[i] - baseDoc);
         }
 
         return result;
@@ -135,7 +154,23 @@ public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSou
         int[] docs = lResult.getLuceneIds();
 
         int i = 0;
-        if (ipedResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
+        if (ipedResult instanceof MultiSearchResult) {
+            // read columns directly, without creating IItemIds
+            MultiSearchResult result = (MultiSearchResult) ipedResult;
+            IIPEDSource atomicSource = null;
+            int baseDoc = 0;
+            int sourceId = 0;
+            for (; i < result.ids.length; i++) {
+                if (atomicSource == null || result.sourceIds[i] != sourceId) {
+                    sourceId = result.sourceIds[i];
+                    atomicSource = iSource.getAtomicSourceBySourceId(sourceId);
+                    baseDoc = iSource.getBaseLuceneId(atomicSource);
+                }
+                docs[i] = atomicSource.getLuceneId(result.ids[i]) + baseDoc;
+                scores[i] = result.scores[i];
+            }
+
+        } else if (ipedResult.getLength() <= IPEDSearcher.MAX_SIZE_TO_SCORE) {
             for (IItemId item : ipedResult.getIterator()) {
                 scores[i] = ipedResult.getScore(i);
                 docs[i] = iSource.getLuceneId(item);
@@ -165,10 +200,7 @@ public static LuceneSearchResult get(IMultiSearchResult ipedResult, IPEDMultiSou
 
     @Override
     public MultiSearchResult clone() {
-        MultiSearchResult result = new MultiSearchResult();
-        result.ids = this.ids.clone();
-        result.scores = this.scores.clone();
-        return result;
+        return new MultiSearchResult(sourceIds.clone(), ids.clone(), scores.clone());
     }
 
     public boolean hasDocId(int docId) {
@@ -197,7 +229,7 @@ public void setIPEDSource(IIPEDSource ipedSource) {
             this.ipedSource = ipedSource;
             this.docids = new RoaringBitmap();
             for (int i = 0; i < ids.length; i++) {
-                int lucId = ipedSource.getLuceneId(ids[i]);
+                int lucId = ipedSource.getLuceneId(getItem(i));
                 docids.add(lucId);
             }
         }
@@ -225,12 +257,12 @@ public RoaringBitmap[] getCasesBitSets(IPEDMultiSource multiSource) {
             }
 
             for (int i = 0; i < ids.length; i++) {
-                int sourceId = ids[i].getSourceId();
+                int sourceId = sourceIds[i];
                 if (sourceId != lastSourceId) {
-                    bitset = casesBitSet[ids[i].getSourceId()];
+                    bitset = casesBitSet[sourceId];
                     lastSourceId = sourceId;
                 }
-                bitset.add(ids[i].getId());
+                bitset.add(ids[i]);
             }
 
         }
@@ -13,6 +13,7 @@
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedSetDocValues;
 import org.apache.lucene.util.BytesRef;
+import org.roaringbitmap.RoaringBitmap;
 
 import iped.data.IItem;
 import iped.data.IItemId;
@@ -26,6 +27,9 @@ public class SimilarFacesSearch {
 
     private static final float DEFAULT_MIN_DISTANCE = 0.5f;
 
+    // initial number of approximate nearest neighbors searched for each face
+    private static final int KNN_INITIAL_K = 1000;
+
     private static float minDistSquared = DEFAULT_MIN_DISTANCE * DEFAULT_MIN_DISTANCE;
     private static int mode = 0; // Mode 0 = OR, Mode 1 = AND
     private static Set<Integer> selectedIdxs;
@@ -77,6 +81,7 @@ private void score(MultiSearchResult result) throws IOException {
         int numThreads = Runtime.getRuntime().availableProcessors();
         Thread[] threads = new Thread[numThreads];
         int len = result.getLength();
+        RoaringBitmap candidates = getKnnCandidates(len);
         int itemsPerThread = (len + numThreads - 1) / numThreads;
         for (int k = 0; k < numThreads; k++) {
             int threadIdx = k;
@@ -99,6 +104,10 @@ public void run() {
                         }
                         IItemId itemId = result.getItem(i);
                         int luceneId = ipedCase.getLuceneId(itemId);
+                        if (candidates != null && !candidates.contains(luceneId)) {
+                            result.setScore(i, 0);
+                            continue;
+                        }
                         long ordinal;
                         float score = 0;
                         Arrays.fill(distsPerFace, minDistSquared + 1);
@@ -107,7 +116,8 @@ public void run() {
                             while (hasVal && (ordinal = similarityFeaturesValues
                                     .nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
                                 BytesRef bytesRef = similarityFeaturesValues.lookupOrd(ordinal);
-                                float[] currentFeatures = convToFloatVec(bytesRef.bytes);
+                                ByteBuffer currentFeatures = ByteBuffer.wrap(bytesRef.bytes, bytesRef.offset,
+                                        bytesRef.length).slice();
                                 int faceIdx = -1;
                                 float minDist = minDistSquared + 1;
                                 for (int j = 0; j < numRefFaces; j++) {
@@ -177,6 +187,35 @@ public void run() {
 
     }
 
+    /**
+     * For large results, gets faces that are approximate nearest neighbors of the
+     * reference faces, using the vector index of face encodings. Each face of an
+     * image is indexed in a different field.
+     *
+     * @return lucene ids of candidates or null if all results must be scored.
+     */
+    private RoaringBitmap getKnnCandidates(int len) throws IOException {
+        if (len < KnnCandidates.MIN_RESULT_SIZE) {
+            return null;
+        }
+        List<String> fields = KnnCandidates.getVectorFields(ipedCase.getReader(), FACE_FEATURES);
+        if (fields.isEmpty()) {
+            return null;
+        }
+        RoaringBitmap candidates = new RoaringBitmap();
+        for (String field : fields) {
+            for (float[] refFace : refSimilarityFeatures) {
+                RoaringBitmap neighbors = KnnCandidates.searchWithin(ipedCase.getSearcher(), field, refFace,
+                        minDistSquared, KNN_INITIAL_K);
+                if (neighbors == null) {
+                    return null;
+                }
+                candidates.or(neighbors);
+            }
+        }
+        return candidates;
+    }
+
     private static float[] convToFloatVec(byte[] bytes) {
         float[] result = new float[bytes.length / 4];
         ByteBuffer bb = ByteBuffer.wrap(bytes);
@@ -186,6 +225,20 @@ private static float[] convToFloatVec(byte[] bytes) {
         return result;
     }
 
+    /**
+     * Same as {@link #distance(float[], float[], float)}, reading the encoded
+     * floats directly, without decoding them to a new array.
+     */
+    private static float distance(float[] a, ByteBuffer b, float cut) {
+        float distance = 0;
+        for (int i = 0, j = 0; i < a.length && distance <= cut; j += 16) {
+            float d = a[i++] - b.getFloat(j);
+            distance += d * d + (d = a[i++] - b.getFloat(j + 4)) * d + (d = a[i++] - b.getFloat(j + 8)) * d
+                    + (d = a[i++] - b.getFloat(j + 12)) * d;
+        }
+        return distance;
+    }
+
     public static float distance(float[] a, float[] b, float cut) {
         float distance = 0;
         for (int i = 0; i < a.length && distance <= cut;) {
@@ -32,6 +32,7 @@
 import iped.engine.config.PluginConfig;
 import iped.engine.core.Manager;
 import iped.engine.sleuthkit.SleuthkitServer.FLAGS;
+import iped.engine.util.LatencyHistogram;
 import iped.io.SeekableInputStream;
 
 public class SleuthkitClient implements Comparable<SleuthkitClient> {
@@ -55,6 +56,9 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
 
     private static final AtomicBoolean initSleuthkitServers = new AtomicBoolean(false);
 
+    // round trip time of read requests, of all servers
+    private static final LatencyHistogram readLatency = new LatencyHistogram();
+
     static {
         if (Manager.getInstance() != null) {
             FileSystemConfig config = ConfigurationManager.get().findObject(FileSystemConfig.class);
@@ -80,6 +84,8 @@ public class SleuthkitClient implements Comparable<SleuthkitClient> {
     private Set<SleuthkitClientInputStream> currentStreams = new HashSet<>();
     private int priority = 0;
     private long requestTime = 0;
+    private final long[] pendingCloses = new long[SleuthkitServer.MAX_CLOSE_BATCH];
+    private int numPendingCloses = 0;
 
     static class TimeoutMonitor extends Thread {
         public void run() {
@@ -125,6 +131,36 @@ synchronized void enableTimeoutCheck(boolean enable) {
             requestTime = 0;
     }
 
+    public static LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /**
+     * Defers the close of a server stream, to be sent with the next command.
+     *
+     * @return false if there is no room for more pending closes.
+     */
+    synchronized boolean addPendingClose(long streamId) {
+        if (numPendingCloses == pendingCloses.length) {
+            return false;
+        }
+        pendingCloses[numPendingCloses++] = streamId;
+        return true;
+    }
+
+    /**
+     * Writes the pending closes to the shared memory, must be called before each
+     * command is sent.
+     */
+    synchronized void writePendingCloses() {
+        int pos = SleuthkitServer.CLOSE_BATCH_POS;
+        mbb.putInt(pos, numPendingCloses);
+        for (int i = 0; i < numPendingCloses; i++) {
+            mbb.putLong(pos + 4 + i * 8, pendingCloses[i]);
+        }
+        numPendingCloses = 0;
+    }
+
     public static SleuthkitClient get() {
 
         synchronized (lock) {
@@ -231,9 +267,10 @@ private synchronized void start() {
 
             is.read();
             boolean ok = false;
+            int tries = 0;
             while (!(ok = SleuthkitServer.getByte(mbb, 0) == FLAGS.DONE)
                     && SleuthkitServer.getByte(mbb, 0) != FLAGS.ERROR) {
-                Thread.sleep(1);
+                SleuthkitServer.backoff(tries++);
             }
 
             if (!ok) {
@@ -318,6 +355,8 @@ synchronized void restartServer() throws IOException {
         }
 
         openedStreams = 0;
+        // streams were closed with the old process
+        numPendingCloses = 0;
         currentStreams.forEach(s -> s.seekAfterRestart = true);
         serverError = false;
     }
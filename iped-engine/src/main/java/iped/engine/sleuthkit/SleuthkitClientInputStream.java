@@ -29,6 +29,10 @@ public class SleuthkitClientInputStream extends SeekableInputStream {
     long position = 0;
     Long size;
     boolean seekAfterRestart = false;
+    // server stream reached the end after filling current buffer
+    boolean eofAfterBuffer = false;
+    // if a command was sent, so the server has opened this stream
+    boolean serverOpened = false;
 
     public SleuthkitClientInputStream(int id, String path, SleuthkitClient client) {
         this.sleuthId = id;
@@ -55,6 +59,9 @@ public int read(byte b[], int off, int len) throws IOException {
     private int readIn(byte b[], int off, int len) throws IOException {
 
         if (empty) {
+            if (eofAfterBuffer) {
+                return -1;
+            }
             synchronized (client) {
                 if (client.isServerError()) {
                     client.restartServer();
@@ -73,6 +80,7 @@ private int readIn(byte b[], int off, int len) throws IOException {
                 client.mbb.get(buf, 0, size);
                 bufPos = 0;
                 empty = false;
+                readStreamStatus();
             }
         }
 
@@ -89,12 +97,32 @@ private int readIn(byte b[], int off, int len) throws IOException {
     }
 
     private byte sendRead(int len) throws IOException {
+        client.mbb.putInt(13, len);
+        return sendCmd(FLAGS.READ);
+    }
+
+    /**
+     * Sends the command, with params already written to the shared memory, and
+     * waits the response. Pending closes of other streams are sent together.
+     */
+    private byte sendCmd(byte cmd) throws IOException {
+        client.writePendingCloses();
         client.mbb.putInt(1, sleuthId);
         client.mbb.putLong(5, streamId);
-        client.mbb.putInt(13, len);
-        SleuthkitServer.commitByte(client.mbb, 0, FLAGS.READ);
+        serverOpened = true;
+        long t = System.nanoTime();
+        SleuthkitServer.commitByte(client.mbb, 0, cmd);
         notifyServer();
-        return waitServerResponse();
+        byte response = waitServerResponse();
+        if (cmd == FLAGS.READ) {
+            SleuthkitClient.getReadLatency().record(System.nanoTime() - t);
+        }
+        return response;
+    }
+
+    private void readStreamStatus() {
+        size = client.mbb.getLong(SleuthkitServer.STREAM_SIZE_POS);
+        eofAfterBuffer = client.mbb.getLong(SleuthkitServer.STREAM_POSITION_POS) >= size;
     }
 
     private byte waitServerResponse() throws IOException {
@@ -116,13 +144,15 @@ private byte waitServerResponse() throws IOException {
 
         byte cmd;
         long time = 0;
+        int tries = 0;
         while (FLAGS.isClientCmd(cmd = SleuthkitServer.getByte(client.mbb, 0)) || cmd == FLAGS.SQLITE_READ) {
             try {
                 if (time == 0) {
                     time = System.currentTimeMillis();
                 }
-                Thread.sleep(1);
-                LOGGER.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
+                if (SleuthkitServer.backoff(tries++) && tries == SleuthkitServer.MAX_SPINS + 1) {
+                    LOGGER.warn("Waiting " + getServerId() + " memory write..."); //$NON-NLS-1$
+                }
 
                 if (System.currentTimeMillis() - time >= TIMEOUT) {
                     client.setServerError(true);
@@ -179,12 +209,9 @@ public void seek(long pos) throws IOException {
                 if (client.isServerError()) {
                     client.restartServer();
                 }
-                client.mbb.putInt(1, sleuthId);
-                client.mbb.putLong(5, streamId);
                 client.mbb.putLong(13, pos);
-                SleuthkitServer.commitByte(client.mbb, 0, FLAGS.SEEK);
-                notifyServer();
-                waitServerResponse();
+                sendCmd(FLAGS.SEEK);
+                readStreamStatus();
                 empty = true;
                 bufPos = 0;
                 seekAfterRestart = false;
@@ -213,11 +240,7 @@ public long size() throws IOException {
             if (client.isServerError()) {
                 client.restartServer();
             }
-            client.mbb.putInt(1, sleuthId);
-            client.mbb.putLong(5, streamId);
-            SleuthkitServer.commitByte(client.mbb, 0, FLAGS.SIZE);
-            notifyServer();
-            waitServerResponse();
+            sendCmd(FLAGS.SIZE);
             size = client.mbb.getLong(13);
             return size;
         }
@@ -251,12 +274,9 @@ public void close() throws IOException {
             return;
         }
         synchronized (client) {
-            if (!client.isServerError()) {
-                client.mbb.putInt(1, sleuthId);
-                client.mbb.putLong(5, streamId);
-                SleuthkitServer.commitByte(client.mbb, 0, FLAGS.CLOSE);
-                notifyServer();
-                waitServerResponse();
+            // close is sent later with another command, if possible
+            if (!client.isServerError() && serverOpened && !client.addPendingClose(streamId)) {
+                sendCmd(FLAGS.CLOSE);
             }
             client.removeStream(this);
         }
@@ -40,7 +40,13 @@ public SleuthkitInputStreamFactory(Path dataSource) {
         super(dataSource.toUri());
     }
 
-    private SleuthkitInputStreamFactory(SleuthkitCase sleuthkitCase) {
+    /**
+     * Factory of the case, not specific for an item, which gets item contents by
+     * id.
+     * 
+     * @param sleuthkitCase
+     */
+    public SleuthkitInputStreamFactory(SleuthkitCase sleuthkitCase) {
         this(Paths.get(sleuthkitCase.getDbDirPath(), sleuthkitCase.getDatabaseName()));
         this.sleuthkitCase = sleuthkitCase;
     }
@@ -144,7 +150,7 @@ public SeekableInputStream getSeekableInputStream(String identifier) throws IOEx
         long tskId = Long.valueOf(identifier);
         Content tskContent = getContentById(tskId);
         if (!fsConfig.isRobustImageReading()) {
-            return new SleuthkitInputStream(tskContent);
+            return withBlockCache(identifier, new SleuthkitInputStream(tskContent));
         } else {
             try {
                 SleuthkitClient.initSleuthkitServers(new File(getSleuthkitCase().getDbDirPath(), getSleuthkitCase().getDatabaseName()));
@@ -153,7 +159,7 @@ public SeekableInputStream getSeekableInputStream(String identifier) throws IOEx
             }
             SleuthkitClient sleuthProcess = SleuthkitClient.get();
             try {
-                return sleuthProcess.getInputStream((int) tskId, tskContent.getUniquePath());
+                return withBlockCache(identifier, sleuthProcess.getInputStream((int) tskId, tskContent.getUniquePath()));
             } catch (TskCoreException e) {
                 throw new IOException(e);
             }
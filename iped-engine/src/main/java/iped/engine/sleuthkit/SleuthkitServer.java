@@ -26,6 +26,19 @@ public class SleuthkitServer {
     public static final int MMAP_FILE_SIZE = 10 * 1024 * 1024;
     private static final int MAX_BUF_SIZE = 8 * 1024 * 1024; // must be less than MMAP_FILE_SIZE
 
+    // Stream size and position after each command, so client can detect EOF and
+    // know the size without more requests
+    static final int STREAM_SIZE_POS = 17 + MAX_BUF_SIZE;
+    static final int STREAM_POSITION_POS = STREAM_SIZE_POS + 8;
+
+    // Streams closed by client, sent together with the next command: [count][ids]
+    static final int CLOSE_BATCH_POS = STREAM_POSITION_POS + 8;
+    static final int MAX_CLOSE_BATCH = 1024;
+
+    // Iterations spinning before sleeping while waiting the other side memory
+    // write, usually already visible when the pipe notification is received
+    static final int MAX_SPINS = 1000;
+
     static class FLAGS {
 
         // client cmds
@@ -101,6 +114,7 @@ public static void main(String args[]) {
                         continue;
                     }
                     byte cmd = waitCmd(out, in);
+                    closeBatch(out, sisMap);
                     sis = getSis(out, sleuthCase, sisMap);
                     commitByte(out, 0, FLAGS.SQLITE_READ);
 
@@ -125,6 +139,10 @@ public static void main(String args[]) {
                     } else if (cmd == FLAGS.POSITION) {
                         out.putLong(13, sis.position());
                     }
+                    if (cmd != FLAGS.CLOSE) {
+                        out.putLong(STREAM_SIZE_POS, sis.size());
+                        out.putLong(STREAM_POSITION_POS, sis.position());
+                    }
 
                     commitByte(out, 0, FLAGS.DONE);
                     notify(os);
@@ -179,20 +197,51 @@ private static SleuthkitInputStream getSis(MappedByteBuffer out, SleuthkitCase s
         return sis;
     }
 
+    private static void closeBatch(MappedByteBuffer out, HashMap<Long, SleuthkitInputStream> sisMap) {
+        int count = out.getInt(CLOSE_BATCH_POS);
+        for (int i = 0; i < count && i < MAX_CLOSE_BATCH; i++) {
+            SleuthkitInputStream sis = sisMap.remove(out.getLong(CLOSE_BATCH_POS + 4 + i * 8));
+            if (sis != null) {
+                try {
+                    sis.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        out.putInt(CLOSE_BATCH_POS, 0);
+    }
+
     private static byte waitCmd(MappedByteBuffer out, InputStream in) throws Exception {
         byte cmd;
         long t = 0;
+        int tries = 0;
         while (!FLAGS.isClientCmd(cmd = getByte(out, 0))) {
             if (t == 0)
                 t = System.currentTimeMillis();
             long time = (System.currentTimeMillis() - t) / 1000;
             if (time >= 10)
                 throw new IOException("MemoryReadTimeout waiting SleuthkitClient!"); //$NON-NLS-1$
-            Thread.sleep(1);
+            backoff(tries++);
         }
         return cmd;
     }
 
+    /**
+     * Waits before checking the shared memory again. Spins at first, because
+     * the other side writes to memory before notifying through the pipe.
+     *
+     * @return true if this call slept
+     */
+    static boolean backoff(int tries) throws InterruptedException {
+        if (tries < MAX_SPINS) {
+            Thread.onSpinWait();
+            return false;
+        }
+        Thread.sleep(1);
+        return true;
+    }
+
     private static int readIn(SleuthkitInputStream sis, byte[] buf, int len) throws IOException {
         return sis.read(buf, 0, len);
     }
@@ -12,6 +12,7 @@
 import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.core.Manager;
+import iped.engine.core.ProcessingMetrics;
 import iped.engine.core.QueuesProcessingOrder;
 import iped.engine.core.Statistics;
 import iped.engine.core.Worker;
@@ -203,7 +204,9 @@ public final void processAndSendToNextTask(IItem evidence) throws Exception {
             if (subitensTime == null) {
                 subitensTime = 0L;
             }
-            taskTime += System.nanoTime() / 1000 - t - subitensTime;
+            long time = System.nanoTime() / 1000 - t - subitensTime;
+            taskTime += time;
+            ProcessingMetrics.get().recordTask(getName(), time * 1000);
         }
 
         if (sendToNextTask) {
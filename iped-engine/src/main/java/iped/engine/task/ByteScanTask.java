@@ -0,0 +1,270 @@
+package iped.engine.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tika.mime.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.configuration.Configurable;
+import iped.data.IItem;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.core.Worker;
+import iped.engine.task.carver.LedCarveTask;
+
+/**
+ * Reads the content of large binary items (unallocated space, unknown binary
+ * files, disk images and paging files) just once and fans each chunk out to all
+ * installed tasks implementing {@link Participant}, like hashing, entropy,
+ * signature and LED carving, instead of each of them reading the whole item
+ * again.
+ * <p>
+ * Items are read in chunks of {@link #CHUNK_SIZE} bytes, aligned to
+ * {@link #BLOCK_SIZE} byte blocks, followed by up to {@link #LOOKAHEAD_SIZE}
+ * bytes of the next chunk, so consumers can look ahead without keeping state
+ * between chunks. Each consumer stops being fed when it does not need more data.
+ * <p>
+ * It is enabled by installing it in TaskInstaller.xml, before the carving tasks.
+ * Participants skip items already scanned when their turn comes, HashTask
+ * leaves the items to be scanned to this task.
+ */
+public class ByteScanTask extends AbstractTask {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(ByteScanTask.class);
+
+    public static final int BLOCK_SIZE = 512;
+
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    public static final int LOOKAHEAD_SIZE = 64 * 1024;
+
+    private static final String SCANNED_ATTR_PREFIX = "byteScannedBy:"; //$NON-NLS-1$
+
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal
+            .withInitial(() -> new byte[CHUNK_SIZE + LOOKAHEAD_SIZE]);
+
+    private static final AtomicBoolean finished = new AtomicBoolean(false);
+
+    private static final AtomicLong itemsScanned = new AtomicLong();
+
+    private static final AtomicLong bytesScanned = new AtomicLong();
+
+    private static final AtomicLong bytesNotReread = new AtomicLong();
+
+    /**
+     * Task able to process item contents chunk by chunk, sharing a single read
+     * with other tasks.
+     */
+    public interface Participant {
+
+        /**
+         * @return the consumer to process the item content, or null if the item is
+         *         not to be processed by this task.
+         */
+        Consumer createByteScanConsumer(IItem item) throws Exception;
+    }
+
+    /**
+     * Processes the content of one item, chunk by chunk. Consumers must not keep
+     * references to the chunk buffer between calls.
+     */
+    public interface Consumer {
+
+        /**
+         * @param buf
+         *            chunk data in buf[0..len), followed by lookahead bytes of the
+         *            next chunk in buf[len..len+lookahead)
+         * @param len
+         *            chunk length, a multiple of {@link ByteScanTask#BLOCK_SIZE}
+         *            except for the last chunk
+         * @param lookahead
+         *            number of bytes after the chunk that may be peeked, they will
+         *            be passed again as part of the next chunk
+         * @param position
+         *            offset of the chunk in the item content
+         * @return false if this consumer does not need more data
+         */
+        boolean update(byte[] buf, int len, int lookahead, long position) throws Exception;
+
+        /**
+         * Called once, after the last chunk was consumed or when reading the item
+         * failed.
+         *
+         * @param error
+         *            the error reading the item or thrown by this consumer, an
+         *            {@link InterruptedIOException} if the scan was interrupted
+         *            before the end of the content, or null if the content was
+         *            consumed normally
+         */
+        void finish(Exception error) throws Exception;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public List<Configurable<?>> getConfigurables() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void init(ConfigurationManager configurationManager) throws Exception {
+    }
+
+    @Override
+    public void finish() throws Exception {
+        synchronized (finished) {
+            if (!finished.get()) {
+                NumberFormat nf = new DecimalFormat("#,##0"); //$NON-NLS-1$
+                LOGGER.info("Items scanned: {}", nf.format(itemsScanned.get())); //$NON-NLS-1$
+                LOGGER.info("Bytes scanned: {}", nf.format(bytesScanned.get())); //$NON-NLS-1$
+                LOGGER.info("Bytes not read again by other tasks: {}", nf.format(bytesNotReread.get())); //$NON-NLS-1$
+                finished.set(true);
+            }
+        }
+    }
+
+    /**
+     * @return true if the item content is scanned by this task.
+     */
+    public static boolean isToScan(IItem item) {
+        MediaType mediaType = item.getMediaType();
+        return mediaType != null && item.getLength() != null && LedCarveTask.isAcceptedType(mediaType);
+    }
+
+    /**
+     * @return true if the worker has this task installed.
+     */
+    public static boolean isInstalled(Worker worker) {
+        for (AbstractTask task : worker.tasks) {
+            if (task instanceof ByteScanTask) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the item content was already processed by the consumer of
+     *         the given task, while scanned by this task.
+     */
+    public static boolean isScanned(IItem item, AbstractTask task) {
+        return Boolean.TRUE.equals(item.getTempAttribute(SCANNED_ATTR_PREFIX + task.getClass().getName()));
+    }
+
+    @Override
+    protected void process(IItem evidence) throws Exception {
+
+        if (evidence.isQueueEnd() || !isToScan(evidence)) {
+            return;
+        }
+
+        List<Consumer> consumers = new ArrayList<>();
+        for (AbstractTask task : worker.tasks) {
+            if (task instanceof Participant && task.isEnabled()) {
+                Consumer consumer = ((Participant) task).createByteScanConsumer(evidence);
+                if (consumer != null) {
+                    consumers.add(consumer);
+                    evidence.setTempAttribute(SCANNED_ATTR_PREFIX + task.getClass().getName(), Boolean.TRUE);
+                }
+            }
+        }
+        if (consumers.isEmpty()) {
+            return;
+        }
+
+        long bytes = scan(evidence, consumers);
+
+        itemsScanned.incrementAndGet();
+        bytesScanned.addAndGet(bytes);
+        bytesNotReread.addAndGet(bytes * (consumers.size() - 1));
+    }
+
+    /**
+     * Reads the item content once, feeding all consumers. Errors are reported to
+     * the consumers and not thrown.
+     *
+     * @return number of bytes read
+     */
+    public static long scan(IItem item, Consumer consumer) {
+        return scan(item, Collections.singletonList(consumer));
+    }
+
+    /**
+     * Reads the item content once, feeding all consumers. Errors are reported to
+     * the consumers and not thrown.
+     *
+     * @return number of bytes read
+     */
+    public static long scan(IItem item, List<Consumer> consumers) {
+        List<Consumer> active = new ArrayList<>(consumers);
+        byte[] buf = buffers.get();
+        long position = 0;
+        boolean ended = false;
+        Exception error = null;
+        try (InputStream in = item.getBufferedInputStream()) {
+            int avail = readFully(in, buf, 0);
+            while (avail > 0 && !active.isEmpty() && !Thread.currentThread().isInterrupted()) {
+                int len = Math.min(avail, CHUNK_SIZE);
+                int lookahead = avail - len;
+                for (int i = 0; i < active.size(); i++) {
+                    Consumer consumer = active.get(i);
+                    try {
+                        if (consumer.update(buf, len, lookahead, position)) {
+                            continue;
+                        }
+                        finish(item, consumer, null);
+                    } catch (Exception e) {
+                        finish(item, consumer, e);
+                    }
+                    active.remove(i--);
+                }
+                position += len;
+                if (lookahead > 0) {
+                    System.arraycopy(buf, len, buf, 0, lookahead);
+                }
+                avail = lookahead + readFully(in, buf, lookahead);
+            }
+            ended = avail <= 0;
+        } catch (IOException e) {
+            error = e;
+        }
+        if (error == null && !ended && !active.isEmpty()) {
+            // consumers still needing data must not take a partial content as complete
+            error = new InterruptedIOException("Scan interrupted at offset " + position); //$NON-NLS-1$
+        }
+        for (Consumer consumer : active) {
+            finish(item, consumer, error);
+        }
+        return position;
+    }
+
+    private static void finish(IItem item, Consumer consumer, Exception error) {
+        try {
+            consumer.finish(error);
+        } catch (Exception e) {
+            LOGGER.warn("{} Error finishing scan of {}\t{}", Thread.currentThread().getName(), item.getPath(), //$NON-NLS-1$
+                    e.toString());
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int off) throws IOException {
+        int pos = off, n;
+        while (pos < buf.length && (n = in.read(buf, pos, buf.length - pos)) != -1) {
+            pos += n;
+        }
+        return pos - off;
+    }
+
+}
@@ -1,7 +1,10 @@
 package iped.engine.task;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
 import org.apache.lucene.index.DirectoryReader;
@@ -9,30 +12,54 @@
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.SortedDocValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import iped.configuration.Configurable;
 import iped.data.IHashValue;
 import iped.data.IItem;
+import iped.engine.CmdLineArgs;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
+import iped.engine.config.HashTaskConfig;
+import iped.engine.data.CaseData;
 import iped.engine.lucene.SlowCompositeReaderWrapper;
 import iped.engine.task.index.IndexItem;
+import iped.engine.util.OffHeapHashTable;
+import iped.engine.util.Util;
 import iped.utils.HashValue;
 
 /**
  * Tarefa de verificação de arquivos duplicados. Ignora o arquivo caso
  * configurado.
  *
+ * The hashes already seen are kept in an off-heap {@link OffHeapHashTable},
+ * associated to a fingerprint of the trackID of the first item with that hash.
+ * The table is saved at each commit, so it is loaded again when processing is
+ * resumed or restarted, instead of being rebuilt from the index. An item being
+ * reprocessed after a resume is not taken as a duplicate of itself because of
+ * the fingerprint.
  */
 public class DuplicateTask extends AbstractTask {
 
+    private static Logger LOGGER = LoggerFactory.getLogger(DuplicateTask.class);
+
     public static String HASH_MAP = HashTask.class.getSimpleName() + "HashMap"; //$NON-NLS-1$
 
     private static final String ENABLE_PARAM = "ignoreDuplicates"; //$NON-NLS-1$
 
     private static final String TASK_EXECUTED = DuplicateTask.class.getName() + "_EXECUTED";
 
-    private HashMap<IHashValue, IHashValue> hashMap;
+    // keeps the table state at the beginning of this processing, used by --restart
+    private static final String FIRST_COMMIT_FILE = "data/DuplicateHashes.first"; //$NON-NLS-1$
+
+    // keeps the table state at the last commit, used by --continue
+    private static final String LAST_COMMIT_FILE = "data/DuplicateHashes.last"; //$NON-NLS-1$
+
+    // owner of hashes loaded from the index, always considered a different item
+    private static final int UNKNOWN_OWNER = 1;
+
+    private OffHeapHashTable hashTable;
 
     private static boolean ignoreDuplicates = false;
 
@@ -45,7 +72,7 @@ public List<Configurable<?>> getConfigurables() {
         return Arrays.asList(new EnableTaskProperty(ENABLE_PARAM));
     }
 
-    public void process(IItem evidence) {
+    public void process(IItem evidence) throws IOException {
 
         if (Boolean.valueOf((String) evidence.getTempAttribute(TASK_EXECUTED))) {
             return;
@@ -55,14 +82,9 @@ public void process(IItem evidence) {
         boolean isDuplicate = false;
         IHashValue hashValue = evidence.getHashValue();
         if (hashValue != null) {
-            synchronized (hashMap) {
-                if (!hashMap.containsKey(hashValue)) {
-                    hashMap.put(hashValue, hashValue);
-                } else {
-                    isDuplicate = true;
-                }
-
-            }
+            int owner = getOwnerFingerprint(evidence);
+            int prevOwner = hashTable.putIfAbsent(hashValue.getBytes(), owner);
+            isDuplicate = prevOwner != OffHeapHashTable.EMPTY && prevOwner != owner;
         }
 
         if (ignoreDuplicates && isDuplicate && !evidence.isDir() && !evidence.isRoot()
@@ -73,38 +95,122 @@ public void process(IItem evidence) {
         evidence.setTempAttribute(TASK_EXECUTED, Boolean.TRUE.toString());
     }
 
+    private static int getOwnerFingerprint(IItem evidence) {
+        String trackID = Util.getTrackID(evidence);
+        int fingerprint = Integer.parseUnsignedInt(trackID.substring(0, 8), 16);
+        if (fingerprint == OffHeapHashTable.EMPTY || fingerprint == OffHeapHashTable.BUSY
+                || fingerprint == UNKNOWN_OWNER) {
+            fingerprint = UNKNOWN_OWNER + 1;
+        }
+        return fingerprint;
+    }
+
+    private static int getKeyWidth(HashTaskConfig hashConfig) {
+        if (!hashConfig.getAlgorithms().isEmpty()) {
+            String algorithm = hashConfig.getAlgorithms().get(0);
+            if (HashTask.HASH.SHA1.toString().equalsIgnoreCase(algorithm)) {
+                return 20;
+            } else if (HashTask.HASH.SHA256.toString().equalsIgnoreCase(algorithm)) {
+                return 32;
+            } else if (HashTask.HASH.SHA512.toString().equalsIgnoreCase(algorithm)) {
+                return 64;
+            }
+        }
+        // md5 and edonkey
+        return 16;
+    }
+
     @Override
     public void init(ConfigurationManager configurationManager) throws Exception {
 
         ignoreDuplicates = configurationManager.getEnableTaskProperty(ENABLE_PARAM);
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(HASH_MAP);
-        if (hashMap == null) {
-            hashMap = new HashMap<IHashValue, IHashValue>();
-            caseData.putCaseObject(HASH_MAP, hashMap);
-
-            try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
-                LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
-                SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
-                if (sdv != null) {
-                    for (int ord = 0; ord < sdv.getValueCount(); ord++) {
-                        String hash = sdv.lookupOrd(ord).utf8ToString();
-                        if (hash != null && !hash.isEmpty()) {
-                            IHashValue hValue = new HashValue(hash);
-                            hashMap.put(hValue, hValue);
-                        }
+        hashTable = (OffHeapHashTable) caseData.getCaseObject(HASH_MAP);
+        if (hashTable == null) {
+            int keyWidth = getKeyWidth(configurationManager.findObject(HashTaskConfig.class));
+            hashTable = new OffHeapHashTable(keyWidth, new File(System.getProperty("java.io.tmpdir")));
+            caseData.putCaseObject(HASH_MAP, hashTable);
+            loadHashes();
+        }
+
+    }
+
+    private void loadHashes() throws IOException {
+        CmdLineArgs args = (CmdLineArgs) caseData.getCaseObject(CmdLineArgs.class.getName());
+        File firstCommit = new File(output, FIRST_COMMIT_FILE);
+        File lastCommit = new File(output, LAST_COMMIT_FILE);
+
+        if (!args.isAppendIndex() && !args.isContinue() && !args.isRestart()) {
+            Files.deleteIfExists(firstCommit.toPath());
+            Files.deleteIfExists(lastCommit.toPath());
+        }
+
+        File saved = null;
+        if (args.isRestart()) {
+            saved = firstCommit;
+        } else if (lastCommit.exists()) {
+            saved = lastCommit;
+        } else if (args.isContinue()) {
+            saved = firstCommit;
+        }
+
+        if (saved != null && saved.exists()) {
+            long loaded = hashTable.load(saved);
+            LOGGER.info("Loaded {} hashes to detect duplicates from {}", loaded, saved.getAbsolutePath());
+        } else {
+            loadHashesFromIndex();
+        }
+
+        firstCommit.getParentFile().mkdirs();
+        if (!args.isContinue() && !args.isRestart()) {
+            // new or appended case, saves the initial state for --restart
+            hashTable.save(firstCommit);
+        } else if (args.isRestart() && firstCommit.exists()) {
+            // last commit state was discarded
+            Files.copy(firstCommit.toPath(), lastCommit.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void loadHashesFromIndex() throws IOException {
+        try (IndexReader reader = DirectoryReader.open(worker.writer, true, true)) {
+            LeafReader aReader = SlowCompositeReaderWrapper.wrap(reader);
+            SortedDocValues sdv = aReader.getSortedDocValues(IndexItem.HASH);
+            if (sdv != null) {
+                for (int ord = 0; ord < sdv.getValueCount(); ord++) {
+                    String hash = sdv.lookupOrd(ord).utf8ToString();
+                    if (hash != null && !hash.isEmpty()) {
+                        hashTable.putIfAbsent(new HashValue(hash).getBytes(), UNKNOWN_OWNER);
                     }
                 }
-            } catch (IndexNotFoundException e) {
-                // ignore
             }
+        } catch (IndexNotFoundException e) {
+            // ignore
         }
+    }
 
+    /**
+     * Saves the hashes seen until now, so they can be loaded if processing is
+     * resumed. Holds the same lock as {@link #finish()}, so the table can not be
+     * closed while being saved.
+     */
+    public static void commit(CaseData caseData, File output) throws IOException {
+        synchronized (DuplicateTask.class) {
+            OffHeapHashTable hashTable = (OffHeapHashTable) caseData.getCaseObject(HASH_MAP);
+            if (hashTable != null) {
+                hashTable.save(new File(output, LAST_COMMIT_FILE));
+            }
+        }
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
+        synchronized (DuplicateTask.class) {
+            if (caseData.getCaseObject(HASH_MAP) == hashTable) {
+                commit(caseData, output);
+                caseData.putCaseObject(HASH_MAP, null);
+                hashTable.close();
+            }
+        }
     }
 
 }
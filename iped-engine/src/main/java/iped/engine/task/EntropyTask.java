@@ -1,6 +1,5 @@
 package iped.engine.task;
 
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -11,14 +10,22 @@
 import iped.engine.task.carver.BaseCarveTask;
 import iped.parsers.standard.RawStringParser;
 import iped.utils.RandomFilterInputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
 
-public class EntropyTask extends AbstractTask {
+public class EntropyTask extends AbstractTask implements ByteScanTask.Participant {
 
     public static final String COMPRESS_RATIO = RawStringParser.COMPRESS_RATIO;
 
     public static final String ENABLE_PARAM = "entropyTest"; //$NON-NLS-1$
 
-    private byte[] buf = new byte[64 * 1024];
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private static final int OVERLAP = 1024;
+
+    private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+
+    private static final int MAX_COMPRESSED_LEN = compressor.maxCompressedLength(WINDOW_SIZE);
 
     private boolean enableOption;
 
@@ -45,23 +52,13 @@ public boolean isEnabled() {
     @Override
     protected void process(IItem evidence) throws Exception {
 
-        if (!isEnabled() || !evidence.isToAddToCase())
-            return;
-
-        if (evidence.getMediaType().equals(BaseCarveTask.UNALLOCATED_MIMETYPE)
-                || Boolean.TRUE.equals(evidence.getExtraAttribute(ThumbTask.HAS_THUMB)))
+        if (ByteScanTask.isScanned(evidence, this)) {
             return;
+        }
 
-        try (RandomFilterInputStream rfis = new RandomFilterInputStream(evidence.getBufferedInputStream())) {
-
-            while (rfis.read(buf) != -1)
-                ;
-            Double compression = rfis.getCompressRatio();
-            if (compression != null)
-                evidence.setExtraAttribute(COMPRESS_RATIO, compression);
-
-        } catch (IOException e) {
-            // ignore
+        ByteScanTask.Consumer consumer = createByteScanConsumer(evidence);
+        if (consumer != null) {
+            ByteScanTask.scan(evidence, consumer);
         }
 
         /*
@@ -80,4 +77,78 @@ protected void process(IItem evidence) throws Exception {
          */
     }
 
+    @Override
+    public ByteScanTask.Consumer createByteScanConsumer(IItem evidence) {
+
+        if (!isEnabled() || !evidence.isToAddToCase())
+            return null;
+
+        if (evidence.getMediaType().equals(BaseCarveTask.UNALLOCATED_MIMETYPE)
+                || Boolean.TRUE.equals(evidence.getExtraAttribute(ThumbTask.HAS_THUMB)))
+            return null;
+
+        return new CompressRatioConsumer(evidence);
+    }
+
+    /**
+     * Computes the mean LZ4 compression ratio of 64KB windows, overlapping by 1KB
+     * if the previous window is not random, like {@link RandomFilterInputStream}.
+     */
+    static class CompressRatioConsumer implements ByteScanTask.Consumer {
+
+        private final IItem evidence;
+        private final byte[] window = new byte[WINDOW_SIZE];
+        private final byte[] compressed = new byte[MAX_COMPRESSED_LEN];
+        private int fill = 0, windowStart = 0;
+        private double compressRatioSum = 0;
+        private long numCompressions = 0;
+
+        CompressRatioConsumer(IItem evidence) {
+            this.evidence = evidence;
+        }
+
+        @Override
+        public boolean update(byte[] buf, int len, int lookahead, long position) {
+            int off = 0;
+            while (off < len) {
+                int n = Math.min(len - off, WINDOW_SIZE - fill);
+                System.arraycopy(buf, off, window, fill, n);
+                fill += n;
+                off += n;
+                if (fill == WINDOW_SIZE) {
+                    if (compress(fill) > 1) {
+                        fill = 0;
+                    } else {
+                        System.arraycopy(window, WINDOW_SIZE - OVERLAP, window, 0, OVERLAP);
+                        fill = OVERLAP;
+                    }
+                    windowStart = fill;
+                }
+            }
+            return true;
+        }
+
+        private float compress(int len) {
+            int compressedLength = compressor.compress(window, 0, len, compressed, 0, MAX_COMPRESSED_LEN);
+            float compressRatio = (float) compressedLength / len;
+            compressRatioSum += compressRatio;
+            numCompressions++;
+            return compressRatio;
+        }
+
+        @Override
+        public void finish(Exception error) {
+            if (error != null) {
+                // ignore
+                return;
+            }
+            if (fill > windowStart && fill >= WINDOW_SIZE / 2) {
+                compress(fill);
+            }
+            if (numCompressions > 0) {
+                evidence.setExtraAttribute(COMPRESS_RATIO, compressRatioSum / numCompressions);
+            }
+        }
+    }
+
 }
@@ -25,14 +25,23 @@
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import iped.configuration.Configurable;
 import iped.data.IItem;
@@ -47,6 +56,9 @@
 
 /**
  * Responsável por gerar arquivo CSV com as propriedades dos itens processados.
+ * 
+ * Each worker encodes its rows into its own part file, so workers do not share
+ * any lock. Part files are appended to the CSV on commit.
  */
 public class ExportCSVTask extends AbstractTask {
 
@@ -58,14 +70,86 @@ public class ExportCSVTask extends AbstractTask {
     private static final String SEPARATOR = Messages.getString("ExportCSVTask.CsvSeparator"); //$NON-NLS-1$
     private static final String LINK_FUNCTION = Messages.getString("ExportCSVTask.LinkFunction"); //$NON-NLS-1$
     private static final String LINK_NAME = Messages.getString("ExportCSVTask.LinkName"); //$NON-NLS-1$
-    private static final int MIN_FLUSH_SIZE = 1 << 23;
+    private static final String PART_FILE_PREFIX = "FileListCSV-part"; //$NON-NLS-1$
 
     private static boolean exportFileProps = false;
-    private static StringBuilder staticList = new StringBuilder();
+    private static List<PartWriter> partWriters = new CopyOnWriteArrayList<>();
+    private static final AtomicInteger partWriterCounter = new AtomicInteger();
     private static Long initialCsvSize;
 
     private CmdLineArgs args;
     private File csvFile, commitFile, tmp;
+    private PartWriter partWriter;
+    private final StringBuilder list = new StringBuilder();
+
+    /**
+     * Encodes rows of a worker to UTF-8 into a reusable buffer, which is written
+     * to a part file when full. Just the worker and the commit use it.
+     */
+    private static class PartWriter {
+
+        private static final int BUFFER_SIZE = 1 << 16;
+
+        private final File dir;
+        private final int id;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private int generation = 0;
+        private File file;
+        private FileChannel channel;
+
+        private PartWriter(File dir, int id) {
+            this.dir = dir;
+            this.id = id;
+        }
+
+        private synchronized void write(CharSequence row) throws IOException {
+            CharBuffer chars = CharBuffer.wrap(row);
+            encoder.reset();
+            while (encoder.encode(chars, buffer, true).isOverflow()) {
+                drain();
+            }
+            CoderResult result;
+            while ((result = encoder.flush(buffer)).isOverflow()) {
+                drain();
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+        }
+
+        private void drain() throws IOException {
+            if (channel == null) {
+                file = new File(dir, PART_FILE_PREFIX + id + "-" + generation++); //$NON-NLS-1$
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Writes buffered rows and returns the current part file, following rows
+         * go to a new one.
+         *
+         * @return the part file or null if there are no rows.
+         */
+        private synchronized File rotate() throws IOException {
+            if (channel == null && buffer.position() == 0) {
+                return null;
+            }
+            drain();
+            channel.close();
+            channel = null;
+            File part = file;
+            file = null;
+            return part;
+        }
+    }
 
     /**
      * Indica que itens ignorados, como duplicados ou conhecidos (hash), devem ser
@@ -94,7 +178,7 @@ protected void process(IItem evidence) throws IOException {
             return;
         }
 
-        StringBuilder list = new StringBuilder();
+        list.setLength(0);
 
         String value = evidence.getName();
         if (value == null) {
@@ -205,12 +289,7 @@ protected void process(IItem evidence) throws IOException {
 
         list.append("\r\n"); //$NON-NLS-1$
 
-        synchronized (this.getClass()) {
-            staticList.append(list);
-            if (staticList.length() >= MIN_FLUSH_SIZE) {
-                flush(csvFile);
-            }
-        }
+        partWriter.write(list);
     }
 
     private String escape(String value) {
@@ -222,14 +301,29 @@ private String escape(String value) {
         return str.toString().replace("\"", "\"\""); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
+    /**
+     * Appends the part files of all workers to the CSV. Workers go on writing to
+     * new part files meanwhile.
+     */
     private static synchronized void flush(File output) throws IOException {
         if (!output.exists() || output.length() == 0) {
             writeHeader(output);
         }
-        try (OutputStream os = Files.newOutputStream(output.toPath(), StandardOpenOption.APPEND)) {
-            os.write(staticList.toString().getBytes(StandardCharsets.UTF_8));
+        try (FileChannel out = FileChannel.open(output.toPath(), StandardOpenOption.APPEND)) {
+            for (PartWriter partWriter : partWriters) {
+                File part = partWriter.rotate();
+                if (part == null) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(part.toPath(), StandardOpenOption.READ)) {
+                    long pos = 0, size = in.size();
+                    while (pos < size) {
+                        pos += in.transferTo(pos, size - pos, out);
+                    }
+                }
+                Files.delete(part.toPath());
+            }
         }
-        staticList = new StringBuilder();
     }
 
     private static void writeHeader(File file) throws IOException {
@@ -277,9 +371,9 @@ private static long bytesToLong(byte[] bytes, int offset) {
     }
 
     public void finish() throws IOException {
-        if (exportFileProps && staticList != null) {
+        if (exportFileProps && partWriters != null) {
             commit(output);
-            staticList = null;
+            partWriters = null;
 
             if (!args.isContinue() && !args.isRestart())
                 return;
@@ -340,10 +434,23 @@ public void init(ConfigurationManager configurationManager) throws Exception {
 
         exportFileProps = configurationManager.getEnableTaskProperty(ENABLE_PARAM);
 
+        File partsDir = new File(output, "data"); //$NON-NLS-1$
+        partWriter = new PartWriter(partsDir, partWriterCounter.getAndIncrement());
+        partWriters.add(partWriter);
+
         if (initialCsvSize != null) {
             return;
         }
 
+        // rows not committed by a previous run are in the index neither
+        if (partsDir.isDirectory()) {
+            try (DirectoryStream<Path> parts = Files.newDirectoryStream(partsDir.toPath(), PART_FILE_PREFIX + "*")) { //$NON-NLS-1$
+                for (Path part : parts) {
+                    Files.delete(part);
+                }
+            }
+        }
+
         if (csvFile.exists() && commitFile.exists()) {
             byte[] bytes = Files.readAllBytes(commitFile.toPath());
             int idx = args.isRestart() ? 0 : 8; // position 0-7 keeps first commit point, position 8-15 keeps last commit point
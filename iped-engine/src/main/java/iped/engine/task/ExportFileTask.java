@@ -26,6 +26,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -79,6 +80,8 @@
 import iped.engine.CmdLineArgs;
 import iped.engine.config.CategoryConfig;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.config.ContentStorageConfig;
+import iped.engine.config.ContentStorageConfig.StorageFormat;
 import iped.engine.config.EnableTaskProperty;
 import iped.engine.config.ExportByCategoriesConfig;
 import iped.engine.config.ExportByKeywordsConfig;
@@ -86,6 +89,9 @@
 import iped.engine.config.HtmlReportTaskConfig;
 import iped.engine.data.Category;
 import iped.engine.data.IPEDSource;
+import iped.engine.io.SegmentContentStore;
+import iped.engine.io.SegmentContentStoreInputStreamFactory;
+import iped.engine.io.ThumbStore;
 import iped.engine.localization.Messages;
 import iped.engine.preview.PreviewConstants;
 import iped.engine.preview.PreviewRepository;
@@ -130,6 +136,8 @@ public class ExportFileTask extends AbstractTask {
     private static final String CREATE_TABLE1 = "CREATE TABLE IF NOT EXISTS thumbs(id TEXT PRIMARY KEY, thumb BLOB);";
     private static final String CREATE_TABLE2 = "CREATE TABLE IF NOT EXISTS t1(id TEXT PRIMARY KEY, data BLOB);";
 
+    private static final String SELECT_ANY_THUMB = "SELECT 1 FROM thumbs WHERE thumb IS NOT NULL LIMIT 1;";
+
     private static final String INSERT_DATA = "INSERT INTO t1(id, data) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET data=? WHERE data IS NULL;";
 
     private static final String CHECK_HASH = "SELECT id FROM t1 WHERE id=? AND data IS NOT NULL;";
@@ -141,6 +149,7 @@ public class ExportFileTask extends AbstractTask {
     // maps below are used to track different storages/connections in multicases
     private static HashMap<File, HashMap<Integer, File>> storage = new HashMap<>();
     private static HashMap<File, HashMap<Integer, Connection>> storageCon = new HashMap<>();
+    private static HashMap<File, SegmentContentStore> segmentStores = new HashMap<>();
 
     private static AtomicInteger counter = new AtomicInteger();
 
@@ -156,11 +165,11 @@ public class ExportFileTask extends AbstractTask {
     private static ExportFileTask lastInstance = null;
     private static LockManager<String> lockManager;
 
-    private HashMap<IHashValue, IHashValue> hashMap;
     private List<String> noContentLabels;
     private ExportByCategoriesConfig exportByCategories;
     private ExportByKeywordsConfig exportByKeywords;
     private CategoryConfig categoryConfig;
+    private ContentStorageConfig contentStorageConfig;
     private boolean automaticExportEnabled = false;
 
     private static synchronized void initLockManager() {
@@ -347,9 +356,7 @@ public void process(IItem evidence) {
                 // store references to -nocontent items to be deleted from sqlite storages
                 IHashValue hashValue = evidence.getHashValue();
                 if (hashValue != null) {
-                    synchronized (hashMap) {
-                        // this uses less memory reusing a previous stored reference
-                        hashValue = hashMap.get(hashValue);
+                    synchronized (noContentHashes) {
                         noContentHashes.add(hashValue);
                     }
                 }
@@ -538,13 +545,9 @@ public void renameToHash(IItem evidence) {
             if (!hashFile.getParentFile().exists()) {
                 hashFile.getParentFile().mkdirs();
             }
-            IHashValue hashVal = new HashValue(hash);
-            IHashValue hashLock;
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
-
-            synchronized (hashLock) {
+            ReentrantLock hashLock = lockManager.getLock(hash);
+            hashLock.lock();
+            try {
                 if (!hashFile.exists()) {
                     try {
                         Files.move(file.toPath(), hashFile.toPath());
@@ -572,6 +575,8 @@ public void renameToHash(IItem evidence) {
                         LOGGER.warn("{} Error Deleting {}", Thread.currentThread().getName(), file.getAbsolutePath()); //$NON-NLS-1$
                     }
                 }
+            } finally {
+                hashLock.unlock();
             }
 
         }
@@ -615,7 +620,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
 
         String hash = null;
         File outputFile = null;
-        Object hashLock = new Object();
+        ReentrantLock hashLock = null;
 
         String ext = ""; //$NON-NLS-1$
         if (evidence.getType() != null) {
@@ -642,10 +647,7 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
             outputFile = new File(getSubDir(extractDir), Util.getValidFilename(counter.getAndIncrement() + ext));
         } else if ((hash = evidence.getHash()) != null && !hash.isEmpty()) {
             outputFile = getHashFile(hash, ext);
-            IHashValue hashVal = new HashValue(hash);
-            synchronized (hashMap) {
-                hashLock = hashMap.get(hashVal);
-            }
+            hashLock = lockManager.getLock(hash);
 
         } else {
             outputFile = new File(extractDir, Util.getValidFilename("0" + counter.getAndIncrement() + ext)); //$NON-NLS-1$
@@ -653,7 +655,10 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
 
         boolean fileExists = false;
 
-        synchronized (hashLock) {
+        if (hashLock != null) {
+            hashLock.lock();
+        }
+        try {
             if (hash == null || !(fileExists = outputFile.exists())) {
                 BufferedOutputStream bos = null;
                 try (TemporaryResources tmp = new TemporaryResources()) {
@@ -726,6 +731,10 @@ public void extractFile(InputStream inputStream, IItem evidence, Long parentSize
                     }
                 }
             }
+        } finally {
+            if (hashLock != null) {
+                hashLock.unlock();
+            }
         }
 
         if (fileExists) {
@@ -746,9 +755,20 @@ public void insertIntoStorage(IItem evidence, byte[] buf, int len)
         } else {
             hash = DigestUtils.md5(new ByteArrayInputStream(buf, 0, len));
         }
+        String id = hashString != null ? hashString : new HashValue(hash).toString();
+
+        if (contentStorageConfig.getStorageFormat() == StorageFormat.SEGMENTS) {
+            File segmentsDir = getSegmentStoreDir(output);
+            getSegmentStore(output).put(hash, buf, len);
+            evidence.setIdInDataSource(id);
+            evidence.setInputStreamFactory(new SegmentContentStoreInputStreamFactory(segmentsDir.toPath()));
+            evidence.setFileOffset(-1);
+            evidence.setLength((long) len);
+            return;
+        }
+
         int k = getStorageSuffix(hash);
         boolean alreadyInDB = false;
-        String id = hashString != null ? hashString : new HashValue(hash).toString();
         if (storageCon.get(output) == null) {
             configureSQLiteStorage(output);
         }
@@ -781,6 +801,44 @@ public void insertIntoStorage(IItem evidence, byte[] buf, int len)
         evidence.setLength((long) len);
     }
 
+    private static File getSegmentStoreDir(File output) {
+        return new File(output, STORAGE_PREFIX + File.separator + SegmentContentStore.DIR_NAME);
+    }
+
+    static File getThumbStoreDir(File output) {
+        return new File(output, STORAGE_PREFIX + File.separator + ThumbStore.DIR_NAME);
+    }
+
+    /**
+     * @return true if thumbs were stored in the sqlite storage, by older versions.
+     */
+    static boolean hasSQLiteThumbs(File output) throws SQLException {
+        if (storageCon.get(output) == null) {
+            configureSQLiteStorage(output);
+        }
+        for (Connection con : storageCon.get(output).values()) {
+            try (Statement stmt = con.createStatement(); ResultSet rs = stmt.executeQuery(SELECT_ANY_THUMB)) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private SegmentContentStore getSegmentStore(File output) throws IOException {
+        File dir = getSegmentStoreDir(output);
+        synchronized (segmentStores) {
+            SegmentContentStore store = segmentStores.get(output);
+            if (store == null) {
+                store = SegmentContentStore.getForWriting(dir, contentStorageConfig.getCompression(),
+                        contentStorageConfig.getZstdLevel(), contentStorageConfig.getMaxSegmentSize());
+                segmentStores.put(output, store);
+            }
+            return store;
+        }
+    }
+
     private GzipParameters getGzipParams() {
         GzipParameters compression = new GzipParameters();
         compression.setCompressionLevel(Deflater.BEST_SPEED);
@@ -842,7 +900,7 @@ public SeekableInputStream getSeekableInputStream(String identifier) throws IOEx
     @Override
     public List<Configurable<?>> getConfigurables() {
         return Arrays.asList(new EnableTaskProperty(ENABLE_PARAM), new ExportByCategoriesConfig(),
-                new ExportByKeywordsConfig());
+                new ExportByKeywordsConfig(), new ContentStorageConfig());
     }
 
     @SuppressWarnings("unchecked")
@@ -853,6 +911,7 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         exportByCategories = configurationManager.findObject(ExportByCategoriesConfig.class);
         exportByKeywords = configurationManager.findObject(ExportByKeywordsConfig.class);
         categoryConfig = configurationManager.findObject(CategoryConfig.class);
+        contentStorageConfig = configurationManager.findObject(ContentStorageConfig.class);
 
         if (automaticExportEnabled && !exportByCategories.hasCategoryToExport() && !exportByKeywords.isEnabled()) {
             throw new IPEDException("Inconsistent configuration: " + ENABLE_PARAM + "=true but " + ExportByCategoriesConfig.CONFIG_FILE + "/" + ExportByKeywordsConfig.CONFIG_FILE + " not configured!");
@@ -873,14 +932,11 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         itensExtracted = 0;
         subDirCounter = 0;
 
-        hashMap = (HashMap<IHashValue, IHashValue>) caseData.getCaseObject(DuplicateTask.HASH_MAP);
-
         initLockManager();
     }
 
     @Override
     public void finish() throws Exception {
-        hashMap.clear();
         if (storageCon.get(output) != null) {
             for (Entry<Integer, Connection> entry : storageCon.get(output).entrySet()) {
                 Connection con = entry.getValue();
@@ -892,9 +948,17 @@ public void finish() throws Exception {
             }
             storageCon.remove(output);
         }
+        SegmentContentStore store;
+        synchronized (segmentStores) {
+            store = segmentStores.remove(output);
+        }
+        if (store != null) {
+            store.close();
+            LOGGER.info("Closed content storage " + getSegmentStoreDir(output).getAbsolutePath());
+        }
     }
 
-    public static void commitStorage(File output) throws SQLException {
+    public static void commitStorage(File output) throws SQLException, IOException {
         if (storageCon.get(output) != null) {
             for (Connection con : storageCon.get(output).values()) {
                 if (con != null && !con.isClosed() && !con.getAutoCommit()) {
@@ -902,6 +966,13 @@ public static void commitStorage(File output) throws SQLException {
                 }
             }
         }
+        SegmentContentStore store;
+        synchronized (segmentStores) {
+            store = segmentStores.get(output);
+        }
+        if (store != null) {
+            store.commit();
+        }
     }
 
     public static void deleteIgnoredItemData(ICaseData caseData, File output) throws Exception {
@@ -929,6 +1000,9 @@ public static void deleteIgnoredItemData(ICaseData caseData, File output, boolea
                 UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "",
                         Messages.getString("ExportFileTask.DeletingData2"));
                 Integer deleted = deleteIgnoredSubitemsFromStorage(ipedCase, output);
+                if (SegmentContentStore.exists(getSegmentStoreDir(output))) {
+                    deleted += deleteIgnoredSubitemsFromSegments(ipedCase, output);
+                }
                 UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "",
                         Messages.getString("ExportFileTask.DeletedData2").replace("{}", deleted.toString()));
             }
@@ -953,6 +1027,22 @@ private static int deleteIgnoredSubitemsFromFS(SortedDocValues sdv, Path root, F
         return deleted;
     }
 
+    private static int deleteIgnoredSubitemsFromSegments(IPEDSource ipedCase, File output) throws IOException {
+        LOGGER.info("Deleting data from content storage {}", getSegmentStoreDir(output).getAbsolutePath());
+        SortedDocValues sdv = ipedCase.getAtomicReader().getSortedDocValues(IndexItem.ID_IN_SOURCE);
+        Collections.sort(noContentHashes);
+        try (SegmentContentStore store = SegmentContentStore.get(getSegmentStoreDir(output))) {
+            return store.compact(hash -> {
+                try {
+                    return sdv != null && sdv.lookupTerm(new BytesRef(hash.toString())) >= 0
+                            && Collections.binarySearch(noContentHashes, hash) < 0;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
     private static int deleteIgnoredSubitemsFromStorage(IPEDSource ipedCase, File output) throws SQLException {
         final AtomicInteger deleted = new AtomicInteger();
         ArrayList<Future<?>> futures = new ArrayList<>();
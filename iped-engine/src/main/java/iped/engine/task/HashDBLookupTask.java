@@ -25,6 +25,7 @@
 import iped.engine.config.LocalConfig;
 import iped.engine.hashdb.HashDB;
 import iped.engine.hashdb.HashDBDataSource;
+import iped.engine.hashdb.HashDBIndex;
 import iped.parsers.util.ChildPornHashLookup;
 import iped.parsers.util.ChildPornHashLookup.LookupProvider;
 import iped.properties.ExtraProperties;
@@ -51,6 +52,9 @@ public class HashDBLookupTask extends AbstractTask {
     private static File hashDBFile;
     private static String[] hashesAttributes;
 
+    // shared by all workers, searched without locking
+    private static HashDBIndex hashDBIndex;
+
     private HashDBDataSource hashDBDataSource;
 
     private byte[][] hashes;
@@ -104,6 +108,7 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                                 excludeKnown = hashDBConfig.isExcludeKnown();
                                 hashDBDataSource = new HashDBDataSource(hashDBFile);
                                 addLookupProvider(hashDBDataSource);
+                                openIndex();
                                 if (hashDBConfig.getNsrlConfig() != null) {
                                     loadNsrlConfig(hashDBConfig.getNsrlConfig());
                                     if (!nsrlStatusByProdName.isEmpty()) {
@@ -126,6 +131,19 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         }
     }
 
+    private void openIndex() {
+        try {
+            hashDBIndex = HashDBIndex.open(hashDBFile);
+            if (hashDBIndex != null) {
+                logger.info("HashDB index: {}", HashDBIndex.getIndexFile(hashDBFile).getAbsolutePath());
+            } else {
+                logger.info("HashDB index not found, create it with HashDBTool to speed up lookups.");
+            }
+        } catch (Exception e) {
+            logger.warn("HashDB index ignored: {}", e.getMessage());
+        }
+    }
+
     private void addLookupProvider(HashDBDataSource hashDBDataSource) {
         ChildPornHashLookup.addLookupProvider(new LookupProvider() {
             public List<String> lookupHash(String algorithm, String hash) {
@@ -146,6 +164,9 @@ public void finish() throws Exception {
                 if (hashDBDataSource != null) {
                     hashDBDataSource.close();
                 }
+                if (hashDBIndex != null) {
+                    hashDBIndex.close();
+                }
                 if (excluded > 0) {
                     logger.info("Items ignored by hash database lookup: {}", excluded);
                 }
@@ -204,7 +225,15 @@ protected void process(IItem evidence) throws Exception {
         if (hasHash) {
             properties.clear();
             try {
-                hashDBDataSource.lookup(hashes, properties);
+                if (hashDBIndex != null) {
+                    // database is queried only to read the properties of hits
+                    int[] hashIds = hashDBIndex.lookup(hashes);
+                    if (hashIds.length > 0) {
+                        hashDBDataSource.lookup(hashIds, properties);
+                    }
+                } else {
+                    hashDBDataSource.lookup(hashes, properties);
+                }
             } catch (Exception e) {
                 logger.warn("Error looking up evidence " + evidence, e);
                 return;
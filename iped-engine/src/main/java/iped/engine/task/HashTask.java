@@ -18,18 +18,16 @@
  */
 package iped.engine.task;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicReference;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,18 +36,27 @@
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.HashTaskConfig;
+import iped.engine.task.hash.Ed2kDigest;
+import iped.engine.task.hash.HashPipeline;
 import iped.parsers.whatsapp.WhatsAppParser;
 
 /**
  * Classe para calcular e manipular hashes.
+ *
+ * Items up to {@link #INLINE_HASH_MAX_SIZE} are hashed by the worker thread
+ * itself, larger ones are streamed through a {@link HashPipeline}, which
+ * updates each digest in its own thread. When {@link ByteScanTask} is
+ * installed, items scanned by it are hashed while it reads them.
  */
-public class HashTask extends AbstractTask {
+public class HashTask extends AbstractTask implements ByteScanTask.Participant {
 
     private static Logger LOGGER = LoggerFactory.getLogger(HashTask.class);
 
     private static final int HASH_BUFFER_LEN = 1024 * 1024;
 
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final int NUM_PIPELINE_BUFFERS = 4;
+
+    public static final int INLINE_HASH_MAX_SIZE = 4 * HASH_BUFFER_LEN;
 
     public enum HASH {
         MD5("md5"), //$NON-NLS-1$
@@ -72,8 +79,14 @@ public String toString() {
 
     private HashMap<String, MessageDigest> digestMap = new LinkedHashMap<String, MessageDigest>();
 
+    private HashPipeline pipeline;
+
+    private byte[] inlineBuf;
+
     private HashTaskConfig hashConfig;
 
+    private Boolean byteScanInstalled;
+
     @Override
     public boolean isEnabled() {
         return hashConfig.isEnabled();
@@ -88,167 +101,164 @@ public List<Configurable<?>> getConfigurables() {
     public void init(ConfigurationManager configurationManager) throws Exception {
         hashConfig = configurationManager.findObject(HashTaskConfig.class);
 
-        for (String algorithm : hashConfig.getAlgorithms()) {
+        initDigests(hashConfig.getAlgorithms());
+        if (isEnabled()) {
+            System.setProperty(WhatsAppParser.HASH_TASK_ENABLED_SYSPROP, Boolean.TRUE.toString());
+        }
+    }
+
+    void initDigests(List<String> algorithms) throws NoSuchAlgorithmException {
+        for (String algorithm : algorithms) {
             MessageDigest digest = null;
             if (!algorithm.equalsIgnoreCase(HASH.EDONKEY.toString())) {
                 digest = MessageDigest.getInstance(algorithm.toUpperCase());
             } else {
-                digest = MessageDigest.getInstance("MD4"); //$NON-NLS-1$
+                digest = new Ed2kDigest();
             }
             digestMap.put(algorithm, digest);
             if (HASH.SHA256.toString().equals(algorithm)) {
                 System.setProperty(WhatsAppParser.SHA256_ENABLED_SYSPROP, Boolean.TRUE.toString());
             }
         }
-        if (isEnabled()) {
-            System.setProperty(WhatsAppParser.HASH_TASK_ENABLED_SYSPROP, Boolean.TRUE.toString());
-        }
     }
 
     @Override
     public void finish() throws Exception {
-        if (!executorService.isShutdown()) {
-            executorService.shutdown();
+        if (pipeline != null) {
+            pipeline.close();
         }
     }
 
+    private boolean isToHash(IItem evidence) {
+        return !evidence.isQueueEnd() && evidence.getHash() == null && !digestMap.isEmpty()
+                && evidence.getExtraAttribute(IgnoreHardLinkTask.IGNORE_HARDLINK_ATTR) == null;
+    }
+
     public void process(IItem evidence) {
 
-        if (evidence.isQueueEnd()) {
+        if (!isToHash(evidence)) {
             return;
         }
 
-        if (evidence.getHash() != null || digestMap.isEmpty()
-                || evidence.getExtraAttribute(IgnoreHardLinkTask.IGNORE_HARDLINK_ATTR) != null) {
+        if (evidence.getLength() == null) {
+            evidence.setHash("");
             return;
         }
 
-        if (evidence.getLength() == null) {
-            evidence.setHash("");
+        // hashed later by ByteScanTask, together with other tasks reading the item
+        if (ByteScanTask.isToScan(evidence) && isByteScanInstalled()) {
             return;
         }
 
         try (InputStream in = evidence.getBufferedInputStream()) {
 
-            byte[] readBuf = new byte[HASH_BUFFER_LEN];
-            byte[] hashBuf = new byte[HASH_BUFFER_LEN];
-            byte[] tempBuf = null;
-            int len;
+            if (evidence.getLength() <= INLINE_HASH_MAX_SIZE) {
+                hashInline(in);
+            } else {
+                getPipeline().update(in);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Interrupted hashing " + evidence.getPath()); //$NON-NLS-1$
+            }
 
-            AtomicReference<CountDownLatch> countDown = new AtomicReference<>(null);
-            AtomicReference<Exception> ex = new AtomicReference<Exception>(null);
+            setHashes(evidence);
 
-            while ((len = in.read(readBuf)) >= 0 && !Thread.currentThread().isInterrupted()) {
+        } catch (Exception e) {
+            onError(evidence, e);
+        }
 
-                if (countDown.get() != null) {
-                    countDown.get().await();
-                }
+    }
 
-                countDown.set(new CountDownLatch(digestMap.size()));
-
-                // swap hashBuf <-> readBuf
-                tempBuf = hashBuf;
-                hashBuf = readBuf;
-                readBuf = tempBuf;
-
-                final int currLen = len;
-                final byte[] currHashBuf = hashBuf;
-                for (String algo : digestMap.keySet()) {
-                    executorService.execute(() -> {
-                        try {
-                            if (!algo.equals(HASH.EDONKEY.toString())) {
-                                digestMap.get(algo).update(currHashBuf, 0, currLen);
-                            } else {
-                                updateEd2k(currHashBuf, currLen);
-                            }
-                        } catch (Exception e) {
-                            ex.set(e);
-                        } finally {
-                            countDown.get().countDown();
-                        }
-                    });
+    @Override
+    public ByteScanTask.Consumer createByteScanConsumer(IItem evidence) {
+        if (!isToHash(evidence) || evidence.getLength() == null) {
+            return null;
+        }
+        boolean inline = evidence.getLength() <= INLINE_HASH_MAX_SIZE;
+        return new ByteScanTask.Consumer() {
+            @Override
+            public boolean update(byte[] buf, int len, int lookahead, long position) {
+                if (!inline) {
+                    return getPipeline().update(buf, 0, len);
                 }
-
-                if (ex.get() != null) {
-                    throw ex.get();
+                for (MessageDigest digest : digestMap.values()) {
+                    digest.update(buf, 0, len);
                 }
+                return true;
             }
 
-            if (countDown.get() != null) {
-                countDown.get().await();
-            }
-
-            boolean defaultHash = true;
-            for (String algo : digestMap.keySet()) {
-                byte[] hash;
-                if (!algo.equals(HASH.EDONKEY.toString())) {
-                    hash = digestMap.get(algo).digest();
+            @Override
+            public void finish(Exception error) {
+                if (!inline) {
+                    try {
+                        getPipeline().flush();
+                    } catch (IOException e) {
+                        if (error == null) {
+                            error = e;
+                        }
+                    }
+                }
+                if (error == null) {
+                    setHashes(evidence);
                 } else {
-                    hash = digestEd2k();
+                    onError(evidence, error);
                 }
+            }
+        };
+    }
 
-                String hashString = getHashString(hash);
-                evidence.setExtraAttribute(algo, hashString);
+    private boolean isByteScanInstalled() {
+        if (byteScanInstalled == null) {
+            byteScanInstalled = ByteScanTask.isInstalled(worker);
+        }
+        return byteScanInstalled;
+    }
 
-                if (defaultHash) {
-                    evidence.setHash(hashString);
-                }
-                defaultHash = false;
-            }
+    private void setHashes(IItem evidence) {
+        boolean defaultHash = true;
+        for (String algo : digestMap.keySet()) {
+            byte[] hash = digestMap.get(algo).digest();
 
-        } catch (Exception e) {
-            if (e instanceof IOException) {
-                evidence.setExtraAttribute("ioError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
-                stats.incIoErrors();
-            }
-            LOGGER.warn("{} Error computing hash {}\t{}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
-                    e.toString());
-            // e.printStackTrace();
+            String hashString = getHashString(hash);
+            evidence.setExtraAttribute(algo, hashString);
 
+            if (defaultHash) {
+                evidence.setHash(hashString);
+            }
+            defaultHash = false;
         }
-
     }
 
-    private static int CHUNK_SIZE = 9500 * 1024;
-    private int chunk = 0, total = 0;
-    private ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-    private void updateEd2k(byte[] buffer, int len) throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (chunk + len >= CHUNK_SIZE) {
-            int offset = CHUNK_SIZE - chunk;
-            md4.update(buffer, 0, offset);
-            out.write(md4.digest());
-            chunk = len - offset;
-            md4.update(buffer, offset, chunk);
-        } else {
-            md4.update(buffer, 0, len);
-            chunk += len;
+    private void onError(IItem evidence, Exception e) {
+        for (MessageDigest digest : digestMap.values()) {
+            digest.reset();
+        }
+        if (e instanceof IOException && !(e instanceof InterruptedIOException)) {
+            evidence.setExtraAttribute("ioError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+            stats.incIoErrors();
         }
-        total += len;
+        LOGGER.warn("{} Error computing hash {}\t{}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
+                e.toString());
     }
 
-    private byte[] digestEd2k() throws IOException {
-
-        MessageDigest md4 = digestMap.get(HASH.EDONKEY.toString());
-        if (total == 0 || total % CHUNK_SIZE != 0) {
-            out.write(md4.digest());
+    private void hashInline(InputStream in) throws IOException {
+        if (inlineBuf == null) {
+            inlineBuf = new byte[HASH_BUFFER_LEN];
         }
-
-        if (out.size() > md4.getDigestLength()) {
-            md4.update(out.toByteArray());
-            out.reset();
-            out.write(md4.digest());
+        int len;
+        while ((len = in.read(inlineBuf)) >= 0 && !Thread.currentThread().isInterrupted()) {
+            for (MessageDigest digest : digestMap.values()) {
+                digest.update(inlineBuf, 0, len);
+            }
         }
+    }
 
-        byte[] ed2k = out.toByteArray();
-
-        chunk = 0;
-        total = 0;
-        out = new ByteArrayOutputStream();
-
-        return ed2k;
+    private HashPipeline getPipeline() {
+        if (pipeline == null) {
+            pipeline = new HashPipeline(new ArrayList<>(digestMap.values()), NUM_PIPELINE_BUFFERS, HASH_BUFFER_LEN,
+                    Thread.currentThread().getName() + "-Hash"); //$NON-NLS-1$
+        }
+        return pipeline;
     }
 
     public static String getHashString(byte[] hash) {
@@ -32,6 +32,7 @@
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.lang3.StringUtils;
@@ -69,6 +70,7 @@
 import iped.engine.config.PluginConfig;
 import iped.engine.config.SplitLargeBinaryConfig;
 import iped.engine.core.Manager;
+import iped.engine.core.ProcessingMetrics;
 import iped.engine.core.Statistics;
 import iped.engine.core.Worker;
 import iped.engine.data.CaseData;
@@ -143,6 +145,7 @@ public class ParsingTask extends ThumbTask implements EmbeddedDocumentExtractor
     public static final String ENCRYPTED = "encrypted"; //$NON-NLS-1$
     public static final String HAS_SUBITEM = "hasSubitem"; //$NON-NLS-1$
     public static final String NUM_SUBITEMS = "numSubItems"; //$NON-NLS-1$
+    public static final String PARSING_DEADLINE_REACHED = "parsingDeadlineReached"; //$NON-NLS-1$
 
     private static final int MAX_SUBITEM_DEPTH = 100;
     private static final String SUBITEM_DEPTH = "subitemDepth"; //$NON-NLS-1$
@@ -157,7 +160,7 @@ public class ParsingTask extends ThumbTask implements EmbeddedDocumentExtractor
     private static int max_expanding_containers;
 
     public static AtomicLong totalText = new AtomicLong();
-    private static final Map<String, Long> timesPerParser = new HashMap<String, Long>();
+    private static final Map<String, LongAdder> timesPerParser = new ConcurrentHashMap<>();
 
     private static Map<Integer, ZipBombStats> zipBombStatsMap = new ConcurrentHashMap<>();
     private static final Set<MediaType> typesToCheckZipBomb = getTypesToCheckZipbomb();
@@ -333,9 +336,8 @@ public void process(IItem evidence) throws Exception {
                     LOGGER.warn("{} Negative Parsing Time: {} {} Diff={} SubItemsTime={}",
                             Thread.currentThread().getName(), evidence.getPath(), parserName, diff, st);
                 }
-                synchronized (timesPerParser) {
-                    timesPerParser.merge(parserName, diff - st, Long::sum);
-                }
+                timesPerParser.computeIfAbsent(parserName, k -> new LongAdder()).add(diff - st);
+                ProcessingMetrics.get().recordParser(parserName, (diff - st) * 1000);
             }
         }
     }
@@ -397,12 +399,14 @@ private void safeProcess() throws Exception {
 
             TextCache textCache = new TextCache();
             textCache.setEnableDiskCache(parsingConfig.isStoreTextCacheOnDisk());
-            char[] cbuf = new char[128 * 1024];
-            int len = 0;
-            while ((len = reader.read(cbuf)) != -1 && !Thread.currentThread().isInterrupted()) {
-                textCache.write(cbuf, 0, len);
-                // if(metadata.get(IndexerDefaultParser.PARSER_EXCEPTION) != null)
-                // break;
+            reader.transferTo(textCache);
+
+            if (reader.isDeadlineReached()) {
+                LOGGER.warn("{} Parsing deadline reached, keeping partial results of {} ({} bytes)", //$NON-NLS-1$
+                        Thread.currentThread().getName(), evidence.getPath(), evidence.getLength());
+                Statistics.get().incPartialParsings();
+                // not flagged as timeout, so it is not reprocessed as raw strings
+                evidence.setExtraAttribute(PARSING_DEADLINE_REACHED, "true"); //$NON-NLS-1$
             }
 
             ((Item) evidence).setParsedTextCache(textCache);
@@ -814,6 +818,7 @@ public static void setupParsingOptions(ConfigurationManager configurationManager
                 throw new IPEDException("You must have a minimum of 2 external parsing processes! Adjust the '" + ParsingTaskConfig.NUM_EXTERNAL_PARSERS + "' option.");
             }
             ForkParser.setServerMaxHeap(parsingConfig.getExternalParsingMaxMem());
+            ForkParser.setUseSharedMemory(parsingConfig.isExternalParsingSharedMemory());
         } else {
             LocalConfig localConfig = configurationManager.findObject(LocalConfig.class);
             if (localConfig.getNumThreads() < 2) {
@@ -881,8 +886,8 @@ public void finish() throws Exception {
 
     public static void copyTimesPerParser(Map<String,Long> dest) {
         dest.clear();
-        synchronized (timesPerParser) {
-            dest.putAll(timesPerParser);
+        for (Map.Entry<String, LongAdder> entry : timesPerParser.entrySet()) {
+            dest.put(entry.getKey(), entry.getValue().sum());
         }
     }
 }
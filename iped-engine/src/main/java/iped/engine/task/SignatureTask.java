@@ -5,6 +5,7 @@
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.tika.config.TikaConfig;
@@ -20,7 +21,9 @@
 import iped.configuration.Configurable;
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
+import iped.engine.config.EnableTaskProperty;
 import iped.engine.config.SignatureConfig;
+import iped.engine.task.signature.CompiledMagicDetector;
 import iped.io.SeekableInputStream;
 import iped.properties.MediaTypes;
 import iped.utils.IOUtil;
@@ -35,7 +38,14 @@ public class SignatureTask extends AbstractTask {
 
     private static final String[] HFS_ATTR_SUFFIX = { ":DATA", ":DECOMP", ":RSRC" };
 
+    private static final String FAST_DETECTION_PARAM = "enableFastSignatureDetection"; //$NON-NLS-1$
+
+    private static CompiledMagicDetector compiledDetector;
+
+    private static final AtomicBoolean finished = new AtomicBoolean(false);
+
     private boolean processFileSignatures = true;
+    private boolean fastDetection = false;
     private Detector detector;
 
     private Detector getDetector() {
@@ -45,10 +55,26 @@ private Detector getDetector() {
                 throw new RuntimeException("Custom signature file not loaded!");
             }
             detector = TikaConfig.getDefaultConfig().getDetector();
+            if (fastDetection) {
+                detector = getCompiledDetector(detector);
+            }
         }
         return detector;
     }
 
+    private static synchronized Detector getCompiledDetector(Detector fallback) {
+        if (compiledDetector == null) {
+            try {
+                compiledDetector = CompiledMagicDetector.create(fallback,
+                        TikaConfig.getDefaultConfig().getMediaTypeRegistry());
+                LOGGER.info("Compiled {} magic signatures for fast detection", compiledDetector.getNumRules()); //$NON-NLS-1$
+            } catch (Exception e) {
+                throw new RuntimeException("Error compiling magic signatures", e); //$NON-NLS-1$
+            }
+        }
+        return compiledDetector;
+    }
+
     @Override
     public boolean isEnabled() {
         return true;
@@ -156,7 +182,7 @@ private boolean hasVHDFooter(IItem item) {
 
     @Override
     public List<Configurable<?>> getConfigurables() {
-        return Arrays.asList(new SignatureConfig());
+        return Arrays.asList(new SignatureConfig(), new EnableTaskProperty(FAST_DETECTION_PARAM));
     }
 
     @Override
@@ -164,6 +190,7 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         installCustomSignatures();
         SignatureConfig config = configurationManager.findObject(SignatureConfig.class);
         processFileSignatures = config.isEnabled();
+        fastDetection = configurationManager.getEnableTaskProperty(FAST_DETECTION_PARAM);
     }
 
     public static void installCustomSignatures() {
@@ -173,8 +200,13 @@ public static void installCustomSignatures() {
 
     @Override
     public void finish() throws Exception {
-        // TODO Auto-generated method stub
-
+        synchronized (finished) {
+            if (compiledDetector != null && !finished.get()) {
+                LOGGER.info("Signatures detected by compiled magics: {}", compiledDetector.getCompiledDetections()); //$NON-NLS-1$
+                LOGGER.info("Signatures detected by Tika: {}", compiledDetector.getFallbackDetections()); //$NON-NLS-1$
+                finished.set(true);
+            }
+        }
     }
 
 }
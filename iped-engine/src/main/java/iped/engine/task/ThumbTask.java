@@ -1,14 +1,18 @@
 package iped.engine.task;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
 
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.HtmlReportTaskConfig;
+import iped.engine.io.ThumbStore;
 import iped.engine.util.Util;
 
 public abstract class ThumbTask extends AbstractTask {
@@ -19,7 +23,53 @@ public abstract class ThumbTask extends AbstractTask {
     public static final String THUMB_EXT = "jpg";
 
     private static final String SELECT_THUMB = "SELECT thumb FROM thumbs WHERE id=?;"; //$NON-NLS-1$
-    private static final String INSERT_THUMB = "INSERT INTO thumbs(id, thumb) VALUES(?,?) ON CONFLICT(id) DO UPDATE SET thumb=? WHERE thumb IS NULL;"; //$NON-NLS-1$
+
+    private static final HashMap<File, ThumbStore> thumbStores = new HashMap<>();
+
+    // cases processed by older versions have thumbs in the sqlite storage
+    private static final HashMap<File, Boolean> sqliteThumbs = new HashMap<>();
+
+    private static ThumbStore getThumbStore(File output) throws IOException, SQLException {
+        synchronized (thumbStores) {
+            ThumbStore store = thumbStores.get(output);
+            if (store == null) {
+                store = ThumbStore.get(ExportFileTask.getThumbStoreDir(output));
+                thumbStores.put(output, store);
+                sqliteThumbs.put(output, ExportFileTask.hasSQLiteThumbs(output));
+            }
+            return store;
+        }
+    }
+
+    private static boolean hasSQLiteThumbs(File output) {
+        synchronized (thumbStores) {
+            return Boolean.TRUE.equals(sqliteThumbs.get(output));
+        }
+    }
+
+    /**
+     * Writes queued thumbs and syncs the thumb storage.
+     */
+    public static void commit(File output) throws IOException {
+        ThumbStore store;
+        synchronized (thumbStores) {
+            store = thumbStores.get(output);
+        }
+        if (store != null) {
+            store.commit();
+        }
+    }
+
+    public static void close(File output) throws IOException {
+        ThumbStore store;
+        synchronized (thumbStores) {
+            store = thumbStores.remove(output);
+            sqliteThumbs.remove(output);
+        }
+        if (store != null) {
+            store.close();
+        }
+    }
 
     protected File getThumbFile(IItem evidence) throws Exception {
         HtmlReportTaskConfig htmlReportConfig = ConfigurationManager.get().findObject(HtmlReportTaskConfig.class);
@@ -28,7 +78,7 @@ protected File getThumbFile(IItem evidence) throws Exception {
             File reportSubFolder = HTMLReportTask.getReportSubFolder();
             return Util.getFileFromHash(new File(reportSubFolder, THUMBS_FOLDER_NAME), evidence.getHash(), THUMB_EXT);
         }
-        return null; // it will be stored in DB
+        return null; // it will be stored in thumb storage
     }
 
     protected boolean hasThumb(IItem evidence, File thumbFile) throws Exception {
@@ -36,22 +86,15 @@ protected boolean hasThumb(IItem evidence, File thumbFile) throws Exception {
             return true;
         }
         if (thumbFile == null) {
-            Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-            try (PreparedStatement ps = con.prepareStatement(SELECT_THUMB)) {
-                ps.setString(1, evidence.getHash());
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    byte[] thumb = rs.getBytes(1);
-                    if (thumb != null) {
-                        evidence.setThumb(thumb);
-                        evidence.setExtraAttribute(HAS_THUMB, thumb.length > 0);
-                        rs.close();
-                        ps.close();
-                        return true;
-                    }
-                }
-                rs.close();
-                ps.close();
+            byte[] hash = evidence.getHashValue().getBytes();
+            byte[] thumb = getThumbStore(output).get(hash);
+            if (thumb == null && hasSQLiteThumbs(output)) {
+                thumb = getSQLiteThumb(evidence);
+            }
+            if (thumb != null) {
+                evidence.setThumb(thumb);
+                evidence.setExtraAttribute(HAS_THUMB, thumb.length > 0);
+                return true;
             }
         } else {
             // if exists, do not need to compute again
@@ -64,6 +107,19 @@ protected boolean hasThumb(IItem evidence, File thumbFile) throws Exception {
         return false;
     }
 
+    private byte[] getSQLiteThumb(IItem evidence) throws SQLException {
+        Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
+        try (PreparedStatement ps = con.prepareStatement(SELECT_THUMB)) {
+            ps.setString(1, evidence.getHash());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getBytes(1);
+                }
+            }
+        }
+        return null;
+    }
+
     protected void saveThumb(IItem evidence, File thumbFile) throws Throwable {
         File tmp = null;
         try {
@@ -71,14 +127,7 @@ protected void saveThumb(IItem evidence, File thumbFile) throws Throwable {
                 evidence.setThumb(new byte[0]); // zero size thumb means thumb error
             }
             if (thumbFile == null) {
-                Connection con = ExportFileTask.getSQLiteStorageCon(output, evidence.getHashValue().getBytes());
-                try (PreparedStatement ps = con.prepareStatement(INSERT_THUMB)) {
-                    ps.setString(1, evidence.getHash());
-                    ps.setBytes(2, evidence.getThumb());
-                    ps.setBytes(3, evidence.getThumb());
-                    ps.executeUpdate();
-                    ps.close();
-                }
+                getThumbStore(output).put(evidence.getHashValue().getBytes(), evidence.getThumb());
             } else {
                 if (!thumbFile.getParentFile().exists()) {
                     thumbFile.getParentFile().mkdirs();
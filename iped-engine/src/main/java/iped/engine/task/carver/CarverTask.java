@@ -2,22 +2,20 @@
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.TreeMap;
 
 import org.apache.tika.mime.MediaType;
-import org.arabidopsis.ahocorasick.AhoCorasick;
-import org.arabidopsis.ahocorasick.SearchResult;
-import org.arabidopsis.ahocorasick.Searcher;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick.MatchCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped.carvers.api.CarvedItemListener;
 import iped.carvers.api.Carver;
+import iped.carvers.api.CarverConfiguration;
 import iped.carvers.api.CarverType;
 import iped.carvers.api.Hit;
 import iped.carvers.api.Signature;
@@ -27,8 +25,8 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.FileSystemConfig;
 import iped.engine.data.Item;
+import iped.engine.task.ByteScanTask;
 import iped.properties.MediaTypes;
-import iped.utils.IOUtil;
 
 /**
  * Classe responsável pelo Data Carving. Utiliza o algoritmo aho-corasick, o
@@ -37,7 +35,7 @@
  * proporcional ao volume de dados de entrada e ao número de padrões
  * descobertos.
  */
-public class CarverTask extends BaseCarveTask {
+public class CarverTask extends BaseCarveTask implements ByteScanTask.Participant {
 
     public static boolean enableCarving = false;
     public static boolean ignoreCorrupted = true;
@@ -51,9 +49,9 @@ public class CarverTask extends BaseCarveTask {
     IItem evidence;
 
     long prevLen = 0;
-    int len = 0, k = 0;
-    byte[] buf = new byte[1024 * 1024];
-    byte[] cBuf;
+    HashMap<CarverType, TreeMap<Long, Integer>> map;
+    CompiledAhoCorasick tree;
+    private final MatchCallback matchCallback = this::onMatch;
 
     public static void setEnabled(boolean enabled) {
         enableCarving = enabled;
@@ -69,10 +67,12 @@ public void process(IItem evidence) {
             return;
         }
 
-        // Nova instancia pois o mesmo objeto é reusado e nao é imutável
-        CarverTask carver = new CarverTask();
-        carver.setWorker(worker);
-        carver.safeProcess(evidence);
+        if (!ByteScanTask.isScanned(evidence, this)) {
+            ByteScanTask.Consumer consumer = createByteScanConsumer(evidence);
+            if (consumer != null) {
+                ByteScanTask.scan(evidence, consumer);
+            }
+        }
 
         // Ao terminar o tratamento do item, caso haja referência ao mesmo no mapa de
         // itens carveados através do LedCarving, esta pode ser removida.
@@ -81,132 +81,119 @@ public void process(IItem evidence) {
         }
     }
 
-    private void safeProcess(IItem evidence) {
-
-        this.evidence = evidence;
-
-        if (!isToProcess(evidence)) {
-            return;
+    @Override
+    public ByteScanTask.Consumer createByteScanConsumer(IItem evidence) {
+        if (!enableCarving || !isToProcess(evidence)) {
+            return null;
         }
 
-        InputStream tis = null;
-        try {
-            MediaType type = evidence.getMediaType();
-
-            tis = evidence.getBufferedInputStream();
+        MediaType type = evidence.getMediaType();
 
-            // Images used to be carved from PUB files. But with Tika-2.4 PUB is a subtype
-            // of OLE (correct) and default carving config skips OLE files.
-            // TODO externalize this to CarverConfig.xml and implement a general approach
-            boolean isPUBFile = MediaTypes.MS_PUBLISHER.equals(type);
+        // Images used to be carved from PUB files. But with Tika-2.4 PUB is a subtype
+        // of OLE (correct) and default carving config skips OLE files.
+        // TODO externalize this to CarverConfig.xml and implement a general approach
+        boolean isPUBFile = MediaTypes.MS_PUBLISHER.equals(type);
 
-            // faz um loop na hierarquia de tipos mime
-            while (!MediaType.OCTET_STREAM.equals(type)) {
-                if (carverConfig.isToNotProcess(type) && !isPUBFile) {
-                    tis.close();
-                    return;
-                }
-                // avança 1 byte para não recuperar o próprio arquivo analisado
-                if (carverConfig.isToCarve(type)) {
-                    prevLen = (int) tis.skip(1);
-                    // break;
-                }
-
-                type = MediaTypes.getParentType(type);
+        // faz um loop na hierarquia de tipos mime
+        int skip = 0;
+        while (!MediaType.OCTET_STREAM.equals(type)) {
+            if (carverConfig.isToNotProcess(type) && !isPUBFile) {
+                return null;
+            }
+            // avança 1 byte para não recuperar o próprio arquivo analisado
+            if (carverConfig.isToCarve(type)) {
+                skip = 1;
             }
 
-            clearExtraAttributes(evidence);
+            type = MediaTypes.getParentType(type);
+        }
 
-            findSig(tis);
+        clearExtraAttributes(evidence);
 
-        } catch (Exception t) {
-            LOGGER.warn("{} Error carving on {} {}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
-                    t.toString());
-            t.printStackTrace();
+        // Nova instancia pois o mesmo objeto é reusado e nao é imutável
+        CarverTask carver = new CarverTask();
+        carver.setWorker(worker);
+        carver.evidence = evidence;
+        return carver.new CarvingConsumer(skip);
+    }
 
-        } finally {
-            IOUtil.closeQuietly(tis);
-        }
+    private class CarvingConsumer implements ByteScanTask.Consumer {
 
-    }
+        private int skip;
+        private int state;
 
-    private void fillBuf(InputStream in) throws IOException {
-        prevLen += len;
-        len = 0;
-        k = 0;
-        while (k != -1 && (len += k) < buf.length) {
-            k = in.read(buf, len, buf.length - len);
+        private CarvingConsumer(int skip) {
+            this.skip = skip;
+            map = new HashMap<>();
+            for (int i = 0; i < carverTypes.length; i++) {
+                map.put(carverTypes[i], new TreeMap<Long, Integer>());
+            }
+            tree = carverConfig.getPopulatedTree();
+            state = tree.getInitialState();
         }
 
-        cBuf = new byte[len];
-        System.arraycopy(buf, 0, cBuf, 0, len);
+        @Override
+        public boolean update(byte[] buf, int len, int lookahead, long position) {
+            int off = Math.min(skip, len);
+            skip -= off;
+            // hits are reported with indexes in buf, so their offsets are prevLen + index
+            prevLen = position;
+            // the automaton state is carried between chunks, so signatures crossing them are found
+            state = tree.search(buf, off, len - off, state, matchCallback);
+            return true;
+        }
 
+        @Override
+        public void finish(Exception error) throws IOException {
+            if (error != null) {
+                LOGGER.warn("{} Error carving on {} {}", Thread.currentThread().getName(), evidence.getPath(), //$NON-NLS-1$
+                        error.toString());
+                return;
+            }
+            for (Carver carver : registeredCarvers.values()) {
+                carver.notifyEnd(evidence);
+            }
+        }
     }
 
-    private Hit findSig(InputStream in) throws Exception {
-        HashMap<CarverType, TreeMap<Long, Integer>> map = new HashMap<>();
-        for (int i = 0; i < carverTypes.length; i++) {
-            map.put(carverTypes[i], new TreeMap<Long, Integer>());
-        }
+    private void onMatch(int output, int end) {
+        Object[] oarray = (Object[]) tree.getOutput(output);
+        Signature sig = (Signature) oarray[0];
+        int seq = (int) oarray[1];
+        int i = end - sig.seqEndPos[seq];
+
+        // tratamento para assinaturas com ? (divididas)
+        if (sig.seqs.length > 1) {
+            TreeMap<Long, Integer> hitsMap = map.get(sig.getCarverType());
+            Integer hits = hitsMap.get(prevLen + i);
+            if (hits == null) {
+                hits = 0;
+            }
+            if (hits != seq) {
+                return;
+            }
+            hitsMap.put(prevLen + i, ++hits);
+            if (hitsMap.size() > largestPatternLen) {
+                hitsMap.remove(hitsMap.firstKey());
+            }
 
-        AhoCorasick tree = carverConfig.getPopulatedTree();
-        SearchResult lastResult = new SearchResult(tree.root, null, 0);
-        do {
-            fillBuf(in);
-            lastResult = new SearchResult(lastResult.lastMatchedState, cBuf, 0);
-            Iterator<SearchResult> searcher = new Searcher(tree, tree.continueSearch(lastResult));
-
-            while (searcher.hasNext()) {
-                lastResult = searcher.next();
-
-                for (Object out : lastResult.getOutputs()) {
-                    Object[] oarray = (Object[]) out;
-                    Signature sig = (Signature) oarray[0];
-                    int seq = (int) oarray[1];
-                    int i = lastResult.getLastIndex() - sig.seqEndPos[seq];
-
-                    // tratamento para assinaturas com ? (divididas)
-                    if (sig.seqs.length > 1) {
-                        Integer hits = (Integer) map.get(sig.getCarverType()).get(prevLen + i);
-                        if (hits == null) {
-                            hits = 0;
-                        }
-                        if (hits != seq) {
-                            continue;
-                        }
-                        map.get(sig.getCarverType()).put(prevLen + i, ++hits);
-                        if (map.get(sig.getCarverType()).size() > largestPatternLen) {
-                            map.get(sig.getCarverType()).remove(map.get(sig.getCarverType()).firstKey());
-                        }
-
-                        if (hits < sig.seqs.length) {
-                            continue;
-                        }
-                    }
-
-                    Hit hit = null;
-                    hit = new Hit(sig, prevLen + i);
-
-                    Carver carver = getCarver(sig.getCarverType());
-
-                    try {
-                        carver.notifyHit(this.evidence, hit);
-                    } catch (Exception e) {
-                        LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
-                                Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
-                                carver.getClass().getName());
-                        e.printStackTrace();
-                    }
-                }
+            if (hits < sig.seqs.length) {
+                return;
             }
+        }
 
-        } while (k != -1);
+        Hit hit = new Hit(sig, prevLen + i);
 
-        for (Carver carver : registeredCarvers.values()) {
-            carver.notifyEnd(this.evidence);
-        }
+        Carver carver = getCarver(sig.getCarverType());
 
-        return null;
+        try {
+            carver.notifyHit(this.evidence, hit);
+        } catch (Exception e) {
+            LOGGER.warn("{} Skipping unexpected error carving on hit {} {} - CarverClass {}", //$NON-NLS-1$
+                    Thread.currentThread().getName(), evidence.getPath(), hit.getOffset(),
+                    carver.getClass().getName());
+            e.printStackTrace();
+        }
     }
 
     @Override
@@ -228,13 +215,18 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         carvedItemListener = getCarvedItemListener();
 
         if (carverConfig == null) {
-            carverConfig = ctConfig.getConfiguration();
-            carverConfig.configListener(carvedItemListener);
-            carverTypes = carverConfig.getCarverTypes();
-            ignoreCorrupted = carverConfig.isToIgnoreCorrupted();
+            CarverConfiguration config = ctConfig.getConfiguration();
+            config.configListener(carvedItemListener);
+            setConfiguration(config);
         }
     }
 
+    static void setConfiguration(CarverConfiguration config) {
+        carverConfig = config;
+        carverTypes = config.getCarverTypes();
+        ignoreCorrupted = config.isToIgnoreCorrupted();
+    }
+
     @Override
     public void finish() throws Exception {
         // TODO Auto-generated method stub
@@ -18,7 +18,6 @@
  */
 package iped.engine.task.carver;
 
-import java.io.BufferedInputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -32,6 +31,7 @@
 import iped.data.IItem;
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.EnableTaskProperty;
+import iped.engine.task.ByteScanTask;
 import iped.io.SeekableInputStream;
 import iped.parsers.emule.KnownMetDecoder;
 import iped.parsers.emule.KnownMetEntry;
@@ -42,7 +42,7 @@
  *
  * @author Wladimir Leite
  */
-public class KnownMetCarveTask extends BaseCarveTask {
+public class KnownMetCarveTask extends BaseCarveTask implements ByteScanTask.Participant {
 
     private static final String ENABLE_PARAM = "enableKnownMetCarving";
 
@@ -86,6 +86,11 @@ public class KnownMetCarveTask extends BaseCarveTask {
      */
     private final int step = 512;
 
+    /**
+     * Buffer para leitura de arquivos part.met candidatos.
+     */
+    private byte[] buf2;
+
     /**
      * Heurística de data mínima utilizada para filtrar arquivos plausíveis.
      * Aproximadamente -20 anos.
@@ -140,89 +145,94 @@ public void finish() throws Exception {
     }
 
     public void process(IItem evidence) {
+        if (ByteScanTask.isScanned(evidence, this))
+            return;
+
+        ByteScanTask.Consumer consumer = createByteScanConsumer(evidence);
+        if (consumer != null)
+            ByteScanTask.scan(evidence, consumer);
+    }
+
+    @Override
+    public ByteScanTask.Consumer createByteScanConsumer(IItem evidence) {
         // Verifica se está desabilitado e se o tipo de arquivo é tratado
         if (!taskEnabled || caseData.isIpedReport() || !isAcceptedType(evidence.getMediaType()))
-            return;
+            return null;
 
-        // Percorre conteúdo buscando padrões plausíveis de arquivos known.met
-        byte[] bb = new byte[1];
+        return createBlockScanner(evidence);
+    }
+
+    /**
+     * Percorre conteúdo buscando padrões plausíveis de arquivos known.met, no
+     * início de cada bloco de 512 bytes.
+     */
+    ByteScanTask.Consumer createBlockScanner(IItem evidence) {
         byte[] buf = new byte[step - 1];
-        byte[] buf2 = new byte[1 << 20];
-        BufferedInputStream is = null;
-        long offset = 0;
-        try {
-            is = evidence.getBufferedInputStream();
-            while (is.read(bb) > 0) {
-                byte read = bb[0];
-                if (read == 14 || read == 15) {
-                    is.readNBytes(buf, 0, buf.length);
-                    int numFiles = toInt(buf, 0);
-                    if (numFiles > 0 && numFiles < 65536) {
-                        int pos = 4;
-                        long date = toInt(buf, pos) * 1000L;
-                        if (date > dateMin && date < dateMax) {
-                            pos += 4;
-                            pos += 16;
-                            int numParts = toSmall(buf, pos);
-                            pos += 2;
-                            pos += 16 * numParts;
-                            if (pos < 500) {
-                                int numTags = toInt(buf, pos);
-                                if (numTags > 2 && numTags < 100) {
-                                    int len = 512 * numFiles;
-                                    SeekableInputStream inParse = null;
-                                    try {
-                                        inParse = evidence.getSeekableInputStream();
-                                        inParse.seek(offset);
-                                        List<KnownMetEntry> l = KnownMetDecoder.parseToList(inParse, len, true);
-                                        if (!l.isEmpty()) {
-                                            // Check if at least one entry has a defined name and file size (#2116)
-                                            boolean valid = false;
-                                            for(KnownMetEntry entry : l) {
-                                                if (entry.getName() != null && entry.getFileSize() > 0) {
-                                                    valid = true;
-                                                    break;
-                                                }
-                                            }
-                                            if (valid) {
-                                                addCarvedFile(evidence, offset, len, "Carved-" + offset + "-known.met",
-                                                        eMuleMediaType);
-                                                numCarvedItems.incrementAndGet();
-                                            }
-                                        }
-                                    } catch (Exception e) {
-                                        e.printStackTrace();
-                                    } finally {
-                                        IOUtil.closeQuietly(inParse);
-                                    }
-                                }
-                            }
-                        }
+        return new ByteScanTask.Consumer() {
+            @Override
+            public boolean update(byte[] data, int len, int lookahead, long position) {
+                for (int off = 0; off < len; off += step) {
+                    byte read = data[off];
+                    if (read == 14 || read == 15 || read == -32 || read == -30) {
+                        int n = Math.min(buf.length, len - off - 1);
+                        System.arraycopy(data, off + 1, buf, 0, n);
+                        Arrays.fill(buf, n, buf.length, (byte) 0);
+                        checkBlock(evidence, read, buf, position + off);
                     }
-                } else if (read == -32 || read == -30) {
-                    is.readNBytes(buf, 0, buf.length);
-                    long date = toInt(buf, 0) * 1000L;
-                    if (date > dateMin && date < dateMax) {
-                        int pos = 20;
-                        int numParts = toSmall(buf, pos);
-                        int numTags = 2;
-                        pos += 2;
-                        pos += 16 * numParts;
-                        if (pos < 500) {
-                            numTags = toInt(buf, pos);
-                        }
-                        if (numTags >= 2 && numTags <= 1024 && numParts <= 4096 && numParts >= 0) {
+                }
+                return true;
+            }
+
+            @Override
+            public void finish(Exception error) {
+                if (error != null)
+                    logger.warn(evidence.toString(), error);
+            }
+        };
+    }
+
+    /**
+     * Verifica se o bloco na posição offset é o início de um arquivo known.met ou
+     * part.met plausível, recuperando-o.
+     * 
+     * @param read
+     *            primeiro byte do bloco
+     * @param buf
+     *            demais bytes do bloco
+     */
+    void checkBlock(IItem evidence, byte read, byte[] buf, long offset) {
+        if (read == 14 || read == 15) {
+            int numFiles = toInt(buf, 0);
+            if (numFiles > 0 && numFiles < 65536) {
+                int pos = 4;
+                long date = toInt(buf, pos) * 1000L;
+                if (date > dateMin && date < dateMax) {
+                    pos += 4;
+                    pos += 16;
+                    int numParts = toSmall(buf, pos);
+                    pos += 2;
+                    pos += 16 * numParts;
+                    if (pos < 500) {
+                        int numTags = toInt(buf, pos);
+                        if (numTags > 2 && numTags < 100) {
+                            int len = 512 * numFiles;
                             SeekableInputStream inParse = null;
                             try {
                                 inParse = evidence.getSeekableInputStream();
                                 inParse.seek(offset);
-                                int bytesRead = inParse.readNBytes(buf2, 0, buf2.length);
-                                if (bytesRead > 25) {
-                                    KnownMetEntry entry = new KnownMetEntry();
-                                    int len = KnownMetDecoder.parseEntry(entry, 1, buf2, true);
-                                    if (len > 0) {
-                                        addCarvedFile(evidence, offset, len + 1, "Carved-" + offset + "-part.met", //$NON-NLS-1$ //$NON-NLS-2$
-                                                eMulePartMetMediaType);
+                                List<KnownMetEntry> l = KnownMetDecoder.parseToList(inParse, len, true);
+                                if (!l.isEmpty()) {
+                                    // Check if at least one entry has a defined name and file size (#2116)
+                                    boolean valid = false;
+                                    for(KnownMetEntry entry : l) {
+                                        if (entry.getName() != null && entry.getFileSize() > 0) {
+                                            valid = true;
+                                            break;
+                                        }
+                                    }
+                                    if (valid) {
+                                        addCarvedFile(evidence, offset, len, "Carved-" + offset + "-known.met",
+                                                eMuleMediaType);
                                         numCarvedItems.incrementAndGet();
                                     }
                                 }
@@ -233,27 +243,43 @@ public void process(IItem evidence) {
                             }
                         }
                     }
-                } else {
-                    long skip = 0;
-                    do {
-                        long i = is.skip(step - 1 - skip);
-                        if (i == 0) {
-                            // check EOF
-                            is.mark(1);
-                            if (is.read() == -1) {
-                                return;
+                }
+            }
+        } else if (read == -32 || read == -30) {
+            long date = toInt(buf, 0) * 1000L;
+            if (date > dateMin && date < dateMax) {
+                int pos = 20;
+                int numParts = toSmall(buf, pos);
+                int numTags = 2;
+                pos += 2;
+                pos += 16 * numParts;
+                if (pos < 500) {
+                    numTags = toInt(buf, pos);
+                }
+                if (numTags >= 2 && numTags <= 1024 && numParts <= 4096 && numParts >= 0) {
+                    SeekableInputStream inParse = null;
+                    try {
+                        inParse = evidence.getSeekableInputStream();
+                        inParse.seek(offset);
+                        if (buf2 == null)
+                            buf2 = new byte[1 << 20];
+                        int bytesRead = inParse.readNBytes(buf2, 0, buf2.length);
+                        if (bytesRead > 25) {
+                            KnownMetEntry entry = new KnownMetEntry();
+                            int len = KnownMetDecoder.parseEntry(entry, 1, buf2, true);
+                            if (len > 0) {
+                                addCarvedFile(evidence, offset, len + 1, "Carved-" + offset + "-part.met", //$NON-NLS-1$ //$NON-NLS-2$
+                                        eMulePartMetMediaType);
+                                numCarvedItems.incrementAndGet();
                             }
-                            is.reset();
                         }
-                        skip += i;
-                    } while (skip < step - 1);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        IOUtil.closeQuietly(inParse);
+                    }
                 }
-                offset += step;
             }
-        } catch (Exception e) {
-            logger.warn(evidence.toString(), e);
-        } finally {
-            IOUtil.closeQuietly(is);
         }
     }
 
@@ -1,18 +1,21 @@
 package iped.engine.task.carver;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.security.DigestException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -30,13 +33,26 @@
 import iped.engine.hashdb.HashDBDataSource;
 import iped.engine.hashdb.LedHashDB;
 import iped.engine.hashdb.LedItem;
+import iped.engine.task.ByteScanTask;
 import iped.properties.MediaTypes;
 import iped.utils.IOUtil;
 
-public class LedCarveTask extends BaseCarveTask {
+public class LedCarveTask extends BaseCarveTask implements ByteScanTask.Participant {
 
     private static final String ENABLE_PARAM = "enableLedCarving";
 
+    private static final String PARALLEL_HASHING_PARAM = "enableLedCarvingParallelHashing";
+
+    /**
+     * Quantidade de blocos de 512 bytes processados por cada tarefa do hashing
+     * paralelo.
+     */
+    private static final int BLOCKS_PER_HASH_TASK = 256;
+
+    private static final int BLOCK_LEN = 512;
+
+    private static final int HASH_64K_LEN = 65536;
+
     private static Logger logger = LoggerFactory.getLogger(LedCarveTask.class);
 
     /**
@@ -75,6 +91,25 @@ public class LedCarveTask extends BaseCarveTask {
      */
     private static final AtomicLong num512hit = new AtomicLong();
 
+    /**
+     * Tempo total, em nanossegundos, gasto processando blocos de 512 bytes.
+     */
+    private static final AtomicLong scanNanos = new AtomicLong();
+
+    /**
+     * Pool compartilhado pelos workers para calcular em paralelo os hashes dos
+     * blocos de 512 bytes, null se o modo paralelo estiver desabilitado.
+     */
+    private static ForkJoinPool hashPool;
+
+    private static final ThreadLocal<MessageDigest> poolDigest = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
     /**
      * Digest utilizado para cálculo do MD5.
      */
@@ -100,7 +135,7 @@ public static void setEnabled(boolean enabled) {
 
     @Override
     public List<Configurable<?>> getConfigurables() {
-        return Arrays.asList(new EnableTaskProperty(ENABLE_PARAM));
+        return Arrays.asList(new EnableTaskProperty(ENABLE_PARAM), new EnableTaskProperty(PARALLEL_HASHING_PARAM));
     }
 
     /**
@@ -139,6 +174,10 @@ public void init(ConfigurationManager configurationManager) throws Exception {
                             if (ledHashDB != null && ledHashDB.size() > 0) {
                                 logger.info("{} LED Hashes loaded in {} ms.", ledHashDB.size(), System.currentTimeMillis() - t);
                                 taskEnabled = true;
+                                if (configurationManager.getEnableTaskProperty(PARALLEL_HASHING_PARAM)) {
+                                    hashPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                                    logger.info("Parallel hashing of 512 blocks enabled.");
+                                }
                             }
                         }
                     }
@@ -158,94 +197,230 @@ public void finish() throws Exception {
             if (taskEnabled && !finished.get()) {
                 ledHashDB = null;
                 hashDBDataSource.close();
+                if (hashPool != null) {
+                    hashPool.shutdown();
+                    hashPool = null;
+                }
                 ledCarved.clear();
                 NumberFormat nf = new DecimalFormat("#,##0");
                 logger.info("Carved files: " + nf.format(numCarvedItems.get()));
                 logger.info("512 blocks (Hits / Total): " + nf.format(num512hit.get()) + " / " + nf.format(num512total.get()));
                 logger.info("Bytes hashed: " + nf.format(bytesHashed.get()));
+                double seconds = scanNanos.get() / 1e9;
+                if (seconds > 0) {
+                    logger.info("512 blocks per second, per scanning thread: " + nf.format(num512total.get() / seconds));
+                }
                 finished.set(true);
             }
         }
     }
 
     protected void process(IItem evidence) throws Exception {
+        if (ByteScanTask.isScanned(evidence, this)) return;
+
+        ByteScanTask.Consumer consumer = createByteScanConsumer(evidence);
+        if (consumer != null) ByteScanTask.scan(evidence, consumer);
+    }
+
+    @Override
+    public ByteScanTask.Consumer createByteScanConsumer(IItem evidence) throws Exception {
         // Verifica se está desabilitado e se o tipo de arquivo é tratado
-        if (!taskEnabled || caseData.isIpedReport() || !isAcceptedType(evidence.getMediaType()) || !isToProcess(evidence)) return;
+        if (!taskEnabled || caseData.isIpedReport() || !isAcceptedType(evidence.getMediaType()) || !isToProcess(evidence)) return null;
 
-        byte[] buf512 = new byte[512];
-        byte[] buf64K = new byte[65536 - buf512.length];
-        BufferedInputStream is = null;
+        return createLedScanner(evidence);
+    }
 
-        int cntCarvedItems = 0;
-        long cnt512hit = 0;
-        long cnt512total = 0;
-        long cntBytesHashed = 0;
-        Set<Long> offsets = null;
-        try {
-            long offset = 0;
-            int read512 = 0;
-            is = evidence.getBufferedInputStream();
-            while ((read512 = is.readNBytes(buf512, 0, buf512.length)) > 0) {
-                if (read512 != buf512.length) break;
-                cnt512total++;
-                boolean empty = true;
-                byte first = buf512[0];
-                for (int i = 1; i < read512; i++) {
-                    if (buf512[i] != first) {
-                        empty = false;
-                        break;
-                    }
-                }
-                if (!empty) {
-                    digest.update(buf512, 0, read512);
-                    cntBytesHashed += read512;
+    ByteScanTask.Consumer createLedScanner(IItem evidence) throws NoSuchAlgorithmException {
+        if (digest == null) digest = MessageDigest.getInstance("MD5");
+        return new LedScanner(evidence);
+    }
+
+    /**
+     * Substitui a base de hashes carregada na inicialização.
+     */
+    static void setLedHashDB(LedHashDB db) {
+        ledHashDB = db;
+    }
+
+    LedItem getLedItem(int hashId) {
+        return hashDBDataSource.getLedItem(hashId);
+    }
+
+    /**
+     * Busca blocos de 512 bytes cujo MD5 esteja na base LED, confirmando os hits
+     * com o MD5 dos 64 KBytes iniciais, lidos da área de lookahead quando
+     * ultrapassam o fim do bloco de dados atual.
+     */
+    private class LedScanner implements ByteScanTask.Consumer {
+
+        private final IItem evidence;
+        private Set<Long> offsets = null;
+        private byte[] hashes;
+        private boolean[] nonConstant;
+        private long[] keys;
+        private int[] hits;
+        private int cntCarvedItems = 0;
+        private long cnt512hit = 0;
+        private long cnt512total = 0;
+        private long cntBytesHashed = 0;
+
+        private LedScanner(IItem evidence) {
+            this.evidence = evidence;
+        }
+
+        @Override
+        public boolean update(byte[] buf, int len, int lookahead, long position) throws Exception {
+            long t = System.nanoTime();
+            int numBlocks = len / BLOCK_LEN;
+            if (hashPool != null) {
+                updateParallel(buf, numBlocks, len, lookahead, position);
+            } else {
+                for (int off = 0; off < numBlocks * BLOCK_LEN; off += BLOCK_LEN) {
+                    cnt512total++;
+                    if (isConstant(buf, off)) continue;
+                    digest.update(buf, off, BLOCK_LEN);
+                    cntBytesHashed += BLOCK_LEN;
                     byte[] hash512 = digest.digest();
                     if (ledHashDB.containsMD5_512(hash512)) {
-                        cnt512hit++;
-                        is.mark(65536);
-                        int read64K = is.readNBytes(buf64K, 0, buf64K.length);
-                        is.reset();
-                        if (read64K == buf64K.length) {
-                            cntBytesHashed += read512 + read64K;
-                            digest.update(buf512, 0, read512);
-                            digest.update(buf64K, 0, read64K);
-                            byte[] hash64K = digest.digest();
-                            int hashId = ledHashDB.hashIdFromMD5_64K(hash64K);
-                            if (hashId >= 0) {
-                                LedItem ledItem = hashDBDataSource.getLedItem(hashId);
-                                if (ledItem != null) {
-                                    String name = "CarvedLed-" + offset;
-                                    String ext = ledItem.getExt();
-                                    if (ext != null) name += '.' + ext.toLowerCase();
-                                    IItem carvedItem = createCarvedFile(evidence, offset, ledItem.getLength(), name, null);
-                                    if (carvedItem != null) {
-                                        carvedItem.setExtraAttribute("ledCarvedMD5", ledItem.getMD5());
-                                        cntCarvedItems++;
-                                        if (offsets == null) {
-                                            offsets = new HashSet<Long>();
-                                            synchronized (ledCarved) {
-                                                ledCarved.put(evidence, offsets);
-                                            }
-                                        }
-                                        offsets.add(offset);
-                                        addOffsetFile(carvedItem, evidence);
-                                    }
-                                }
-                            }
+                        checkHit(buf, off, len, lookahead, position);
+                    }
+                }
+            }
+            scanNanos.addAndGet(System.nanoTime() - t);
+            return true;
+        }
+
+        /**
+         * Calcula os hashes dos blocos no pool e os busca na base em lote,
+         * ordenados, o que é mais eficiente para a cache do que buscas binárias
+         * independentes.
+         */
+        private void updateParallel(byte[] buf, int numBlocks, int len, int lookahead, long position) throws Exception {
+            if (hashes == null || nonConstant.length < numBlocks) {
+                hashes = new byte[numBlocks << 4];
+                nonConstant = new boolean[numBlocks];
+                keys = new long[numBlocks];
+                hits = new int[numBlocks];
+            }
+            hashPool.invoke(new BlockHasher(buf, 0, numBlocks, hashes, nonConstant));
+
+            int count = 0;
+            for (int b = 0; b < numBlocks; b++) {
+                if (nonConstant[b]) keys[count++] = LedHashDB.sortKey(hashes, b << 4, b);
+            }
+            cnt512total += numBlocks;
+            cntBytesHashed += (long) count * BLOCK_LEN;
+
+            Arrays.sort(keys, 0, count);
+            int numHits = ledHashDB.findMD5_512(keys, count, hashes, hits);
+            // carved in offset order, like the sequential scan
+            Arrays.sort(hits, 0, numHits);
+            for (int i = 0; i < numHits; i++) {
+                checkHit(buf, hits[i] * BLOCK_LEN, len, lookahead, position);
+            }
+        }
+
+        /**
+         * Confirma o hit de um bloco de 512 bytes com o MD5 dos 64 KBytes
+         * iniciais, já disponíveis no buffer.
+         */
+        private void checkHit(byte[] buf, int off, int len, int lookahead, long position) throws Exception {
+            cnt512hit++;
+            if (off + HASH_64K_LEN <= len + lookahead) {
+                cntBytesHashed += HASH_64K_LEN;
+                digest.update(buf, off, HASH_64K_LEN);
+                byte[] hash64K = digest.digest();
+                int hashId = ledHashDB.hashIdFromMD5_64K(hash64K);
+                if (hashId >= 0) {
+                    carve(hashId, position + off);
+                }
+            }
+        }
+
+
+        private void carve(int hashId, long offset) throws Exception {
+            LedItem ledItem = getLedItem(hashId);
+            if (ledItem != null) {
+                String name = "CarvedLed-" + offset;
+                String ext = ledItem.getExt();
+                if (ext != null) name += '.' + ext.toLowerCase();
+                IItem carvedItem = createCarvedFile(evidence, offset, ledItem.getLength(), name, null);
+                if (carvedItem != null) {
+                    carvedItem.setExtraAttribute("ledCarvedMD5", ledItem.getMD5());
+                    cntCarvedItems++;
+                    if (offsets == null) {
+                        offsets = new HashSet<Long>();
+                        synchronized (ledCarved) {
+                            ledCarved.put(evidence, offsets);
                         }
                     }
+                    offsets.add(offset);
+                    addOffsetFile(carvedItem, evidence);
                 }
-                offset += read512;
             }
-        } catch (Exception e) {
-            logger.warn(evidence.toString(), e);
-        } finally {
-            IOUtil.closeQuietly(is);
         }
-        numCarvedItems.addAndGet(cntCarvedItems);
-        num512hit.addAndGet(cnt512hit);
-        num512total.addAndGet(cnt512total);
-        bytesHashed.addAndGet(cntBytesHashed);
+
+        @Override
+        public void finish(Exception error) {
+            if (error != null) logger.warn(evidence.toString(), error);
+            numCarvedItems.addAndGet(cntCarvedItems);
+            num512hit.addAndGet(cnt512hit);
+            num512total.addAndGet(cnt512total);
+            bytesHashed.addAndGet(cntBytesHashed);
+        }
+    }
+
+    private static boolean isConstant(byte[] buf, int off) {
+        byte first = buf[off];
+        for (int i = off + 1; i < off + BLOCK_LEN; i++) {
+            if (buf[i] != first) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calcula o MD5 dos blocos de 512 bytes [from, to) do buffer, dividindo o
+     * intervalo entre as threads do pool.
+     */
+    private static class BlockHasher extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] buf;
+        private final int from, to;
+        private final byte[] hashes;
+        private final boolean[] nonConstant;
+
+        private BlockHasher(byte[] buf, int from, int to, byte[] hashes, boolean[] nonConstant) {
+            this.buf = buf;
+            this.from = from;
+            this.to = to;
+            this.hashes = hashes;
+            this.nonConstant = nonConstant;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BLOCKS_PER_HASH_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BlockHasher(buf, from, mid, hashes, nonConstant),
+                        new BlockHasher(buf, mid, to, hashes, nonConstant));
+                return;
+            }
+            MessageDigest md = poolDigest.get();
+            try {
+                for (int b = from; b < to; b++) {
+                    int off = b * BLOCK_LEN;
+                    nonConstant[b] = !isConstant(buf, off);
+                    if (nonConstant[b]) {
+                        md.update(buf, off, BLOCK_LEN);
+                        md.digest(hashes, b << 4, 16);
+                    }
+                }
+            } catch (DigestException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     public static boolean isAcceptedType(MediaType mediaType) {
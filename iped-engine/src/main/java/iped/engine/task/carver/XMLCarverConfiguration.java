@@ -13,6 +13,7 @@
 
 import org.apache.tika.mime.MediaType;
 import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -34,7 +35,7 @@ public class XMLCarverConfiguration implements CarverConfiguration, Serializable
      */
     private static final long serialVersionUID = 1L;
 
-    private static AhoCorasick tree = null;
+    private static CompiledAhoCorasick tree = null;
     private static String CARVE_DIR_INDIVIDUAIS = "carvers";
 
     private ArrayList<String> originalXmls = new ArrayList<>();
@@ -252,7 +253,7 @@ synchronized public void configListener(CarvedItemListener carvedItemListener)
             CarverType[] carverTypes = carverTypesArray.toArray(new CarverType[0]);
 
             if (tree == null) {
-                tree = new AhoCorasick();
+                AhoCorasick builder = new AhoCorasick();
                 for (int i = 0; i < carverTypes.length; i++) {
                     CarverType ct = carverTypes[i];
                     ArrayList<Signature> sigs = ct.getSignatures();
@@ -263,12 +264,13 @@ synchronized public void configListener(CarvedItemListener carvedItemListener)
                                 Object[] out = new Object[2];
                                 out[0] = sig;
                                 out[1] = k;
-                                tree.add(sig.seqs[k], out);
+                                builder.add(sig.seqs[k], out);
                             }
                         }
                     }
                 }
-                tree.prepare();
+                builder.prepare();
+                tree = builder.compile();
             }
 
         } catch (Exception e) {
@@ -276,7 +278,7 @@ synchronized public void configListener(CarvedItemListener carvedItemListener)
         }
     }
 
-    public AhoCorasick getPopulatedTree() {
+    public CompiledAhoCorasick getPopulatedTree() {
         return tree;
     }
 
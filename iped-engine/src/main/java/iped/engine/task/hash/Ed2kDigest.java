@@ -0,0 +1,92 @@
+package iped.engine.task.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Incremental eDonkey2000 hash. Data is split in chunks of 9500 KiB, each one
+ * hashed with MD4. If there is just one chunk, its MD4 is the hash, otherwise
+ * the hash is the MD4 of the concatenated chunk hashes. Chunk hashes are fed to
+ * the root MD4 as soon as they are computed, so no chunk hash list is kept.
+ *
+ * Items with a length multiple of the chunk size do not get an extra empty
+ * chunk hash, as done by previous versions.
+ */
+public class Ed2kDigest extends MessageDigest {
+
+    public static final int CHUNK_SIZE = 9500 * 1024;
+
+    private final MessageDigest chunkDigest;
+    private final MessageDigest rootDigest;
+
+    private byte[] firstChunkHash;
+    private long numChunks = 0;
+    private int chunkPos = 0;
+    private long total = 0;
+
+    public Ed2kDigest() throws NoSuchAlgorithmException {
+        super("edonkey"); //$NON-NLS-1$
+        chunkDigest = MessageDigest.getInstance("MD4"); //$NON-NLS-1$
+        rootDigest = MessageDigest.getInstance("MD4"); //$NON-NLS-1$
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return 16;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        engineUpdate(new byte[] { input }, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        total += len;
+        while (len > 0) {
+            int n = Math.min(len, CHUNK_SIZE - chunkPos);
+            chunkDigest.update(input, offset, n);
+            chunkPos += n;
+            offset += n;
+            len -= n;
+            if (chunkPos == CHUNK_SIZE) {
+                endChunk();
+            }
+        }
+    }
+
+    private void endChunk() {
+        byte[] chunkHash = chunkDigest.digest();
+        if (numChunks == 0) {
+            firstChunkHash = chunkHash;
+        } else {
+            if (numChunks == 1) {
+                rootDigest.update(firstChunkHash);
+            }
+            rootDigest.update(chunkHash);
+        }
+        numChunks++;
+        chunkPos = 0;
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        if (total == 0 || total % CHUNK_SIZE != 0) {
+            endChunk();
+        }
+        byte[] result = numChunks == 1 ? firstChunkHash : rootDigest.digest();
+        engineReset();
+        return result;
+    }
+
+    @Override
+    protected void engineReset() {
+        chunkDigest.reset();
+        rootDigest.reset();
+        firstChunkHash = null;
+        numChunks = 0;
+        chunkPos = 0;
+        total = 0;
+    }
+
+}
@@ -0,0 +1,230 @@
+package iped.engine.task.hash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Computes several digests of the same stream in parallel. The caller thread
+ * reads the stream into a ring of reusable buffers and each digest is updated by
+ * its own long-lived thread, which consumes the buffers in order. A buffer is
+ * reused by the reader only after all digest threads have consumed it, so
+ * reading and hashing overlap without any per chunk task submission or buffer
+ * allocation.
+ *
+ * Instances are not thread safe: just one stream must be hashed at a time.
+ */
+public class HashPipeline implements Closeable {
+
+    private final MessageDigest[] digests;
+    private final byte[][] buffers;
+    private final int[] lengths;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bufferPublished = lock.newCondition();
+    private final Condition bufferConsumed = lock.newCondition();
+
+    // sequence number of the next buffer to be published by the reader
+    private long published = 0;
+    // sequence number of the next buffer to be consumed by each digest
+    private final long[] consumed;
+
+    private volatile boolean closed = false;
+    private volatile Exception error;
+
+    // buffer being filled by update(byte[], int, int), not published yet
+    private byte[] fillBuf;
+    private int fillLen;
+
+    public HashPipeline(List<MessageDigest> digests, int numBuffers, int bufferSize, String threadNamePrefix) {
+        this.digests = digests.toArray(new MessageDigest[0]);
+        this.buffers = new byte[numBuffers][bufferSize];
+        this.lengths = new int[numBuffers];
+        this.consumed = new long[this.digests.length];
+        for (int i = 0; i < this.digests.length; i++) {
+            final int idx = i;
+            Thread thread = new Thread(() -> consume(idx),
+                    threadNamePrefix + "-" + this.digests[i].getAlgorithm()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Reads the whole stream updating all digests. When this method returns, all
+     * read data was fed to the digests, even if an exception is thrown.
+     *
+     * @return number of bytes read
+     */
+    public long update(InputStream in) throws IOException {
+        long total = 0;
+        error = null;
+        try {
+            int len;
+            while (!Thread.currentThread().isInterrupted()) {
+                byte[] buf = nextFreeBuffer();
+                if (buf == null || (len = readFully(in, buf)) <= 0) {
+                    break;
+                }
+                publish(len);
+                total += len;
+                if (len < buf.length) {
+                    break;
+                }
+            }
+        } finally {
+            awaitConsumers();
+        }
+        if (error != null) {
+            throw new IOException("Error computing hash", error); //$NON-NLS-1$
+        }
+        return total;
+    }
+
+    /**
+     * Feeds a chunk of data to all digests. Data is copied to the pipeline
+     * buffers, so the chunk may be reused when this returns. {@link #flush()} must
+     * be called after the last chunk.
+     *
+     * @return false if some digest failed, so there is no need to feed more data
+     */
+    public boolean update(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (fillBuf == null) {
+                if ((fillBuf = nextFreeBuffer()) == null) {
+                    return false;
+                }
+                fillLen = 0;
+            }
+            int n = Math.min(len, fillBuf.length - fillLen);
+            System.arraycopy(b, off, fillBuf, fillLen, n);
+            fillLen += n;
+            off += n;
+            len -= n;
+            if (fillLen == fillBuf.length) {
+                publish(fillLen);
+                fillBuf = null;
+            }
+        }
+        return error == null;
+    }
+
+    /**
+     * Waits until all data passed to {@link #update(byte[], int, int)} was fed to
+     * the digests.
+     */
+    public void flush() throws IOException {
+        if (fillBuf != null) {
+            if (fillLen > 0) {
+                publish(fillLen);
+            }
+            fillBuf = null;
+        }
+        awaitConsumers();
+        Exception e = error;
+        error = null;
+        if (e != null) {
+            throw new IOException("Error computing hash", e); //$NON-NLS-1$
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buf) throws IOException {
+        int off = 0, n;
+        while (off < buf.length && (n = in.read(buf, off, buf.length - off)) != -1) {
+            off += n;
+        }
+        return off;
+    }
+
+    private long minConsumed() {
+        long min = Long.MAX_VALUE;
+        for (long c : consumed) {
+            min = Math.min(min, c);
+        }
+        return min;
+    }
+
+    private byte[] nextFreeBuffer() {
+        lock.lock();
+        try {
+            while (published - minConsumed() >= buffers.length && error == null) {
+                bufferConsumed.awaitUninterruptibly();
+            }
+            return error == null ? buffers[(int) (published % buffers.length)] : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish(int len) {
+        lock.lock();
+        try {
+            lengths[(int) (published % buffers.length)] = len;
+            published++;
+            bufferPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitConsumers() {
+        lock.lock();
+        try {
+            while (minConsumed() < published) {
+                bufferConsumed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void consume(int idx) {
+        MessageDigest digest = digests[idx];
+        while (true) {
+            long seq;
+            lock.lock();
+            try {
+                while ((seq = consumed[idx]) >= published) {
+                    if (closed) {
+                        return;
+                    }
+                    bufferPublished.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+            int pos = (int) (seq % buffers.length);
+            try {
+                digest.update(buffers[pos], 0, lengths[pos]);
+            } catch (Exception e) {
+                error = e;
+            }
+            lock.lock();
+            try {
+                consumed[idx] = seq + 1;
+                bufferConsumed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            bufferPublished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,322 @@
+package iped.engine.task.index;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opensearch.OpenSearchStatusException;
+import org.opensearch.action.ActionListener;
+import org.opensearch.action.DocWriteRequest;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.client.RequestOptions;
+import org.opensearch.client.ResponseException;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import iped.engine.util.LatencyHistogram;
+
+/**
+ * Sends bulk requests asynchronously, keeping at most a fixed number of them in
+ * flight. Producers block in {@link #submit(BulkRequest, Map)} only while the
+ * window is full, never waiting for the HTTP round trip.
+ * <p>
+ * Requests or items rejected with 429 (Too Many Requests) are retried after an
+ * exponential backoff, while they keep their slot in the window, so a busy
+ * cluster slows producers down. Other failures are retried the configured
+ * number of times, then the error is reported by {@link #getException()}.
+ */
+class BulkIndexingPipeline implements Closeable {
+
+    private static Logger LOGGER = LoggerFactory.getLogger(BulkIndexingPipeline.class);
+
+    private final RestHighLevelClient client;
+    private final int maxInFlight;
+    private final int retries;
+    private final int throttledRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Semaphore window;
+    private final ScheduledExecutorService retryScheduler;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+
+    private final long start = System.nanoTime();
+    private final LongAdder indexedDocs = new LongAdder();
+    private final LongAdder indexedBytes = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final AtomicInteger pendingRetries = new AtomicInteger();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private volatile IOException exception;
+
+    /**
+     * @param retries
+     *            times a failed request is retried, -1 retries forever.
+     * @param throttledRetries
+     *            times a request rejected with 429 is retried, -1 retries
+     *            forever.
+     */
+    BulkIndexingPipeline(RestHighLevelClient client, int maxInFlight, int retries, int throttledRetries,
+            long initialBackoffMillis, long maxBackoffMillis) {
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.retries = retries;
+        this.throttledRetries = throttledRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.window = new Semaphore(maxInFlight);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "BulkIndexingRetry"); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Sends the request asynchronously, blocking while the in-flight window is
+     * full.
+     *
+     * @param idToPath
+     *            item path of each document id, used in error messages
+     */
+    public void submit(BulkRequest request, Map<String, String> idToPath) throws IOException {
+        if (exception != null) {
+            throw exception;
+        }
+        if (request.numberOfActions() == 0) {
+            return;
+        }
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        long seq = sequence.getAndIncrement();
+        inFlight.add(seq);
+        new BulkListener(seq, request, idToPath).send();
+    }
+
+    /**
+     * Waits until all requests submitted before this call are finished.
+     */
+    public void awaitSubmitted() throws IOException, InterruptedException {
+        long barrier = sequence.get();
+        synchronized (inFlight) {
+            while (!inFlight.isEmpty() && inFlight.first() < barrier) {
+                inFlight.wait(1000);
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    public IOException getException() {
+        return exception;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    public int getPendingRetries() {
+        return pendingRetries.get();
+    }
+
+    public long getIndexedDocs() {
+        return indexedDocs.sum();
+    }
+
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return indexed documents per second, since the pipeline was created.
+     */
+    public double getDocsPerSecond() {
+        return indexedDocs.sum() / elapsedSeconds();
+    }
+
+    /**
+     * @return indexed request bytes per second, since the pipeline was created.
+     */
+    public double getBytesPerSecond() {
+        return indexedBytes.sum() / elapsedSeconds();
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-3, (System.nanoTime() - start) / 1e9);
+    }
+
+    public String getStats() {
+        return String.format("%d docs indexed (%.1f docs/s, %.1f MB/s), bulk latency p50=%dms p99=%dms, " //$NON-NLS-1$
+                + "%d throttled and %d other retries", getIndexedDocs(), getDocsPerSecond(), //$NON-NLS-1$
+                getBytesPerSecond() / (1 << 20), latency.getPercentile(50, TimeUnit.MILLISECONDS),
+                latency.getPercentile(99, TimeUnit.MILLISECONDS), getThrottled(), retried.sum());
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.shutdownNow();
+    }
+
+    private static boolean isThrottled(Exception e) {
+        if (e instanceof OpenSearchStatusException) {
+            return ((OpenSearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS;
+        }
+        if (e instanceof ResponseException) {
+            return ((ResponseException) e).getResponse().getStatusLine().getStatusCode() == 429;
+        }
+        return false;
+    }
+
+    private class BulkListener implements ActionListener<BulkResponse> {
+
+        private final long seq;
+        private final Map<String, String> idToPath;
+        private BulkRequest request;
+        private int retriesLeft = retries;
+        private int throttledRetriesLeft = throttledRetries;
+        private int attempt = 0;
+        private long sendTime;
+
+        private BulkListener(long seq, BulkRequest request, Map<String, String> idToPath) {
+            this.seq = seq;
+            this.request = request;
+            this.idToPath = idToPath;
+        }
+
+        private void send() {
+            sendTime = System.nanoTime();
+            try {
+                client.bulkAsync(request, RequestOptions.DEFAULT, this);
+            } catch (Exception e) {
+                onFailure(e);
+            }
+        }
+
+        @Override
+        public void onResponse(BulkResponse response) {
+            latency.record(System.nanoTime() - sendTime);
+            List<DocWriteRequest<?>> retryRequests = new ArrayList<>();
+            IOException error = null;
+            boolean throttledItems = false;
+            for (BulkItemResponse item : response) {
+                if (!item.isFailed()) {
+                    LOGGER.debug("Elastic result {} {}", item.getResponse().getResult(), idToPath.get(item.getId()));
+                    indexedDocs.increment();
+                    continue;
+                }
+                BulkItemResponse.Failure failure = item.getFailure();
+                String path = idToPath.get(item.getId());
+                String msg = failure.getMessage();
+                if (failure.getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                    throttledItems = true;
+                    retryRequests.add(request.requests().get(item.getItemId()));
+                    continue;
+                }
+                // Some documents probable have already been indexed in previous attempts
+                if (msg.contains("document already exists")) {
+                    LOGGER.warn("Elastic failure result {}: {}", path, msg);
+                    indexedDocs.increment();
+                    continue;
+                }
+                LOGGER.error("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
+                if (error == null) {
+                    error = new IOException(String.format("Elastic failure result %s: %s", path, msg));
+                }
+                retryRequests.add(request.requests().get(item.getItemId()));
+            }
+            indexedBytes.add(request.estimatedSizeInBytes());
+
+            if (retryRequests.isEmpty()) {
+                finish(null);
+                return;
+            }
+            BulkRequest retryRequest = new BulkRequest();
+            for (DocWriteRequest<?> docRequest : retryRequests) {
+                retryRequest.add(docRequest);
+            }
+            request = retryRequest;
+            retryOrError(error, throttledItems && error == null);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            boolean throttled = isThrottled(e);
+            if (!throttled) {
+                LOGGER.error("Error indexing to ElasticSearch ", e);
+            }
+            retryOrError(new IOException("Error indexing to ElasticSearch ", e), throttled);
+        }
+
+        private void retryOrError(IOException error, boolean throttled) {
+            if (throttled) {
+                if (throttledRetriesLeft == 0) {
+                    finish(new IOException("ElasticSearch still rejecting requests with 429 after "
+                            + throttledRetries + " retries"));
+                    return;
+                }
+                if (throttledRetriesLeft > 0) {
+                    throttledRetriesLeft--;
+                }
+                BulkIndexingPipeline.this.throttled.increment();
+            } else {
+                if (retriesLeft == 0) {
+                    finish(error);
+                    return;
+                }
+                if (retriesLeft > 0) {
+                    retriesLeft--;
+                }
+                retried.increment();
+            }
+            long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt++, 20));
+            // jitter avoids retries from many requests hitting the cluster together
+            backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            pendingRetries.incrementAndGet();
+            try {
+                retryScheduler.schedule(() -> {
+                    pendingRetries.decrementAndGet();
+                    send();
+                }, backoff, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                // scheduler closed
+                pendingRetries.decrementAndGet();
+                finish(error != null ? error : new IOException("Pipeline closed", e));
+            }
+        }
+
+        private void finish(IOException error) {
+            if (error != null && exception == null) {
+                exception = error;
+            }
+            window.release();
+            synchronized (inFlight) {
+                inFlight.remove(seq);
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+}
@@ -11,7 +11,6 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -21,15 +20,11 @@
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
-import org.opensearch.action.ActionListener;
 import org.opensearch.action.DocWriteRequest.OpType;
 import org.opensearch.action.admin.indices.delete.DeleteIndexRequest;
-import org.opensearch.action.bulk.BulkItemResponse;
 import org.opensearch.action.bulk.BulkRequest;
-import org.opensearch.action.bulk.BulkResponse;
 import org.opensearch.action.index.IndexRequest;
 import org.opensearch.action.support.master.AcknowledgedResponse;
-import org.opensearch.client.Cancellable;
 import org.opensearch.client.RequestOptions;
 import org.opensearch.client.Requests;
 import org.opensearch.client.RestClient;
@@ -54,6 +49,7 @@
 import iped.engine.config.ConfigurationManager;
 import iped.engine.config.ElasticSearchTaskConfig;
 import iped.engine.config.IndexTaskConfig;
+import iped.engine.core.ProcessingMetrics;
 import iped.engine.io.FragmentingReader;
 import iped.engine.task.AbstractTask;
 import iped.engine.task.MinIOTask.MinIODataRef;
@@ -95,6 +91,8 @@ public class ElasticSearchIndexTask extends AbstractTask {
 
     private static RestHighLevelClient client;
 
+    private static BulkIndexingPipeline pipeline;
+
     private static HashMap<String, String> cmdLineFields = new HashMap<>();
 
     private static List<ElasticSearchIndexTask> taskInstances = Collections.synchronizedList(new ArrayList<>());
@@ -105,16 +103,8 @@ public class ElasticSearchIndexTask extends AbstractTask {
 
     private HashMap<String, String> idToPath = new HashMap<>();
 
-    private int numRequests = 0;
-
-    private int retries;
-
-    private AtomicBoolean onCommit = new AtomicBoolean();
-
     private char[] textBuf = new char[16 * 1024];
 
-    private volatile IOException indexException = null;
-
     @Override
     public boolean isEnabled() {
         return isEnabled;
@@ -130,8 +120,6 @@ public void init(ConfigurationManager configurationManager) throws Exception {
         taskInstances.add(this);
         elasticConfig = configurationManager.findObject(ElasticSearchTaskConfig.class);
 
-        retries = elasticConfig.getRetries();
-
         if (!(isEnabled = elasticConfig.isEnabled())) {
             return;
         }
@@ -178,6 +166,19 @@ public HttpAsyncClientBuilder customizeHttpClient(HttpAsyncClientBuilder httpCli
 
         client = new RestHighLevelClient(clientBuilder);
 
+        // same max concurrency of the old per thread limit, but shared by all threads
+        int maxInFlight = elasticConfig.getMax_async_requests() * worker.manager.getNumWorkers();
+        pipeline = new BulkIndexingPipeline(client, maxInFlight, elasticConfig.getRetries(),
+                elasticConfig.getThrottledRetries(), elasticConfig.getRetryInitialBackoffMillis(),
+                elasticConfig.getRetryMaxBackoffMillis());
+        ProcessingMetrics metrics = ProcessingMetrics.get();
+        metrics.registerGauge("elastic.inFlightBulks", pipeline::getInFlight); //$NON-NLS-1$
+        metrics.registerGauge("elastic.pendingRetries", pipeline::getPendingRetries); //$NON-NLS-1$
+        metrics.registerGauge("elastic.indexedDocs", pipeline::getIndexedDocs); //$NON-NLS-1$
+        metrics.registerGauge("elastic.docsPerSecond", pipeline::getDocsPerSecond); //$NON-NLS-1$
+        metrics.registerGauge("elastic.bytesPerSecond", pipeline::getBytesPerSecond); //$NON-NLS-1$
+        metrics.registerGauge("elastic.throttledRetries", pipeline::getThrottled); //$NON-NLS-1$
+
         boolean ping = client.ping(RequestOptions.DEFAULT);
         if (!ping) {
             throw new IOException("ElasticSearch cluster at " + elasticConfig.getHost() + ":" + elasticConfig.getPort()
@@ -326,32 +327,24 @@ public static void commit() throws IOException, InterruptedException {
         UIPropertyListenerProvider.getInstance().firePropertyChange("mensagem", "", "Commiting to ElasticSearch...");
         for (ElasticSearchIndexTask instance : taskInstances) {
             LOGGER.info("Commiting Worker-" + instance.worker.id + " ElasticSearchTask..."); //$NON-NLS-1$ //$NON-NLS-2$
-            instance.onCommit.set(true);
             instance.sendBulkRequest();
         }
-        for (ElasticSearchIndexTask instance : taskInstances) {
-            synchronized (instance) {
-                while (instance.numRequests > 0) {
-                    instance.wait();
-                }
-                instance.onCommit.set(false);
-                instance.notifyAll();
-                if (instance.indexException != null) {
-                    throw instance.indexException;
-                }
-            }
-        }
-
+        // workers go on adding requests, just the ones sent above are waited for
+        pipeline.awaitSubmitted();
+        LOGGER.info("ElasticSearch indexing: " + pipeline.getStats()); //$NON-NLS-1$
     }
 
     @Override
     public void finish() throws Exception {
-        if (indexException != null) {
-            throw indexException;
+        if (pipeline != null && pipeline.getException() != null) {
+            throw pipeline.getException();
         }
         if (!taskInstances.isEmpty()) {
             commit();
             taskInstances.clear();
+            if (pipeline != null) {
+                pipeline.close();
+            }
             IOUtil.closeQuietly(client);
         }
     }
@@ -376,12 +369,12 @@ private IndexRequest createIndexRequest(String id, String route, XContentBuilder
     }
 
     @Override
-    protected synchronized void process(IItem item) throws Exception {
+    protected void process(IItem item) throws Exception {
 
         Reader textReader = null;
 
-        if (indexException != null) {
-            throw indexException;
+        if (pipeline.getException() != null) {
+            throw pipeline.getException();
         }
 
         if (!item.isToAddToCase()) {
@@ -418,8 +411,7 @@ protected synchronized void process(IItem item) throws Exception {
             // creates the father;
             XContentBuilder jsonMetadata = getJsonMetadataBuilder(item);
             IndexRequest parentIndexRequest = createIndexRequest(parentId, parentId, jsonMetadata);
-            bulkRequest.add(parentIndexRequest);
-            idToPath.put(parentId, item.getPath());
+            addRequest(parentIndexRequest, parentId, item.getPath());
 
             do {
                 // used for children items in elastic to store text content
@@ -432,22 +424,10 @@ protected synchronized void process(IItem item) throws Exception {
                 // creates the request
                 IndexRequest contentRequest = createIndexRequest(contenttrackID, parentId, jsonContent);
 
-                bulkRequest.add(contentRequest);
-
-                idToPath.put(contenttrackID, item.getPath());
+                addRequest(contentRequest, contenttrackID, item.getPath());
 
                 LOGGER.debug("Added to bulk request {}", item.getPath());
 
-                if (bulkRequest.estimatedSizeInBytes() >= elasticConfig.getMin_bulk_size()
-                        || bulkRequest.numberOfActions() >= elasticConfig.getMin_bulk_items()) {
-
-                    // do not send more requests while commit is going on
-                    while (this.onCommit.get()) {
-                        this.wait();
-                    }
-                    sendBulkRequest();
-                }
-
             } while (!Thread.currentThread().isInterrupted() && fragReader.nextFragment());
 
         } finally {
@@ -456,102 +436,33 @@ protected synchronized void process(IItem item) throws Exception {
 
     }
 
-    private synchronized void sendBulkRequest() throws IOException {
-        BulkRequest bulkRequest = this.bulkRequest;
-        HashMap<String, String> idToPath = this.idToPath;
-
-        this.bulkRequest = new BulkRequest();
-        this.idToPath = new HashMap<>();
-
-        if (bulkRequest.numberOfActions() == 0) {
-            return;
+    private void addRequest(IndexRequest request, String id, String path) throws IOException {
+        boolean full;
+        synchronized (this) {
+            bulkRequest.add(request);
+            idToPath.put(id, path);
+            full = bulkRequest.estimatedSizeInBytes() >= elasticConfig.getMin_bulk_size()
+                    || bulkRequest.numberOfActions() >= elasticConfig.getMin_bulk_items();
         }
-        try {
-            numRequests++;
-            while (numRequests > elasticConfig.getMax_async_requests()) {
-                this.wait();
-            }
-            Cancellable cancellable = client.bulkAsync(bulkRequest, RequestOptions.DEFAULT,
-                    new BulkResponseListener(idToPath, bulkRequest, retries));
-
-        } catch (Exception e) {
-            LOGGER.error("Error indexing to ElasticSearch " + bulkRequest.getDescription(), e);
-            throw new IOException("Error indexing to ElasticSearch" + bulkRequest.getDescription());
+        if (full) {
+            sendBulkRequest();
         }
     }
 
-    private class BulkResponseListener implements ActionListener<BulkResponse> {
-
-        HashMap<String, String> idPathMap;
+    /**
+     * Hands the pending requests of this worker to the pipeline. Just blocks if
+     * the in-flight window is full.
+     */
+    private void sendBulkRequest() throws IOException {
         BulkRequest bulkRequest;
-        int retries_left;
-        private BulkResponseListener(HashMap<String, String> itemMap, BulkRequest bulkRequest, int retries) {
-            this.idPathMap = itemMap;
-            this.bulkRequest = bulkRequest;
-            this.retries_left = retries;
-        }
-
-        private void retryOrError(IOException temp) {
-            if (temp != null) {
-                if (retries_left > 0 | retries_left == -1) {
-                    if (retries_left > 0) {
-                        retries_left--;
-                    }
-                    Cancellable cancellable = client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, this);
-                } else {
-                    notifyWaitingRequests();
-                    indexException = temp;
-                }
-            } else {
-                notifyWaitingRequests();
-            }
-        }
-
-        @Override
-        public void onResponse(BulkResponse response) {
-
-            IOException temp = null;
-            for (BulkItemResponse bulkItemResponse : response) {
-                if (bulkItemResponse.isFailed()) {
-                    BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
-                    String path = idPathMap.get(bulkItemResponse.getId());
-                    String msg = failure.getMessage();
-
-                    // Some documents probable have already been indexed in previous attempts
-                    if (msg.contains("document already exists")) {
-                        LOGGER.warn("Elastic failure result {}: {}", path, msg);
-                        continue;
-                    }
-
-                    LOGGER.error("Elastic failure result {}: {}", path, msg); //$NON-NLS-1$
-
-                    temp = new IOException(String.format("Elastic failure result {}: {}", path, msg));
-
-                    break;
-
-                } else {
-                    LOGGER.debug("Elastic result {} {}", bulkItemResponse.getResponse().getResult(),
-                            idPathMap.get(bulkItemResponse.getId()));
-                }
-            }
-
-            retryOrError(temp);
-
-        }
-
-        @Override
-        public void onFailure(Exception e) {
-            LOGGER.error("Error indexing to ElasticSearch ", e);
-            retryOrError(new IOException("Error indexing to ElasticSearch ", e));
-        }
-
-        private void notifyWaitingRequests() {
-            synchronized (ElasticSearchIndexTask.this) {
-                numRequests--;
-                ElasticSearchIndexTask.this.notifyAll();
-            }
-        }
-
+        HashMap<String, String> idToPath;
+        synchronized (this) {
+            bulkRequest = this.bulkRequest;
+            idToPath = this.idToPath;
+            this.bulkRequest = new BulkRequest();
+            this.idToPath = new HashMap<>();
+        }
+        pipeline.submit(bulkRequest, idToPath);
     }
 
     public static final int[] convArrayListLongToInt(List<Long> nd) {
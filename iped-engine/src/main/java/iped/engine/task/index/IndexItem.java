@@ -85,6 +85,7 @@
 import iped.engine.task.ImageThumbTask;
 import iped.engine.task.MinIOTask.MinIOInputInputStreamFactory;
 import iped.engine.task.ThumbTask;
+import iped.engine.task.similarity.ImageSimilarity;
 import iped.engine.task.similarity.ImageSimilarityTask;
 import iped.engine.task.video.VideoThumbTask;
 import iped.engine.util.Util;
@@ -120,7 +121,7 @@ public class IndexItem extends BasicProps {
 
     private static final String NEW_DATASOURCE_PATH_FILE = "data/newDataSourceLocations.txt";
 
-    private static final int MAX_DOCVALUE_SIZE = 4096;
+    public static final int MAX_DOCVALUE_SIZE = 4096;
 
     public static final char EVENT_IDX_SEPARATOR = ';';
     public static final char EVENT_IDX_SEPARATOR2 = ',';
@@ -464,6 +465,8 @@ public static Document Document(IItem evidence, File output) {
             doc.add(new StoredField(ImageSimilarityTask.IMAGE_FEATURES, similarityFeatures));
             doc.add(new IntPoint(ImageSimilarityTask.IMAGE_FEATURES, similarityFeatures[0], similarityFeatures[1],
                     similarityFeatures[2], similarityFeatures[3]));
+            doc.add(new KnnVectorField(ImageSimilarityTask.IMAGE_FEATURES_KNN,
+                    ImageSimilarity.getKnnVector(similarityFeatures)));
         }
 
         long off = evidence.getFileOffset();
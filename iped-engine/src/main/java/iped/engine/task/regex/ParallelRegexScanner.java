@@ -0,0 +1,199 @@
+package iped.engine.task.regex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import dk.brics.automaton.RunAutomaton;
+import iped.engine.task.regex.RegexTask.Regex;
+
+/**
+ * Finds the matches of the union automaton of all regexes in a text splitting
+ * it into chunks scanned in parallel. Each chunk scan looks for matches starting
+ * inside the chunk, but matches may extend over the next chunks (chunks overlap
+ * as needed). Then matches of each chunk are confirmed against each regex
+ * automaton, only in the matched range.
+ *
+ * Results are exactly the same of a sequential scan with
+ * {@link dk.brics.automaton.AutomatonMatcher#find()}: leftmost longest, non
+ * overlapping matches. Chunk scans assume a sequential scan would restart at
+ * the chunk beginning. When a previous chunk match crosses the chunk boundary,
+ * the sequential scan is resumed from that match end until it finds a match
+ * also found by the chunk scan, from where both are equal.
+ */
+class ParallelRegexScanner {
+
+    // min number of chars of each chunk
+    static final int MIN_CHUNK_LEN = 1 << 16;
+
+    private static ExecutorService executor;
+
+    private final Regex regexFull;
+    private final List<Regex> regexList;
+    private final int numThreads;
+
+    static class Match {
+
+        final int start, end;
+
+        /**
+         * indexes of regexes matching exactly [start, end)
+         */
+        int[] regexes;
+
+        private Match(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    ParallelRegexScanner(Regex regexFull, List<Regex> regexList, int numThreads) {
+        this.regexFull = regexFull;
+        this.regexList = regexList;
+        this.numThreads = numThreads;
+    }
+
+    private static synchronized ExecutorService getExecutor(int numThreads) {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread t = new Thread(r, "RegexScanThread"); //$NON-NLS-1$
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * @return true if the text is large enough to be split.
+     */
+    boolean isParallelizable(int len) {
+        // empty matches are handled by AutomatonMatcher in a special way
+        return numThreads > 1 && len >= 2 * MIN_CHUNK_LEN
+                && !regexFull.pattern.isAccept(regexFull.pattern.getInitialState());
+    }
+
+    /**
+     * Finds all matches in text[0, len), with regexes already confirmed.
+     */
+    List<Match> scan(char[] text, int len) throws InterruptedException, ExecutionException {
+        int numChunks = Math.min(numThreads, len / MIN_CHUNK_LEN);
+        int[] bounds = new int[numChunks + 1];
+        for (int i = 0; i <= numChunks; i++) {
+            bounds[i] = (int) ((long) len * i / numChunks);
+        }
+
+        List<Future<List<Match>>> futures = new ArrayList<>();
+        for (int i = 1; i < numChunks; i++) {
+            int from = bounds[i], to = bounds[i + 1];
+            futures.add(getExecutor(numThreads).submit(() -> scanChunk(text, len, from, to)));
+        }
+        List<List<Match>> chunks = new ArrayList<>();
+        try {
+            chunks.add(scanChunk(text, len, bounds[0], bounds[1]));
+            for (Future<List<Match>> future : futures) {
+                chunks.add(future.get());
+            }
+        } finally {
+            for (Future<List<Match>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        List<Match> result = new ArrayList<>();
+        // position where a sequential scan would resume
+        int next = 0;
+        for (int k = 0; k < numChunks; k++) {
+            List<Match> chunk = chunks.get(k);
+            int limit = bounds[k + 1];
+            int j = 0;
+            while (next > bounds[k]) {
+                Match m = findNext(text, len, next, limit);
+                if (m == null) {
+                    j = chunk.size();
+                    break;
+                }
+                while (j < chunk.size() && chunk.get(j).start < m.start) {
+                    j++;
+                }
+                if (j < chunk.size() && chunk.get(j).start == m.start) {
+                    // synchronized with chunk scan
+                    break;
+                }
+                confirm(text, m);
+                result.add(m);
+                next = m.end;
+            }
+            for (; j < chunk.size(); j++) {
+                Match m = chunk.get(j);
+                result.add(m);
+                next = m.end;
+            }
+            next = Math.max(next, limit);
+        }
+        return result;
+    }
+
+    private List<Match> scanChunk(char[] text, int len, int from, int to) {
+        List<Match> matches = new ArrayList<>();
+        Match m;
+        int begin = from;
+        while ((m = findNext(text, len, begin, to)) != null) {
+            confirm(text, m);
+            matches.add(m);
+            begin = m.end;
+        }
+        return matches;
+    }
+
+    /**
+     * Same logic of AutomatonMatcher.find(), but just looking for matches
+     * starting before the limit.
+     */
+    private Match findNext(char[] text, int len, int begin, int startLimit) {
+        RunAutomaton automaton = regexFull.pattern;
+        for (; begin < startLimit; begin++) {
+            int p = automaton.getInitialState();
+            int end = -1;
+            for (int i = begin; i < len; i++) {
+                p = automaton.step(p, text[i]);
+                if (p == -1) {
+                    break;
+                } else if (automaton.isAccept(p)) {
+                    end = i + 1;
+                }
+            }
+            if (end != -1) {
+                return new Match(begin, end);
+            }
+        }
+        return null;
+    }
+
+    private void confirm(char[] text, Match m) {
+        int[] regexes = new int[regexList.size()];
+        int cnt = 0;
+        for (int i = 0; i < regexList.size(); i++) {
+            if (run(regexList.get(i).pattern, text, m.start, m.end)) {
+                regexes[cnt++] = i;
+            }
+        }
+        m.regexes = cnt == regexes.length ? regexes : Arrays.copyOf(regexes, cnt);
+    }
+
+    private static boolean run(RunAutomaton automaton, char[] text, int start, int end) {
+        int p = automaton.getInitialState();
+        for (int i = start; i < end; i++) {
+            p = automaton.step(p, text[i]);
+            if (p == -1) {
+                return false;
+            }
+        }
+        return automaton.isAccept(p);
+    }
+
+}
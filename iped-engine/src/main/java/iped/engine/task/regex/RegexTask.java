@@ -21,6 +21,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.nustaq.serialization.FSTConfiguration;
@@ -93,6 +94,8 @@ public class RegexTask extends AbstractTask {
 
     private RegexTaskConfig regexConfig;
 
+    private ParallelRegexScanner parallelScanner;
+
     static class Regex implements Serializable {
 
         /**
@@ -215,6 +218,14 @@ public void init(ConfigurationManager configurationManager) throws Exception {
             initValidators(new File(output, "scripts"));
         }
 
+        if (regexConfig.isEnabled()) {
+            int threads = regexConfig.getParallelScanThreads();
+            if (threads <= 0) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            parallelScanner = new ParallelRegexScanner(regexFull, regexList, threads);
+        }
+
     }
 
     private void writeCache(RegexTaskConfig regexConfig, ExportByKeywordsConfig exportConfig) throws IOException {
@@ -318,38 +329,41 @@ private void processRegex(IItem evidence, Reader reader) throws IOException {
             while (k != -1 && (off += k) < cbuf.length)
                 k = reader.read(cbuf, off, cbuf.length - off);
 
-            String text = new String(cbuf, 0, off);
-
             List<Map<String, RegexHits>> hitList = new ArrayList<Map<String, RegexHits>>();
             for (int i = 0; i < regexList.size(); i++) {
                 hitList.add(new HashMap<>());
             }
 
-            AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
-            while (fullMatcher.find()) {
-                int start = fullMatcher.start();
-                int end = fullMatcher.end();
-                String fullHit = text.substring(start, end);
-                int i = 0;
-                for (Regex regex : regexList) {
-                    if (regex.pattern.run(fullHit)) {
-                        String hit = fullHit.substring(regex.prefix, fullHit.length() - regex.sufix);
-                        if (regex.ignoreCases)
-                            hit = hit.toLowerCase();
-                        if (regexValidator.validate(regex, hit)) {
-                            if (regexConfig.isFormatRegexMatches()) {
-                                hit = regexValidator.format(regex, hit);
-                            }
-                            Map<String, RegexHits> hitMap = hitList.get(i);
-                            RegexHits hits = hitMap.get(hit);
-                            if (hits == null) {
-                                hits = new RegexHits(hit);
-                                hitMap.put(hit, hits);
-                            }
-                            hits.addOffset(totalOffset + start + regex.prefix);
+            if (parallelScanner.isParallelizable(off)) {
+                List<ParallelRegexScanner.Match> matches;
+                try {
+                    matches = parallelScanner.scan(cbuf, off);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+                for (ParallelRegexScanner.Match match : matches) {
+                    String fullHit = new String(cbuf, match.start, match.end - match.start);
+                    for (int i : match.regexes) {
+                        addHit(hitList, i, fullHit, totalOffset + match.start);
+                    }
+                }
+            } else {
+                String text = new String(cbuf, 0, off);
+                AutomatonMatcher fullMatcher = regexFull.pattern.newMatcher(text);
+                while (fullMatcher.find()) {
+                    int start = fullMatcher.start();
+                    int end = fullMatcher.end();
+                    String fullHit = text.substring(start, end);
+                    int i = 0;
+                    for (Regex regex : regexList) {
+                        if (regex.pattern.run(fullHit)) {
+                            addHit(hitList, i, fullHit, totalOffset + start);
                         }
+                        i++;
                     }
-                    i++;
                 }
             }
             for (int i = 0; i < regexList.size(); i++) {
@@ -383,4 +397,23 @@ private void processRegex(IItem evidence, Reader reader) throws IOException {
         }
     }
 
+    private void addHit(List<Map<String, RegexHits>> hitList, int regexIdx, String fullHit, long fullHitOffset) {
+        Regex regex = regexList.get(regexIdx);
+        String hit = fullHit.substring(regex.prefix, fullHit.length() - regex.sufix);
+        if (regex.ignoreCases)
+            hit = hit.toLowerCase();
+        if (regexValidator.validate(regex, hit)) {
+            if (regexConfig.isFormatRegexMatches()) {
+                hit = regexValidator.format(regex, hit);
+            }
+            Map<String, RegexHits> hitMap = hitList.get(regexIdx);
+            RegexHits hits = hitMap.get(hit);
+            if (hits == null) {
+                hits = new RegexHits(hit);
+                hitMap.put(hit, hits);
+            }
+            hits.addOffset(fullHitOffset + regex.prefix);
+        }
+    }
+
 }
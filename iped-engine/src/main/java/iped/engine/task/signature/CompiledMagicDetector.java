@@ -0,0 +1,756 @@
+package iped.engine.task.signature;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.CharArrayWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+import org.apache.tika.mime.MimeTypesFactory;
+import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Detects media types using the magic rules of tika-mimetypes.xml and the
+ * custom signature files, compiled once into lookup tables, and falls back to a
+ * Tika detector when the result could differ from Tika's.
+ * <p>
+ * Matches at a fixed offset are indexed by offset and first byte, matches in an
+ * offset range without masks are searched by a single Aho-Corasick automaton
+ * over the header, and only the remaining ones (regexes, masked or case
+ * insensitive ranges) are evaluated one by one, and just when needed by a rule
+ * which may match. Matches follow the same semantics of Tika's MagicDetector.
+ * <p>
+ * The compiled result is used only if the highest priority matching rules have
+ * a single type, without subtypes, and no rule of types refined by other Tika
+ * detectors (XML, text and containers like ZIP, OLE or SQLite) matched, so
+ * resource names and container detectors could not change it. Otherwise the
+ * item is detected by the fallback detector.
+ */
+public class CompiledMagicDetector implements Detector {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Header length read by Tika's MimeTypes, magics beyond it never match.
+     */
+    public static final int HEADER_LEN = 64 * 1024;
+
+    private static final int DEFAULT_PRIORITY = 50;
+
+    private static final int REGEX_WINDOW = 8 * 1024;
+
+    /**
+     * Types, and their subtypes, whose detection is delegated, because Tika's
+     * MimeTypes refines them by XML root elements or text detection, or other
+     * detectors (container, archive, compressor, SQLite, plist and MP4
+     * detectors) may return a different type.
+     */
+    private static final String[] DELEGATED_TYPES = { "application/xml", "text/html", "text/plain", //$NON-NLS-1$
+            "application/zip", "application/x-tika-msoffice", "application/x-tika-ooxml", //$NON-NLS-1$
+            "application/x-sqlite3", "application/x-bplist", "application/x-plist", "video/mp4", "audio/mp4", //$NON-NLS-1$
+            "application/mp4", "video/quicktime", "application/ogg", "audio/ogg", "video/ogg", //$NON-NLS-1$
+            "video/x-matroska", "video/webm", "application/gzip", "application/x-bzip2", "application/x-xz", //$NON-NLS-1$
+            "application/x-lzma", "application/x-compress", "application/x-tar", "application/x-7z-compressed", //$NON-NLS-1$
+            "application/x-cpio", "application/x-archive", "application/x-arj", "application/zstd" }; //$NON-NLS-1$
+
+    private static final byte UNKNOWN = 0, FALSE = 1, TRUE = 2;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private final Detector fallback;
+
+    private final Match[] leaves;
+    private final byte[] initialStates;
+    private final int paddedLen;
+
+    // fixed offset matches, by offset and first byte
+    private final int[] fixedOffsets;
+    private final int[][][] fixedIndex;
+
+    // offset range matches without mask
+    private final CompiledAhoCorasick rangeTree;
+    private final int maxRangeLen;
+    private final int rangeScanEnd;
+
+    private final Rule[][] rulesByAnchor;
+    private final Rule[] alwaysEvaluated;
+
+    private final ThreadLocal<Evaluation> evaluations;
+
+    private final LongAdder compiledDetections = new LongAdder();
+    private final LongAdder fallbackDetections = new LongAdder();
+
+    abstract static class Clause {
+    }
+
+    static final class Match extends Clause {
+        int id;
+        int start, end;
+        int length;
+        byte[] pattern, mask;
+        boolean regex, ignoreCase;
+        Pattern compiled;
+        Clause and;
+
+        boolean isFixed() {
+            return !regex && start == end;
+        }
+
+        boolean isPlainRange() {
+            if (regex || ignoreCase || start == end || length == 0) {
+                return false;
+            }
+            boolean zeros = true;
+            for (int i = 0; i < length; i++) {
+                if (mask[i] != -1) {
+                    return false;
+                }
+                zeros &= pattern[i] == 0;
+            }
+            // all zeros patterns may match in the zero padding after the data
+            return !zeros;
+        }
+
+        boolean firstByteMatches(int b) {
+            int masked = b & mask[0];
+            if (ignoreCase) {
+                masked = Character.toLowerCase(masked);
+            }
+            return masked == pattern[0];
+        }
+
+        /**
+         * Same semantics of Tika's MagicDetector, data is padded with zeros after
+         * avail bytes.
+         */
+        boolean matches(byte[] data, int avail) {
+            if (regex) {
+                if (avail < start) {
+                    return false;
+                }
+                Matcher m = compiled.matcher(new Latin1Chars(data, start, length + end - start));
+                for (int i = 0; i <= end - start; i++) {
+                    m.region(i, length + i);
+                    if (m.lookingAt()) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (avail < start + length) {
+                return false;
+            }
+            for (int i = start; i <= end; i++) {
+                if (matchesAt(data, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matchesAt(byte[] data, int off) {
+            for (int j = 0; j < length; j++) {
+                int masked = data[off + j] & mask[j];
+                if (ignoreCase) {
+                    masked = Character.toLowerCase(masked);
+                }
+                if (masked != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    static final class Or extends Clause {
+        Clause[] clauses;
+    }
+
+    static final class MinShouldMatch extends Clause {
+        int min;
+        Clause[] clauses;
+    }
+
+    static final class Rule {
+        MediaType type;
+        int priority;
+        Clause clause;
+        boolean delegated;
+        boolean hasSubtypes;
+    }
+
+    private static final class Latin1Chars implements CharSequence {
+
+        private final byte[] data;
+        private final int off, len;
+
+        private Latin1Chars(byte[] data, int off, int len) {
+            this.data = data;
+            this.off = off;
+            this.len = len;
+        }
+
+        @Override
+        public int length() {
+            return len;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (data[off + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Latin1Chars(data, off + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, off, len, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private final class Evaluation {
+        final byte[] data = new byte[paddedLen];
+        final byte[] states = new byte[leaves.length];
+        final List<Rule> candidates = new ArrayList<>();
+        int prevAvail = 0;
+        int avail;
+
+        final CompiledAhoCorasick.MatchCallback rangeCallback = (output, end) -> {
+            Match leaf = leaves[(Integer) rangeTree.getOutput(output)];
+            int start = end - leaf.length;
+            if (start >= leaf.start && start <= leaf.end && avail >= leaf.start + leaf.length) {
+                setTrue(leaf);
+            }
+        };
+
+        void setTrue(Match leaf) {
+            if (states[leaf.id] != TRUE) {
+                states[leaf.id] = TRUE;
+                for (Rule rule : rulesByAnchor[leaf.id]) {
+                    candidates.add(rule);
+                }
+            }
+        }
+
+        boolean eval(Clause clause) {
+            if (clause instanceof Match) {
+                Match match = (Match) clause;
+                byte state = states[match.id];
+                if (state == UNKNOWN) {
+                    state = match.matches(data, avail) ? TRUE : FALSE;
+                    states[match.id] = state;
+                }
+                return state == TRUE && (match.and == null || eval(match.and));
+            }
+            if (clause instanceof Or) {
+                for (Clause c : ((Or) clause).clauses) {
+                    if (eval(c)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            MinShouldMatch msm = (MinShouldMatch) clause;
+            int count = 0;
+            for (Clause c : msm.clauses) {
+                if (eval(c) && ++count >= msm.min) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Compiles the magic rules of tika-mimetypes.xml, of custom-mimetypes.xml
+     * resources and of the file configured by
+     * {@link MimeTypesFactory#CUSTOM_MIMES_SYS_PROP}, in this order, like Tika.
+     *
+     * @param fallback
+     *            detector used when the compiled result could differ from it
+     */
+    public static CompiledMagicDetector create(Detector fallback, MediaTypeRegistry registry) throws Exception {
+        List<Object> sources = new ArrayList<>();
+        ClassLoader cl = MimeTypes.class.getClassLoader();
+        sources.add(MimeTypes.class.getResource("tika-mimetypes.xml")); //$NON-NLS-1$
+        Enumeration<URL> customs = cl.getResources("org/apache/tika/mime/custom-mimetypes.xml"); //$NON-NLS-1$
+        sources.addAll(Collections.list(customs));
+        String customFile = System.getProperty(MimeTypesFactory.CUSTOM_MIMES_SYS_PROP);
+        if (customFile != null) {
+            sources.add(new File(customFile));
+        }
+        return new CompiledMagicDetector(fallback, registry, sources);
+    }
+
+    CompiledMagicDetector(Detector fallback, MediaTypeRegistry registry, List<Object> sources) throws Exception {
+        this.fallback = fallback;
+
+        List<Rule> rules = new ArrayList<>();
+        List<Match> leafList = new ArrayList<>();
+        Set<MediaType> types = new HashSet<>();
+        for (Object source : sources) {
+            readRules(source, registry, rules, leafList, types);
+        }
+        this.leaves = leafList.toArray(new Match[0]);
+
+        // types with subtypes may be specialized by resource names
+        Set<MediaType> parents = new HashSet<>();
+        for (MediaType type : types) {
+            MediaType parent = type;
+            while ((parent = registry.getSupertype(parent)) != null && parents.add(parent)) {
+                // walk up
+            }
+        }
+        List<MediaType> delegatedTypes = new ArrayList<>();
+        for (String type : DELEGATED_TYPES) {
+            delegatedTypes.add(registry.normalize(MediaType.parse(type)));
+        }
+        for (Rule rule : rules) {
+            rule.hasSubtypes = parents.contains(rule.type);
+            for (MediaType delegated : delegatedTypes) {
+                if (rule.type.equals(delegated) || registry.isSpecializationOf(rule.type, delegated)) {
+                    rule.delegated = true;
+                    break;
+                }
+            }
+        }
+
+        // index matches
+        int maxEnd = HEADER_LEN;
+        int maxLen = 0, scanEnd = 0;
+        TreeMap<Integer, List<List<Integer>>> fixed = new TreeMap<>();
+        AhoCorasick builder = new AhoCorasick();
+        boolean hasRanges = false;
+        initialStates = new byte[leaves.length];
+        for (Match leaf : leaves) {
+            maxEnd = Math.max(maxEnd, leaf.end + leaf.length);
+            if (leaf.isFixed() && leaf.length > 0) {
+                List<List<Integer>> byByte = fixed.computeIfAbsent(leaf.start, k -> {
+                    List<List<Integer>> l = new ArrayList<>();
+                    for (int b = 0; b < 256; b++) {
+                        l.add(new ArrayList<>());
+                    }
+                    return l;
+                });
+                for (int b = 0; b < 256; b++) {
+                    if (leaf.firstByteMatches(b)) {
+                        byByte.get(b).add(leaf.id);
+                    }
+                }
+                initialStates[leaf.id] = FALSE;
+            } else if (leaf.isPlainRange()) {
+                builder.add(Arrays.copyOf(leaf.pattern, leaf.length), Integer.valueOf(leaf.id));
+                maxLen = Math.max(maxLen, leaf.length);
+                scanEnd = Math.max(scanEnd, leaf.end + leaf.length);
+                hasRanges = true;
+                initialStates[leaf.id] = FALSE;
+            } else {
+                initialStates[leaf.id] = UNKNOWN;
+            }
+        }
+        this.paddedLen = maxEnd;
+        this.fixedOffsets = new int[fixed.size()];
+        this.fixedIndex = new int[fixed.size()][][];
+        int k = 0;
+        for (Map.Entry<Integer, List<List<Integer>>> entry : fixed.entrySet()) {
+            fixedOffsets[k] = entry.getKey();
+            fixedIndex[k] = new int[256][];
+            for (int b = 0; b < 256; b++) {
+                List<Integer> ids = entry.getValue().get(b);
+                fixedIndex[k][b] = ids.isEmpty() ? NO_IDS : ids.stream().mapToInt(Integer::intValue).toArray();
+            }
+            k++;
+        }
+        if (hasRanges) {
+            builder.prepare();
+            this.rangeTree = builder.compile();
+        } else {
+            this.rangeTree = null;
+        }
+        this.maxRangeLen = maxLen;
+        this.rangeScanEnd = scanEnd;
+
+        // rules anchored by a match indexed above are evaluated only if it matches
+        List<List<Rule>> byAnchor = new ArrayList<>();
+        for (int i = 0; i < leaves.length; i++) {
+            byAnchor.add(new ArrayList<>());
+        }
+        List<Rule> always = new ArrayList<>();
+        for (Rule rule : rules) {
+            if (rule.clause instanceof Match && initialStates[((Match) rule.clause).id] == FALSE) {
+                byAnchor.get(((Match) rule.clause).id).add(rule);
+            } else {
+                always.add(rule);
+            }
+        }
+        this.rulesByAnchor = new Rule[leaves.length][];
+        for (int i = 0; i < leaves.length; i++) {
+            rulesByAnchor[i] = byAnchor.get(i).toArray(new Rule[0]);
+        }
+        this.alwaysEvaluated = always.toArray(new Rule[0]);
+        this.evaluations = ThreadLocal.withInitial(Evaluation::new);
+    }
+
+    public int getNumRules() {
+        int n = alwaysEvaluated.length;
+        for (Rule[] rules : rulesByAnchor) {
+            n += rules.length;
+        }
+        return n;
+    }
+
+    public long getCompiledDetections() {
+        return compiledDetections.sum();
+    }
+
+    public long getFallbackDetections() {
+        return fallbackDetections.sum();
+    }
+
+    @Override
+    public MediaType detect(InputStream input, Metadata metadata) throws IOException {
+        if (input != null) {
+            Evaluation ev = evaluations.get();
+            input.mark(HEADER_LEN);
+            int n;
+            try {
+                n = readFully(input, ev.data, HEADER_LEN);
+            } finally {
+                input.reset();
+            }
+            MediaType type = detect(ev, n);
+            if (type != null) {
+                compiledDetections.increment();
+                return type;
+            }
+        }
+        fallbackDetections.increment();
+        return fallback.detect(input, metadata);
+    }
+
+    /**
+     * @return the type detected from the header, or null if the fallback detector
+     *         must be used.
+     */
+    public MediaType detect(byte[] header, int len) {
+        Evaluation ev = evaluations.get();
+        len = Math.min(len, HEADER_LEN);
+        System.arraycopy(header, 0, ev.data, 0, len);
+        return detect(ev, len);
+    }
+
+    private MediaType detect(Evaluation ev, int avail) {
+        if (avail <= 0) {
+            return null;
+        }
+        byte[] data = ev.data;
+        if (ev.prevAvail > avail) {
+            Arrays.fill(data, avail, ev.prevAvail, (byte) 0);
+        }
+        ev.prevAvail = avail;
+        ev.avail = avail;
+        System.arraycopy(initialStates, 0, ev.states, 0, initialStates.length);
+        ev.candidates.clear();
+
+        for (int k = 0; k < fixedOffsets.length && fixedOffsets[k] < avail; k++) {
+            for (int id : fixedIndex[k][data[fixedOffsets[k]] & 0xFF]) {
+                Match leaf = leaves[id];
+                if (avail >= leaf.start + leaf.length && leaf.matchesAt(data, leaf.start)) {
+                    ev.setTrue(leaf);
+                }
+            }
+        }
+        if (rangeTree != null) {
+            int end = Math.min(rangeScanEnd, avail + maxRangeLen);
+            rangeTree.search(data, 0, end, rangeTree.getInitialState(), ev.rangeCallback);
+        }
+
+        MediaType best = null;
+        int bestPriority = -1;
+        boolean ambiguous = false, bestHasSubtypes = false;
+        // all rules are evaluated, other detectors don't care about magic priorities
+        for (int i = 0, size = ev.candidates.size(); i < size + alwaysEvaluated.length; i++) {
+            Rule rule = i < size ? ev.candidates.get(i) : alwaysEvaluated[i - size];
+            if (!ev.eval(rule.clause)) {
+                continue;
+            }
+            if (rule.delegated) {
+                return null;
+            }
+            if (rule.priority < bestPriority) {
+                continue;
+            }
+            if (rule.priority > bestPriority) {
+                best = rule.type;
+                bestPriority = rule.priority;
+                bestHasSubtypes = rule.hasSubtypes;
+                ambiguous = false;
+            } else if (!rule.type.equals(best)) {
+                ambiguous = true;
+            }
+        }
+        if (best == null || ambiguous || bestHasSubtypes) {
+            return null;
+        }
+        return best;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int len) throws IOException {
+        int off = 0, n;
+        while (off < len && (n = in.read(buf, off, len - off)) != -1) {
+            off += n;
+        }
+        return off;
+    }
+
+    private static void readRules(Object source, MediaTypeRegistry registry, List<Rule> rules, List<Match> leaves,
+            Set<MediaType> types) throws Exception {
+        if (source == null) {
+            return;
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false); //$NON-NLS-1$
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Element root;
+        if (source instanceof URL) {
+            try (InputStream is = ((URL) source).openStream()) {
+                root = builder.parse(is).getDocumentElement();
+            }
+        } else {
+            root = builder.parse((File) source).getDocumentElement();
+        }
+        for (Element mimeType : children(root, "mime-type")) { //$NON-NLS-1$
+            MediaType type = MediaType.parse(mimeType.getAttribute("type")); //$NON-NLS-1$
+            if (type == null) {
+                continue;
+            }
+            type = registry.normalize(type);
+            types.add(type);
+            for (Element magic : children(mimeType, "magic")) { //$NON-NLS-1$
+                String priority = magic.getAttribute("priority"); //$NON-NLS-1$
+                // like Tika, each top level match is a separate magic
+                for (Element match : children(magic, "match")) { //$NON-NLS-1$
+                    Clause clause = readClause(match, leaves);
+                    if (clause != null) {
+                        Rule rule = new Rule();
+                        rule.type = type;
+                        rule.priority = priority.isEmpty() ? DEFAULT_PRIORITY : Integer.parseInt(priority);
+                        rule.clause = clause;
+                        rules.add(rule);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Clause readClause(Element element, List<Match> leaves) {
+        List<Clause> subclauses = new ArrayList<>();
+        for (Element child : children(element, "match")) { //$NON-NLS-1$
+            Clause sub = readClause(child, leaves);
+            if (sub != null) {
+                subclauses.add(sub);
+            }
+        }
+        String minShouldMatch = element.getAttribute("minShouldMatch"); //$NON-NLS-1$
+        if (!minShouldMatch.isEmpty()) {
+            MinShouldMatch msm = new MinShouldMatch();
+            msm.min = Integer.parseInt(minShouldMatch);
+            msm.clauses = subclauses.toArray(new Clause[0]);
+            return msm;
+        }
+        if (!element.hasAttribute("value")) { //$NON-NLS-1$
+            return null;
+        }
+        String kind = element.getAttribute("type"); //$NON-NLS-1$
+        if (kind.isEmpty()) {
+            kind = "string"; //$NON-NLS-1$
+        }
+        Match match = new Match();
+        String offset = element.getAttribute("offset"); //$NON-NLS-1$
+        if (!offset.isEmpty()) {
+            int colon = offset.indexOf(':');
+            if (colon == -1) {
+                match.start = match.end = Integer.parseInt(offset);
+            } else {
+                match.start = Integer.parseInt(offset.substring(0, colon));
+                match.end = Integer.parseInt(offset.substring(colon + 1));
+            }
+        }
+        byte[] pattern = decodeValue(element.getAttribute("value"), kind); //$NON-NLS-1$
+        byte[] mask = element.hasAttribute("mask") ? decodeValue(element.getAttribute("mask"), kind) : null; //$NON-NLS-1$ //$NON-NLS-2$
+        if (pattern == null) {
+            return null;
+        }
+        match.regex = kind.equals("regex"); //$NON-NLS-1$
+        match.ignoreCase = kind.equals("stringignorecase"); //$NON-NLS-1$
+        int patternLength = Math.max(pattern.length, mask != null ? mask.length : 0);
+        match.length = match.regex ? REGEX_WINDOW : patternLength;
+        match.mask = new byte[patternLength];
+        match.pattern = new byte[patternLength];
+        for (int i = 0; i < patternLength; i++) {
+            match.mask[i] = mask != null && i < mask.length ? mask[i] : -1;
+            match.pattern[i] = i < pattern.length ? (byte) (pattern[i] & match.mask[i]) : 0;
+        }
+        if (match.regex) {
+            match.compiled = Pattern.compile(new String(match.pattern, StandardCharsets.UTF_8),
+                    match.ignoreCase ? Pattern.CASE_INSENSITIVE : 0);
+        }
+        match.id = leaves.size();
+        leaves.add(match);
+
+        if (!subclauses.isEmpty()) {
+            if (subclauses.size() == 1) {
+                match.and = subclauses.get(0);
+            } else {
+                Or or = new Or();
+                or.clauses = subclauses.toArray(new Clause[0]);
+                match.and = or;
+            }
+        }
+        return match;
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> result = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && name.equals(node.getNodeName())) {
+                result.add((Element) node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same decoding of Tika's MagicDetector.
+     */
+    static byte[] decodeValue(String value, String type) {
+        int radix = 8;
+        int start = 0;
+        if (value.startsWith("0x")) { //$NON-NLS-1$
+            start = 2;
+            radix = 16;
+        }
+        switch (type) {
+            case "host16": //$NON-NLS-1$
+            case "little16": { //$NON-NLS-1$
+                int i = Integer.parseInt(value.substring(start), radix);
+                return new byte[] { (byte) (i & 0xFF), (byte) (i >> 8) };
+            }
+            case "big16": { //$NON-NLS-1$
+                int i = Integer.parseInt(value.substring(start), radix);
+                return new byte[] { (byte) (i >> 8), (byte) (i & 0xFF) };
+            }
+            case "host32": //$NON-NLS-1$
+            case "little32": { //$NON-NLS-1$
+                long i = Long.parseLong(value.substring(start), radix);
+                return new byte[] { (byte) (i & 0xFF), (byte) ((i & 0xFF00) >> 8), (byte) ((i & 0xFF0000) >> 16),
+                        (byte) ((i & 0xFF000000L) >> 24) };
+            }
+            case "big32": { //$NON-NLS-1$
+                long i = Long.parseLong(value.substring(start), radix);
+                return new byte[] { (byte) ((i & 0xFF000000L) >> 24), (byte) ((i & 0xFF0000) >> 16),
+                        (byte) ((i & 0xFF00) >> 8), (byte) (i & 0xFF) };
+            }
+            case "string": //$NON-NLS-1$
+            case "regex": //$NON-NLS-1$
+            case "unicodeLE": //$NON-NLS-1$
+            case "unicodeBE": //$NON-NLS-1$
+            case "byte": //$NON-NLS-1$
+                return decodeString(value, type);
+            case "stringignorecase": //$NON-NLS-1$
+                return decodeString(value.toLowerCase(Locale.ROOT), type);
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] decodeString(String value, String type) {
+        if (value.startsWith("0x")) { //$NON-NLS-1$
+            byte[] vals = new byte[(value.length() - 2) / 2];
+            for (int i = 0; i < vals.length; i++) {
+                vals[i] = (byte) Integer.parseInt(value.substring(2 + i * 2, 4 + i * 2), 16);
+            }
+            return vals;
+        }
+        CharArrayWriter decoded = new CharArrayWriter();
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '\\') {
+                if (value.charAt(i + 1) == '\\') {
+                    decoded.write('\\');
+                    i++;
+                } else if (value.charAt(i + 1) == 'x') {
+                    decoded.write(Integer.parseInt(value.substring(i + 2, i + 4), 16));
+                    i += 3;
+                } else if (value.charAt(i + 1) == 'r') {
+                    decoded.write('\r');
+                    i++;
+                } else if (value.charAt(i + 1) == 'n') {
+                    decoded.write('\n');
+                    i++;
+                } else {
+                    int j = i + 1;
+                    while ((j < i + 4) && (j < value.length()) && (Character.isDigit(value.charAt(j)))) {
+                        j++;
+                    }
+                    decoded.write(Short.decode("0" + value.substring(i + 1, j)).byteValue()); //$NON-NLS-1$
+                    i = j - 1;
+                }
+            } else {
+                decoded.write(value.charAt(i));
+            }
+        }
+        char[] chars = decoded.toCharArray();
+        byte[] bytes;
+        if ("unicodeLE".equals(type)) { //$NON-NLS-1$
+            bytes = new byte[chars.length * 2];
+            for (int i = 0; i < chars.length; i++) {
+                bytes[i * 2] = (byte) (chars[i] & 0xff);
+                bytes[i * 2 + 1] = (byte) (chars[i] >> 8);
+            }
+        } else if ("unicodeBE".equals(type)) { //$NON-NLS-1$
+            bytes = new byte[chars.length * 2];
+            for (int i = 0; i < chars.length; i++) {
+                bytes[i * 2] = (byte) (chars[i] >> 8);
+                bytes[i * 2 + 1] = (byte) (chars[i] & 0xff);
+            }
+        } else {
+            bytes = new byte[chars.length];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) chars[i];
+            }
+        }
+        return bytes;
+    }
+
+}
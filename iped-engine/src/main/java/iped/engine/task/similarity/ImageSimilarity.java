@@ -293,6 +293,20 @@ private void calcEdges() {
         }
     }
 
+    /**
+     * Vector indexed for approximate nearest neighbor search, with the sum of
+     * each 4 consecutive histogram features, as Lucene vectors are limited to 1024
+     * dimensions. Its squared euclidean distance is at most 4 times the distance
+     * of the full features.
+     */
+    public static float[] getKnnVector(byte[] features) {
+        float[] vector = new float[(features.length - 4) / 4];
+        for (int i = 0, j = 4; i < vector.length; i++, j += 4) {
+            vector[i] = features[j] + features[j + 1] + features[j + 2] + features[j + 3];
+        }
+        return vector;
+    }
+
     public static int distance(byte[] a, byte[] b) {
         int distance = 0;
         for (int i = 4; i < a.length; i++) {
@@ -32,6 +32,8 @@ public class ImageSimilarityTask extends AbstractTask {
 
     public static final String IMAGE_FEATURES = "imageFeatures"; //$NON-NLS-1$
 
+    public static final String IMAGE_FEATURES_KNN = "imageFeaturesKnn"; //$NON-NLS-1$
+
     private static boolean taskEnabled = false;
     private static final AtomicBoolean init = new AtomicBoolean(false);
     private static final AtomicBoolean finished = new AtomicBoolean(false);
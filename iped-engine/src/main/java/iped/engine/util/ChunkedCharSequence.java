@@ -0,0 +1,172 @@
+package iped.engine.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * Read only view of text stored in fixed size chunks, on heap arrays or memory
+ * mapped files. Views and their readers share the chunks, so text is not copied
+ * when handed to many consumers. Chunks must not change while views are used.
+ */
+public class ChunkedCharSequence implements CharSequence {
+
+    private final CharBuffer[] chunks;
+    private final int shift;
+    private final int mask;
+    private final long start;
+    private final long length;
+
+    /**
+     * @param chunks
+     *            text chunks, all of them but the last with 2^shift chars
+     * @param shift
+     *            log2 of the chunk size
+     * @param start
+     *            offset of the first char of the view
+     * @param length
+     *            number of chars of the view
+     */
+    public ChunkedCharSequence(CharBuffer[] chunks, int shift, long start, long length) {
+        this.chunks = chunks;
+        this.shift = shift;
+        this.mask = (1 << shift) - 1;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * @return the length of the view, which may be greater than
+     *         Integer.MAX_VALUE, use {@link #newReader()} to read such views.
+     */
+    public long longLength() {
+        return length;
+    }
+
+    @Override
+    public int length() {
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Text too large for a CharSequence: " + length); //$NON-NLS-1$
+        }
+        return (int) length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        long pos = start + index;
+        return chunks[(int) (pos >>> shift)].get((int) (pos & mask));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(start + "-" + end); //$NON-NLS-1$
+        }
+        return new ChunkedCharSequence(chunks, shift, this.start + start, end - start);
+    }
+
+    /**
+     * @return a reader of the view, supporting mark and reset, which does not copy
+     *         the text.
+     */
+    public Reader newReader() {
+        return new ChunkedReader();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length());
+        char[] buf = new char[Math.min(1 << shift, length())];
+        try (Reader reader = newReader()) {
+            int len;
+            while ((len = reader.read(buf)) != -1) {
+                sb.append(buf, 0, len);
+            }
+        } catch (IOException e) {
+            // never thrown by ChunkedReader
+            throw new RuntimeException(e);
+        }
+        return sb.toString();
+    }
+
+    private class ChunkedReader extends Reader {
+
+        private long pos = start;
+        private long mark = start;
+        private int chunkIdx = -1;
+        private CharBuffer chunk;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if ((off | len | (off + len) | (cbuf.length - (off + len))) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            long end = start + length;
+            if (pos >= end) {
+                return -1;
+            }
+            int read = 0;
+            while (len > 0 && pos < end) {
+                int idx = (int) (pos >>> shift);
+                if (idx != chunkIdx) {
+                    // duplicate keeps position changes private to this reader
+                    chunk = chunks[idx].duplicate();
+                    chunkIdx = idx;
+                }
+                int chunkPos = (int) (pos & mask);
+                int n = (int) Math.min(Math.min(len, (1 << shift) - chunkPos), end - pos);
+                chunk.position(chunkPos);
+                chunk.get(cbuf, off, n);
+                pos += n;
+                off += n;
+                len -= n;
+                read += n;
+            }
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= start + length) {
+                return -1;
+            }
+            return chunks[(int) (pos >>> shift)].get((int) (pos++ & mask));
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, start + length - pos));
+            pos += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean ready() {
+            return true;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readAheadLimit) {
+            mark = pos;
+        }
+
+        @Override
+        public void reset() {
+            pos = mark;
+        }
+
+        @Override
+        public void close() {
+            chunk = null;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package iped.engine.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of latencies in nanoseconds, with log-linear buckets: each
+ * power of two range is split into 8 sub-buckets, so percentiles have a
+ * relative error of at most 12.5%.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(0, value);
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the highest value of the bucket
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exp = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS);
+        return lower + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void record(long nanos) {
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        sum.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(sum.sum(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMean(TimeUnit unit) {
+        long n = count.sum();
+        return n == 0 ? 0 : unit.convert(sum.sum() / n, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return approximate value below which the percentile of recorded values
+     *         falls, in the given unit
+     */
+    public long getPercentile(double percentile, TimeUnit unit) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(n * percentile / 100);
+        long acc = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            acc += buckets.get(i);
+            if (acc >= target) {
+                return unit.convert(upperBound(i), TimeUnit.NANOSECONDS);
+            }
+        }
+        return unit.convert(upperBound(buckets.length() - 1), TimeUnit.NANOSECONDS);
+    }
+
+}
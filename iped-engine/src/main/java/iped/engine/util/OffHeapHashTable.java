@@ -0,0 +1,375 @@
+package iped.engine.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import iped.utils.HashValue;
+
+/**
+ * Concurrent set of fixed width hashes, each one associated to an int value,
+ * stored outside the java heap in memory mapped temporary files.
+ *
+ * Keys are split into stripes by their first bytes. Each stripe is an open
+ * addressing table with linear probing, where slots are claimed with a compare
+ * and set on their int value, so concurrent {@link #putIfAbsent(byte[], int)}
+ * calls never block each other. The stripe lock is only acquired exclusively
+ * to grow the stripe table, which is rare.
+ *
+ * Keys with a different width than the configured one (e.g. hashes imported
+ * from other sources) are kept in a small heap map.
+ *
+ * Values must not be {@link #EMPTY} or {@link #BUSY}, which are reserved.
+ */
+public class OffHeapHashTable implements Closeable {
+
+    public static final int EMPTY = 0;
+    public static final int BUSY = -1;
+
+    private static final int MAGIC = 0x48415348; // "HASH"
+    private static final int NUM_STRIPES = 256;
+    private static final int MIN_STRIPE_CAPACITY = 1 << 10;
+    private static final float MAX_LOAD_FACTOR = 0.7f;
+
+    private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.nativeOrder());
+
+    private final int keyWidth;
+    private final int slotSize;
+    private final File tmpDir;
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    private final ConcurrentHashMap<HashValue, Integer> otherWidthKeys = new ConcurrentHashMap<>();
+
+    private class Stripe {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final AtomicInteger size = new AtomicInteger();
+        private volatile MappedByteBuffer table;
+        private File file;
+        private int mask;
+
+        private Stripe(int capacity) throws IOException {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) throws IOException {
+            File newFile = File.createTempFile("hashtable", ".tmp", tmpDir);
+            newFile.deleteOnExit();
+            try (FileChannel fc = FileChannel.open(newFile.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer newTable = fc.map(MapMode.READ_WRITE, 0, (long) capacity * slotSize);
+                if (table != null) {
+                    rehash(table, newTable, capacity - 1);
+                    deleteQuietly(file);
+                }
+                table = newTable;
+                file = newFile;
+                mask = capacity - 1;
+            }
+        }
+
+        private void rehash(MappedByteBuffer from, MappedByteBuffer to, int newMask) {
+            byte[] key = new byte[keyWidth];
+            int capacity = from.capacity() / slotSize;
+            for (int i = 0; i < capacity; i++) {
+                int pos = i * slotSize;
+                int value = (int) INT_HANDLE.get(from, pos);
+                if (value == EMPTY) {
+                    continue;
+                }
+                getKey(from, pos + 4, key);
+                int slot = indexOf(key) & newMask;
+                while ((int) INT_HANDLE.get(to, slot * slotSize) != EMPTY) {
+                    slot = (slot + 1) & newMask;
+                }
+                putKey(to, slot * slotSize + 4, key);
+                INT_HANDLE.set(to, slot * slotSize, value);
+            }
+        }
+
+        private int putIfAbsent(byte[] key, int value) throws IOException {
+            int result;
+            lock.readLock().lock();
+            try {
+                result = insert(table, mask, key, value);
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (result == EMPTY && size.incrementAndGet() > (mask + 1) * MAX_LOAD_FACTOR) {
+                grow();
+            }
+            return result;
+        }
+
+        private int insert(MappedByteBuffer table, int mask, byte[] key, int value) {
+            int slot = indexOf(key) & mask;
+            while (true) {
+                int pos = slot * slotSize;
+                int current = (int) INT_HANDLE.getVolatile(table, pos);
+                if (current == EMPTY) {
+                    if (INT_HANDLE.compareAndSet(table, pos, EMPTY, BUSY)) {
+                        putKey(table, pos + 4, key);
+                        INT_HANDLE.setVolatile(table, pos, value);
+                        return EMPTY;
+                    }
+                    // lost the race, check this slot again
+                    continue;
+                }
+                while (current == BUSY) {
+                    Thread.onSpinWait();
+                    current = (int) INT_HANDLE.getVolatile(table, pos);
+                }
+                if (keyEquals(table, pos + 4, key)) {
+                    return current;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private int get(byte[] key) {
+            lock.readLock().lock();
+            try {
+                int slot = indexOf(key) & mask;
+                while (true) {
+                    int pos = slot * slotSize;
+                    int current = (int) INT_HANDLE.getVolatile(table, pos);
+                    while (current == BUSY) {
+                        Thread.onSpinWait();
+                        current = (int) INT_HANDLE.getVolatile(table, pos);
+                    }
+                    if (current == EMPTY) {
+                        return EMPTY;
+                    }
+                    if (keyEquals(table, pos + 4, key)) {
+                        return current;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void grow() throws IOException {
+            lock.writeLock().lock();
+            try {
+                int capacity = mask + 1;
+                if (size.get() > capacity * MAX_LOAD_FACTOR) {
+                    if ((long) capacity * 2 * slotSize > Integer.MAX_VALUE) {
+                        throw new IOException("Hash table stripe can not grow beyond " + capacity + " entries");
+                    }
+                    allocate(capacity << 1);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void write(DataOutputStream dos) throws IOException {
+            lock.readLock().lock();
+            try {
+                byte[] key = new byte[keyWidth];
+                int capacity = mask + 1;
+                for (int i = 0; i < capacity; i++) {
+                    int pos = i * slotSize;
+                    int value = (int) INT_HANDLE.getVolatile(table, pos);
+                    // slots being filled right now are skipped
+                    if (value == EMPTY || value == BUSY) {
+                        continue;
+                    }
+                    getKey(table, pos + 4, key);
+                    dos.writeByte(keyWidth);
+                    dos.write(key);
+                    dos.writeInt(value);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void close() {
+            lock.writeLock().lock();
+            try {
+                table = null;
+                deleteQuietly(file);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    public OffHeapHashTable(int keyWidth, File tmpDir) throws IOException {
+        this(keyWidth, 0, tmpDir);
+    }
+
+    public OffHeapHashTable(int keyWidth, long expectedSize, File tmpDir) throws IOException {
+        if (keyWidth < 8) {
+            throw new IllegalArgumentException("Key width must be at least 8 bytes: " + keyWidth);
+        }
+        this.keyWidth = keyWidth;
+        // keep int values aligned for atomic operations
+        this.slotSize = 4 + ((keyWidth + 3) & ~3);
+        this.tmpDir = tmpDir;
+        int capacity = MIN_STRIPE_CAPACITY;
+        long perStripe = (long) (expectedSize / NUM_STRIPES / MAX_LOAD_FACTOR);
+        while (capacity < perStripe && capacity < (1 << 30) / slotSize) {
+            capacity <<= 1;
+        }
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    private static int indexOf(byte[] key) {
+        // keys are expected to be cryptographic hashes, so their bytes are already
+        // uniformly distributed. First byte selects the stripe, next ones the slot.
+        return (key[1] & 0xFF) << 24 | (key[2] & 0xFF) << 16 | (key[3] & 0xFF) << 8 | (key[4] & 0xFF);
+    }
+
+    private void getKey(MappedByteBuffer table, int pos, byte[] key) {
+        for (int i = 0; i < keyWidth; i++) {
+            key[i] = table.get(pos + i);
+        }
+    }
+
+    private void putKey(MappedByteBuffer table, int pos, byte[] key) {
+        for (int i = 0; i < keyWidth; i++) {
+            table.put(pos + i, key[i]);
+        }
+    }
+
+    private boolean keyEquals(MappedByteBuffer table, int pos, byte[] key) {
+        for (int i = 0; i < keyWidth; i++) {
+            if (table.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkValue(int value) {
+        if (value == EMPTY || value == BUSY) {
+            throw new IllegalArgumentException("Reserved value: " + value);
+        }
+    }
+
+    public int getKeyWidth() {
+        return keyWidth;
+    }
+
+    /**
+     * Associates the value to the key if it is not already present.
+     *
+     * @return {@link #EMPTY} if the key was inserted, otherwise the value already
+     *         associated to the key.
+     */
+    public int putIfAbsent(byte[] key, int value) throws IOException {
+        checkValue(value);
+        if (key.length != keyWidth) {
+            Integer prev = otherWidthKeys.putIfAbsent(new HashValue(key), value);
+            return prev != null ? prev : EMPTY;
+        }
+        return stripes[key[0] & 0xFF].putIfAbsent(key, value);
+    }
+
+    /**
+     * @return the value associated to the key or {@link #EMPTY} if not present.
+     */
+    public int get(byte[] key) {
+        if (key.length != keyWidth) {
+            Integer value = otherWidthKeys.get(new HashValue(key));
+            return value != null ? value : EMPTY;
+        }
+        return stripes[key[0] & 0xFF].get(key);
+    }
+
+    public boolean contains(byte[] key) {
+        return get(key) != EMPTY;
+    }
+
+    public long size() {
+        long size = otherWidthKeys.size();
+        for (Stripe stripe : stripes) {
+            size += stripe.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * Writes a snapshot of all entries to the file. Entries inserted concurrently
+     * may or may not be included. The file is replaced atomically.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp.toPath()), 1 << 20))) {
+            dos.writeInt(MAGIC);
+            for (Stripe stripe : stripes) {
+                stripe.write(dos);
+            }
+            for (Entry<HashValue, Integer> entry : otherWidthKeys.entrySet()) {
+                byte[] key = entry.getKey().getBytes();
+                dos.writeByte(key.length);
+                dos.write(key);
+                dos.writeInt(entry.getValue());
+            }
+        }
+        Util.fsync(tmp.toPath());
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Inserts all entries previously saved to the file with {@link #save(File)}.
+     *
+     * @return number of loaded entries
+     */
+    public long load(File file) throws IOException {
+        long loaded = 0;
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 20))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("Invalid hash table file " + file.getAbsolutePath());
+            }
+            int len;
+            while ((len = dis.read()) != -1) {
+                byte[] key = new byte[len];
+                dis.readFully(key);
+                putIfAbsent(key, dis.readInt());
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.close();
+        }
+        otherWidthKeys.clear();
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+}
@@ -1,45 +1,87 @@
 package iped.engine.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
-import java.io.Writer;
-import java.nio.charset.StandardCharsets;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.FileSystemException;
-import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.input.BoundedReader;
-import org.apache.commons.io.input.RandomAccessFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import iped.data.IItem;
 import iped.utils.IOUtil;
 
+/**
+ * Stores the text extracted from an item, so it can be read many times by
+ * downstream tasks. Small texts are kept in heap chunks, larger ones are written
+ * to a temp file as UTF-16 and memory mapped when read. Readers and
+ * {@link #getTextView()} are views of the chunks or of the mapped file, so they
+ * do not copy the text. The temp file is unmapped and deleted when this cache
+ * and all its clones are closed, so views must not be used after that.
+ */
 public class TextCache implements Closeable, Cloneable {
 
     private static Logger logger = LoggerFactory.getLogger(TextCache.class);
 
+    private static Object unsafe;
+    private static Method invokeCleaner;
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+            Field field = unsafeClass.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class); //$NON-NLS-1$
+        } catch (Exception e) {
+            logger.warn("Text temp files will be unmapped only by GC: {}", e.toString());
+        }
+    }
+
     private static int MAX_MEMORY_CHARS = 10000000;
 
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    /**
+     * Chars per mapped region of the temp file, 512MB each.
+     */
+    private static final int MAPPED_REGION_SHIFT = 28;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     private IItem sourceItem;
-    private StringBuilder sb = new StringBuilder();
+    private List<char[]> chunks = new ArrayList<>();
+    private int chunkPos = CHUNK_SIZE;
+    private long memoryChars = 0;
     private File tmp;
-    private Writer writer;
+    private FileChannel channel;
+    private ByteBuffer writeBuffer;
+    private CharBuffer writeChars;
+    private CharBuffer[] mappedRegions;
+    private List<MappedByteBuffer> mappedBuffers = Collections.synchronizedList(new ArrayList<>());
     private long size = 0;
     private boolean diskCacheEnabled = true;
     private long offset = -1;
     private AtomicInteger refCount = new AtomicInteger(1);
+    private boolean released = false;
 
     public void setSourceItem(IItem sourceItem) {
         this.sourceItem = sourceItem;
@@ -50,31 +92,42 @@ public void setEnableDiskCache(boolean diskCacheEnabled) {
     }
 
     public void write(String string) throws IOException {
-        this.write(string.toCharArray(), 0, string.length());
+        this.write(null, string, 0, string.length());
     }
 
     public void write(char[] buf, int off, int len) throws IOException {
-        if (tmp == null && sb != null && sb.length() + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
+        this.write(buf, null, off, len);
+    }
+
+    private void write(char[] buf, String str, int off, int len) throws IOException {
+        if (tmp == null && chunks != null && memoryChars + len > MAX_MEMORY_CHARS && diskCacheEnabled) {
             tmp = File.createTempFile("text", null);
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
-            writer.write(sb.toString());
-            sb = null;
+            openChannel();
+            for (int i = 0; i < chunks.size(); i++) {
+                int chunkLen = i < chunks.size() - 1 ? CHUNK_SIZE : chunkPos;
+                writeToDisk(chunks.get(i), null, 0, chunkLen);
+            }
+            chunks = null;
+        }
+
+        if (tmp != null && channel == null) {
+            // more text after it was read
+            openChannel();
         }
 
-        if (sb != null && sb.length() < MAX_MEMORY_CHARS) {
-            if (sb.length() + len > MAX_MEMORY_CHARS)
-                len = MAX_MEMORY_CHARS - sb.length();
-            sb.append(buf, off, len);
+        if (chunks != null && memoryChars < MAX_MEMORY_CHARS) {
+            int memLen = (int) Math.min(len, MAX_MEMORY_CHARS - memoryChars);
+            writeToMemory(buf, str, off, memLen);
         }
 
-        if (writer != null)
+        if (channel != null)
             try {
-                writer.write(buf, off, len);
+                writeToDisk(buf, str, off, len);
             } catch (IOException e) {
                 // maybe no space left
                 e.printStackTrace();
-                IOUtil.closeQuietly(writer);
-                writer = null;
+                IOUtil.closeQuietly(channel);
+                channel = null;
                 tmp.delete();
                 tmp = null;
             }
@@ -82,41 +135,140 @@ public void write(char[] buf, int off, int len) throws IOException {
         size += len;
     }
 
-    public long getSize() {
-        return size;
+    private void writeToMemory(char[] buf, String str, int off, int len) {
+        while (len > 0) {
+            if (chunkPos == CHUNK_SIZE) {
+                chunks.add(new char[Math.min(CHUNK_SIZE, Math.max(len, MIN_CHUNK_SIZE))]);
+                chunkPos = 0;
+            }
+            char[] chunk = chunks.get(chunks.size() - 1);
+            if (chunkPos == chunk.length) {
+                // small texts do not waste a full chunk
+                chunk = Arrays.copyOf(chunk, Math.min(CHUNK_SIZE, Math.max(chunk.length * 2, chunkPos + len)));
+                chunks.set(chunks.size() - 1, chunk);
+            }
+            int n = Math.min(len, chunk.length - chunkPos);
+            if (buf != null)
+                System.arraycopy(buf, off, chunk, chunkPos, n);
+            else
+                str.getChars(off, off + n, chunk, chunkPos);
+            chunkPos += n;
+            memoryChars += n;
+            off += n;
+            len -= n;
+        }
     }
 
-    public Reader getTextReader() throws IOException {
-        if (writer != null) {
-            writer.close();
-            writer = null;
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        writeChars = writeBuffer.asCharBuffer();
+        mappedRegions = null;
+    }
+
+    private void writeToDisk(char[] buf, String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, writeChars.remaining());
+            if (buf != null)
+                writeChars.put(buf, off, n);
+            else
+                writeChars.put(str, off, off + n);
+            off += n;
+            len -= n;
+            if (!writeChars.hasRemaining()) {
+                flushToDisk();
+            }
         }
+    }
 
-        Reader reader = null;
-        if (sb != null)
-            reader = new StringReader(sb.toString());
+    private void flushToDisk() throws IOException {
+        writeBuffer.clear();
+        writeBuffer.limit(writeChars.position() * 2);
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeChars.clear();
+    }
 
-        if (tmp != null) {
+    private void closeChannel() throws IOException {
+        if (channel != null) {
             try {
-                if (offset == -1) {
-                    reader = Files.newBufferedReader(tmp.toPath());
-                } else {
-                    RandomAccessFile raf = new RandomAccessFile(tmp, "r");
-                    raf.seek(offset);
-                    reader = new InputStreamReader(new RandomAccessFileInputStream(raf, true), StandardCharsets.UTF_8);
-                    reader = new BufferedReader(new BoundedReader(reader, (int) size));
+                flushToDisk();
+            } finally {
+                channel.close();
+                channel = null;
+                writeBuffer = null;
+                writeChars = null;
+            }
+        }
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    private CharBuffer[] mapRegions() throws IOException {
+        if (mappedRegions == null) {
+            try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.READ)) {
+                long chars = fc.size() / 2;
+                int numRegions = (int) ((chars + (1L << MAPPED_REGION_SHIFT) - 1) >>> MAPPED_REGION_SHIFT);
+                CharBuffer[] regions = new CharBuffer[numRegions];
+                for (int i = 0; i < numRegions; i++) {
+                    long start = (long) i << MAPPED_REGION_SHIFT;
+                    long len = Math.min(1L << MAPPED_REGION_SHIFT, chars - start);
+                    MappedByteBuffer buffer = fc.map(MapMode.READ_ONLY, start * 2, len * 2);
+                    // also previous mappings, views of them may still be used
+                    mappedBuffers.add(buffer);
+                    regions[i] = buffer.asCharBuffer();
                 }
+                mappedRegions = regions;
+            }
+        }
+        return mappedRegions;
+    }
 
-            } catch (FileSystemException | FileNotFoundException e) {
-                logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
-                        sourceItem != null ? " from " + sourceItem.getPath() : "", e.toString());
-                e.printStackTrace();
-                return new StringReader("");
+    /**
+     * @return a view of the text, which does not copy it, or null if the text was
+     *         lost.
+     */
+    public ChunkedCharSequence getTextView() throws IOException {
+        CharBuffer[] regions;
+        int shift;
+        long stored;
+        if (tmp != null) {
+            closeChannel();
+            regions = mapRegions();
+            shift = MAPPED_REGION_SHIFT;
+            stored = tmp.length() / 2;
+        } else if (chunks != null) {
+            regions = new CharBuffer[chunks.size()];
+            for (int i = 0; i < regions.length; i++) {
+                regions[i] = CharBuffer.wrap(chunks.get(i));
             }
+            shift = CHUNK_SHIFT;
+            stored = memoryChars;
+        } else {
+            return null;
+        }
+        long start = offset == -1 ? 0 : Math.min(offset, stored);
+        long length = offset == -1 ? stored : Math.min(size, stored - start);
+        return new ChunkedCharSequence(regions, shift, start, length);
+    }
+
+    public Reader getTextReader() throws IOException {
+        ChunkedCharSequence view;
+        try {
+            view = getTextView();
+
+        } catch (FileSystemException e) {
+            logger.error("Error reading extracted text file{}, maybe your antivirus blocked or deleted it? {}",
+                    sourceItem != null ? " from " + sourceItem.getPath() : "", e.toString());
+            e.printStackTrace();
+            return new StringReader("");
         }
 
-        if (reader != null) {
-            return new KnownSizeReader(reader);
+        if (view != null) {
+            return new KnownSizeReader(view.newReader());
         }
 
         return null;
@@ -135,10 +287,41 @@ public void setTextBounds(long offset, int size) {
 
     @Override
     public void close() throws IOException {
-        if (writer != null)
-            writer.close();
-        if (tmp != null && refCount.decrementAndGet() == 0)
-            tmp.delete();
+        closeChannel();
+        if (tmp == null || released) {
+            return;
+        }
+        // closing twice must not release the file of clones
+        released = true;
+        if (refCount.decrementAndGet() == 0) {
+            // Windows does not allow deleting mapped files, and GC may take long to
+            // unmap them, so temp files would pile up until exit
+            mappedRegions = null;
+            synchronized (mappedBuffers) {
+                for (MappedByteBuffer buffer : mappedBuffers) {
+                    unmap(buffer);
+                }
+                mappedBuffers.clear();
+            }
+            if (!tmp.delete() && tmp.exists()) {
+                logger.warn("Could not delete text temp file {}, deleting on exit", tmp.getAbsolutePath());
+                tmp.deleteOnExit();
+            }
+        }
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (invokeCleaner != null) {
+            try {
+                invokeCleaner.invoke(unsafe, buffer);
+            } catch (Exception e) {
+                logger.warn("Error unmapping text temp file: {}", e.toString());
+            }
+        }
+    }
+
+    File getTempFile() {
+        return tmp;
     }
 
     public class KnownSizeReader extends Reader {
@@ -159,6 +342,22 @@ public void close() throws IOException {
             delegate.close();
         }
 
+        // lets FragmentingReader reuse the delegate buffer instead of wrapping it again
+        @Override
+        public boolean markSupported() {
+            return delegate.markSupported();
+        }
+
+        @Override
+        public void mark(int readAheadLimit) throws IOException {
+            delegate.mark(readAheadLimit);
+        }
+
+        @Override
+        public void reset() throws IOException {
+            delegate.reset();
+        }
+
         public long getSize() {
             return size;
         }
@@ -167,12 +366,22 @@ public long getSize() {
 
     @Override
     public TextCache clone() {
+        try {
+            // clones read the file, so pending text must be written
+            closeChannel();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         TextCache o = new TextCache();
         o.sourceItem = sourceItem;
-        o.sb = sb;
+        o.chunks = chunks;
+        o.chunkPos = chunkPos;
+        o.memoryChars = memoryChars;
         o.tmp = tmp;
         // we just use clone for reading for now
-        // o.writer = writer;
+        // o.channel = channel;
+        o.mappedRegions = mappedRegions;
+        o.mappedBuffers = mappedBuffers;
         o.size = size;
         o.diskCacheEnabled = diskCacheEnabled;
         o.offset = offset;
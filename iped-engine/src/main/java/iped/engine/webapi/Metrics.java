@@ -0,0 +1,35 @@
+package iped.engine.webapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import iped.data.IIPEDSource;
+import iped.engine.core.ProcessingMetrics;
+
+@Api(value = "Sources")
+@Path("sources/{sourceID}/metrics")
+public class Metrics {
+
+    @ApiOperation(value = "Get source's processing metrics, updated periodically while it is processed")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@PathParam("sourceID") String sourceID) throws IOException {
+
+        IIPEDSource source = Sources.getSource(sourceID);
+        File file = new File(source.getModuleDir(), ProcessingMetrics.JSON_FILE);
+        if (!file.exists()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(Files.readAllBytes(file.toPath())).build();
+    }
+}
@@ -0,0 +1,268 @@
+package iped.engine.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import iped.data.IItem;
+import iped.engine.config.ConfigurationManager;
+import iped.engine.config.ProcessingPriorityConfig;
+import iped.engine.data.CaseData;
+import iped.engine.data.Item;
+import iped.utils.UTF8Properties;
+
+public class WorkStealingProcessingQueuesTest {
+
+    /**
+     * Lets each test thread act as the worker of a given deque.
+     */
+    private static class TestQueues extends WorkStealingProcessingQueues {
+
+        private final ThreadLocal<Integer> shard = ThreadLocal.withInitial(() -> 0);
+
+        private TestQueues(int numThreads) {
+            super(new CaseData(), numThreads);
+        }
+
+        @Override
+        int currentShard() {
+            return shard.get();
+        }
+
+        private void setShard(int shard) {
+            this.shard.set(shard);
+        }
+    }
+
+    private static void setRandomOrder(boolean randomOrder) {
+        ConfigurationManager configManager = ConfigurationManager.createInstance(null);
+        ProcessingPriorityConfig config = configManager.findObject(ProcessingPriorityConfig.class);
+        if (config == null) {
+            config = new ProcessingPriorityConfig();
+            configManager.addObject(config);
+        }
+        UTF8Properties properties = new UTF8Properties();
+        properties.setProperty("randomOrder", String.valueOf(randomOrder));
+        config.processProperties(properties);
+    }
+
+    private static Item newItem(String name) {
+        Item item = new Item();
+        item.setName(name);
+        item.setIdInDataSource(name);
+        return item;
+    }
+
+    private static Item newQueueEnd() {
+        Item queueEnd = new Item();
+        queueEnd.setQueueEnd(true);
+        return queueEnd;
+    }
+
+    private static List<String> takeAll(ProcessingQueues queues) throws InterruptedException {
+        List<String> names = new ArrayList<>();
+        IItem item;
+        while ((item = queues.pollFromCurrentQueue()) != null) {
+            names.add(item.getName());
+        }
+        return names;
+    }
+
+    private static void addItems(ProcessingQueues queues) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            queues.addItem(newItem("rest" + i));
+            queues.addItemFirst(newItem("top" + i));
+        }
+    }
+
+    @Test
+    public void testSameOrderAsDefaultQueuesWithOneWorker() throws InterruptedException {
+        setRandomOrder(false);
+        ProcessingQueues defaultQueues = new ProcessingQueues(new CaseData());
+        addItems(defaultQueues);
+        TestQueues queues = new TestQueues(1);
+        addItems(queues);
+        List<String> expected = takeAll(defaultQueues);
+        assertEquals(6, expected.size());
+        assertEquals(expected, takeAll(queues));
+    }
+
+    @Test
+    public void testStealingOrder() throws InterruptedException {
+        setRandomOrder(false);
+        TestQueues queues = new TestQueues(2);
+        queues.setShard(0);
+        addItems(queues);
+
+        // own prioritized items are taken newest first, stolen ones oldest first
+        queues.setShard(1);
+        assertEquals("top0", queues.takeFromCurrentQueue().getName());
+        queues.setShard(0);
+        assertEquals("top2", queues.takeFromCurrentQueue().getName());
+        queues.setShard(1);
+        assertEquals("top1", queues.takeFromCurrentQueue().getName());
+        // then the shared FIFO deque
+        assertEquals("rest0", queues.takeFromCurrentQueue().getName());
+        queues.setShard(0);
+        assertEquals("rest1", queues.takeFromCurrentQueue().getName());
+        assertEquals("rest2", queues.takeFromCurrentQueue().getName());
+        assertNull(queues.pollFromCurrentQueue());
+        assertEquals(6, queues.getItemsBeingProcessed());
+    }
+
+    @Test
+    public void testPrioritizedItemsStolenBeforeOwnItems() throws InterruptedException {
+        setRandomOrder(true);
+        TestQueues queues = new TestQueues(3);
+        queues.setShard(1);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            queues.addItem(newItem("rest" + i));
+            expected.add("rest" + i);
+        }
+        queues.setShard(2);
+        queues.addItemFirst(newItem("top"));
+
+        queues.setShard(0);
+        assertEquals(101, queues.getCurrentQueueSize());
+        assertEquals("top", queues.takeFromCurrentQueue().getName());
+        Set<String> taken = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(taken.add(queues.takeFromCurrentQueue().getName()));
+        }
+        assertEquals(expected, taken);
+        assertNull(queues.pollFromCurrentQueue());
+        assertEquals(0, queues.getCurrentQueueSize());
+
+        for (int i = 0; i < 101; i++) {
+            assertFalse(queues.isNoItemInQueueOrBeingProcessed());
+            queues.decItemsBeingProcessed();
+        }
+        assertTrue(queues.isNoItemInQueueOrBeingProcessed());
+    }
+
+    @Test
+    public void testProducerBlockedWhileFull() throws Exception {
+        setRandomOrder(true);
+        TestQueues queues = new TestQueues(2);
+        queues.maxQueueSize = 1024;
+        Thread producer = new Thread(() -> {
+            try {
+                for (int i = 0; i <= 1024; i++) {
+                    queues.addItem(newItem("item" + i));
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        producer.start();
+        producer.join(1000);
+        assertTrue(producer.isAlive());
+        assertEquals(1024, queues.getCurrentQueueSize());
+
+        queues.takeFromCurrentQueue();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(1024, queues.getCurrentQueueSize());
+    }
+
+    private static boolean hasSubitems(String name) {
+        return !name.contains("/") && name.hashCode() % 3 == 0;
+    }
+
+    /**
+     * Workers follow the protocol of {@link Worker}: items create subitems and
+     * the queue end is put back until no items are queued or being processed.
+     */
+    private static void assertTermination(boolean randomOrder) throws Exception {
+        setRandomOrder(randomOrder);
+        int numWorkers = 8;
+        int numItems = 20000;
+        int expected = numItems;
+        for (int i = 0; i < numItems; i++) {
+            expected += hasSubitems("item" + i) ? 3 : 0;
+        }
+        int numExpected = expected;
+        TestQueues queues = new TestQueues(4);
+        Set<String> processed = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger finishedEarly = new AtomicInteger();
+
+        Thread[] workers = new Thread[numWorkers];
+        for (int w = 0; w < numWorkers; w++) {
+            int shard = w % 4;
+            workers[w] = new Thread(() -> {
+                queues.setShard(shard);
+                try {
+                    while (true) {
+                        IItem item = queues.takeFromCurrentQueue();
+                        if (!item.isQueueEnd()) {
+                            if (!processed.add(item.getName())) {
+                                duplicates.incrementAndGet();
+                            }
+                            // some items have subitems, queued while the parent is being processed
+                            if (hasSubitems(item.getName())) {
+                                for (int i = 0; i < 3; i++) {
+                                    queues.addItemFirstNonBlocking(newItem(item.getName() + "/" + i));
+                                }
+                            }
+                            queues.decItemsBeingProcessed();
+                        } else {
+                            boolean finished = queues.isNoItemInQueueOrBeingProcessed();
+                            queues.addToCurrentQueue(item);
+                            if (finished) {
+                                if (processed.size() < numExpected) {
+                                    finishedEarly.incrementAndGet();
+                                }
+                                return;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            workers[w].start();
+        }
+
+        for (int i = 0; i < numItems; i++) {
+            queues.addItem(newItem("item" + i));
+        }
+        IItem queueEnd = newQueueEnd();
+        queues.addItem(queueEnd);
+
+        for (Thread worker : workers) {
+            worker.join(60000);
+            assertFalse(worker.isAlive());
+        }
+        assertEquals(0, duplicates.get());
+        assertEquals(0, finishedEarly.get());
+        assertEquals(expected, processed.size());
+        assertEquals(0, queues.getItemsBeingProcessed());
+        assertTrue(queues.isNoItemInQueueOrBeingProcessed());
+        assertEquals(1, queues.getCurrentQueueSize());
+        assertSame(queueEnd, queues.peekItemFromCurrentQueue());
+    }
+
+    @Test
+    public void testTerminationRandomOrder() throws Exception {
+        assertTermination(true);
+    }
+
+    @Test
+    public void testTerminationFifo() throws Exception {
+        assertTermination(false);
+    }
+
+}
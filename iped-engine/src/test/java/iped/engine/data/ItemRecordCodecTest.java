@@ -0,0 +1,128 @@
+package iped.engine.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import iped.engine.io.MetadataInputStreamFactory;
+import iped.io.ISeekableInputStreamFactory;
+import iped.utils.FileInputStreamFactory;
+
+public class ItemRecordCodecTest {
+
+    private static Item newItem(int i, ISeekableInputStreamFactory factory) {
+        Item item = new Item();
+        item.setName("file" + i + ".txt");
+        item.setIdInDataSource(Integer.toString(i));
+        item.setLength((long) i);
+        item.setInputStreamFactory(factory);
+        return item;
+    }
+
+    private static byte[] write(ItemRecordCodec codec, List<Item> items) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Item item : items) {
+            assertTrue(codec.canWrite(item));
+            codec.write(item, out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void testRoundTripMoreFactoriesThanMaxRefs() throws IOException {
+        ItemRecordCodec codec = new ItemRecordCodec();
+        int batch = 10000;
+        int total = 0;
+        while (total <= ItemRecordCodec.MAX_REFS) {
+            List<Item> items = new ArrayList<>();
+            for (int i = 0; i < batch; i++) {
+                // a distinct factory per item, like some readers and tasks do
+                items.add(newItem(total + i, new FileInputStreamFactory(Paths.get("folder" + (total + i)))));
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(codec, items)));
+            for (int i = 0; i < batch; i++) {
+                Item item = codec.read(in);
+                assertEquals("file" + (total + i) + ".txt", item.getName());
+                assertEquals(Integer.toString(total + i), item.getIdInDataSource());
+                assertEquals(total + i, item.getLength().longValue());
+                assertSame(items.get(i).getInputStreamFactory(), item.getInputStreamFactory());
+            }
+            // references are released when read back
+            assertEquals(0, codec.getRefCount());
+            total += batch;
+        }
+    }
+
+    @Test
+    public void testSharedFactoryIsReferencedOnce() throws IOException {
+        ItemRecordCodec codec = new ItemRecordCodec();
+        FileInputStreamFactory factory = new FileInputStreamFactory(Paths.get("folder"));
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(newItem(i, factory));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(codec, items)));
+        assertEquals(1, codec.getRefCount());
+        for (int i = 0; i < 100; i++) {
+            assertSame(factory, codec.read(in).getInputStreamFactory());
+            assertEquals(i < 99 ? 1 : 0, codec.getRefCount());
+        }
+    }
+
+    @Test
+    public void testRefsOfRecordsNotReadAreLimited() throws IOException {
+        ItemRecordCodec codec = new ItemRecordCodec();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < ItemRecordCodec.MAX_REFS; i++) {
+            items.add(newItem(i, new FileInputStreamFactory(Paths.get("folder" + i))));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(codec, items)));
+
+        Item next = newItem(-1, new FileInputStreamFactory(Paths.get("other")));
+        assertFalse(codec.canWrite(next));
+        // items sharing a factory already referenced can still be written
+        assertTrue(codec.canWrite(newItem(-2, items.get(0).getInputStreamFactory())));
+
+        codec.read(in);
+        assertTrue(codec.canWrite(next));
+    }
+
+    @Test
+    public void testMetadataFactoryUsesRestoredMetadata() throws IOException {
+        ItemRecordCodec codec = new ItemRecordCodec();
+        Item item = newItem(0, null);
+        item.getMetadata().set("meta", "value");
+        item.setInputStreamFactory(new MetadataInputStreamFactory(item.getMetadata(), true));
+
+        List<Item> items = new ArrayList<>();
+        items.add(item);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(write(codec, items)));
+        assertEquals(0, codec.getRefCount());
+
+        Item read = codec.read(in);
+        assertEquals("value", read.getMetadata().get("meta"));
+        MetadataInputStreamFactory factory = (MetadataInputStreamFactory) read.getInputStreamFactory();
+        assertSame(read.getMetadata(), factory.getMetadata());
+        assertTrue(factory.isFromMetadataPreview());
+
+        // factories over other metadata objects can not be created again
+        Item other = newItem(1, new MetadataInputStreamFactory(new Metadata()));
+        assertFalse(codec.canWrite(other));
+    }
+
+}
@@ -0,0 +1,158 @@
+package iped.engine.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+import org.neo4j.graphdb.RelationshipType;
+
+public class GraphFileWriterTest {
+
+    private static final int NUM_THREADS = 4;
+    private static final int NUM_NODES = 2000;
+
+    private static final DynLabel PERSON = DynLabel.label("Person");
+    private static final RelationshipType KNOWS = DynRelationshipType.withName("knows");
+
+    /**
+     * Each thread writes all nodes, so every node is duplicated across shards,
+     * and a few nodes are replaced by others.
+     */
+    private static void writeGraph(GraphFileWriter writer, int thread) throws Exception {
+        for (int i = 0; i < NUM_NODES; i++) {
+            Map<String, Object> props = new LinkedHashMap<>();
+            props.put("name", "name" + i);
+            props.put("source", "t" + thread);
+            writer.writeNode(PERSON, "id", "p" + i, props);
+            if (i > 0) {
+                writer.writeRelationship(PERSON, "id", "p" + i, PERSON, "id", "p" + (i - 1), KNOWS,
+                        Collections.singletonMap("thread", "t" + thread));
+            }
+            if (i % 100 == 50) {
+                writer.writeNodeReplace(PERSON, "id", "p" + i, uniqueId("p" + (i - 50)));
+            }
+        }
+    }
+
+    private static String uniqueId(String id) {
+        return DigestUtils.md5Hex(PERSON.name() + "_id_" + id);
+    }
+
+    private static File writeSingle() throws Exception {
+        File dir = Files.createTempDirectory("graph-single").toFile();
+        GraphFileWriter writer = new GraphFileWriter(dir, null);
+        for (int t = 0; t < NUM_THREADS; t++) {
+            writeGraph(writer, t);
+        }
+        writer.close();
+        return dir;
+    }
+
+    private static File writeSharded(int shards) throws Exception {
+        File dir = Files.createTempDirectory("graph-sharded").toFile();
+        GraphFileWriter writer = new GraphFileWriter(dir, null, shards);
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < NUM_THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                writeGraph(writer, thread);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        writer.close();
+        return dir;
+    }
+
+    private static List<String> readLines(File dir, String prefix) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(".csv") && !name.contains("_headers_")) {
+                lines.addAll(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+            }
+        }
+        return lines;
+    }
+
+    private static String nodeId(String line) {
+        return line.substring(1, line.indexOf("\",\""));
+    }
+
+    @Test
+    public void testShardedOutputMatchesSingleWriter() throws Exception {
+        File single = writeSingle();
+        File sharded = writeSharded(3);
+
+        List<String> nodes = readLines(sharded, GraphFileWriter.NODE_CSV_PREFIX);
+        assertEquals(readLines(single, GraphFileWriter.NODE_CSV_PREFIX), nodes);
+
+        // sorted by id, without duplicates nor replaced nodes
+        assertEquals(NUM_NODES - NUM_NODES / 100, nodes.size());
+        for (int i = 1; i < nodes.size(); i++) {
+            assertTrue(nodeId(nodes.get(i - 1)).compareTo(nodeId(nodes.get(i))) < 0);
+        }
+        for (String line : nodes) {
+            assertFalse(nodeId(line).equals(uniqueId("p50")));
+        }
+        // merged node keeps values written by all threads and replaced nodes
+        String merged = nodes.stream().filter(l -> nodeId(l).equals(uniqueId("p0"))).findFirst().get();
+        assertTrue(merged.contains("name0;name50"));
+        assertTrue(merged.contains("t0;t1;t2;t3"));
+
+        // shards were merged into the main node file
+        for (File file : sharded.listFiles()) {
+            assertFalse(file.getName().startsWith(GraphFileWriter.NODE_CSV_PREFIX) && file.getName().contains("-s"));
+        }
+
+        List<String> rels = readLines(sharded, "relationships");
+        List<String> expectedRels = readLines(single, "relationships");
+        assertEquals(NUM_THREADS * (NUM_NODES - 1), rels.size());
+        Collections.sort(rels);
+        Collections.sort(expectedRels);
+        assertEquals(expectedRels, rels);
+    }
+
+    @Test
+    public void testExternalSortSpillsAndMerges() throws Exception {
+        File dir = Files.createTempDirectory("linesorter").toFile();
+        Random random = new Random(0);
+        List<String> expected = new ArrayList<>();
+        try (ExternalLineSorter sorter = new ExternalLineSorter(dir, "test", 20000)) {
+            for (int i = 0; i < 10000; i++) {
+                String line = Long.toHexString(random.nextLong()) + "\t" + i;
+                expected.add(line);
+                sorter.add(line);
+            }
+            assertTrue(dir.listFiles().length > 1);
+            Collections.sort(expected);
+            List<String> sorted = new ArrayList<>();
+            String line;
+            while ((line = sorter.next()) != null) {
+                sorted.add(line);
+            }
+            assertEquals(expected, sorted);
+        }
+        assertEquals(0, dir.listFiles().length);
+    }
+
+}
@@ -0,0 +1,81 @@
+package iped.engine.hashdb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LedHashDBTest {
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < 16; i++) {
+            int cmp = Integer.compare(a[i] & 255, b[i] & 255);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    @Test
+    public void testBatchLookupMatchesBinarySearch() {
+        Random random = new Random(0);
+        TreeSet<byte[]> sorted = new TreeSet<>(LedHashDBTest::compare);
+        while (sorted.size() < 20000) {
+            byte[] hash = new byte[16];
+            random.nextBytes(hash);
+            sorted.add(hash);
+            if (sorted.size() % 100 == 0) {
+                // hashes with the same first bytes
+                byte[] other = hash.clone();
+                other[15]++;
+                sorted.add(other);
+            }
+        }
+        byte[] md5_512 = new byte[sorted.size() * 16];
+        int pos = 0;
+        for (byte[] hash : sorted) {
+            System.arraycopy(hash, 0, md5_512, pos, 16);
+            pos += 16;
+        }
+        byte[][] all = sorted.toArray(new byte[0][]);
+        LedHashDB db = new LedHashDB(md5_512, new byte[0], new int[sorted.size()]);
+
+        int batch = 2048;
+        byte[] hashes = new byte[batch * 16];
+        long[] keys = new long[batch];
+        int[] hits = new int[batch];
+        for (int round = 0; round < 20; round++) {
+            int expected = 0;
+            for (int i = 0; i < batch; i++) {
+                byte[] hash;
+                if (random.nextInt(4) == 0) {
+                    hash = all[random.nextInt(all.length)].clone();
+                } else {
+                    hash = new byte[16];
+                    random.nextBytes(hash);
+                    if (random.nextBoolean()) {
+                        // shares the first bytes with a hash in the base
+                        System.arraycopy(all[random.nextInt(all.length)], 0, hash, 0, 12);
+                    }
+                }
+                System.arraycopy(hash, 0, hashes, i * 16, 16);
+                keys[i] = LedHashDB.sortKey(hashes, i * 16, i);
+                if (db.containsMD5_512(hash)) {
+                    expected++;
+                }
+            }
+            Arrays.sort(keys);
+            int numHits = db.findMD5_512(keys, batch, hashes, hits);
+            assertEquals(expected, numHits);
+            for (int i = 0; i < numHits; i++) {
+                int index = hits[i];
+                assertEquals(true, db.containsMD5_512(Arrays.copyOfRange(hashes, index * 16, index * 16 + 16)));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package iped.engine.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CharSegmentPipeTest {
+
+    private static Thread startProducer(CharSegmentPipe pipe, String text, long seed) {
+        Thread producer = new Thread(() -> {
+            Random random = new Random(seed);
+            try (Writer writer = pipe.getWriter()) {
+                int off = 0;
+                while (off < text.length()) {
+                    int len = Math.min(text.length() - off, random.nextInt(3 * CharSegmentPipe.SEGMENT_SIZE));
+                    if (random.nextBoolean()) {
+                        writer.write(text, off, len);
+                    } else {
+                        writer.write(text.substring(off, off + len).toCharArray());
+                    }
+                    off += len;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pipe.release();
+            }
+        });
+        producer.start();
+        return producer;
+    }
+
+    private static String randomText(int size) {
+        Random random = new Random(size);
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testReader() throws Exception {
+        String text = randomText(1 << 20);
+        CharSegmentPipe pipe = new CharSegmentPipe(4, 60);
+        Thread producer = startProducer(pipe, text, 1);
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = pipe.getReader()) {
+            char[] buf = new char[1000];
+            int len;
+            while ((len = reader.read(buf)) != -1) {
+                result.append(buf, 0, len);
+            }
+        }
+        producer.join();
+        assertEquals(text, result.toString());
+    }
+
+    @Test
+    public void testSegmentConsumer() throws Exception {
+        String text = randomText(1 << 20);
+        CharSegmentPipe pipe = new CharSegmentPipe(60);
+        Thread producer = startProducer(pipe, text, 2);
+        StringBuilder result = new StringBuilder();
+        while (pipe.read((buf, off, len) -> result.append(buf, off, len)) != -1)
+            ;
+        pipe.getReader().close();
+        producer.join();
+        assertEquals(text, result.toString());
+    }
+
+    @Test
+    public void testClosedReaderStopsWriter() throws Exception {
+        CharSegmentPipe pipe = new CharSegmentPipe(2, 60);
+        pipe.getReader().close();
+        try {
+            pipe.getWriter().write(new char[10]);
+            fail("Write to closed pipe should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testTimeout() throws Exception {
+        CharSegmentPipe pipe = new CharSegmentPipe(2, 1);
+        pipe.getReader().read(new char[10]);
+    }
+
+}
@@ -0,0 +1,218 @@
+package iped.engine.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import iped.engine.config.ContentStorageConfig.Compression;
+import iped.io.SeekableInputStream;
+import iped.utils.HashValue;
+
+public class SegmentContentStoreTest {
+
+    private static byte[] newContent(Random random, int len) {
+        byte[] content = new byte[len];
+        if (random.nextBoolean()) {
+            random.nextBytes(content);
+        } else {
+            // compressible
+            for (int i = 0; i < len; i++) {
+                content[i] = (byte) ('a' + random.nextInt(3));
+            }
+        }
+        return content;
+    }
+
+    private static List<byte[]> newContents(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            contents.add(newContent(random, 100 + random.nextInt(3000)));
+        }
+        return contents;
+    }
+
+    private static byte[] md5(byte[] content) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("MD5").digest(content);
+    }
+
+    private static void put(SegmentContentStore store, byte[] content) throws Exception {
+        // a bigger buffer, like the ones reused by callers
+        byte[] buf = Arrays.copyOf(content, content.length + 100);
+        assertTrue(store.put(md5(content), buf, content.length));
+    }
+
+    private static void assertContent(SegmentContentStore store, byte[] content) throws Exception {
+        try (SeekableInputStream is = store.get(md5(content))) {
+            assertEquals(content.length, is.size());
+            assertArrayEquals(content, is.readAllBytes());
+        }
+    }
+
+    private static File[] segmentFiles(File dir) {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("segment-"));
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        for (Compression compression : Compression.values()) {
+            File dir = Files.createTempDirectory("segments").toFile();
+            // small segments, so contents are read from filled and growing ones
+            SegmentContentStore store = SegmentContentStore.getForWriting(dir, compression, 3, 16 * 1024);
+            List<byte[]> contents = newContents(200, compression.ordinal());
+            for (byte[] content : contents) {
+                put(store, content);
+                assertContent(store, content);
+            }
+            // already stored
+            byte[] first = contents.get(0);
+            assertFalse(store.put(md5(first), first, first.length));
+            assertNull(store.get(md5("not stored".getBytes())));
+            assertFalse(store.contains(md5("not stored".getBytes())));
+            for (byte[] content : contents) {
+                assertTrue(store.contains(md5(content)));
+                assertContent(store, content);
+            }
+            assertTrue(segmentFiles(dir).length > 1);
+            store.close();
+
+            store = SegmentContentStore.get(dir);
+            for (byte[] content : contents) {
+                assertContent(store, content);
+            }
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopenAfterCrashWithTruncatedSegment() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        SegmentContentStore store = SegmentContentStore.getForWriting(dir, Compression.NONE, 3, 1 << 30);
+        List<byte[]> contents = newContents(20, 1);
+        for (byte[] content : contents.subList(0, 15)) {
+            put(store, content);
+        }
+        store.commit();
+        // not committed, the last one will be partially written
+        for (byte[] content : contents.subList(15, 20)) {
+            put(store, content);
+        }
+
+        // copies the files as left by a crash
+        File crashDir = Files.createTempDirectory("segments").toFile();
+        for (File file : dir.listFiles()) {
+            Files.copy(file.toPath(), new File(crashDir, file.getName()).toPath());
+        }
+        store.close();
+
+        File[] segments = segmentFiles(crashDir);
+        assertEquals(1, segments.length);
+        long segmentSize = segments[0].length();
+        byte[] last = contents.get(19);
+        try (FileChannel fc = FileChannel.open(segments[0].toPath(), StandardOpenOption.WRITE)) {
+            fc.truncate(segmentSize - last.length / 2 - 1);
+        }
+        // and a partially written index entry
+        try (FileChannel fc = FileChannel.open(new File(crashDir, "index.dat").toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            fc.write(ByteBuffer.wrap(new byte[10]));
+        }
+
+        store = SegmentContentStore.getForWriting(crashDir, Compression.NONE, 3, 1 << 30);
+        for (byte[] content : contents.subList(0, 19)) {
+            assertTrue(store.contains(md5(content)));
+            assertContent(store, content);
+        }
+        assertFalse(store.contains(md5(last)));
+        // the partial record was discarded
+        assertEquals(segmentSize - last.length - 25, segments[0].length());
+        put(store, last);
+        store.close();
+
+        store = SegmentContentStore.get(crashDir);
+        for (byte[] content : contents) {
+            assertContent(store, content);
+        }
+        store.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        SegmentContentStore store = SegmentContentStore.getForWriting(dir, Compression.LZ4, 3, 16 * 1024);
+        List<byte[]> contents = newContents(100, 2);
+        Set<HashValue> kept = new HashSet<>();
+        for (int i = 0; i < contents.size(); i++) {
+            put(store, contents.get(i));
+            if (i < 50) {
+                kept.add(new HashValue(md5(contents.get(i))));
+            }
+        }
+        store.commit();
+        File[] oldSegments = segmentFiles(dir);
+
+        // nothing to remove
+        assertEquals(0, store.compact(hash -> true));
+        assertArrayEquals(oldSegments, segmentFiles(dir));
+
+        assertEquals(50, store.compact(kept::contains));
+        for (File segment : oldSegments) {
+            assertFalse(segment.exists());
+        }
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(i < 50, store.contains(md5(contents.get(i))));
+        }
+        for (byte[] content : contents.subList(0, 50)) {
+            assertContent(store, content);
+        }
+
+        // still writable
+        byte[] removed = contents.get(99);
+        put(store, removed);
+        store.close();
+
+        store = SegmentContentStore.get(dir);
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(i < 50 || i == 99, store.contains(md5(contents.get(i))));
+        }
+        for (byte[] content : contents.subList(0, 50)) {
+            assertContent(store, content);
+        }
+        assertContent(store, removed);
+        store.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testPutNotWritable() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        SegmentContentStore store = SegmentContentStore.get(dir);
+        try {
+            byte[] content = "content".getBytes();
+            store.put(md5(content), content, content.length);
+        } finally {
+            store.close();
+        }
+    }
+
+}
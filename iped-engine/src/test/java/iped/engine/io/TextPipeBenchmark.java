@@ -0,0 +1,141 @@
+package iped.engine.io;
+
+import java.io.IOException;
+import java.io.PipedReader;
+import java.io.PipedWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import iped.engine.util.TextCache;
+
+/**
+ * Measures the handoff of extracted text from a parsing thread to the worker,
+ * for text sizes of typical and large PDF/DOCX documents. The producer writes
+ * chunks of the size SAX parsers usually report in characters() calls, the
+ * consumer stores them in a {@link TextCache}, like ParsingTask does. A
+ * synchronized JDK pipe is used as baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class TextPipeBenchmark {
+
+    @Param({ "1048576", "8388608", "33554432" })
+    private int textSize;
+
+    @Param({ "64", "4096" })
+    private int chunkSize;
+
+    private char[] text;
+    private ExecutorService producer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        text = new char[textSize];
+        Random random = new Random(0);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(8) == 0 ? ' ' : (char) ('a' + random.nextInt(26));
+        }
+        producer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        producer.shutdownNow();
+    }
+
+    private Future<?> produce(Writer writer, Runnable end) {
+        return producer.submit(() -> {
+            try {
+                for (int off = 0; off < text.length; off += chunkSize) {
+                    writer.write(text, off, Math.min(chunkSize, text.length - off));
+                }
+                writer.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                end.run();
+            }
+        });
+    }
+
+    private static TextCache newTextCache() {
+        TextCache textCache = new TextCache();
+        textCache.setEnableDiskCache(false);
+        return textCache;
+    }
+
+    @Benchmark
+    public long jdkPipedReader() throws Exception {
+        PipedReader reader = new PipedReader(128 * 1024);
+        Future<?> future = produce(new PipedWriter(reader), () -> {
+        });
+        TextCache textCache = newTextCache();
+        char[] cbuf = new char[128 * 1024];
+        int len;
+        while ((len = reader.read(cbuf)) != -1) {
+            textCache.write(cbuf, 0, len);
+        }
+        reader.close();
+        future.get();
+        return textCache.getSize();
+    }
+
+    @Benchmark
+    public long segmentPipeReader() throws Exception {
+        CharSegmentPipe pipe = new CharSegmentPipe(60);
+        Future<?> future = produce(pipe.getWriter(), pipe::release);
+        TextCache textCache = newTextCache();
+        Reader reader = pipe.getReader();
+        char[] cbuf = new char[128 * 1024];
+        int len;
+        while ((len = reader.read(cbuf)) != -1) {
+            textCache.write(cbuf, 0, len);
+        }
+        reader.close();
+        future.get();
+        return textCache.getSize();
+    }
+
+    @Benchmark
+    public long segmentPipeTransfer() throws Exception {
+        CharSegmentPipe pipe = new CharSegmentPipe(60);
+        Future<?> future = produce(pipe.getWriter(), pipe::release);
+        TextCache textCache = newTextCache();
+        while (pipe.read(textCache::write) != -1)
+            ;
+        pipe.getReader().close();
+        future.get();
+        return textCache.getSize();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TextPipeBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
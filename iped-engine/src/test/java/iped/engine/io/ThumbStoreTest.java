@@ -0,0 +1,155 @@
+package iped.engine.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ThumbStoreTest {
+
+    private static final int RECORD_HEADER_LEN = 20;
+
+    private static byte[] hash(int i) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(("item" + i).getBytes());
+    }
+
+    /**
+     * Some thumbs are empty, as stored when thumb generation fails.
+     */
+    private static List<byte[]> newThumbs(int count, long seed) {
+        Random random = new Random(seed);
+        List<byte[]> thumbs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] thumb = new byte[random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(20000)];
+            random.nextBytes(thumb);
+            thumbs.add(thumb);
+        }
+        return thumbs;
+    }
+
+    private static void assertThumbs(ThumbStore store, List<byte[]> thumbs, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            assertArrayEquals(thumbs.get(i), store.get(hash(i)));
+        }
+    }
+
+    private static long recordsLength(List<byte[]> thumbs, int from, int to) {
+        long len = 0;
+        for (byte[] thumb : thumbs.subList(from, to)) {
+            len += RECORD_HEADER_LEN + thumb.length;
+        }
+        return len;
+    }
+
+    @Test
+    public void testBatchedAppendsAndReadBack() throws Exception {
+        File dir = Files.createTempDirectory("thumbs").toFile();
+        ThumbStore store = ThumbStore.get(dir);
+        assertSame(store, ThumbStore.get(dir));
+
+        int numThreads = 4;
+        int perThread = 500;
+        List<byte[]> thumbs = newThumbs(numThreads * perThread, 0);
+        List<Exception> errors = new ArrayList<>();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            int start = t * perThread;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = start; i < start + perThread; i++) {
+                        store.put(hash(i), thumbs.get(i));
+                        // visible while still queued
+                        assertArrayEquals(thumbs.get(i), store.get(hash(i)));
+                    }
+                } catch (Exception | AssertionError e) {
+                    synchronized (errors) {
+                        errors.add(new Exception(e));
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(new ArrayList<>(), errors);
+        assertNull(store.get(hash(-1)));
+
+        // the first thumb of a hash is kept
+        store.put(hash(0), new byte[] { 1, 2, 3 });
+        store.commit();
+        assertThumbs(store, thumbs, 0, thumbs.size());
+        assertEquals(recordsLength(thumbs, 0, thumbs.size()), new File(dir, "thumbs.dat").length());
+
+        store.put(hash(0), new byte[] { 1, 2, 3 });
+        store.close();
+        assertEquals(recordsLength(thumbs, 0, thumbs.size()), new File(dir, "thumbs.dat").length());
+
+        ThumbStore reopened = ThumbStore.get(dir);
+        assertThumbs(reopened, thumbs, 0, thumbs.size());
+        reopened.close();
+    }
+
+    @Test
+    public void testRecoveryOfTruncatedPack() throws Exception {
+        File dir = Files.createTempDirectory("thumbs").toFile();
+        ThumbStore store = ThumbStore.get(dir);
+        List<byte[]> thumbs = newThumbs(300, 1);
+        // the last one is not empty, so it can be partially written
+        thumbs.set(299, new byte[1000]);
+        for (int i = 0; i < 100; i++) {
+            store.put(hash(i), thumbs.get(i));
+        }
+        store.commit();
+        long committedIndexLen = new File(dir, "index.dat").length();
+        for (int i = 100; i < 300; i++) {
+            store.put(hash(i), thumbs.get(i));
+        }
+        store.close();
+
+        // as left by a crash after writing thumbs, before indexing them
+        File crashDir = Files.createTempDirectory("thumbs").toFile();
+        for (File file : dir.listFiles()) {
+            Files.copy(file.toPath(), new File(crashDir, file.getName()).toPath());
+        }
+        File dataFile = new File(crashDir, "thumbs.dat");
+        File indexFile = new File(crashDir, "index.dat");
+        long dataLen = dataFile.length();
+        try (FileChannel fc = FileChannel.open(dataFile.toPath(), StandardOpenOption.WRITE)) {
+            fc.truncate(dataLen - 500);
+        }
+        try (FileChannel fc = FileChannel.open(indexFile.toPath(), StandardOpenOption.WRITE)) {
+            fc.truncate(committedIndexLen);
+            // and a partially written index entry
+            fc.write(ByteBuffer.wrap(new byte[10]), committedIndexLen);
+        }
+
+        store = ThumbStore.get(crashDir);
+        assertThumbs(store, thumbs, 0, 299);
+        assertNull(store.get(hash(299)));
+        // the partial record was discarded
+        assertEquals(recordsLength(thumbs, 0, 299), dataFile.length());
+        assertEquals(committedIndexLen + 199 * 24, indexFile.length());
+
+        store.put(hash(299), thumbs.get(299));
+        store.close();
+
+        store = ThumbStore.get(crashDir);
+        assertThumbs(store, thumbs, 0, 300);
+        assertEquals(dataLen, dataFile.length());
+        store.close();
+    }
+
+}
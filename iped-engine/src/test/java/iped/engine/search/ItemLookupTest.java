@@ -0,0 +1,223 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.queryparser.flexible.standard.QueryParserUtil;
+import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import iped.data.IItemReader;
+import iped.engine.data.Item;
+import iped.engine.lucene.analysis.StandardASCIIAnalyzer;
+import iped.engine.task.index.IndexItem;
+import iped.properties.BasicProps;
+import iped.search.IItemSearcher;
+
+public class ItemLookupTest {
+
+    private static final String LONG_DIR = buildLongDir();
+
+    private static String buildLongDir() {
+        StringBuilder sb = new StringBuilder("/img/Long");
+        for (int i = 0; sb.length() <= IndexItem.MAX_DOCVALUE_SIZE; i++) {
+            sb.append("/dir").append(i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Items differing in case or accents, with the same path or name, and with
+     * paths longer than indexed in doc values, sharing the indexed prefix.
+     */
+    private static final String[][] ITEMS = { //
+            { "/img/Users/john/NTUSER.DAT", "NTUSER.DAT" }, //
+            { "/img/Users/mary/ntuser.dat", "ntuser.dat" }, //
+            { "/img/Users/mary/ntuser.dat.LOG1", "ntuser.dat.LOG1" }, //
+            { "/img/Documents/Relatório.docx", "Relatório.docx" }, //
+            { "/img/Documents/Relatorio.docx", "Relatorio.docx" }, //
+            { "/img/Documents/copy of Relatório.docx", "copy of Relatório.docx" }, //
+            { "/img/Carved/Relatório.docx", "Relatório.docx" }, //
+            { "/img/Carved/Relatório.docx", "Relatório.docx" }, //
+            { "/img/data/msgstore.db", "msgstore.db" }, //
+            { "/img/data/msgstore.db-wal", "msgstore.db-wal" }, //
+            { LONG_DIR + "/a.txt", "a.txt" }, //
+            { LONG_DIR + "/b.txt", "b.txt" }, //
+            { LONG_DIR + "/deleted.txt", "deleted.txt" }, //
+            { "/img/deleted/NTUSER.DAT", "NTUSER.DAT" } };
+
+    private static final int DELETED = 12;
+
+    /**
+     * Searcher running a lucene phrase query for each path or name, like the
+     * IItemSearcher default implementation.
+     */
+    private static class PhraseQuerySearcher implements IItemSearcher {
+
+        private final IndexSearcher searcher;
+        private final StandardQueryParser parser;
+        private final Map<Integer, IItemReader> items;
+
+        private PhraseQuerySearcher(LeafReader reader, Map<Integer, IItemReader> items) {
+            this.searcher = new IndexSearcher(reader);
+            this.parser = new StandardQueryParser(new StandardASCIIAnalyzer());
+            this.items = items;
+        }
+
+        @Override
+        public List<IItemReader> search(String luceneQuery) {
+            List<IItemReader> result = new ArrayList<>();
+            try {
+                for (ScoreDoc sd : searcher.search(parser.parse(luceneQuery, BasicProps.NAME), 1000).scoreDocs) {
+                    int id = searcher.getIndexReader().document(sd.doc).getField(IndexItem.ID).numericValue()
+                            .intValue();
+                    result.add(items.get(id));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return result;
+        }
+
+        @Override
+        public Iterable<IItemReader> searchIterable(String luceneQuery) {
+            return search(luceneQuery);
+        }
+
+        @Override
+        public String escapeQuery(String string) {
+            return QueryParserUtil.escape(string);
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static Item newItem(int id, String path, String name) {
+        Item item = new Item();
+        item.setId(id);
+        item.setPath(path);
+        item.setName(name);
+        return item;
+    }
+
+    /**
+     * Indexes path and name like IndexItem does.
+     */
+    private static Document newDocument(Item item) {
+        Document doc = new Document();
+        doc.add(new IntPoint(IndexItem.ID, item.getId()));
+        doc.add(new StoredField(IndexItem.ID, item.getId()));
+        doc.add(new NumericDocValuesField(IndexItem.ID, item.getId()));
+        doc.add(new TextField(IndexItem.NAME, item.getName(), Field.Store.YES));
+        doc.add(new SortedDocValuesField(IndexItem.NAME, new BytesRef(IndexItem.normalize(item.getName(), true))));
+        String path = item.getPath();
+        doc.add(new TextField(IndexItem.PATH, path, Field.Store.YES));
+        if (path.length() > IndexItem.MAX_DOCVALUE_SIZE) {
+            path = path.substring(0, IndexItem.MAX_DOCVALUE_SIZE);
+        }
+        doc.add(new SortedDocValuesField(IndexItem.PATH, new BytesRef(IndexItem.normalize(path, true))));
+        return doc;
+    }
+
+    private static Map<String, TreeSet<Integer>> toIds(Map<String, List<IItemReader>> itemsByValue) {
+        Map<String, TreeSet<Integer>> result = new TreeMap<>();
+        for (Map.Entry<String, List<IItemReader>> entry : itemsByValue.entrySet()) {
+            TreeSet<Integer> ids = new TreeSet<>();
+            for (IItemReader item : entry.getValue()) {
+                assertTrue(ids.add(item.getId()));
+            }
+            result.put(entry.getKey(), ids);
+        }
+        return result;
+    }
+
+    private static Collection<String> withCaseVariants(Collection<String> values) {
+        List<String> result = new ArrayList<>(values);
+        for (String value : values) {
+            result.add(value.toUpperCase());
+            result.add(value.toLowerCase());
+        }
+        result.add("not found");
+        result.add(null);
+        return result;
+    }
+
+    @Test
+    public void testSameResultsAsPhraseQueries() throws IOException {
+        Map<Integer, IItemReader> items = new HashMap<>();
+        List<String> paths = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (ByteBuffersDirectory dir = new ByteBuffersDirectory()) {
+            try (IndexWriter iw = new IndexWriter(dir, new IndexWriterConfig(new StandardASCIIAnalyzer()))) {
+                for (int id = 0; id < ITEMS.length; id++) {
+                    Item item = newItem(id, ITEMS[id][0], ITEMS[id][1]);
+                    iw.addDocument(newDocument(item));
+                    if (id != DELETED) {
+                        items.put(id, item);
+                    }
+                    paths.add(item.getPath());
+                    names.add(item.getName());
+                }
+                iw.deleteDocuments(IntPoint.newExactQuery(IndexItem.ID, DELETED));
+                // a path longer than indexed in doc values, not indexed
+                paths.add(LONG_DIR + "/c.txt");
+            }
+            try (DirectoryReader reader = DirectoryReader.open(dir)) {
+                assertEquals(1, reader.leaves().size());
+                LeafReader leafReader = reader.leaves().get(0).reader();
+                assertTrue(leafReader.hasDeletions());
+
+                ItemLookup lookup = new ItemLookup(leafReader);
+                assertSame(leafReader, lookup.getReader());
+                PhraseQuerySearcher searcher = new PhraseQuerySearcher(leafReader, items);
+
+                Collection<String> values = withCaseVariants(paths);
+                Map<String, TreeSet<Integer>> expected = toIds(searcher.searchByPaths(values));
+                Map<String, TreeSet<Integer>> result = toIds(
+                        ItemSearcher.getItems(lookup.lookupPaths(values), true, items::get));
+                assertEquals(expected, result);
+                assertEquals(Arrays.asList(6, 7), new ArrayList<>(result.get("/img/Carved/Relatório.docx")));
+                assertEquals(Arrays.asList(10), new ArrayList<>(result.get(LONG_DIR + "/a.txt")));
+                assertFalse(result.containsKey(LONG_DIR + "/deleted.txt"));
+                assertFalse(result.containsKey(LONG_DIR + "/c.txt"));
+
+                values = withCaseVariants(names);
+                expected = toIds(searcher.searchByNames(values));
+                result = toIds(ItemSearcher.getItems(lookup.lookupNames(values), false, items::get));
+                assertEquals(expected, result);
+                assertEquals(Arrays.asList(0, 1, 13), new ArrayList<>(result.get("NTUSER.DAT")));
+                assertEquals(Arrays.asList(3, 6, 7), new ArrayList<>(result.get("Relatório.docx")));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package iped.engine.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class KnnCandidatesTest {
+
+    private static final String FIELD = "faceFeatures";
+
+    private static final int NUM_DOCS = 1000;
+
+    /**
+     * Doc i has a vector at squared distance i from the origin, faces after the
+     * first one of each image are indexed in other fields.
+     */
+    private static ByteBuffersDirectory newIndex() throws IOException {
+        ByteBuffersDirectory dir = new ByteBuffersDirectory();
+        try (IndexWriter iw = new IndexWriter(dir, new IndexWriterConfig())) {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", String.valueOf(i), Field.Store.YES));
+                doc.add(new KnnVectorField(FIELD, new float[] { (float) Math.sqrt(i), 0 }));
+                if (i % 10 == 0) {
+                    doc.add(new KnnVectorField(FIELD + "1", new float[] { 0, (float) Math.sqrt(i) }));
+                }
+                iw.addDocument(doc);
+            }
+            // lucene ids are the doc numbers
+            iw.forceMerge(1);
+        }
+        return dir;
+    }
+
+    private static float[] origin() {
+        return new float[] { 0, 0 };
+    }
+
+    @Test
+    public void testGetVectorFields() throws IOException {
+        try (ByteBuffersDirectory dir = newIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            assertEquals(Arrays.asList(FIELD, FIELD + "1"), KnnCandidates.getVectorFields(reader, FIELD));
+            assertTrue(KnnCandidates.getVectorFields(reader, "imageFeatures").isEmpty());
+            // not a vector field
+            assertTrue(KnnCandidates.getVectorFields(reader, "id").isEmpty());
+        }
+    }
+
+    @Test
+    public void testSearch() throws IOException {
+        try (ByteBuffersDirectory dir = newIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            RoaringBitmap docs = KnnCandidates.search(searcher, FIELD, origin(), 50);
+            assertEquals(50, docs.getCardinality());
+            // approximate, but the nearest ones are found in such a small graph
+            for (int i = 0; i < 10; i++) {
+                assertTrue(docs.contains(i));
+            }
+        }
+    }
+
+    @Test
+    public void testSearchRejectsTooManyNeighbors() throws IOException {
+        try (ByteBuffersDirectory dir = newIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            RoaringBitmap docs = KnnCandidates.search(searcher, FIELD, origin(), KnnCandidates.MAX_K);
+            assertEquals(NUM_DOCS, docs.getCardinality());
+            for (int k : new int[] { 0, KnnCandidates.MAX_K + 1 }) {
+                try {
+                    KnnCandidates.search(searcher, FIELD, origin(), k);
+                    fail("k=" + k + " must be rejected");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSearchWithin() throws IOException {
+        try (ByteBuffersDirectory dir = newIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            // k is doubled until the farthest neighbor is beyond the distance
+            RoaringBitmap docs = KnnCandidates.searchWithin(searcher, FIELD, origin(), 100.5f, 4);
+            for (int i = 0; i <= 100; i++) {
+                assertTrue(docs.contains(i));
+            }
+            assertTrue(docs.getCardinality() <= 128);
+
+            docs = KnnCandidates.searchWithin(searcher, FIELD + "1", origin(), 100.5f, 4);
+            for (int i = 0; i <= 100; i += 10) {
+                assertTrue(docs.contains(i));
+            }
+
+            // all docs are within the distance
+            docs = KnnCandidates.searchWithin(searcher, FIELD, origin(), 2 * NUM_DOCS, 4);
+            assertEquals(NUM_DOCS, docs.getCardinality());
+        }
+    }
+
+    @Test
+    public void testSearchWithinTooManyNeighbors() throws IOException {
+        try (ByteBuffersDirectory dir = newIndex(); DirectoryReader reader = DirectoryReader.open(dir)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            // candidates would be incomplete, so all items must be scored
+            assertNull(KnnCandidates.searchWithin(searcher, FIELD, origin(), 2 * NUM_DOCS, 4, 256));
+            RoaringBitmap docs = KnnCandidates.searchWithin(searcher, FIELD, origin(), 2 * NUM_DOCS, 4, 2 * NUM_DOCS);
+            assertEquals(NUM_DOCS, docs.getCardinality());
+        }
+    }
+
+}
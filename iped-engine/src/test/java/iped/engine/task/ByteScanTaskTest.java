@@ -0,0 +1,228 @@
+package iped.engine.task;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import iped.engine.data.Item;
+import iped.io.SeekableInputStream;
+import iped.utils.ByteBufferSeekableInputStream;
+import iped.utils.RandomFilterInputStream;
+import iped.utils.SeekableInputStreamFactory;
+
+public class ByteScanTaskTest {
+
+    private static final int CHUNK = ByteScanTask.CHUNK_SIZE;
+
+    private static final List<String> ALGORITHMS = Arrays.asList("md5", "sha-1", "sha-256", "edonkey");
+
+    static Item newItem(byte[] data) {
+        Item item = new Item();
+        item.setName("content.bin");
+        item.setPath("/content.bin");
+        item.setIdInDataSource("0");
+        item.setInputStreamFactory(new SeekableInputStreamFactory(null) {
+            @Override
+            public SeekableInputStream getSeekableInputStream(String identifier) {
+                return new ByteBufferSeekableInputStream(ByteBuffer.wrap(data));
+            }
+        });
+        item.setLength((long) data.length);
+        return item;
+    }
+
+    /**
+     * Random data with some constant and text like regions.
+     */
+    static byte[] newData(int len, long seed) {
+        Random random = new Random(seed);
+        byte[] data = new byte[len];
+        random.nextBytes(data);
+        for (int off = 0; off < len; off += 64 * 1024 + random.nextInt(50000)) {
+            int n = Math.min(len - off, random.nextInt(100000));
+            if (random.nextBoolean()) {
+                Arrays.fill(data, off, off + n, (byte) random.nextInt());
+            } else {
+                for (int i = 0; i < n; i++) {
+                    data[off + i] = (byte) ('a' + random.nextInt(4));
+                }
+            }
+        }
+        return data;
+    }
+
+    private static class RecordingConsumer implements ByteScanTask.Consumer {
+
+        private final byte[] data;
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private Exception error;
+        private int finished = 0;
+
+        private RecordingConsumer(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public boolean update(byte[] buf, int len, int lookahead, long position) {
+            assertEquals(content.size(), position);
+            assertTrue(len > 0 && len <= CHUNK);
+            // the lookahead is the beginning of the next chunk
+            int expectedLookahead = (int) Math.min(ByteScanTask.LOOKAHEAD_SIZE, data.length - position - len);
+            assertEquals(expectedLookahead, lookahead);
+            if (lookahead > 0) {
+                assertEquals(0, len % ByteScanTask.BLOCK_SIZE);
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, (int) position, (int) position + len + lookahead),
+                    Arrays.copyOfRange(buf, 0, len + lookahead));
+            content.write(buf, 0, len);
+            return true;
+        }
+
+        @Override
+        public void finish(Exception error) {
+            this.error = error;
+            finished++;
+        }
+    }
+
+    @Test
+    public void testChunksAndLookahead() throws Exception {
+        for (int len : new int[] { 0, 1000, CHUNK, CHUNK + 1, 2 * CHUNK + ByteScanTask.LOOKAHEAD_SIZE - 1,
+                3 * CHUNK + 70000 + 123 }) {
+            byte[] data = newData(len, len);
+            RecordingConsumer consumer = new RecordingConsumer(data);
+            assertEquals(len, ByteScanTask.scan(newItem(data), consumer));
+            assertArrayEquals(data, consumer.content.toByteArray());
+            assertEquals(1, consumer.finished);
+            assertNull(consumer.error);
+        }
+    }
+
+    @Test
+    public void testConsumerNotNeedingMoreData() throws Exception {
+        byte[] data = newData(3 * CHUNK, 1);
+        RecordingConsumer all = new RecordingConsumer(data);
+        int[] calls = new int[1];
+        ByteScanTask.Consumer first = new ByteScanTask.Consumer() {
+            @Override
+            public boolean update(byte[] buf, int len, int lookahead, long position) {
+                calls[0]++;
+                return false;
+            }
+
+            @Override
+            public void finish(Exception error) {
+                assertNull(error);
+                calls[0] += 10;
+            }
+        };
+        ByteScanTask.scan(newItem(data), Arrays.asList(first, all));
+        assertEquals(11, calls[0]);
+        assertArrayEquals(data, all.content.toByteArray());
+    }
+
+    @Test
+    public void testInterruptedScanReportsError() throws Exception {
+        byte[] data = newData(2 * CHUNK, 2);
+        RecordingConsumer consumer = new RecordingConsumer(data);
+
+        HashTask hashTask = new HashTask();
+        hashTask.initDigests(ALGORITHMS);
+        Item item = newItem(data);
+        ByteScanTask.Consumer hashConsumer = hashTask.createByteScanConsumer(item);
+
+        Thread.currentThread().interrupt();
+        try {
+            ByteScanTask.scan(item, Arrays.asList(consumer, hashConsumer));
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(consumer.error instanceof InterruptedIOException);
+        assertEquals(1, consumer.finished);
+        // a partial hash must not be stored
+        assertNull(item.getHash());
+        assertNull(item.getExtraAttribute("md5"));
+        assertNull(item.getExtraAttribute("ioError"));
+        hashTask.finish();
+    }
+
+    private static void assertHashParity(byte[] data) throws Exception {
+        // per task read
+        HashTask task = new HashTask();
+        task.initDigests(ALGORITHMS);
+        Item expected = newItem(data);
+        task.process(expected);
+        task.finish();
+
+        // shared read
+        HashTask scanTask = new HashTask();
+        scanTask.initDigests(ALGORITHMS);
+        Item item = newItem(data);
+        ByteScanTask.Consumer consumer = scanTask.createByteScanConsumer(item);
+        ByteScanTask.scan(item, Arrays.asList(new RecordingConsumer(data), consumer));
+        scanTask.finish();
+
+        assertEquals(HashTask.getHashString(MessageDigest.getInstance("MD5").digest(data)), item.getHash());
+        assertEquals(expected.getHash(), item.getHash());
+        for (String algorithm : ALGORITHMS) {
+            assertNotNull(item.getExtraAttribute(algorithm));
+            assertEquals(expected.getExtraAttribute(algorithm), item.getExtraAttribute(algorithm));
+        }
+    }
+
+    @Test
+    public void testHashParity() throws Exception {
+        // hashed inline
+        assertHashParity(newData(CHUNK + 4321, 3));
+        // hashed by the pipeline, edonkey blocks crossing chunks
+        assertHashParity(newData(HashTask.INLINE_HASH_MAX_SIZE + 3 * CHUNK + 777, 4));
+        assertHashParity(newData(9728000, 5));
+    }
+
+    private static Object perTaskCompressRatio(byte[] data) throws IOException {
+        try (RandomFilterInputStream rfis = new RandomFilterInputStream(new ByteArrayInputStream(data))) {
+            byte[] buf = new byte[64 * 1024];
+            while (rfis.read(buf) != -1)
+                ;
+            return rfis.getCompressRatio();
+        }
+    }
+
+    @Test
+    public void testEntropyParity() throws Exception {
+        List<byte[]> inputs = new ArrayList<>();
+        inputs.add(newData(3 * CHUNK + 70000 + 123, 6));
+        // last window shorter and longer than half of the window size
+        inputs.add(newData(2 * CHUNK + 20000, 7));
+        inputs.add(newData(2 * CHUNK + 40000, 8));
+        // whole random and whole compressible windows
+        byte[] random = new byte[CHUNK + 64 * 1024 * 3];
+        new Random(9).nextBytes(random);
+        inputs.add(random);
+        inputs.add(new byte[CHUNK + 64 * 1024 * 3 - 1024]);
+
+        for (byte[] data : inputs) {
+            Item item = newItem(data);
+            ByteScanTask.scan(item, Arrays.asList(new RecordingConsumer(data), new EntropyTask.CompressRatioConsumer(item)));
+            Object ratio = item.getExtraAttribute(EntropyTask.COMPRESS_RATIO);
+            assertNotNull(ratio);
+            assertEquals(perTaskCompressRatio(data), ratio);
+        }
+    }
+
+}
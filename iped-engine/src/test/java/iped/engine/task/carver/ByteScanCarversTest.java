@@ -0,0 +1,456 @@
+package iped.engine.task.carver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.apache.tika.mime.MediaType;
+import org.arabidopsis.ahocorasick.AhoCorasick;
+import org.arabidopsis.ahocorasick.CompiledAhoCorasick;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import iped.carvers.api.CarvedItemListener;
+import iped.carvers.api.Carver;
+import iped.carvers.api.CarverConfiguration;
+import iped.carvers.api.CarverType;
+import iped.carvers.api.Hit;
+import iped.carvers.api.Signature;
+import iped.data.IItem;
+import iped.engine.data.Item;
+import iped.engine.hashdb.LedHashDB;
+import iped.engine.hashdb.LedItem;
+import iped.engine.task.ByteScanTask;
+import iped.io.SeekableInputStream;
+import iped.utils.ByteBufferSeekableInputStream;
+import iped.utils.SeekableInputStreamFactory;
+
+/**
+ * Checks carving tasks find the same offsets when fed by {@link ByteScanTask},
+ * alone or sharing the read with other tasks, as when reading the item
+ * sequentially by themselves, including hits crossing chunks and hits needing
+ * the lookahead.
+ */
+public class ByteScanCarversTest {
+
+    private static final int CHUNK = ByteScanTask.CHUNK_SIZE;
+    private static final int BLOCK = 512;
+    private static final int HASH_64K_LEN = 65536;
+
+    private static final String JPG_HEADER = "\\FF\\D8\\FF\\E0";
+    private static final String SPLIT_HEADER = "RIFF????WAVE";
+
+    private static final int SIZE = 3 * CHUNK + 70000 + 123;
+
+    private static byte[] data;
+
+    private static Item newItem() {
+        Item item = new Item();
+        item.setName("unalloc");
+        item.setPath("/unalloc");
+        item.setIdInDataSource("0");
+        item.setMediaType(MediaType.OCTET_STREAM);
+        item.setInputStreamFactory(new SeekableInputStreamFactory(null) {
+            @Override
+            public SeekableInputStream getSeekableInputStream(String identifier) {
+                return new ByteBufferSeekableInputStream(ByteBuffer.wrap(data));
+            }
+        });
+        item.setLength((long) data.length);
+        return item;
+    }
+
+    private static void put(byte[] bytes, int offset) {
+        System.arraycopy(bytes, 0, data, offset, bytes.length);
+    }
+
+    @BeforeClass
+    public static void createData() {
+        Random random = new Random(0);
+        data = new byte[SIZE];
+        random.nextBytes(data);
+        // constant blocks, skipped by led carving
+        Arrays.fill(data, 5 * BLOCK, 9 * BLOCK, (byte) 0);
+
+        // known.met candidate blocks, at the end of chunks too
+        byte[] candidates = { 14, 15, -32, -30 };
+        for (int block = 0; block < SIZE / BLOCK; block += 97) {
+            data[block * BLOCK] = candidates[block % candidates.length];
+        }
+        data[CHUNK - BLOCK] = 14;
+        data[2 * CHUNK - BLOCK] = -32;
+        // the last partial block is not a candidate, as the old stream loop kept
+        // stale bytes of the previous block in that case
+        data[SIZE - SIZE % BLOCK] = 0;
+
+        byte[] jpg = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0 };
+        byte[] wav = "RIFF\0\0\0\0WAVE".getBytes();
+        // at the start, crossing chunks, inside the lookahead and at the end
+        for (int offset : new int[] { 0, 1000, CHUNK - 2, CHUNK - 1, 2 * CHUNK - 7, 2 * CHUNK + 5, SIZE - 4 }) {
+            put(jpg, offset);
+        }
+        for (int offset : new int[] { 10, CHUNK - 5, 2 * CHUNK - 11, 3 * CHUNK + 100, SIZE - 12 }) {
+            wav[4] = (byte) offset;
+            put(wav, offset);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    // Signature carving
+
+    public static class RecordingCarver implements Carver {
+
+        private static final Map<String, List<Long>> hits = Collections.synchronizedMap(new HashMap<>());
+
+        @Override
+        public void notifyHit(IItem parentEvidence, Hit hit) {
+            hits.computeIfAbsent(hit.getSignature().getCarverType().getName(), k -> new ArrayList<>())
+                    .add(hit.getOffset());
+        }
+
+        @Override
+        public void notifyEnd(IItem parentEvidence) {
+        }
+
+        @Override
+        public IItem carveFromHeader(IItem parentEvidence, Hit header) {
+            return null;
+        }
+
+        @Override
+        public IItem carveFromFooter(IItem parentEvidence, Hit footer) {
+            return null;
+        }
+
+        @Override
+        public long getLengthFromHit(IItem parentEvidence, Hit headerOffset) {
+            return 0;
+        }
+
+        @Override
+        public CarverType[] getCarverTypes() {
+            return new CarverType[0];
+        }
+
+        @Override
+        public void registerCarvedItemListener(CarvedItemListener carvedItemListener) {
+        }
+
+        @Override
+        public void removeCarvedItemListener(CarvedItemListener carvedItemListener) {
+        }
+
+        @Override
+        public void setIgnoreCorrupted(boolean ignore) {
+        }
+    }
+
+    private static class TestCarverConfiguration implements CarverConfiguration {
+
+        private final CarverType[] types;
+        private final CompiledAhoCorasick tree;
+
+        private TestCarverConfiguration(CarverType... types) {
+            this.types = types;
+            AhoCorasick builder = new AhoCorasick();
+            for (CarverType type : types) {
+                for (Signature sig : type.getSignatures()) {
+                    for (int k = 0; k < sig.seqs.length; k++) {
+                        builder.add(sig.seqs[k], new Object[] { sig, k });
+                    }
+                }
+            }
+            builder.prepare();
+            tree = builder.compile();
+        }
+
+        @Override
+        public CarverType[] getCarverTypes() {
+            return types;
+        }
+
+        @Override
+        public boolean isToProcess(MediaType mediaType) {
+            return true;
+        }
+
+        @Override
+        public boolean isToNotProcess(MediaType mediaType) {
+            return false;
+        }
+
+        @Override
+        public boolean isToCarve(MediaType mediaType) {
+            return false;
+        }
+
+        @Override
+        public void configListener(CarvedItemListener cil) {
+        }
+
+        @Override
+        public CompiledAhoCorasick getPopulatedTree() {
+            return tree;
+        }
+
+        @Override
+        public HashMap<CarverType, Carver> getRegisteredCarvers() {
+            return null;
+        }
+
+        @Override
+        public Carver createCarverFromJSName(File scriptFile) {
+            return null;
+        }
+
+        @Override
+        public boolean isToIgnoreCorrupted() {
+            return true;
+        }
+    }
+
+    private static CarverType newCarverType(String name, String header) throws Exception {
+        CarverType type = new CarverType();
+        type.setName(name);
+        type.setCarverClass(RecordingCarver.class.getName());
+        type.addHeader(header);
+        return type;
+    }
+
+    private static void setUpCarverTask() throws Exception {
+        CarverTask.setConfiguration(
+                new TestCarverConfiguration(newCarverType("jpg", JPG_HEADER), newCarverType("wav", SPLIT_HEADER)));
+        CarverTask.setEnabled(true);
+        RecordingCarver.hits.clear();
+    }
+
+    /**
+     * @return offsets of the pattern in the data, '?' matching any byte.
+     */
+    private static List<Long> search(byte[] pattern) {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length && (pattern[j] == '?' || pattern[j] == data[i + j])) {
+                j++;
+            }
+            if (j == pattern.length) {
+                offsets.add((long) i);
+            }
+        }
+        return offsets;
+    }
+
+    private static void assertCarverHits() {
+        List<Long> jpg = search(new byte[] { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0 });
+        List<Long> wav = search(SPLIT_HEADER.getBytes());
+        assertTrue(jpg.size() >= 7);
+        assertTrue(wav.size() >= 5);
+        List<Long> jpgHits = new ArrayList<>(RecordingCarver.hits.get("jpg"));
+        List<Long> wavHits = new ArrayList<>(RecordingCarver.hits.get("wav"));
+        Collections.sort(jpgHits);
+        Collections.sort(wavHits);
+        assertEquals(jpg, jpgHits);
+        assertEquals(wav, wavHits);
+    }
+
+    @Test
+    public void testSignatureCarvingParity() throws Exception {
+        setUpCarverTask();
+        Item item = newItem();
+        ByteScanTask.scan(item, new CarverTask().createByteScanConsumer(item));
+        assertCarverHits();
+    }
+
+    // ------------------------------------------------------------------------
+    // known.met carving
+
+    private static class RecordingKnownMetCarveTask extends KnownMetCarveTask {
+
+        private final List<String> blocks = new ArrayList<>();
+
+        @Override
+        void checkBlock(IItem evidence, byte read, byte[] buf, long offset) {
+            blocks.add(offset + ":" + read + ":" + Arrays.hashCode(buf));
+        }
+    }
+
+    /**
+     * Candidate blocks checked by the previous known.met carving loop, which read
+     * the first byte of each block from the stream and the remaining ones of
+     * candidate blocks.
+     */
+    private static List<String> perTaskKnownMetBlocks() throws IOException {
+        List<String> blocks = new ArrayList<>();
+        byte[] bb = new byte[1];
+        byte[] buf = new byte[BLOCK - 1];
+        long offset = 0;
+        try (InputStream is = new BufferedInputStream(new ByteArrayInputStream(data))) {
+            while (is.read(bb) > 0) {
+                byte read = bb[0];
+                if (read == 14 || read == 15 || read == -32 || read == -30) {
+                    is.readNBytes(buf, 0, buf.length);
+                    blocks.add(offset + ":" + read + ":" + Arrays.hashCode(buf));
+                } else {
+                    is.skipNBytes(Math.min(BLOCK - 1, data.length - offset - 1));
+                }
+                offset += BLOCK;
+            }
+        }
+        return blocks;
+    }
+
+    @Test
+    public void testKnownMetCarvingParity() throws Exception {
+        RecordingKnownMetCarveTask task = new RecordingKnownMetCarveTask();
+        Item item = newItem();
+        ByteScanTask.scan(item, task.createBlockScanner(item));
+        List<String> expected = perTaskKnownMetBlocks();
+        assertTrue(expected.size() > 100);
+        assertEquals(expected, task.blocks);
+    }
+
+    // ------------------------------------------------------------------------
+    // LED carving
+
+    /**
+     * Offsets of the known files, a 64K file ending inside the lookahead of the
+     * first chunk and other one not fully available at the end.
+     */
+    private static final int[] LED_OFFSETS = { 2 * BLOCK, CHUNK - BLOCK, CHUNK + 10 * BLOCK, 2 * CHUNK - 128 * BLOCK,
+            SIZE - SIZE % BLOCK - 2 * BLOCK };
+
+    private static class RecordingLedCarveTask extends LedCarveTask {
+
+        private final List<Long> offsets = new ArrayList<>();
+
+        @Override
+        LedItem getLedItem(int hashId) {
+            return new LedItem(HASH_64K_LEN, "md5", "bin");
+        }
+
+        @Override
+        protected IItem createCarvedFile(IItem parentEvidence, long off, long len, String name, MediaType mediaType) {
+            offsets.add(off);
+            return null;
+        }
+    }
+
+    private static int compare(byte[] a, int aOff, byte[] b, int bOff) {
+        for (int i = 0; i < 16; i++) {
+            int cmp = Integer.compare(a[aOff + i] & 255, b[bOff + i] & 255);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static LedHashDB createLedHashDB() throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        TreeMap<byte[], Integer> hashes512 = new TreeMap<>((a, b) -> compare(a, 0, b, 0));
+        TreeMap<byte[], Integer> hashes64K = new TreeMap<>((a, b) -> compare(a, 0, b, 0));
+        for (int i = 0; i < LED_OFFSETS.length; i++) {
+            int offset = LED_OFFSETS[i];
+            md5.update(data, offset, BLOCK);
+            hashes512.put(md5.digest(), i);
+            md5.update(data, offset, Math.min(HASH_64K_LEN, data.length - offset));
+            hashes64K.put(md5.digest(), i);
+        }
+        byte[] md5_512 = new byte[hashes512.size() * 16];
+        int pos = 0;
+        for (byte[] hash : hashes512.keySet()) {
+            System.arraycopy(hash, 0, md5_512, pos, 16);
+            pos += 16;
+        }
+        byte[] md5_64K = new byte[hashes64K.size() * 16];
+        int[] hashIds = new int[hashes64K.size()];
+        pos = 0;
+        for (Map.Entry<byte[], Integer> entry : hashes64K.entrySet()) {
+            System.arraycopy(entry.getKey(), 0, md5_64K, pos * 16, 16);
+            hashIds[pos++] = entry.getValue();
+        }
+        return new LedHashDB(md5_512, md5_64K, hashIds);
+    }
+
+    /**
+     * Offsets carved by the previous LED carving loop, which read the item by
+     * 512 byte blocks and 64K more after hits.
+     */
+    private static List<Long> perTaskLedOffsets(LedHashDB db) throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        List<Long> offsets = new ArrayList<>();
+        for (int offset = 0; offset + BLOCK <= data.length; offset += BLOCK) {
+            boolean empty = true;
+            for (int i = 1; i < BLOCK; i++) {
+                if (data[offset + i] != data[offset]) {
+                    empty = false;
+                    break;
+                }
+            }
+            if (empty) {
+                continue;
+            }
+            md5.update(data, offset, BLOCK);
+            if (db.containsMD5_512(md5.digest()) && offset + HASH_64K_LEN <= data.length) {
+                md5.update(data, offset, HASH_64K_LEN);
+                if (db.hashIdFromMD5_64K(md5.digest()) >= 0) {
+                    offsets.add((long) offset);
+                }
+            }
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testLedCarvingParity() throws Exception {
+        LedHashDB db = createLedHashDB();
+        LedCarveTask.setLedHashDB(db);
+        RecordingLedCarveTask task = new RecordingLedCarveTask();
+        Item item = newItem();
+        ByteScanTask.scan(item, task.createLedScanner(item));
+
+        List<Long> expected = perTaskLedOffsets(db);
+        assertEquals(LED_OFFSETS.length - 1, expected.size());
+        assertFalse(expected.contains((long) LED_OFFSETS[LED_OFFSETS.length - 1]));
+        assertEquals(expected, task.offsets);
+    }
+
+    // ------------------------------------------------------------------------
+    // All together
+
+    @Test
+    public void testSharedScanParity() throws Exception {
+        setUpCarverTask();
+        LedHashDB db = createLedHashDB();
+        LedCarveTask.setLedHashDB(db);
+        RecordingLedCarveTask ledTask = new RecordingLedCarveTask();
+        RecordingKnownMetCarveTask knownMetTask = new RecordingKnownMetCarveTask();
+        Item item = newItem();
+
+        long bytes = ByteScanTask.scan(item, Arrays.asList(ledTask.createLedScanner(item),
+                new CarverTask().createByteScanConsumer(item), knownMetTask.createBlockScanner(item)));
+
+        assertEquals(data.length, bytes);
+        assertCarverHits();
+        assertEquals(perTaskKnownMetBlocks(), knownMetTask.blocks);
+        assertEquals(perTaskLedOffsets(db), ledTask.offsets);
+    }
+
+}
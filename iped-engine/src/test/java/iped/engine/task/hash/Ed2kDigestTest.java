@@ -0,0 +1,78 @@
+package iped.engine.task.hash;
+
+import static org.junit.Assert.assertEquals;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Test;
+
+public class Ed2kDigestTest {
+
+    static {
+        // MD4 is provided by BouncyCastle, registered by Manager
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+    }
+
+    private static byte[] zeros(int len) {
+        return new byte[len];
+    }
+
+    private static byte[] pattern(int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte) (i % 251);
+        }
+        return data;
+    }
+
+    /**
+     * Hashes in pieces of several sizes, crossing chunk boundaries in the middle
+     * of an update, also one byte at a time around the boundary.
+     */
+    private static String ed2k(MessageDigest digest, byte[] data) {
+        int pos = 0;
+        int piece = 1;
+        while (pos < data.length) {
+            if (Math.abs(pos - Ed2kDigest.CHUNK_SIZE) < 10) {
+                digest.update(data[pos++]);
+                continue;
+            }
+            int len = Math.min(data.length - pos, piece);
+            digest.update(data, pos, len);
+            pos += len;
+            piece = piece * 3 + 1;
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    @Test
+    public void testKnownVectors() throws NoSuchAlgorithmException {
+        Ed2kDigest digest = new Ed2kDigest();
+        // same as MD4 for a single chunk
+        assertEquals("31d6cfe0d16ae931b73c59d7e0c089c0", ed2k(digest, zeros(0)));
+        assertEquals("1bee69a46ba811185c194762abaeae90",
+                ed2k(digest, "The quick brown fox jumps over the lazy dog".getBytes()));
+        // no extra empty chunk hash for exact multiples of the chunk size
+        assertEquals("d7def262a127cd79096a108e7a9fc138", ed2k(digest, zeros(Ed2kDigest.CHUNK_SIZE)));
+        assertEquals("06329e9dba1373512c06386fe29e3c65", ed2k(digest, zeros(Ed2kDigest.CHUNK_SIZE + 1)));
+        assertEquals("194ee9e4fa79b2ee9f8829284c466051", ed2k(digest, zeros(2 * Ed2kDigest.CHUNK_SIZE)));
+        assertEquals("91c008dff530be53d16bdf71ee9ba342", ed2k(digest, pattern(Ed2kDigest.CHUNK_SIZE)));
+        assertEquals("07149b89efa248c03d7e2c5e734d2d88", ed2k(digest, pattern(Ed2kDigest.CHUNK_SIZE + 1)));
+    }
+
+    @Test
+    public void testReset() throws NoSuchAlgorithmException {
+        Ed2kDigest digest = new Ed2kDigest();
+        digest.update(pattern(Ed2kDigest.CHUNK_SIZE + 100));
+        digest.reset();
+        assertEquals("07149b89efa248c03d7e2c5e734d2d88", ed2k(digest, pattern(Ed2kDigest.CHUNK_SIZE + 1)));
+        assertEquals(16, digest.getDigestLength());
+    }
+
+}
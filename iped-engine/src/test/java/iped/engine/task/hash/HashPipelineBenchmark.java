@@ -0,0 +1,97 @@
+package iped.engine.task.hash;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares hashing items inline in the caller thread with the
+ * {@link HashPipeline}, for different item size classes, using the default
+ * algorithms plus edonkey.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashPipelineBenchmark {
+
+    @Param({ "4096", "65536", "1048576", "16777216", "134217728" })
+    private int itemSize;
+
+    private byte[] data;
+    private byte[] buf = new byte[1 << 20];
+    private List<MessageDigest> digests = new ArrayList<>();
+    private HashPipeline pipeline;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        data = new byte[itemSize];
+        new Random(0).nextBytes(data);
+        digests.add(MessageDigest.getInstance("MD5"));
+        digests.add(MessageDigest.getInstance("SHA-1"));
+        digests.add(MessageDigest.getInstance("SHA-256"));
+        digests.add(new Ed2kDigest());
+        pipeline = new HashPipeline(digests, 4, 1 << 20, "Benchmark-Hash");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Benchmark
+    public void inline(Blackhole bh) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            for (MessageDigest digest : digests) {
+                digest.update(buf, 0, len);
+            }
+        }
+        for (MessageDigest digest : digests) {
+            bh.consume(digest.digest());
+        }
+    }
+
+    @Benchmark
+    public void pipeline(Blackhole bh) throws IOException {
+        pipeline.update(new ByteArrayInputStream(data));
+        for (MessageDigest digest : digests) {
+            bh.consume(digest.digest());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HashPipelineBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,154 @@
+package iped.engine.task.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensearch.action.DocWriteRequest.OpType;
+import org.opensearch.action.bulk.BulkRequest;
+import org.opensearch.action.index.IndexRequest;
+import org.opensearch.client.RestClient;
+import org.opensearch.client.RestHighLevelClient;
+import org.opensearch.common.xcontent.XContentType;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the pipeline against a local HTTP server standing in for an OpenSearch
+ * cluster, which rejects the first bulk request and then half of the items of
+ * the second one with 429.
+ */
+public class BulkIndexingPipelineTest {
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\"_id\":\"([^\"]+)\"");
+
+    private HttpServer server;
+    private RestHighLevelClient client;
+    private final AtomicInteger bulkCalls = new AtomicInteger();
+    private final Set<String> indexed = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handleBulk);
+        server.start();
+        client = new RestHighLevelClient(
+                RestClient.builder(new HttpHost("localhost", server.getAddress().getPort(), "http")));
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        List<String> ids = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            Matcher matcher = ID_PATTERN.matcher(line);
+            if (line.startsWith("{\"create\"") && matcher.find()) {
+                ids.add(matcher.group(1));
+            }
+        }
+        int call = bulkCalls.incrementAndGet();
+        if (call == 1) {
+            reply(exchange, 429, "{\"error\":{\"root_cause\":[],\"type\":\"rejected_execution_exception\","
+                    + "\"reason\":\"rejected execution\"},\"status\":429}");
+            return;
+        }
+        StringBuilder response = new StringBuilder("{\"took\":1,\"errors\":").append(call == 2)
+                .append(",\"items\":[");
+        for (int i = 0; i < ids.size(); i++) {
+            String id = ids.get(i);
+            if (i > 0) {
+                response.append(',');
+            }
+            if (call == 2 && i % 2 == 0) {
+                response.append("{\"create\":{\"_index\":\"test\",\"_id\":\"").append(id)
+                        .append("\",\"status\":429,\"error\":{\"type\":\"rejected_execution_exception\","
+                                + "\"reason\":\"rejected execution\"}}}");
+            } else {
+                indexed.add(id);
+                response.append("{\"create\":{\"_index\":\"test\",\"_id\":\"").append(id)
+                        .append("\",\"_version\":1,\"result\":\"created\",\"_shards\":{\"total\":1,"
+                                + "\"successful\":1,\"failed\":0},\"_seq_no\":")
+                        .append(i).append(",\"_primary_term\":1,\"status\":201}}");
+            }
+        }
+        response.append("]}");
+        reply(exchange, 200, response.toString());
+    }
+
+    private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    private static BulkRequest createBulk(int first, int count, HashMap<String, String> idToPath) {
+        BulkRequest bulk = new BulkRequest();
+        for (int i = first; i < first + count; i++) {
+            String id = Integer.toString(i);
+            bulk.add(new IndexRequest("test").id(id).opType(OpType.CREATE).source("{\"n\":" + i + "}",
+                    XContentType.JSON));
+            idToPath.put(id, "/item" + i);
+        }
+        return bulk;
+    }
+
+    @Test
+    public void testRetriesThrottledRequestsAndItems() throws Exception {
+        try (BulkIndexingPipeline pipeline = new BulkIndexingPipeline(client, 1, 0, 10, 10, 100)) {
+            HashMap<String, String> idToPath = new HashMap<>();
+            pipeline.submit(createBulk(0, 10, idToPath), idToPath);
+            pipeline.awaitSubmitted();
+
+            assertNull(pipeline.getException());
+            assertEquals(10, indexed.size());
+            assertEquals(10, pipeline.getIndexedDocs());
+            // whole request rejected once, then 5 items rejected once
+            assertEquals(2, pipeline.getThrottled());
+            assertEquals(3, bulkCalls.get());
+            assertEquals(0, pipeline.getInFlight());
+        }
+    }
+
+    @Test
+    public void testWindowLimitsRequestsInFlight() throws Exception {
+        try (BulkIndexingPipeline pipeline = new BulkIndexingPipeline(client, 2, 0, 10, 10, 100)) {
+            for (int i = 0; i < 8; i++) {
+                HashMap<String, String> idToPath = new HashMap<>();
+                pipeline.submit(createBulk(i * 5, 5, idToPath), idToPath);
+                assertTrue(pipeline.getInFlight() <= 2);
+            }
+            pipeline.awaitSubmitted();
+
+            assertNull(pipeline.getException());
+            assertEquals(40, indexed.size());
+            assertEquals(0, pipeline.getInFlight());
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+package iped.engine.task.regex;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.brics.automaton.Automaton;
+import dk.brics.automaton.AutomatonMatcher;
+import dk.brics.automaton.BasicOperations;
+import iped.engine.task.regex.ParallelRegexScanner.Match;
+import iped.engine.task.regex.RegexTask.Regex;
+
+public class ParallelRegexScannerTest {
+
+    private static final int CHUNK = ParallelRegexScanner.MIN_CHUNK_LEN;
+
+    private static List<Regex> newRegexList(String... regexes) {
+        List<Regex> regexList = new ArrayList<>();
+        for (int i = 0; i < regexes.length; i++) {
+            regexList.add(new Regex("regex" + i, 0, 0, false, false, regexes[i]));
+        }
+        return regexList;
+    }
+
+    private static Regex union(List<Regex> regexList) {
+        List<Automaton> automatonList = new ArrayList<>();
+        for (Regex regex : regexList) {
+            automatonList.add(regex.automaton);
+        }
+        return new Regex("FULL", BasicOperations.union(automatonList));
+    }
+
+    /**
+     * Matches found like the sequential scan of RegexTask, as
+     * "start-end:regexes".
+     */
+    private static List<String> sequentialScan(Regex regexFull, List<Regex> regexList, char[] text, int len) {
+        List<String> matches = new ArrayList<>();
+        String str = new String(text, 0, len);
+        AutomatonMatcher matcher = regexFull.pattern.newMatcher(str);
+        while (matcher.find()) {
+            String hit = str.substring(matcher.start(), matcher.end());
+            StringBuilder sb = new StringBuilder();
+            sb.append(matcher.start()).append('-').append(matcher.end()).append(':');
+            for (int i = 0; i < regexList.size(); i++) {
+                if (regexList.get(i).pattern.run(hit)) {
+                    sb.append(i).append(',');
+                }
+            }
+            matches.add(sb.toString());
+        }
+        return matches;
+    }
+
+    private static List<String> parallelScan(ParallelRegexScanner scanner, char[] text, int len) throws Exception {
+        List<String> matches = new ArrayList<>();
+        for (Match m : scanner.scan(text, len)) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(m.start).append('-').append(m.end).append(':');
+            for (int i : m.regexes) {
+                sb.append(i).append(',');
+            }
+            matches.add(sb.toString());
+        }
+        return matches;
+    }
+
+    /**
+     * @return boundaries of the chunks scanned in parallel.
+     */
+    private static int[] bounds(int len, int numThreads) {
+        int numChunks = Math.min(numThreads, len / CHUNK);
+        int[] bounds = new int[numChunks + 1];
+        for (int i = 0; i <= numChunks; i++) {
+            bounds[i] = (int) ((long) len * i / numChunks);
+        }
+        return bounds;
+    }
+
+    private static void put(char[] text, int off, String str) {
+        str.getChars(0, str.length(), text, off);
+    }
+
+    private static void assertSameMatches(List<Regex> regexList, char[] text, int len, int numThreads)
+            throws Exception {
+        Regex regexFull = union(regexList);
+        ParallelRegexScanner scanner = new ParallelRegexScanner(regexFull, regexList, numThreads);
+        assertTrue(scanner.isParallelizable(len));
+        List<String> expected = sequentialScan(regexFull, regexList, text, len);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, parallelScan(scanner, text, len));
+    }
+
+    @Test
+    public void testMatchesCrossingChunks() throws Exception {
+        List<Regex> regexList = newRegexList("[0-9]{3}\\.[0-9]{3}\\.[0-9]{3}-[0-9]{2}", "x[a-z]*y", "[a-z]+@[a-z]+\\.com",
+                "ab+c");
+        Random random = new Random(0);
+        int len = 5 * CHUNK + 777;
+        char[] text = new char[len + 100];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = (char) (random.nextBoolean() ? ' ' + random.nextInt(95) : 'a' + random.nextInt(26));
+        }
+        for (int numThreads : new int[] { 2, 3, 4, 5 }) {
+            char[] copy = text.clone();
+            for (int bound : bounds(len, numThreads)) {
+                if (bound == 0 || bound == len) {
+                    continue;
+                }
+                // ending just after, across and starting at the boundary
+                put(copy, bound - 14, "123.456.789-01");
+                put(copy, bound - 40, "xaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaay");
+                put(copy, bound - 3, "abbbbbbc");
+                put(copy, bound + 20, "user@example.com");
+            }
+            // a match ending after the scanned length is not found
+            put(copy, len - 5, "123.456.789-01");
+            assertSameMatches(regexList, copy, len, numThreads);
+        }
+    }
+
+    @Test
+    public void testResyncAfterCrossingMatch() throws Exception {
+        List<Regex> regexList = newRegexList("x[a-z]*y", "ab+c");
+        int len = 4 * CHUNK;
+        char[] text = new char[len];
+        for (int i = 0; i < len; i++) {
+            text[i] = (char) ('0' + i % 10);
+        }
+        StringBuilder sb = new StringBuilder(" x");
+        for (int i = 0; i < 200; i++) {
+            sb.append('a');
+        }
+        // hidden by the match started before the boundary, but found by the
+        // chunk scan, which must resync at the next common match
+        sb.append("xayaaaaxbbbyabbcaaaay abbc xy ");
+        for (int bound : bounds(len, 4)) {
+            if (bound > 0 && bound < len) {
+                put(text, bound - 100, sb.toString());
+            }
+        }
+        assertSameMatches(regexList, text, len, 4);
+    }
+
+    @Test
+    public void testRandomTexts() throws Exception {
+        // small alphabet, so there are many long and overlapping candidate matches
+        List<Regex> regexList = newRegexList("ab*c", "b+", "c[ab]{3,}c", "a[abc]*d");
+        Random random = new Random(1);
+        for (int n = 0; n < 20; n++) {
+            int len = 2 * CHUNK + random.nextInt(3 * CHUNK);
+            char[] text = new char[len];
+            for (int i = 0; i < len; i++) {
+                // d is rare, so "a[abc]*d" matches are long
+                text[i] = random.nextInt(1000) == 0 ? 'd' : (char) ('a' + random.nextInt(3));
+            }
+            assertSameMatches(regexList, text, len, 2 + random.nextInt(7));
+        }
+    }
+
+    @Test
+    public void testRegexesConfirmedInMatchRange() throws Exception {
+        List<Regex> regexList = newRegexList("[0-9]+", "[0-9]{4}", "1[0-9]*");
+        Regex regexFull = union(regexList);
+        int len = 3 * CHUNK;
+        char[] text = new char[len];
+        for (int i = 0; i < len; i++) {
+            text[i] = ' ';
+        }
+        put(text, CHUNK - 2, "1234");
+        put(text, 2 * CHUNK + 10, "567");
+        ParallelRegexScanner scanner = new ParallelRegexScanner(regexFull, regexList, 3);
+        List<Match> matches = scanner.scan(text, len);
+        assertEquals(2, matches.size());
+        assertEquals(CHUNK - 2, matches.get(0).start);
+        assertEquals(CHUNK + 2, matches.get(0).end);
+        assertArrayEquals(new int[] { 0, 1, 2 }, matches.get(0).regexes);
+        assertArrayEquals(new int[] { 0 }, matches.get(1).regexes);
+    }
+
+    @Test
+    public void testNotParallelizable() {
+        List<Regex> regexList = newRegexList("ab+c");
+        Regex regexFull = union(regexList);
+        assertFalse(new ParallelRegexScanner(regexFull, regexList, 1).isParallelizable(10 * CHUNK));
+        assertFalse(new ParallelRegexScanner(regexFull, regexList, 4).isParallelizable(2 * CHUNK - 1));
+        assertTrue(new ParallelRegexScanner(regexFull, regexList, 4).isParallelizable(2 * CHUNK));
+        // regexes accepting empty strings
+        List<Regex> emptyList = newRegexList("a*");
+        assertFalse(new ParallelRegexScanner(union(emptyList), emptyList, 4).isParallelizable(10 * CHUNK));
+    }
+
+}
@@ -0,0 +1,117 @@
+package iped.engine.task.signature;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MimeTypesFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares signature detection of many small files by Tika's default detector
+ * and by the {@link CompiledMagicDetector}. Files are the parsers test files,
+ * truncated to the item size, plus random binary and text files.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompiledMagicDetectorBenchmark {
+
+    private static final int NUM_FILES = 1000;
+
+    @Param({ "512", "4096", "65536" })
+    private int itemSize;
+
+    private byte[][] files;
+    private Detector tika;
+    private CompiledMagicDetector compiled;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        File customSignatures = new File("../iped-app/resources/config/conf/CustomSignatures.xml");
+        if (customSignatures.isFile()) {
+            System.setProperty(MimeTypesFactory.CUSTOM_MIMES_SYS_PROP, customSignatures.getAbsolutePath());
+        }
+        TikaConfig config = TikaConfig.getDefaultConfig();
+        tika = config.getDetector();
+        compiled = CompiledMagicDetector.create(tika, config.getMediaTypeRegistry());
+
+        List<byte[]> samples = new ArrayList<>();
+        File[] testFiles = new File("../iped-parsers/iped-parsers-impl/src/test/resources/test-files")
+                .listFiles(File::isFile);
+        if (testFiles != null) {
+            for (File file : testFiles) {
+                byte[] data = Files.readAllBytes(file.toPath());
+                samples.add(Arrays.copyOf(data, Math.min(data.length, itemSize)));
+            }
+        }
+        Random random = new Random(0);
+        files = new byte[NUM_FILES][];
+        for (int i = 0; i < NUM_FILES; i++) {
+            if (i % 4 == 0 || samples.isEmpty()) {
+                byte[] data = new byte[itemSize];
+                random.nextBytes(data);
+                if (i % 8 == 0) {
+                    Arrays.fill(data, (byte) 'a');
+                    byte[] text = ("line " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                    System.arraycopy(text, 0, data, 0, Math.min(text.length, itemSize));
+                }
+                files[i] = data;
+            } else {
+                files[i] = samples.get(random.nextInt(samples.size()));
+            }
+        }
+    }
+
+    private void detect(Detector detector, Blackhole bh) throws IOException {
+        for (byte[] file : files) {
+            bh.consume(detector.detect(new ByteArrayInputStream(file), new Metadata()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_FILES)
+    public void tika(Blackhole bh) throws IOException {
+        detect(tika, bh);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_FILES)
+    public void compiled(Blackhole bh) throws IOException {
+        detect(compiled, bh);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompiledMagicDetectorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
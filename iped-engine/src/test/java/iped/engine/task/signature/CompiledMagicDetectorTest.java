@@ -0,0 +1,87 @@
+package iped.engine.task.signature;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MimeTypesFactory;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CompiledMagicDetectorTest {
+
+    private static final File TEST_FILES = new File("../iped-parsers/iped-parsers-impl/src/test/resources/test-files");
+
+    private static final File CUSTOM_SIGNATURES = new File("../iped-app/resources/config/conf/CustomSignatures.xml");
+
+    private static Detector tika;
+    private static CompiledMagicDetector compiled;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Assume.assumeTrue(TEST_FILES.isDirectory() && CUSTOM_SIGNATURES.isFile());
+        System.setProperty(MimeTypesFactory.CUSTOM_MIMES_SYS_PROP, CUSTOM_SIGNATURES.getAbsolutePath());
+        TikaConfig config = TikaConfig.getDefaultConfig();
+        // custom signatures are ignored if Tika was loaded before by other test
+        Assume.assumeTrue(config.getMimeRepository().getRegisteredMimeType("message/x-chat-message") != null);
+        tika = config.getDetector();
+        compiled = CompiledMagicDetector.create(tika, config.getMediaTypeRegistry());
+    }
+
+    private static File[] listFiles() {
+        File[] files = TEST_FILES.listFiles(File::isFile);
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static MediaType detect(Detector detector, File file) throws Exception {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, file.getName());
+        try (InputStream is = TikaInputStream.get(file.toPath())) {
+            return detector.detect(is, metadata).getBaseType();
+        }
+    }
+
+    @Test
+    public void testCompiledMatchesTika() throws Exception {
+        int resolved = 0;
+        for (File file : listFiles()) {
+            byte[] data = Files.readAllBytes(file.toPath());
+            MediaType type = compiled.detect(data, data.length);
+            if (type != null) {
+                assertEquals(file.getName(), detect(tika, file), type);
+                resolved++;
+            }
+        }
+        assertTrue(resolved > 0);
+    }
+
+    @Test
+    public void testDetectorMatchesTika() throws Exception {
+        for (File file : listFiles()) {
+            assertEquals(file.getName(), detect(tika, file), detect(compiled, file));
+        }
+    }
+
+    @Test
+    public void testDecodeValue() {
+        assertEquals("[80, 75, 3, 4]", Arrays.toString(CompiledMagicDetector.decodeValue("PK\\003\\004", "string")));
+        assertEquals("[80, 75]", Arrays.toString(CompiledMagicDetector.decodeValue("0x504b", "string")));
+        assertEquals("[52, 18]", Arrays.toString(CompiledMagicDetector.decodeValue("0x1234", "little16")));
+        assertEquals("[0, 0, 18, 52]", Arrays.toString(CompiledMagicDetector.decodeValue("0x1234", "big32")));
+        assertEquals("[97, 0, 98, 0]", Arrays.toString(CompiledMagicDetector.decodeValue("ab", "unicodeLE")));
+        assertEquals("[97, 98, 13, 10]", Arrays.toString(CompiledMagicDetector.decodeValue("AB\\r\\n", "stringignorecase")));
+    }
+
+}
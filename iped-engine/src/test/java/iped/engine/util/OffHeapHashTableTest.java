@@ -0,0 +1,78 @@
+package iped.engine.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class OffHeapHashTableTest {
+
+    private static byte[] md5(int i) throws Exception {
+        return MessageDigest.getInstance("MD5").digest(Integer.toString(i).getBytes());
+    }
+
+    @Test
+    public void testConcurrentPutIfAbsent() throws Exception {
+        File tmpDir = Files.createTempDirectory("hashtable").toFile();
+        int numThreads = 4, numKeys = 100000;
+        try (OffHeapHashTable table = new OffHeapHashTable(16, tmpDir)) {
+            AtomicInteger inserted = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < numKeys; i++) {
+                        if (table.putIfAbsent(md5(i), i + 1) == OffHeapHashTable.EMPTY) {
+                            inserted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+
+            assertEquals(numKeys, inserted.get());
+            assertEquals(numKeys, table.size());
+            for (int i = 0; i < numKeys; i++) {
+                assertEquals(i + 1, table.get(md5(i)));
+            }
+            assertFalse(table.contains(md5(numKeys)));
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File tmpDir = Files.createTempDirectory("hashtable").toFile();
+        File file = new File(tmpDir, "hashes.bin");
+        byte[] sha1 = new byte[20];
+        sha1[0] = 1;
+        try (OffHeapHashTable table = new OffHeapHashTable(16, tmpDir)) {
+            for (int i = 0; i < 5000; i++) {
+                table.putIfAbsent(md5(i), i + 1);
+            }
+            // key with different width
+            table.putIfAbsent(sha1, 7);
+            table.save(file);
+        }
+        try (OffHeapHashTable table = new OffHeapHashTable(16, tmpDir)) {
+            assertEquals(5001, table.load(file));
+            assertEquals(7, table.get(sha1));
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i + 1, table.putIfAbsent(md5(i), 1234));
+            }
+        }
+    }
+
+}
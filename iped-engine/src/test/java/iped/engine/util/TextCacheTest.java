@@ -0,0 +1,157 @@
+package iped.engine.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TextCacheTest {
+
+    /**
+     * Bigger than the text kept in memory, so it is written to disk.
+     */
+    private static final int LARGE_TEXT_LEN = 10_500_000;
+
+    private static String newText(Random random, int len) {
+        char[] text = new char[len];
+        for (int i = 0; i < len; i++) {
+            // also chars not in Latin-1, stored as UTF-16
+            text[i] = random.nextInt(10) == 0 ? (char) (0x400 + random.nextInt(0x100))
+                    : (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    /**
+     * Writes the text in pieces of random sizes, crossing chunk boundaries, as
+     * Strings and char arrays.
+     */
+    private static void write(TextCache textCache, String text, Random random) throws IOException {
+        int pos = 0;
+        while (pos < text.length()) {
+            int len = Math.min(text.length() - pos, random.nextInt(100000));
+            if (random.nextBoolean()) {
+                textCache.write(text.substring(pos, pos + len));
+            } else {
+                char[] buf = new char[len + 20];
+                text.getChars(pos, pos + len, buf, 10);
+                textCache.write(buf, 10, len);
+            }
+            pos += len;
+        }
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[8191];
+        int len;
+        while ((len = reader.read(buf)) != -1) {
+            sb.append(buf, 0, len);
+        }
+        reader.close();
+        return sb.toString();
+    }
+
+    private static void assertText(TextCache textCache, String text) throws IOException {
+        assertEquals(text.length(), textCache.getSize());
+        assertEquals(text, read(textCache.getTextReader()));
+
+        ChunkedCharSequence view = textCache.getTextView();
+        assertEquals(text.length(), view.longLength());
+        Random random = new Random(text.length());
+        for (int i = 0; i < 1000 && !text.isEmpty(); i++) {
+            int pos = random.nextInt(text.length());
+            assertEquals(text.charAt(pos), view.charAt(pos));
+        }
+        int start = text.length() / 3;
+        int end = start + Math.min(text.length() - start, 200000);
+        assertEquals(text.substring(start, end), view.subSequence(start, end).toString());
+    }
+
+    @Test
+    public void testTextInMemory() throws IOException {
+        Random random = new Random(0);
+        for (int len : new int[] { 0, 1, 255, 256, 65535, 65536, 65537, 1000000 }) {
+            String text = newText(random, len);
+            TextCache textCache = new TextCache();
+            write(textCache, text, random);
+            assertText(textCache, text);
+            assertNull(textCache.getTempFile());
+            textCache.close();
+        }
+    }
+
+    @Test
+    public void testMarkAndReset() throws IOException {
+        Random random = new Random(1);
+        String text = newText(random, 200000);
+        TextCache textCache = new TextCache();
+        write(textCache, text, random);
+        Reader reader = textCache.getTextReader();
+        assertTrue(reader.markSupported());
+        char[] buf = new char[70000];
+        assertEquals(buf.length, reader.read(buf));
+        reader.mark(100000);
+        assertEquals(buf.length, reader.read(buf));
+        assertEquals(text.substring(70000, 140000), new String(buf));
+        reader.reset();
+        assertEquals(text.substring(70000), read(reader));
+        textCache.close();
+    }
+
+    @Test
+    public void testTextOnDisk() throws IOException {
+        Random random = new Random(2);
+        String text = newText(random, LARGE_TEXT_LEN);
+        TextCache textCache = new TextCache();
+        write(textCache, text, random);
+        File tmp = textCache.getTempFile();
+        assertNotNull(tmp);
+        assertText(textCache, text);
+        assertEquals(text.length() * 2L, tmp.length());
+
+        // more text after it was read is mapped again
+        String more = newText(random, 100000);
+        write(textCache, more, random);
+        assertText(textCache, text + more);
+
+        textCache.close();
+        assertFalse(tmp.exists());
+    }
+
+    @Test
+    public void testTextBoundsOfClones() throws IOException {
+        Random random = new Random(3);
+        String text = newText(random, LARGE_TEXT_LEN);
+        TextCache textCache = new TextCache();
+        write(textCache, text, random);
+        File tmp = textCache.getTempFile();
+
+        TextCache clone = textCache.clone();
+        clone.setTextBounds(5000000, 3000000);
+        assertText(clone, text.substring(5000000, 8000000));
+        TextCache last = textCache.clone();
+        last.setTextBounds(LARGE_TEXT_LEN - 10, 10);
+        assertText(last, text.substring(LARGE_TEXT_LEN - 10));
+
+        // the file is deleted after all clones are closed
+        textCache.close();
+        // closing twice does not release the file of clones
+        textCache.close();
+        assertTrue(tmp.exists());
+        assertText(clone, text.substring(5000000, 8000000));
+        clone.close();
+        assertTrue(tmp.exists());
+        last.close();
+        assertFalse(tmp.exists());
+    }
+
+}
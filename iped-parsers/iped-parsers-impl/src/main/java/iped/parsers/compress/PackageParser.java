@@ -69,6 +69,7 @@
 import org.xml.sax.SAXException;
 
 import iped.io.IStreamSource;
+import iped.parsers.util.ParsingDeadline;
 import iped.parsers.util.Util;
 import iped.properties.ExtraProperties;
 
@@ -191,7 +192,7 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
         ArrayList<String> zipSubitemList = new ArrayList<>();
         try {
             ArchiveEntry entry = ais.getNextEntry();
-            while (entry != null) {
+            while (entry != null && !ParsingDeadline.isReached(context)) {
                 EntryInputStreamFactory factory = getEISFactory(ais, entry);
                 handleEntry(factory, entry, isCarved, encrypted, parentMap, zipSubitemList, context, extractor, xhtml);
                 entry = ais.getNextEntry();
@@ -259,7 +260,7 @@ private void parseZipFile(InputStream stream, XHTMLContentHandler xhtml, ParseCo
 
             EmbeddedDocumentExtractor extractor = context.get(EmbeddedDocumentExtractor.class);
             Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
-            while (entries.hasMoreElements()) {
+            while (entries.hasMoreElements() && !ParsingDeadline.isReached(context)) {
                 ZipArchiveEntry zipEntry = entries.nextElement();
                 EntryInputStreamFactory factory = getEISFactory(zipFile, zipEntry);
                 handleEntry(factory, zipEntry, isCarved, encrypted, parentMap, zipSubitemList, context, extractor, xhtml);
@@ -44,6 +44,11 @@ class ContentHandlerProxy2 implements ContentHandler, ForkProxy {
 
     private final int resource;
 
+    /**
+     * Events are buffered in the channel and sent in batches, when the buffer
+     * fills, at endDocument and periodically by the server, see
+     * {@link ForkServer}.
+     */
     private transient DataOutputStream output;
 
     public ContentHandlerProxy2(int resource) {
@@ -81,6 +86,13 @@ private void sendString(String string) throws SAXException {
     // protection against UTFDataFormatException when large strings are written
     private void writeString(String string) throws IOException {
         int max = 65535 / 3;
+        if (string.length() <= max) {
+            output.writeInt(string.isEmpty() ? 0 : 1);
+            if (!string.isEmpty()) {
+                output.writeUTF(string);
+            }
+            return;
+        }
         int frags = (int) Math.ceil((double) string.length() / max);
         output.writeInt(frags);
         int i = 0;
@@ -105,7 +117,7 @@ private void sendCharacters(char[] ch, int start, int length) throws SAXExceptio
         }
     }
 
-    private void doneSending() throws SAXException {
+    private void flush() throws SAXException {
         try {
             output.flush();
         } catch (IOException e) {
@@ -119,25 +131,22 @@ public void setDocumentLocator(Locator locator) {
 
     public void startDocument() throws SAXException {
         sendRequest(START_DOCUMENT);
-        doneSending();
     }
 
     public void endDocument() throws SAXException {
         sendRequest(END_DOCUMENT);
-        doneSending();
+        flush();
     }
 
     public void startPrefixMapping(String prefix, String uri) throws SAXException {
         sendRequest(START_PREFIX_MAPPING);
         sendString(prefix);
         sendString(uri);
-        doneSending();
     }
 
     public void endPrefixMapping(String prefix) throws SAXException {
         sendRequest(END_PREFIX_MAPPING);
         sendString(prefix);
-        doneSending();
     }
 
     public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
@@ -161,7 +170,6 @@ public void startElement(String uri, String localName, String qName, Attributes
             sendString(atts.getType(i));
             sendString(atts.getValue(i));
         }
-        doneSending();
     }
 
     public void endElement(String uri, String localName, String qName) throws SAXException {
@@ -169,32 +177,27 @@ public void endElement(String uri, String localName, String qName) throws SAXExc
         sendString(uri);
         sendString(localName);
         sendString(qName);
-        doneSending();
     }
 
     public void characters(char[] ch, int start, int length) throws SAXException {
         sendRequest(CHARACTERS);
         sendCharacters(ch, start, length);
-        doneSending();
     }
 
     public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
         sendRequest(IGNORABLE_WHITESPACE);
         sendCharacters(ch, start, length);
-        doneSending();
     }
 
     public void processingInstruction(String target, String data) throws SAXException {
         sendRequest(PROCESSING_INSTRUCTION);
         sendString(target);
         sendString(data);
-        doneSending();
     }
 
     public void skippedEntity(String name) throws SAXException {
         sendRequest(SKIPPED_ENTITY);
         sendString(name);
-        doneSending();
     }
 
 }
@@ -81,8 +81,9 @@ public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata m
     private void sendObject(Object object, List<ForkResource> resources) throws IOException, TikaException {
         int n = resources.size();
         if (object instanceof InputStream) {
-            resources.add(new InputStreamResource2((InputStream) object));
-            object = new InputStreamProxy2(n, null);
+            SharedMemoryBuffer sharedMemory = ForkServer.getSharedMemory();
+            resources.add(new InputStreamResource2((InputStream) object, sharedMemory));
+            object = new InputStreamProxy2(n, null, sharedMemory);
 
         } else if (object instanceof ContentHandler) {
             resources.add(new ContentHandlerResource2((ContentHandler) object));
@@ -18,6 +18,7 @@
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -65,6 +66,8 @@
 class ForkClient {
     private static AtomicInteger CLIENT_COUNTER = new AtomicInteger(0);
 
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
     private final List<ForkResource> resources = new ArrayList<>();
 
     private final ClassLoader loader;
@@ -79,14 +82,18 @@ class ForkClient {
 
     private final InputStream error;
 
+    private final SharedMemoryBuffer sharedMemory;
+
     // this is used for debugging/smoke testing
     private final int id = CLIENT_COUNTER.incrementAndGet();
 
     private volatile int filesProcessed = 0;
 
+    private volatile boolean replacementStarted = false;
+
     public ForkClient(Path tikaDir, Path pluginDir, ParserFactoryFactory parserFactoryFactory, List<String> java,
-            TimeoutLimits timeoutLimits) throws IOException, TikaException {
-        this(tikaDir, pluginDir, parserFactoryFactory, null, java, timeoutLimits);
+            TimeoutLimits timeoutLimits, boolean useSharedMemory) throws IOException, TikaException {
+        this(tikaDir, pluginDir, parserFactoryFactory, null, java, timeoutLimits, useSharedMemory);
     }
 
     /**
@@ -101,13 +108,17 @@ public ForkClient(Path tikaDir, Path pluginDir, ParserFactoryFactory parserFacto
      *            etc.)
      * @param java
      *            java commandline to use for the commandline server
+     * @param useSharedMemory
+     *            transfer embedded documents content through a memory mapped
+     *            buffer instead of the stdout pipe
      * @throws IOException
      * @throws TikaException
      */
     public ForkClient(Path tikaDir, Path pluginDir, ParserFactoryFactory parserFactoryFactory, ClassLoader classLoader,
-            List<String> java, TimeoutLimits timeoutLimits) throws IOException, TikaException {
+            List<String> java, TimeoutLimits timeoutLimits, boolean useSharedMemory) throws IOException, TikaException {
         jar = null;
         loader = this.getClass().getClassLoader();
+        sharedMemory = useSharedMemory ? SharedMemoryBuffer.create(SharedMemoryBuffer.DEFAULT_CAPACITY) : null;
         boolean ok = false;
         ProcessBuilder builder = new ProcessBuilder();
         List<String> command = new ArrayList<>();
@@ -130,13 +141,16 @@ public ForkClient(Path tikaDir, Path pluginDir, ParserFactoryFactory parserFacto
         command.add(Long.toString(timeoutLimits.getPulseMS()));
         command.add(Long.toString(timeoutLimits.getParseTimeoutMS()));
         command.add(Long.toString(timeoutLimits.getWaitTimeoutMS()));
+        if (sharedMemory != null) {
+            command.add(sharedMemory.getPath());
+        }
         builder.command(command);
         // builder.redirectError(ProcessBuilder.Redirect.INHERIT);
         try {
             this.process = builder.start();
 
             this.output = new DataOutputStream(process.getOutputStream());
-            this.input = new DataInputStream(process.getInputStream());
+            this.input = new DataInputStream(new BufferedInputStream(process.getInputStream(), INPUT_BUFFER_SIZE));
             this.error = process.getErrorStream();
             consumeErrorStream();
 
@@ -163,9 +177,10 @@ public ForkClient(Path tikaDir, Path pluginDir, ParserFactoryFactory parserFacto
         }
     }
 
-    public ForkClient(ClassLoader loader, Object object, List<String> java, TimeoutLimits timeoutLimits)
-            throws IOException, TikaException {
+    public ForkClient(ClassLoader loader, Object object, List<String> java, TimeoutLimits timeoutLimits,
+            boolean useSharedMemory) throws IOException, TikaException {
         boolean ok = false;
+        this.sharedMemory = useSharedMemory ? SharedMemoryBuffer.create(SharedMemoryBuffer.DEFAULT_CAPACITY) : null;
         try {
             this.loader = loader;
             this.jar = createBootstrapJar();
@@ -178,12 +193,15 @@ public ForkClient(ClassLoader loader, Object object, List<String> java, TimeoutL
             command.add(Long.toString(timeoutLimits.getPulseMS()));
             command.add(Long.toString(timeoutLimits.getParseTimeoutMS()));
             command.add(Long.toString(timeoutLimits.getWaitTimeoutMS()));
+            if (sharedMemory != null) {
+                command.add(sharedMemory.getPath());
+            }
             builder.command(command);
             // builder.redirectError(ProcessBuilder.Redirect.INHERIT);
             this.process = builder.start();
 
             this.output = new DataOutputStream(process.getOutputStream());
-            this.input = new DataInputStream(process.getInputStream());
+            this.input = new DataInputStream(new BufferedInputStream(process.getInputStream(), INPUT_BUFFER_SIZE));
             this.error = process.getErrorStream();
             consumeErrorStream();
 
@@ -302,6 +320,17 @@ public int getFilesProcessed() {
         return filesProcessed;
     }
 
+    /**
+     * @return true if a new process was already started to replace this one.
+     */
+    public boolean isReplacementStarted() {
+        return replacementStarted;
+    }
+
+    public void setReplacementStarted() {
+        this.replacementStarted = true;
+    }
+
     private ContentHandler prevHandler;
     private Metadata metadata;
 
@@ -319,8 +348,8 @@ public int getFilesProcessed() {
     private void sendObject(Object object, List<ForkResource> resources) throws IOException, TikaException {
         int n = resources.size();
         if (object instanceof InputStream) {
-            resources.add(new InputStreamResource2((InputStream) object));
-            object = new InputStreamProxy2(n, (InputStream) object);
+            resources.add(new InputStreamResource2((InputStream) object, sharedMemory));
+            object = new InputStreamProxy2(n, (InputStream) object, sharedMemory);
         } else if (object instanceof RecursiveParserWrapperHandler) {
             resources.add(new RecursiveMetadataContentHandlerResource((RecursiveParserWrapperHandler) object));
             object = new RecursiveMetadataContentHandlerProxy(n,
@@ -382,6 +411,12 @@ public synchronized void close() {
         if (jar != null) {
             jar.delete();
         }
+        if (sharedMemory != null) {
+            try {
+                sharedMemory.close();
+            } catch (IOException ignore) {
+            }
+        }
     }
 
     private Throwable waitForResponse(List<ForkResource> resources) throws IOException, TikaException {
@@ -445,7 +480,8 @@ private static void fillBootstrapJar(File file) throws IOException {
 
             Class<?>[] bootstrap = { ForkServer.class, ForkObjectInputStream.class, ForkProxy.class,
                     ClassLoaderProxy.class, MemoryURLConnection.class, MemoryURLStreamHandler.class,
-                    MemoryURLStreamHandlerFactory.class, MemoryURLStreamRecord.class, TikaException.class };
+                    MemoryURLStreamHandlerFactory.class, MemoryURLStreamRecord.class, SharedMemoryBuffer.class,
+                    TikaException.class };
             ClassLoader loader = ForkServer.class.getClassLoader();
             for (Class<?> klass : bootstrap) {
                 String path = klass.getName().replace('.', '/') + ".class";
@@ -42,6 +42,8 @@
 import org.apache.tika.parser.ParseContext;
 import org.apache.tika.parser.Parser;
 import org.apache.tika.sax.AbstractRecursiveParserWrapperHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 
@@ -53,6 +55,8 @@ public class ForkParser extends AbstractParser {
     /** Serial version UID */
     private static final long serialVersionUID = -4962742892274663950L;
 
+    private static Logger LOGGER = LoggerFactory.getLogger(ForkParser.class);
+
     private static boolean enabled;
 
     private static String serverMaxHeapMB = "512M";
@@ -61,6 +65,8 @@ public class ForkParser extends AbstractParser {
 
     private static String plugin_dir = null;
 
+    private static boolean useSharedMemory = false;
+
     private static ForkParser instance;
 
     // these are used by the legacy usage
@@ -83,6 +89,19 @@ public class ForkParser extends AbstractParser {
 
     private final Queue<ForkClient> pool = new LinkedList<>();
 
+    // processes started in background, ready to be used
+    private final Queue<ForkClient> spares = new LinkedList<>();
+
+    private int spawning = 0;
+
+    // spares taken from the queue to be pinged
+    private int pinging = 0;
+
+    // processes still alive whose replacement was already started
+    private int replaced = 0;
+
+    private Thread keepAliveThread;
+
     @Field
     private long serverPulseMillis = 1000;
 
@@ -115,6 +134,14 @@ public static void setServerMaxHeap(String maxHeapMB) {
         serverMaxHeapMB = maxHeapMB;
     }
 
+    /**
+     * Transfers embedded documents content from the server processes through
+     * memory mapped buffers instead of their stdout pipes.
+     */
+    public static void setUseSharedMemory(boolean enable) {
+        useSharedMemory = enable;
+    }
+
     public static ForkParser getForkParser() {
         if (!enabled) {
             return null;
@@ -130,6 +157,7 @@ public static ForkParser getForkParser() {
                     instance.setServerParseTimeoutMillis(3600 * 1000);
                     instance.setServerWaitTimeoutMillis(10 * 60 * 1000);
                     instance.setMaxFilesProcessedPerServer(10000);
+                    instance.prestartClients();
                 }
             }
         }
@@ -405,7 +433,118 @@ public synchronized void close() {
             client.close();
         }
         pool.clear();
+        for (ForkClient client : spares) {
+            client.close();
+        }
+        spares.clear();
+        replaced = 0;
         poolSize = 0;
+        if (keepAliveThread != null) {
+            keepAliveThread.interrupt();
+            keepAliveThread = null;
+        }
+    }
+
+    /**
+     * Starts the server processes of the pool in background, so the first parsing
+     * requests do not wait for them.
+     */
+    public void prestartClients() {
+        while (startSpareClient(false)) {
+            // until the pool is full
+        }
+    }
+
+    /**
+     * @return number of server processes alive or being started, not counting
+     *         those already replaced. Must be called holding the lock.
+     */
+    private int getNumClients() {
+        return pool.size() + currentlyInUse + spares.size() + spawning + pinging - replaced;
+    }
+
+    /**
+     * Starts a server process in background, to be used by the next request
+     * finding no idle process in the pool, like a process replacing other which
+     * processed too many files.
+     *
+     * @param replacement
+     *            true if the process will replace one of the pool, which is not
+     *            counted
+     * @return false if there are already enough processes
+     */
+    private boolean startSpareClient(boolean replacement) {
+        synchronized (this) {
+            if (getNumClients() - (replacement ? 1 : 0) >= poolSize) {
+                return false;
+            }
+            spawning++;
+            if (keepAliveThread == null && serverWaitTimeoutMillis > 0) {
+                keepAliveThread = new Thread(this::keepSparesAlive, "ForkParser-KeepAlive");
+                keepAliveThread.setDaemon(true);
+                keepAliveThread.start();
+            }
+        }
+        Thread thread = new Thread("ForkParser-ProcessStarter") {
+            @Override
+            public void run() {
+                ForkClient client = null;
+                try {
+                    client = newClient();
+                } catch (Throwable e) {
+                    LOGGER.warn("Error starting external parsing process", e);
+                }
+                synchronized (ForkParser.this) {
+                    spawning--;
+                    if (client != null) {
+                        if (poolSize > 0) {
+                            spares.offer(client);
+                        } else {
+                            client.close();
+                        }
+                    }
+                    ForkParser.this.notifyAll();
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Pings the spare processes before they reach the server wait timeout, which
+     * would make them exit while waiting for their first request.
+     */
+    private void keepSparesAlive() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(1, serverWaitTimeoutMillis / 2));
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<ForkClient> clients;
+            synchronized (this) {
+                if (poolSize == 0) {
+                    return;
+                }
+                clients = new ArrayList<>(spares);
+                spares.clear();
+                pinging += clients.size();
+            }
+            for (ForkClient client : clients) {
+                boolean alive = client.ping();
+                synchronized (this) {
+                    pinging--;
+                    if (alive && poolSize > 0) {
+                        spares.offer(client);
+                    } else {
+                        client.close();
+                    }
+                    notifyAll();
+                }
+            }
+        }
     }
 
     // patched to concurrently start new clients
@@ -416,8 +555,12 @@ private ForkClient acquireClient() throws IOException, TikaException {
 
             synchronized (this) {
                 client = pool.poll();
-                // Create a new process if there's room in the pool
-                if (client == null && currentlyInUse < poolSize) {
+                if (client == null) {
+                    client = spares.poll();
+                }
+                // Create a new process if there's room in the pool, counting those being
+                // started in background
+                if (client == null && currentlyInUse + spawning < poolSize) {
                     startNew = true;
                 }
                 currentlyInUse++;
@@ -435,6 +578,9 @@ private ForkClient acquireClient() throws IOException, TikaException {
             // Ping the process, and get rid of it if it's inactive
             if (client != null && !client.ping()) {
                 client.close();
+                synchronized (this) {
+                    clientClosed(client);
+                }
                 client = null;
             }
             synchronized (this) {
@@ -443,7 +589,7 @@ private ForkClient acquireClient() throws IOException, TikaException {
 
                 } else {
                     currentlyInUse--;
-                    if (currentlyInUse >= poolSize) {
+                    if (currentlyInUse + spawning >= poolSize) {
                         try {
                             wait(1000);
                         } catch (InterruptedException e) {
@@ -459,28 +605,48 @@ private ForkClient newClient() throws IOException, TikaException {
         TimeoutLimits timeoutLimits = new TimeoutLimits(serverPulseMillis, serverParseTimeoutMillis,
                 serverWaitTimeoutMillis);
         if (loader == null && parser == null && tikaBin != null && parserFactoryFactory != null) {
-            return new ForkClient(tikaBin, pluginDir, parserFactoryFactory, java, timeoutLimits);
+            return new ForkClient(tikaBin, pluginDir, parserFactoryFactory, java, timeoutLimits, useSharedMemory);
         } else if (loader != null && parser != null && tikaBin == null && parserFactoryFactory == null) {
-            return new ForkClient(loader, parser, java, timeoutLimits);
+            return new ForkClient(loader, parser, java, timeoutLimits, useSharedMemory);
         } else if (loader != null && parser == null && tikaBin != null && parserFactoryFactory != null) {
-            return new ForkClient(tikaBin, pluginDir, parserFactoryFactory, loader, java, timeoutLimits);
+            return new ForkClient(tikaBin, pluginDir, parserFactoryFactory, loader, java, timeoutLimits,
+                    useSharedMemory);
         } else {
             // TODO: make this more useful
             throw new IllegalStateException("Unexpected combination of state items");
         }
     }
 
+    /**
+     * Updates the process counters after a process is closed. Must be called
+     * holding the lock.
+     */
+    private void clientClosed(ForkClient client) {
+        if (client.isReplacementStarted()) {
+            replaced--;
+        }
+    }
+
     private synchronized void releaseClient(ForkClient client, boolean alive) {
         currentlyInUse--;
         if (currentlyInUse + pool.size() < poolSize && alive) {
             if (maxFilesProcessedPerClient > 0 && client.getFilesProcessed() >= maxFilesProcessedPerClient) {
                 client.close();
+                clientClosed(client);
             } else {
                 pool.offer(client);
+                // start its replacement before it is recycled, so workers don't wait for it
+                if (maxFilesProcessedPerClient > 0 && !client.isReplacementStarted()
+                        && client.getFilesProcessed() >= maxFilesProcessedPerClient * 0.95
+                        && startSpareClient(true)) {
+                    client.setReplacementStarted();
+                    replaced++;
+                }
             }
             notifyAll();
         } else {
             client.close();
+            clientClosed(client);
         }
     }
 
@@ -16,9 +16,14 @@
  */
 package iped.parsers.fork;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.NotSerializableException;
@@ -56,6 +61,20 @@ class ForkServer implements Runnable {
     public static final byte INIT_LOADER_PARSER = 7;
     public static final byte INIT_PARSER_FACTORY_FACTORY_LOADER = 8;
 
+    /**
+     * Buffer size of the communication channel, SAX events are sent in batches of
+     * up to this size.
+     */
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Max interval to send SAX events buffered in the channel while parsing, so
+     * the parent process keeps receiving the text of slow parsers.
+     */
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+
+    private static SharedMemoryBuffer sharedMemory;
+
     // milliseconds to sleep before checking to see if there has been any
     // reading/writing
     // If no reading or writing in this time, shutdown the server.
@@ -72,7 +91,8 @@ class ForkServer implements Runnable {
      * interfering with the communication channel.
      * 
      * @param args
-     *            command line arguments, ignored
+     *            command line arguments: pulse, parse and wait timeouts and,
+     *            optionally, the path of the buffer shared with the parent process
      * @throws Exception
      *             if the server could not be started
      */
@@ -80,10 +100,15 @@ public static void main(String[] args) throws Exception {
         long serverPulseMillis = Long.parseLong(args[0]);
         long serverParseTimeoutMillis = Long.parseLong(args[1]);
         long serverWaitTimeoutMillis = Long.parseLong(args[2]);
+        if (args.length > 3) {
+            sharedMemory = SharedMemoryBuffer.get(args[3]);
+        }
 
         URL.setURLStreamHandlerFactory(new MemoryURLStreamHandlerFactory());
 
-        ForkServer server = new ForkServer(System.in, System.out, serverPulseMillis, serverParseTimeoutMillis,
+        // raw stdin/stdout, System.out has a 128 bytes buffer and flushes on every array write
+        ForkServer server = new ForkServer(new FileInputStream(FileDescriptor.in),
+                new FileOutputStream(FileDescriptor.out), serverPulseMillis, serverParseTimeoutMillis,
                 serverWaitTimeoutMillis);
         System.setIn(new ByteArrayInputStream(new byte[0]));
         System.setOut(System.err);
@@ -92,6 +117,10 @@ public static void main(String[] args) throws Exception {
         watchdog.setDaemon(true);
         watchdog.start();
 
+        Thread flusher = new Thread(server::flushWhileParsing, "Tika Flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
         server.parsingThread = Thread.currentThread();
         server.processRequests();
     }
@@ -127,8 +156,8 @@ public static void main(String[] args) throws Exception {
      */
     public ForkServer(InputStream input, OutputStream output, long serverPulseMillis, long serverParserTimeoutMillis,
             long serverWaitTimeoutMillis) throws IOException {
-        this.input = new DataInputStream(input);
-        this.output = new DataOutputStream(output);
+        this.input = new DataInputStream(new BufferedInputStream(input, CHANNEL_BUFFER_SIZE));
+        this.output = new DataOutputStream(new BufferedOutputStream(output, CHANNEL_BUFFER_SIZE));
         this.serverPulseMillis = serverPulseMillis;
         this.serverParserTimeoutMillis = serverParserTimeoutMillis;
         this.serverWaitTimeoutMillis = serverWaitTimeoutMillis;
@@ -136,6 +165,13 @@ public ForkServer(InputStream input, OutputStream output, long serverPulseMillis
         this.since = System.currentTimeMillis();
     }
 
+    /**
+     * @return the buffer shared with the parent process, or null if not used.
+     */
+    static SharedMemoryBuffer getSharedMemory() {
+        return sharedMemory;
+    }
+
     public void run() {
         try {
             while (true) {
@@ -159,6 +195,28 @@ public void run() {
         }
     }
 
+    /**
+     * Periodically sends data buffered in the channel while a request is being
+     * processed, even if the parser stops producing events. The buffered stream
+     * is synchronized, so this does not interfere with the parsing thread writes.
+     */
+    private void flushWhileParsing() {
+        try {
+            while (true) {
+                Thread.sleep(FLUSH_INTERVAL_MILLIS);
+                boolean flush;
+                synchronized (lock) {
+                    flush = parsing;
+                }
+                if (flush) {
+                    output.flush();
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            // channel closed
+        }
+    }
+
     public void processRequests() {
         // initialize
         try {
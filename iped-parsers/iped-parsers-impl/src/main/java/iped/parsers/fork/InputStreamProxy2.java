@@ -38,8 +38,14 @@ class InputStreamProxy2 extends InputStream implements ForkProxy {
 
     private File file;
 
+    private String sharedMemoryPath;
+
     private transient TikaInputStream tis;
 
+    private transient byte[] prefetched;
+
+    private transient int prefetchedPos, prefetchedLen;
+
     public TikaInputStream getTikaInputStream() {
         if (file != null && tis == null) {
             try {
@@ -52,7 +58,17 @@ public TikaInputStream getTikaInputStream() {
     }
 
     public InputStreamProxy2(int resource, InputStream is) {
+        this(resource, is, null);
+    }
+
+    /**
+     * @param sharedMemory
+     *            if not null, data is transferred through this buffer, which must
+     *            be shared with the {@link InputStreamResource2} of this resource
+     */
+    public InputStreamProxy2(int resource, InputStream is, SharedMemoryBuffer sharedMemory) {
         this.resource = resource;
+        this.sharedMemoryPath = sharedMemory != null ? sharedMemory.getPath() : null;
 
         if (is instanceof TikaInputStream)
             try {
@@ -75,6 +91,11 @@ public int read() throws IOException {
             return tis.read();
         }
 
+        if (sharedMemoryPath != null) {
+            byte[] b = new byte[1];
+            return readShared(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
         output.writeByte(ForkServer.RESOURCE);
         output.writeByte(resource);
         output.writeInt(1);
@@ -96,6 +117,10 @@ public int read(byte[] b, int off, int len) throws IOException {
             return tis.read(b, off, len);
         }
 
+        if (sharedMemoryPath != null) {
+            return readShared(b, off, len);
+        }
+
         output.writeByte(ForkServer.RESOURCE);
         output.writeByte(resource);
         output.writeInt(len);
@@ -107,6 +132,38 @@ public int read(byte[] b, int off, int len) throws IOException {
         return n;
     }
 
+    /**
+     * Requests as much data as fits into the shared memory buffer, and serves the
+     * following reads from it.
+     */
+    private int readShared(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (prefetchedPos == prefetchedLen) {
+            SharedMemoryBuffer shm = SharedMemoryBuffer.get(sharedMemoryPath);
+            output.writeByte(ForkServer.RESOURCE);
+            output.writeByte(resource);
+            output.writeInt(shm.capacity());
+            output.flush();
+            int n = input.readInt();
+            if (n <= 0) {
+                return n;
+            }
+            if (prefetched == null) {
+                prefetched = new byte[shm.capacity()];
+            }
+            // copy before sending other requests, which could reuse the buffer
+            shm.read(prefetched, 0, n);
+            prefetchedPos = 0;
+            prefetchedLen = n;
+        }
+        int n = Math.min(len, prefetchedLen - prefetchedPos);
+        System.arraycopy(prefetched, prefetchedPos, b, off, n);
+        prefetchedPos += n;
+        return n;
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
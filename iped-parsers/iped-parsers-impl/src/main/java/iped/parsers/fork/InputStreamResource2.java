@@ -21,23 +21,50 @@
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.tika.fork.ForkResource;
 
 class InputStreamResource2 implements ForkResource {
 
     private final InputStream stream;
 
+    private final SharedMemoryBuffer sharedMemory;
+
+    private byte[] buffer;
+
     public InputStreamResource2(InputStream stream) {
+        this(stream, null);
+    }
+
+    /**
+     * @param sharedMemory
+     *            if not null, data is written to this buffer instead of the pipe,
+     *            filling it as much as possible
+     */
+    public InputStreamResource2(InputStream stream, SharedMemoryBuffer sharedMemory) {
         this.stream = stream;
+        this.sharedMemory = sharedMemory;
     }
 
     public Throwable process(DataInputStream input, DataOutputStream output) throws IOException {
 
         int n = input.readInt();
-        byte[] buffer = new byte[n];
+        if (sharedMemory != null) {
+            n = Math.min(n, sharedMemory.capacity());
+        }
+        if (buffer == null || buffer.length < n) {
+            buffer = new byte[n];
+        }
         int m;
         try {
-            m = stream.read(buffer);
+            if (sharedMemory != null) {
+                m = IOUtils.read(stream, buffer, 0, n);
+                if (m == 0 && n > 0) {
+                    m = -1;
+                }
+            } else {
+                m = stream.read(buffer, 0, n);
+            }
 
             // Runtime exceptions are possible, eg: OLEParser
         } catch (Exception e) {
@@ -48,7 +75,11 @@ public Throwable process(DataInputStream input, DataOutputStream output) throws
         }
         output.writeInt(m);
         if (m > 0) {
-            output.write(buffer, 0, m);
+            if (sharedMemory != null) {
+                sharedMemory.write(buffer, 0, m);
+            } else {
+                output.write(buffer, 0, m);
+            }
         }
         output.flush();
         return null;
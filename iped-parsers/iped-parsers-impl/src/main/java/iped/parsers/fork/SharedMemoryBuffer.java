@@ -0,0 +1,118 @@
+package iped.parsers.fork;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memory mapped file shared by the parent process and a forked server, used to
+ * transfer stream contents without copying them through the stdin/stdout pipes.
+ * <p>
+ * The communication protocol is synchronous, so the side serving a read request
+ * writes the data at the beginning of the buffer and replies with its length
+ * through the pipe, and the requesting side copies it out before sending any
+ * other request.
+ */
+class SharedMemoryBuffer implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    private static final Map<String, SharedMemoryBuffer> openBuffers = new ConcurrentHashMap<>();
+
+    private final File file;
+
+    private final RandomAccessFile raf;
+
+    private final MappedByteBuffer buffer;
+
+    private final boolean owner;
+
+    private SharedMemoryBuffer(File file, int capacity, boolean owner) throws IOException {
+        this.file = file;
+        this.owner = owner;
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            if (owner) {
+                raf.setLength(capacity);
+            }
+            this.buffer = raf.getChannel().map(MapMode.READ_WRITE, 0, raf.length());
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new buffer, preferably in /dev/shm, to be shared with a new forked
+     * server. It is deleted when closed.
+     */
+    public static SharedMemoryBuffer create(int capacity) throws IOException {
+        File dir = new File("/dev/shm");
+        if (!dir.isDirectory() || !dir.canWrite()) {
+            dir = null;
+        }
+        File file = File.createTempFile("iped-fork-", ".shm", dir);
+        file.deleteOnExit();
+        SharedMemoryBuffer shm;
+        try {
+            shm = new SharedMemoryBuffer(file, capacity, true);
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        openBuffers.put(shm.getPath(), shm);
+        return shm;
+    }
+
+    /**
+     * @return the buffer mapped to the given path, mapping it if not open yet in
+     *         this process.
+     */
+    public static SharedMemoryBuffer get(String path) throws IOException {
+        SharedMemoryBuffer shm = openBuffers.get(path);
+        if (shm == null) {
+            synchronized (openBuffers) {
+                shm = openBuffers.get(path);
+                if (shm == null) {
+                    shm = new SharedMemoryBuffer(new File(path), 0, false);
+                    openBuffers.put(path, shm);
+                }
+            }
+        }
+        return shm;
+    }
+
+    public String getPath() {
+        return file.getAbsolutePath();
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public void write(byte[] b, int off, int len) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.put(b, off, len);
+    }
+
+    public void read(byte[] b, int off, int len) {
+        ByteBuffer dup = buffer.duplicate();
+        dup.get(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        openBuffers.remove(getPath());
+        raf.close();
+        if (owner) {
+            file.delete();
+        }
+    }
+
+}
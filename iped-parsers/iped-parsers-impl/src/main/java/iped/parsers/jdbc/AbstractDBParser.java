@@ -39,6 +39,7 @@
 import org.xml.sax.SAXException;
 
 import iped.parsers.standard.StandardParser;
+import iped.parsers.util.ParsingDeadline;
 import iped.properties.ExtraProperties;
 
 /**
@@ -91,7 +92,7 @@ private int parseTables(ContentHandler handler, ParseContext context, JDBCTableR
                 extractor.parseEmbedded(is, handler, tableM, false);
             }
 
-        } while (hasNext);
+        } while (hasNext && !ParsingDeadline.isReached(context));
 
         return trg.getTotRows();
 
@@ -142,6 +143,9 @@ public void parse(InputStream stream, ContentHandler handler, Metadata metadata,
             xHandler.endElement("theader");
 
             for (String tableName : tableNames) {
+                if (ParsingDeadline.isReached(context)) {
+                    break;
+                }
                 JDBCTableReader reader = getTableReader(connection, tableName, context);
                 int row_count = parseTables(xHandler, context, reader);
                 xHandler.startElement("tr");
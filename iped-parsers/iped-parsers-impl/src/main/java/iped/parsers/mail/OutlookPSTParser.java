@@ -74,6 +74,7 @@
 import iped.parsers.util.ItemInfo;
 import iped.parsers.util.Messages;
 import iped.parsers.util.MetadataUtil;
+import iped.parsers.util.ParsingDeadline;
 import iped.parsers.util.Util;
 import iped.properties.ExtraProperties;
 import iped.utils.SimpleHTMLEncoder;
@@ -168,7 +169,7 @@ private void safeParse(InputStream stream, ContentHandler handler, Metadata meta
             metadata.set(TikaCoreProperties.TITLE, pstFile.getMessageStore().getDisplayName());
             metadata.set("NumEmails", numEmails + "");
 
-            if (recoverDeleted) {
+            if (recoverDeleted && !ParsingDeadline.isReached(context)) {
                 libpffParser.setExtractOnlyDeleted(true);
                 libpffCalled = true;
                 libpffParser.parse(tis, handler, metadata, context);
@@ -258,7 +259,7 @@ public void walkFolder(PSTFolder folder, String path, long parent) throws Interr
 
                     }
 
-                } while (child != null);
+                } while (child != null && !ParsingDeadline.isReached(context));
             }
 
         } catch (InterruptedException e) {
@@ -273,6 +274,9 @@ public void walkFolder(PSTFolder folder, String path, long parent) throws Interr
             if (folder.hasSubfolders()) {
                 Vector<PSTFolder> childFolders = folder.getSubFolders();
                 for (PSTFolder childFolder : childFolders) {
+                    if (ParsingDeadline.isReached(context)) {
+                        break;
+                    }
                     walkFolder(childFolder, path, parent);
                 }
             }
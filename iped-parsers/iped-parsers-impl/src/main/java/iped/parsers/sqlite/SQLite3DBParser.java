@@ -27,6 +27,7 @@
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -41,7 +42,6 @@
 import iped.parsers.jdbc.AbstractDBParser;
 import iped.parsers.jdbc.JDBCTableReader;
 import iped.parsers.util.DelegatingConnection;
-import iped.properties.BasicProps;
 import iped.search.IItemSearcher;
 import iped.utils.IOUtil;
 
@@ -138,8 +138,9 @@ private static File exportRelatedFile(File theFile, String suffix, ParseContext
             if (parsingItem != null) {
                 String parsingFilePath = parsingItem.getPath();
                 String relatedFileName = parsingItem.getName() + suffix;
-                String relatedFileQuery = BasicProps.PATH + ":\"" + searcher.escapeQuery(parsingFilePath + suffix) + "\"";
-                List<IItemReader> items = searcher.search(relatedFileQuery);
+                String relatedFilePath = parsingFilePath + suffix;
+                List<IItemReader> items = searcher.searchByPaths(Collections.singleton(relatedFilePath))
+                        .getOrDefault(relatedFilePath, Collections.emptyList());
                 if (items.size() > 0) {
                     IItemReader relatedItem = null;
                     // Pick the journal/wal, prioritizing the same deleted status.
@@ -0,0 +1,81 @@
+package iped.parsers.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tika.parser.ParseContext;
+
+/**
+ * Soft parsing deadline, set in the {@link ParseContext} some time before the
+ * hard parsing timeout expires. Container parsers should check it between
+ * entries and, when it is reached, stop extracting new ones and return what was
+ * already parsed, instead of being interrupted by the hard timeout and having
+ * the item reprocessed from scratch by a raw strings parser.
+ * <p>
+ * Like the hard timeout, the budget counts the time since the parser last made
+ * progress (wrote text or extracted a subitem) and is not consumed while
+ * paused.
+ */
+public class ParsingDeadline {
+
+    private final long budgetNanos;
+    private volatile long lastProgress = System.nanoTime();
+    private volatile boolean paused;
+    private volatile boolean reached;
+
+    public ParsingDeadline(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Restarts the budget, must be called when the parser makes progress.
+     */
+    public void progress() {
+        lastProgress = System.nanoTime();
+    }
+
+    public void setPaused(boolean paused) {
+        if (!paused) {
+            lastProgress = System.nanoTime();
+        }
+        this.paused = paused;
+    }
+
+    /**
+     * @return true if the budget was consumed. Once reached, the deadline stays
+     *         reached, so the parser does not resume after stopping some of its
+     *         loops.
+     */
+    public boolean isReached() {
+        if (!reached && !paused && System.nanoTime() - lastProgress >= budgetNanos) {
+            reached = true;
+        }
+        return reached;
+    }
+
+    /**
+     * @return true if the deadline was reached and seen by some parser, so the
+     *         parsed content is probably incomplete.
+     */
+    public boolean wasReached() {
+        return reached;
+    }
+
+    public long getRemainingMillis() {
+        if (reached) {
+            return 0;
+        }
+        if (paused) {
+            return TimeUnit.NANOSECONDS.toMillis(budgetNanos);
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(budgetNanos - (System.nanoTime() - lastProgress)));
+    }
+
+    /**
+     * @return true if there is a deadline in the context and it was reached.
+     */
+    public static boolean isReached(ParseContext context) {
+        ParsingDeadline deadline = context != null ? context.get(ParsingDeadline.class) : null;
+        return deadline != null && deadline.isReached();
+    }
+
+}
@@ -29,6 +29,7 @@
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Comparator;
@@ -75,6 +76,7 @@
 import iped.parsers.sqlite.SQLite3Parser;
 import iped.parsers.standard.StandardParser;
 import iped.parsers.util.ItemInfo;
+import iped.parsers.util.ParsingDeadline;
 import iped.parsers.util.PhoneParsingConfig;
 import iped.parsers.vcard.VCardParser;
 import iped.parsers.whatsapp.LinkDownloader.URLnotFound;
@@ -296,6 +298,9 @@ private void createReport(List<Chat> chatList, IItemSearcher searcher, WAContact
         int chatVirtualId = 0;
         HashMap<String, String> cache = new HashMap<>();
         for (Chat c : chatList) {
+            if (ParsingDeadline.isReached(context)) {
+                break;
+            }
             // sort messages before generating the report
             Message.sort(c.getMessages());
 
@@ -308,7 +313,7 @@ private void createReport(List<Chat> chatList, IItemSearcher searcher, WAContact
             StringBuilder histFrag = new StringBuilder();
             int histFragCount = 0;
             byte[] bytes = reportGenerator.generateNextChatHtml(c, contacts, account, histFragCount, histFrag);
-            while (bytes != null) {
+            while (bytes != null && !ParsingDeadline.isReached(context)) {
                 histFragCount++;
                 Metadata chatMetadata = new Metadata();
                 int nextMsg = reportGenerator.getNextMsgNum();
@@ -893,8 +898,8 @@ private void fillAccountAvatar(WAAccount account, IItemSearcher searcher, String
         filePath += "/files/me.jpg";
         logger.debug("AccountAvatar path: " + filePath);
 
-        String query = BasicProps.PATH + ":\"" + searcher.escapeQuery(filePath) + "\""; //$NON-NLS-1$ //$NON-NLS-2$
-        List<IItemReader> result = searcher.search(query);
+        List<IItemReader> result = searcher.searchByPaths(Collections.singleton(filePath)).getOrDefault(filePath,
+                Collections.emptyList());
         if (!result.isEmpty()) {
             try (InputStream is = result.get(0).getBufferedInputStream()) {
                 ByteArrayOutputStream bos = new ByteArrayOutputStream();
@@ -920,25 +925,22 @@ private WAAccount getUserAccount(IItemSearcher searcher, String dbPath, boolean
         WAAccount account = new WAAccount("unknownAccount");
         account.setUnknown(true);
         if (searcher != null) {
-            StringBuilder query = new StringBuilder();
             // Array with possible WA account file names, order by priority
             String[] names;
+            List<IItemReader> result;
             if (isAndroid) {
                 names = new String[] { "com.whatsapp.w4b_preferences_light.xml", "com.whatsapp_preferences_light.xml",
                         "com.whatsapp.w4b_preferences.xml", "com.whatsapp_preferences.xml",
                         "registration.RegisterPhone.xml", "startup_prefs.xml" };
-                query.append(BasicProps.NAME).append(":(");
-                for (int i = 0; i < names.length; i++) {
-                    query.append(" \"").append(names[i]).append('"');
+                result = new ArrayList<>();
+                for (List<IItemReader> items : searcher.searchByNames(Arrays.asList(names)).values()) {
+                    result.addAll(items);
                 }
-                query.append(')');
             } else {
                 names = new String[] { null };
-                query.append(BasicProps.CONTENTTYPE).append(":\"");
-                query.append(WA_USER_PLIST.toString()).append("\"");
+                result = searcher.search(BasicProps.CONTENTTYPE + ":\"" + WA_USER_PLIST.toString() + "\"");
             }
 
-            List<IItemReader> result = searcher.search(query.toString());
             List<IItemReader> items = getBestItems(result, dbPath, names);
             for (IItemReader item : items) {
                 try (InputStream is = item.getBufferedInputStream()) {
@@ -1188,12 +1190,14 @@ private void getAvatar(IItemSearcher searcher, WAContact contact) {
                     if (avatarFileBase.contains("/")) { //$NON-NLS-1$
                         avatarFileBase = avatarFileBase.substring(avatarFileBase.lastIndexOf('/') + 1); // $NON-NLS-1$
                     }
-                    avatarFileBase = escape(searcher, avatarFileBase);
-                    // Try file .jpg
-                    result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".jpg\""); //$NON-NLS-1$ //$NON-NLS-2$
-                    if (result.isEmpty()) {
-                        // Try file .thumb
-                        result = searcher.search(BasicProps.NAME + ":\"" + avatarFileBase + ".thumb\""); //$NON-NLS-1$ //$NON-NLS-2$
+                    // Try file .jpg, then file .thumb
+                    String jpgName = avatarFileBase + ".jpg"; //$NON-NLS-1$
+                    String thumbName = avatarFileBase + ".thumb"; //$NON-NLS-1$
+                    Map<String, List<IItemReader>> avatars = searcher.searchByNames(Arrays.asList(jpgName, thumbName));
+                    if (avatars.containsKey(jpgName)) {
+                        result = new ArrayList<>(avatars.get(jpgName));
+                    } else if (avatars.containsKey(thumbName)) {
+                        result = new ArrayList<>(avatars.get(thumbName));
                     }
                 }
             }
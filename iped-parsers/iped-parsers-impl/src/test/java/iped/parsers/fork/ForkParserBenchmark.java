@@ -0,0 +1,125 @@
+package iped.parsers.fork;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the time to parse a corpus of Office files with the
+ * {@link ForkParser}, transferring embedded documents content through the
+ * server stdout pipe or through shared memory. The corpus directory may be set
+ * with the "corpusDir" system property, by default the Office files of the
+ * parsers test resources are used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ForkParserBenchmark {
+
+    private static final String[] OFFICE_EXTS = { ".doc", ".docx", ".xls", ".xlsx", ".ppt", ".pptx", ".odt", ".ods",
+            ".odp", ".rtf" };
+
+    @Param({ "false", "true" })
+    private boolean sharedMemory;
+
+    private List<File> corpus = new ArrayList<>();
+    private ForkParser parser;
+
+    private static class ConsumingExtractor implements EmbeddedDocumentExtractor {
+
+        private long bytes;
+
+        @Override
+        public boolean shouldParseEmbedded(Metadata metadata) {
+            return true;
+        }
+
+        @Override
+        public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml)
+                throws SAXException, IOException {
+            bytes += IOUtils.consume(stream);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        File dir = new File(System.getProperty("corpusDir", "src/test/resources/test-files"));
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                for (String ext : OFFICE_EXTS) {
+                    if (file.isFile() && name.endsWith(ext)) {
+                        corpus.add(file);
+                        break;
+                    }
+                }
+            }
+        }
+        if (corpus.isEmpty()) {
+            throw new IllegalStateException("No Office files found in " + dir.getAbsolutePath());
+        }
+        ForkParser.setPoolSize(1);
+        ForkParser.setUseSharedMemory(sharedMemory);
+        parser = new ForkParser(ForkParserBenchmark.class.getClassLoader(), new AutoDetectParser());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        parser.close();
+    }
+
+    @Benchmark
+    public void parseCorpus(Blackhole bh) throws IOException, SAXException, TikaException {
+        ConsumingExtractor extractor = new ConsumingExtractor();
+        for (File file : corpus) {
+            ParseContext context = new ParseContext();
+            context.set(EmbeddedDocumentExtractor.class, extractor);
+            BodyContentHandler handler = new BodyContentHandler(-1);
+            try (TikaInputStream tis = TikaInputStream.get(file.toPath())) {
+                parser.parse(tis, handler, new Metadata(), context);
+            }
+            bh.consume(handler.toString().length());
+        }
+        bh.consume(extractor.bytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ForkParserBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,224 @@
+package iped.parsers.fork;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AbstractParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.ContentHandlerDecorator;
+import org.apache.tika.sax.XHTMLContentHandler;
+import org.junit.Test;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks text and embedded documents content parsed by the {@link ForkParser}
+ * through the buffered pipe and the shared memory transports are the same as
+ * parsing in the same process.
+ */
+public class ForkParserTransportTest extends TestCase {
+
+    private static final int[] EMBEDDED_SIZES = { 0, 1000, 3 * 1024 * 1024 + 17 };
+
+    private static final String EARLY_TEXT = "early text";
+
+    /**
+     * Writes text events of several sizes and extracts embedded documents, after
+     * reading the whole main content.
+     */
+    private static class TestParser extends AbstractParser {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long pauseMillis;
+
+        private TestParser(long pauseMillis) {
+            this.pauseMillis = pauseMillis;
+        }
+
+        @Override
+        public Set<MediaType> getSupportedTypes(ParseContext context) {
+            return Collections.singleton(MediaType.OCTET_STREAM);
+        }
+
+        @Override
+        public void parse(InputStream stream, ContentHandler handler, Metadata metadata, ParseContext context)
+                throws IOException, SAXException, TikaException {
+            byte[] content = IOUtils.toByteArray(stream);
+            XHTMLContentHandler xhtml = new XHTMLContentHandler(handler, metadata);
+            xhtml.startDocument();
+            xhtml.element("p", EARLY_TEXT);
+            if (pauseMillis > 0) {
+                try {
+                    Thread.sleep(pauseMillis);
+                } catch (InterruptedException e) {
+                    throw new TikaException("Interrupted", e);
+                }
+            }
+            xhtml.element("p", new String(content, StandardCharsets.UTF_8));
+            // bigger than a single writeUTF
+            StringBuilder big = new StringBuilder();
+            for (int i = 0; big.length() < 100000; i++) {
+                big.append("big").append(i).append(' ');
+            }
+            xhtml.element("p", big.toString());
+            xhtml.element("p", "");
+            for (int i = 0; i < 10000; i++) {
+                xhtml.characters("w" + i + ' ');
+            }
+
+            EmbeddedDocumentExtractor extractor = context.get(EmbeddedDocumentExtractor.class);
+            for (int i = 0; i < EMBEDDED_SIZES.length; i++) {
+                Metadata embedded = new Metadata();
+                embedded.set(TikaCoreProperties.RESOURCE_NAME_KEY, "embedded" + i);
+                if (extractor.shouldParseEmbedded(embedded)) {
+                    extractor.parseEmbedded(new ByteArrayInputStream(newData(EMBEDDED_SIZES[i], i)), xhtml,
+                            embedded, false);
+                }
+            }
+            xhtml.endDocument();
+        }
+    }
+
+    /**
+     * Records the MD5 of the content of each embedded document, not serializable
+     * so it stays in the parent process.
+     */
+    private static class RecordingExtractor implements EmbeddedDocumentExtractor {
+
+        private final Map<String, String> hashes = new TreeMap<>();
+
+        @Override
+        public boolean shouldParseEmbedded(Metadata metadata) {
+            return true;
+        }
+
+        @Override
+        public void parseEmbedded(InputStream stream, ContentHandler handler, Metadata metadata, boolean outputHtml)
+                throws SAXException, IOException {
+            try {
+                MessageDigest md5 = MessageDigest.getInstance("MD5");
+                byte[] buf = new byte[8192];
+                int read;
+                while ((read = stream.read(buf)) != -1) {
+                    md5.update(buf, 0, read);
+                }
+                hashes.put(metadata.get(TikaCoreProperties.RESOURCE_NAME_KEY), Hex.encodeHexString(md5.digest()));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Records when the first text is received.
+     */
+    private static class TimingHandler extends ContentHandlerDecorator {
+
+        private long firstTextTime;
+
+        private TimingHandler(ContentHandler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (firstTextTime == 0 && new String(ch, start, length).contains(EARLY_TEXT)) {
+                firstTextTime = System.currentTimeMillis();
+            }
+            super.characters(ch, start, length);
+        }
+    }
+
+    private static byte[] newData(int len, long seed) {
+        byte[] data = new byte[len];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static class Result {
+
+        private String text;
+        private Map<String, String> embedded;
+        private long firstTextTime, endTime;
+    }
+
+    private static Result parse(org.apache.tika.parser.Parser parser) throws Exception {
+        RecordingExtractor extractor = new RecordingExtractor();
+        ParseContext context = new ParseContext();
+        context.set(EmbeddedDocumentExtractor.class, extractor);
+        BodyContentHandler body = new BodyContentHandler(-1);
+        TimingHandler handler = new TimingHandler(body);
+        byte[] content = "main document content\nsecond line".getBytes(StandardCharsets.UTF_8);
+        try (TikaInputStream tis = TikaInputStream.get(content)) {
+            parser.parse(tis, handler, new Metadata(), context);
+        }
+        Result result = new Result();
+        result.endTime = System.currentTimeMillis();
+        result.firstTextTime = handler.firstTextTime;
+        result.text = body.toString();
+        result.embedded = extractor.hashes;
+        return result;
+    }
+
+    private static Result forkParse(TestParser parser, boolean sharedMemory) throws Exception {
+        ForkParser.setPoolSize(1);
+        ForkParser.setUseSharedMemory(sharedMemory);
+        ForkParser forkParser = new ForkParser(ForkParserTransportTest.class.getClassLoader(), parser);
+        try {
+            return parse(forkParser);
+        } finally {
+            forkParser.close();
+            ForkParser.setUseSharedMemory(false);
+        }
+    }
+
+    private static void assertSameResult(Result expected, Result result) {
+        assertEquals(expected.text, result.text);
+        assertEquals(EMBEDDED_SIZES.length, result.embedded.size());
+        assertEquals(expected.embedded, result.embedded);
+    }
+
+    @Test
+    public void testPipeTransport() throws Exception {
+        TestParser parser = new TestParser(0);
+        assertSameResult(parse(parser), forkParse(parser, false));
+    }
+
+    @Test
+    public void testSharedMemoryTransport() throws Exception {
+        TestParser parser = new TestParser(0);
+        assertSameResult(parse(parser), forkParse(parser, true));
+    }
+
+    @Test
+    public void testTextOfPausedParserIsFlushed() throws Exception {
+        TestParser parser = new TestParser(2000);
+        Result result = forkParse(parser, false);
+        assertSameResult(parse(new TestParser(0)), result);
+        // received while the server was paused, not only at endDocument
+        assertTrue(result.firstTextTime > 0);
+        assertTrue(result.endTime - result.firstTextTime >= 1000);
+    }
+
+}
@@ -0,0 +1,70 @@
+package iped.parsers.util;
+
+import org.apache.tika.parser.ParseContext;
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ParsingDeadlineTest extends TestCase {
+
+    @Test
+    public void testReachedAfterBudget() throws InterruptedException {
+        ParsingDeadline deadline = new ParsingDeadline(100);
+        assertFalse(deadline.isReached());
+        assertFalse(deadline.wasReached());
+        assertTrue(deadline.getRemainingMillis() > 0);
+
+        Thread.sleep(150);
+        // only seen when some parser checks it
+        assertFalse(deadline.wasReached());
+        assertTrue(deadline.isReached());
+        assertTrue(deadline.wasReached());
+        assertEquals(0, deadline.getRemainingMillis());
+
+        // stays reached after new progress
+        deadline.progress();
+        assertTrue(deadline.isReached());
+    }
+
+    @Test
+    public void testProgressRestartsBudget() throws InterruptedException {
+        ParsingDeadline deadline = new ParsingDeadline(300);
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            deadline.progress();
+            assertFalse(deadline.isReached());
+        }
+        Thread.sleep(350);
+        assertTrue(deadline.isReached());
+    }
+
+    @Test
+    public void testPausedDoesNotConsumeBudget() throws InterruptedException {
+        ParsingDeadline deadline = new ParsingDeadline(100);
+        deadline.setPaused(true);
+        Thread.sleep(150);
+        assertFalse(deadline.isReached());
+        assertEquals(100, deadline.getRemainingMillis());
+
+        // restarts when resumed
+        deadline.setPaused(false);
+        assertFalse(deadline.isReached());
+        Thread.sleep(150);
+        assertTrue(deadline.isReached());
+    }
+
+    @Test
+    public void testReachedFromContext() throws InterruptedException {
+        assertFalse(ParsingDeadline.isReached(null));
+        ParseContext context = new ParseContext();
+        assertFalse(ParsingDeadline.isReached(context));
+
+        ParsingDeadline deadline = new ParsingDeadline(50);
+        context.set(ParsingDeadline.class, deadline);
+        assertFalse(ParsingDeadline.isReached(context));
+        Thread.sleep(100);
+        assertTrue(ParsingDeadline.isReached(context));
+        assertTrue(deadline.wasReached());
+    }
+
+}
@@ -0,0 +1,187 @@
+package iped.utils;
+
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.StampedLock;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Process wide cache of fixed size blocks read from data source streams, shared
+ * by all threads, so blocks read again by other tasks or by parsers revisiting
+ * the same pages (e.g. PST, SQLite) are not decoded again from the image.
+ * <p>
+ * The cache is bounded by the total bytes of the cached blocks. Eviction uses
+ * the caffeine frequency based policy, so blocks not read again do not flush
+ * frequently used ones. Evicted block buffers are pooled and reused for new
+ * blocks.
+ * <p>
+ * Blocks are keyed by item and offset inside the item content, not by image
+ * offset: file system items are mapped to image blocks inside sleuthkit, which
+ * does not expose that mapping to the readers. Repeated reads come from tasks and
+ * parsers reading the same item again, so that key catches them. Image blocks
+ * shared by different items, like hard links, are cached once per item.
+ * <p>
+ * It is disabled by default, see {@link #setMaxSize(long)}.
+ */
+public class BlockCache {
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    public static final long DEFAULT_MAX_SIZE = Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 16);
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    private static volatile long maxSize = 0;
+
+    private static final ArrayBlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private static final Cache<BlockKey, Block> cache = Caffeine.newBuilder()
+            .maximumWeight(0)
+            .weigher((BlockKey key, Block block) -> block.data.length)
+            .evictionListener((BlockKey key, Block block, RemovalCause cause) -> {
+                if (block != null) {
+                    block.recycle();
+                }
+            })
+            .recordStats()
+            .build();
+
+    static class BlockKey {
+
+        private final String source;
+        private final long block;
+
+        BlockKey(String source, long block) {
+            this.source = source;
+            this.block = block;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + Long.hashCode(block);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) obj;
+            return block == other.block && Objects.equals(source, other.source);
+        }
+    }
+
+    /**
+     * Cached block. Readers copy data out optimistically and validate the copy,
+     * because the buffer may be recycled to another block after eviction.
+     */
+    private static class Block {
+
+        private final byte[] data;
+        private final int length;
+        private final StampedLock lock = new StampedLock();
+
+        private Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        private void recycle() {
+            // never released, so copies started before recycling are not validated
+            lock.writeLock();
+            releaseBuffer(data);
+        }
+    }
+
+    /**
+     * Sets the max bytes of cached blocks, 0 disables the cache.
+     */
+    public static void setMaxSize(long bytes) {
+        maxSize = Math.max(0, bytes);
+        cache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(maxSize));
+        if (maxSize == 0) {
+            cache.invalidateAll();
+        }
+    }
+
+    public static long getMaxSize() {
+        return maxSize;
+    }
+
+    public static boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * @return a buffer of {@link #BLOCK_SIZE} bytes, reused if possible.
+     */
+    static byte[] getBuffer() {
+        byte[] buffer = bufferPool.poll();
+        return buffer != null ? buffer : new byte[BLOCK_SIZE];
+    }
+
+    /**
+     * Returns a buffer not referenced anymore to the pool.
+     */
+    static void releaseBuffer(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+
+    /**
+     * Copies data of a cached block.
+     *
+     * @return number of bytes copied, -1 if blockOff is at or after the end of
+     *         the last block, or -2 if the block is not cached.
+     */
+    static int read(String source, long blockIdx, int blockOff, byte[] b, int off, int len) {
+        Block block = cache.getIfPresent(new BlockKey(source, blockIdx));
+        if (block == null) {
+            return -2;
+        }
+        long stamp = block.lock.tryOptimisticRead();
+        int n = Math.min(len, block.length - blockOff);
+        if (n > 0) {
+            System.arraycopy(block.data, blockOff, b, off, n);
+        }
+        if (!block.lock.validate(stamp)) {
+            // evicted and recycled while copying
+            return -2;
+        }
+        return n > 0 ? n : -1;
+    }
+
+    /**
+     * Caches a block, which takes ownership of the buffer. Callers must not read
+     * the buffer after this.
+     */
+    static void put(String source, long blockIdx, byte[] buffer, int length) {
+        if (maxSize > 0) {
+            cache.put(new BlockKey(source, blockIdx), new Block(buffer, length));
+        } else {
+            releaseBuffer(buffer);
+        }
+    }
+
+    static long getCachedBytes() {
+        cache.cleanUp();
+        return cache.policy().eviction().get().weightedSize().orElse(0);
+    }
+
+    public static long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    public static long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    public static double getHitRatio() {
+        CacheStats stats = cache.stats();
+        return stats.requestCount() == 0 ? 0 : stats.hitRate();
+    }
+
+}
@@ -0,0 +1,99 @@
+package iped.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import iped.io.SeekableInputStream;
+
+/**
+ * Seekable stream over a ByteBuffer, e.g. a view of a memory mapped file, so
+ * content can be read without being copied to the heap first. The buffer
+ * position and limit are not changed.
+ */
+public class ByteBufferSeekableInputStream extends SeekableInputStream {
+
+    private final ByteBuffer buffer;
+    private int position = 0;
+    private boolean closed = false;
+
+    public ByteBufferSeekableInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    private void checkIfClosed() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed"); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkIfClosed();
+        if (len == 0) {
+            return 0;
+        }
+        int remaining = buffer.limit() - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int n = Math.min(len, remaining);
+        // absolute bulk get is Java 13+, so use a duplicate to be thread safe
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(position);
+        dup.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkIfClosed();
+        if (position >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get(position++) & 0xFF;
+    }
+
+    @Override
+    public int available() throws IOException {
+        checkIfClosed();
+        return Math.max(0, buffer.limit() - position);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        checkIfClosed();
+        if (n <= 0) {
+            return 0;
+        }
+        int skipped = (int) Math.min(n, Math.max(0, buffer.limit() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        checkIfClosed();
+        if (pos < 0) {
+            throw new IOException("Negative position " + pos); //$NON-NLS-1$
+        }
+        position = (int) Math.min(pos, buffer.limit());
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkIfClosed();
+        return position;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return buffer.limit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+
+}
@@ -0,0 +1,201 @@
+package iped.utils;
+
+import java.io.IOException;
+
+import iped.io.SeekableInputStream;
+
+/**
+ * Reads the wrapped stream by aligned blocks through the process wide
+ * {@link BlockCache}. The wrapped stream is just accessed on cache misses.
+ * <p>
+ * Reads of at least {@link BlockCache#BLOCK_SIZE} bytes go straight to the
+ * wrapped stream, so they are not split into many block requests. Small reads
+ * scanning the stream sequentially use a private block of this stream after a
+ * few sequential misses, instead of filling the cache with blocks that will not
+ * be read again.
+ */
+public class CachingSeekableInputStream extends SeekableInputStream {
+
+    /**
+     * Consecutive missed blocks, in order, to consider the stream is being
+     * scanned sequentially.
+     */
+    private static final int SEQUENTIAL_MISSES = 4;
+
+    private final SeekableInputStream in;
+    private final String source;
+    private long position = 0;
+    // position of the wrapped stream, so it is not seeked needlessly
+    private long inPosition = -1;
+    private long size = -1;
+
+    private long lastMissedBlock = -2;
+    private int sequentialMisses = 0;
+
+    private byte[] privateBlock;
+    private int privateBlockLen;
+    private long privateBlockIdx = -1;
+
+    /**
+     * @param in
+     *            stream to be cached
+     * @param source
+     *            unique identifier of the stream content, used as cache key
+     */
+    public CachingSeekableInputStream(SeekableInputStream in, String source) {
+        this.in = in;
+        this.source = source;
+    }
+
+    private void seekIn(long pos) throws IOException {
+        if (inPosition == -1) {
+            inPosition = in.position();
+        }
+        if (inPosition != pos) {
+            in.seek(pos);
+            inPosition = pos;
+        }
+    }
+
+    private int readDirect(byte[] b, int off, int len) throws IOException {
+        seekIn(position);
+        int n;
+        try {
+            n = in.read(b, off, len);
+        } catch (IOException e) {
+            inPosition = -1;
+            throw e;
+        }
+        if (n > 0) {
+            position += n;
+            inPosition += n;
+        }
+        return n;
+    }
+
+    /**
+     * Reads a whole block from the wrapped stream, or less if it ends.
+     */
+    private int readBlock(long blockIdx, byte[] block) throws IOException {
+        seekIn(blockIdx * BlockCache.BLOCK_SIZE);
+        int read = 0, r;
+        try {
+            while (read < block.length && (r = in.read(block, read, block.length - read)) != -1) {
+                read += r;
+            }
+        } catch (IOException e) {
+            inPosition = -1;
+            throw e;
+        }
+        inPosition += read;
+        return read;
+    }
+
+    private int copy(byte[] block, int blockLen, int blockOff, byte[] b, int off, int len) {
+        int n = Math.min(len, blockLen - blockOff);
+        if (n <= 0) {
+            return -1;
+        }
+        System.arraycopy(block, blockOff, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private void releasePrivateBlock() {
+        if (privateBlock != null) {
+            BlockCache.releaseBuffer(privateBlock);
+            privateBlock = null;
+            privateBlockIdx = -1;
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (len >= BlockCache.BLOCK_SIZE) {
+            return readDirect(b, off, len);
+        }
+        long blockIdx = position / BlockCache.BLOCK_SIZE;
+        int blockOff = (int) (position - blockIdx * BlockCache.BLOCK_SIZE);
+        if (blockIdx == privateBlockIdx) {
+            return copy(privateBlock, privateBlockLen, blockOff, b, off, len);
+        }
+        int n = BlockCache.read(source, blockIdx, blockOff, b, off, len);
+        if (n != -2) {
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+
+        if (blockIdx == lastMissedBlock + 1) {
+            sequentialMisses++;
+        } else {
+            sequentialMisses = 0;
+        }
+        lastMissedBlock = blockIdx;
+
+        byte[] block = privateBlock != null ? privateBlock : BlockCache.getBuffer();
+        privateBlock = null;
+        privateBlockIdx = -1;
+        int blockLen = readBlock(blockIdx, block);
+        n = copy(block, blockLen, blockOff, b, off, len);
+        if (sequentialMisses >= SEQUENTIAL_MISSES || blockLen == 0) {
+            privateBlock = block;
+            privateBlockLen = blockLen;
+            privateBlockIdx = blockIdx;
+        } else {
+            BlockCache.put(source, blockIdx, block, blockLen);
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int i;
+        while ((i = read(b, 0, 1)) == 0)
+            ;
+        return i == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, Math.max(0, size() - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative position " + pos); //$NON-NLS-1$
+        }
+        position = pos;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public long size() throws IOException {
+        if (size == -1) {
+            size = in.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        releasePrivateBlock();
+        in.close();
+    }
+
+}
@@ -20,6 +20,18 @@ public boolean checkIfDataSourceExists() {
 
     public abstract SeekableInputStream getSeekableInputStream(String identifier) throws IOException;
 
+    /**
+     * Wraps a stream of the data source to read it through the shared
+     * {@link BlockCache}, if the cache is enabled. Should be used by factories
+     * whose reads are expensive, like image decoding or decompression.
+     */
+    protected SeekableInputStream withBlockCache(String identifier, SeekableInputStream in) {
+        if (!BlockCache.isEnabled()) {
+            return in;
+        }
+        return new CachingSeekableInputStream(in, dataSource + "#" + identifier); //$NON-NLS-1$
+    }
+
     public URI getDataSourceURI() {
         return dataSource;
     }
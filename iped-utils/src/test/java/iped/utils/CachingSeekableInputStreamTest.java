@@ -0,0 +1,188 @@
+package iped.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingSeekableInputStreamTest {
+
+    private static final int BLOCK = BlockCache.BLOCK_SIZE;
+
+    private static int sourceCount = 0;
+
+    private static class CountingStream extends ByteBufferSeekableInputStream {
+
+        private int reads, sizes;
+
+        private CountingStream(byte[] data) {
+            super(ByteBuffer.wrap(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            reads++;
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public long size() throws IOException {
+            sizes++;
+            return super.size();
+        }
+    }
+
+    private static byte[] randomData(int len) {
+        byte[] data = new byte[len];
+        new Random(len).nextBytes(data);
+        return data;
+    }
+
+    private static CachingSeekableInputStream open(CountingStream in) {
+        return new CachingSeekableInputStream(in, "test#" + sourceCount++);
+    }
+
+    private static byte[] readFully(CachingSeekableInputStream is, long pos, int len) throws IOException {
+        is.seek(pos);
+        byte[] b = new byte[len];
+        int read = 0, r;
+        while (read < len && (r = is.read(b, read, len - read)) != -1) {
+            read += r;
+        }
+        assertEquals(len, read);
+        return b;
+    }
+
+    private static byte[] slice(byte[] data, long pos, int len) {
+        byte[] b = new byte[len];
+        System.arraycopy(data, (int) pos, b, 0, len);
+        return b;
+    }
+
+    @Before
+    public void enableCache() {
+        BlockCache.setMaxSize(64 * BLOCK);
+    }
+
+    @After
+    public void disableCache() {
+        BlockCache.setMaxSize(0);
+    }
+
+    @Test
+    public void testReadsAcrossBlockEdges() throws IOException {
+        byte[] data = randomData(5 * BLOCK + 1234);
+        try (CachingSeekableInputStream is = open(new CountingStream(data))) {
+            for (int i = 1; i <= 5; i++) {
+                long pos = (long) i * BLOCK - 10;
+                assertArrayEquals(slice(data, pos, 100), readFully(is, pos, 100));
+            }
+            // same blocks again, backwards, from the cache
+            for (int i = 5; i >= 1; i--) {
+                long pos = (long) i * BLOCK - 3;
+                assertArrayEquals(slice(data, pos, 7), readFully(is, pos, 7));
+                assertEquals(data[(int) pos + 7] & 0xFF, is.read());
+            }
+            Random random = new Random(0);
+            for (int i = 0; i < 1000; i++) {
+                int len = 1 + random.nextInt(2 * BLOCK);
+                long pos = random.nextInt(data.length - len);
+                assertArrayEquals(slice(data, pos, len), readFully(is, pos, len));
+                assertEquals(pos + len, is.position());
+            }
+        }
+        assertTrue(BlockCache.getHitCount() > 0);
+    }
+
+    @Test
+    public void testEndOfStream() throws IOException {
+        byte[] data = randomData(3 * BLOCK + 100);
+        CountingStream in = new CountingStream(data);
+        try (CachingSeekableInputStream is = open(in)) {
+            byte[] b = new byte[1000];
+            is.seek(data.length - 10);
+            assertEquals(10, is.read(b, 0, b.length));
+            assertArrayEquals(slice(data, data.length - 10, 10), slice(b, 0, 10));
+            assertEquals(-1, is.read(b, 0, b.length));
+            assertEquals(-1, is.read());
+
+            // cached last block
+            is.seek(data.length - 1);
+            assertEquals(data[data.length - 1] & 0xFF, is.read());
+            assertEquals(-1, is.read(b, 0, b.length));
+
+            // after the end, in the last block and in the next ones
+            is.seek(data.length + 5);
+            assertEquals(-1, is.read(b, 0, b.length));
+            is.seek(10L * BLOCK);
+            assertEquals(-1, is.read(b, 0, b.length));
+            assertEquals(-1, is.read(new byte[2 * BLOCK], 0, 2 * BLOCK));
+
+            // size is only asked when needed
+            assertEquals(0, in.sizes);
+            is.seek(data.length - 10);
+            assertEquals(10, is.skip(100));
+            assertEquals(1, in.sizes);
+        }
+    }
+
+    @Test
+    public void testLargeReadsAreNotSplit() throws IOException {
+        byte[] data = randomData(40 * BLOCK);
+        CountingStream in = new CountingStream(data);
+        try (CachingSeekableInputStream is = open(in)) {
+            byte[] b = new byte[16 * BLOCK];
+            is.seek(BLOCK / 2);
+            assertEquals(b.length, is.read(b, 0, b.length));
+            assertArrayEquals(slice(data, BLOCK / 2, b.length), b);
+            assertEquals(1, in.reads);
+            assertEquals(0, in.sizes);
+        }
+    }
+
+    @Test
+    public void testSequentialScanBypassesCache() throws IOException {
+        BlockCache.setMaxSize(0);
+        BlockCache.setMaxSize(64 * BLOCK);
+        byte[] data = randomData(40 * BLOCK);
+        CountingStream in = new CountingStream(data);
+        try (CachingSeekableInputStream is = open(in)) {
+            byte[] b = new byte[8192];
+            int pos = 0, r;
+            while ((r = is.read(b, 0, b.length)) != -1) {
+                assertArrayEquals(slice(data, pos, r), slice(b, 0, r));
+                pos += r;
+            }
+            assertEquals(data.length, pos);
+            // one wrapped stream read per block, not per small read
+            assertTrue(in.reads <= 41);
+        }
+        assertTrue(BlockCache.getCachedBytes() <= 5 * BLOCK);
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        int maxBlocks = 8;
+        BlockCache.setMaxSize(maxBlocks * BLOCK);
+        byte[] data = randomData(64 * BLOCK);
+        try (CachingSeekableInputStream is = open(new CountingStream(data))) {
+            Random random = new Random(1);
+            for (int i = 0; i < 2000; i++) {
+                // random small reads, so blocks are cached and evicted
+                int len = 1 + random.nextInt(1000);
+                long pos = random.nextInt(data.length - len);
+                assertArrayEquals(slice(data, pos, len), readFully(is, pos, len));
+            }
+        }
+        assertTrue(BlockCache.getCachedBytes() <= maxBlocks * BLOCK);
+        assertTrue(BlockCache.getCachedBytes() > 0);
+    }
+
+}